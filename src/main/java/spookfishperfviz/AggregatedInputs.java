@@ -0,0 +1,265 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the parts of the input files whose records were added to a
+ * {@linkplain RollupStore}, so that aggregating the same files again, for
+ * e.g. from a periodic job, adds only the lines appended to them since,
+ * instead of adding all their records again.
+ * <p>
+ * The part of an uncompressed file that is aggregated ends with its last
+ * complete line, since the last line may still be being written. A part is
+ * identified by its contents rather than by the path of the file, i.e. by
+ * its length, a hash of its first block and a hash of blocks sampled across
+ * it, as in {@linkplain RawFileCache}. Hence a log that is renamed by log
+ * rotation after being aggregated is still recognized, and only the lines
+ * appended to it before the rotation are aggregated. A compressed file is
+ * aggregated whole, only once.
+ * <p>
+ * The parts are recorded after the rollups are written, so the records of a
+ * run that fails in between are added again by the next run.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class AggregatedInputs {
+
+	private static final int MAGIC = 0x53504B41; // "SPKA"
+	private static final int VERSION = 1;
+
+	private static final String FILE_NAME = "inputs";
+
+	private static final int HEAD_SIZE = 4 * 1024;
+
+	/**
+	 * @return the parts recorded in the directory, none if there is no record
+	 *         of them.
+	 * @throws IOException
+	 *             if the record is corrupt.
+	 */
+	static AggregatedInputs read(final Path dir) throws IOException {
+
+		final Path file = dir.resolve(FILE_NAME);
+		final List<Entry> entries = new ArrayList<>();
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));) {
+
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+				throw new IOException("<" + file + "> is not a record of aggregated inputs of version <" + VERSION + ">");
+			}
+
+			for (int i = in.readInt(); i > 0; i--) {
+				final long end = in.readLong();
+				entries.add(new Entry(end, readHash(in), readHash(in)));
+			}
+
+		} catch (final NoSuchFileException e) {
+			// nothing aggregated yet
+		} catch (final EOFException e) {
+			throw new IOException("<" + file + "> is truncated", e);
+		}
+
+		return new AggregatedInputs(file, entries);
+	}
+
+	private final Path file;
+	private final List<Entry> entries;
+
+	private AggregatedInputs(final Path file, final List<Entry> entries) {
+		this.file = file;
+		this.entries = entries;
+	}
+
+	/**
+	 * @return the part of the file that follows the longest part of it that
+	 *         was aggregated, or null if there is nothing more to aggregate.
+	 * @throws IOException
+	 *             if the file is compressed, and its beginning was aggregated
+	 *             as a shorter file.
+	 */
+	Part findNewPart(final File file, final boolean gzipped) throws IOException {
+
+		final long size = file.length();
+		final byte[] head = readHead(file, size);
+
+		Entry previous = null;
+
+		for (final Entry entry : this.entries) {
+			if ((entry.end <= size) && ((previous == null) || (entry.end > previous.end)) && 
+					Arrays.equals(entry.headHash, hashHead(head, entry.end)) && 
+					Arrays.equals(entry.sampleHash, Utils.hashSamples(file, entry.end))) {
+				previous = entry;
+			}
+		}
+
+		final long start = previous == null ? 0 : previous.end;
+		final long end;
+
+		if (gzipped) {
+
+			if (start == size) {
+				return null;
+			}
+
+			if (start > 0) {
+				throw new IOException("<" + file + "> was aggregated before, when it was <" + start + "> bytes long. " + 
+						"Data appended to a compressed file can not be aggregated alone.");
+			}
+
+			end = size;
+
+		} else {
+			end = MappedFileLineReader.findEndOfLastLine(file, start, size);
+
+			if (end <= start) {
+				return null;
+			}
+		}
+
+		return new Part(file, start, new Entry(end, hashHead(head, end), Utils.hashSamples(file, end)), previous);
+	}
+
+	/**
+	 * Records the parts, in place of the parts that they follow, which they
+	 * include.
+	 */
+	void addAll(final List<Part> parts) throws IOException {
+
+		for (final Part part : parts) {
+			if (part.previous != null) {
+				this.entries.remove(part.previous);
+			}
+			this.entries.add(part.entry);
+		}
+
+		final List<Entry> entries = this.entries;
+
+		Utils.writeAtomically(this.file, new PathWriter() {
+			@Override
+			public void writeTo(final Path tmpFile) throws IOException {
+
+				try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)));) {
+
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeInt(entries.size());
+
+					for (final Entry entry : entries) {
+						out.writeLong(entry.end);
+						out.write(entry.headHash);
+						out.write(entry.sampleHash);
+					}
+				}
+			}
+		});
+	}
+
+	private static byte[] readHead(final File file, final long size) throws IOException {
+
+		final byte[] head = new byte[(int) Math.min(size, HEAD_SIZE)];
+
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r");) {
+			raf.readFully(head);
+		}
+
+		return head;
+	}
+
+	/**
+	 * @return the hash of the head of a part that ends at <code>end</code>.
+	 */
+	private static byte[] hashHead(final byte[] head, final long end) {
+		final MessageDigest digest = Utils.newSha1();
+		digest.update(head, 0, (int) Math.min(end, head.length));
+		return digest.digest();
+	}
+
+	private static byte[] readHash(final DataInputStream in) throws IOException {
+		final byte[] hash = new byte[Utils.newSha1().getDigestLength()];
+		in.readFully(hash);
+		return hash;
+	}
+
+	/**
+	 * The beginning of a file that was aggregated, up to <code>end</code>.
+	 */
+	private static final class Entry {
+
+		final long end;
+		final byte[] headHash;
+		final byte[] sampleHash;
+
+		Entry(final long end, final byte[] headHash, final byte[] sampleHash) {
+			this.end = end;
+			this.headHash = headHash;
+			this.sampleHash = sampleHash;
+		}
+	}
+
+	/**
+	 * The part of a file between byte offsets, both of them line boundaries
+	 * for an uncompressed file, that is to be aggregated.
+	 */
+	static final class Part {
+
+		private final File file;
+		private final long start;
+		private final Entry entry;
+
+		/**
+		 * The part aggregated before that this part follows, or null.
+		 */
+		private final Entry previous;
+
+		Part(final File file, final long start, final Entry entry, final Entry previous) {
+			this.file = file;
+			this.start = start;
+			this.entry = entry;
+			this.previous = previous;
+		}
+
+		File getFile() {
+			return this.file;
+		}
+
+		long getStart() {
+			return this.start;
+		}
+
+		long getEnd() {
+			return this.entry.end;
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a range of bytes of a {@linkplain ByteBuffer} as characters, one
+ * byte per character. Valid only for ASCII bytes, which every supported
+ * charset decodes to the same characters. The view can be moved to another
+ * range, so that a single instance serves all the lines of a file.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class AsciiCharSequence implements CharSequence {
+
+	private ByteBuffer buffer;
+	private int offset;
+	private int length;
+
+	AsciiCharSequence() {
+		//
+	}
+
+	/**
+	 * @param start
+	 *            absolute index of the first byte in the buffer.
+	 * @param end
+	 *            absolute index that follows the last byte.
+	 */
+	void set(final ByteBuffer buffer, final int start, final int end) {
+		this.buffer = buffer;
+		this.offset = start;
+		this.length = end - start;
+	}
+
+	@Override
+	public int length() {
+		return this.length;
+	}
+
+	@Override
+	public char charAt(final int index) {
+
+		if ((index < 0) || (index >= this.length)) {
+			throw new IndexOutOfBoundsException("index = <" + index + ">, length = <" + this.length + ">");
+		}
+
+		return (char) this.buffer.get(this.offset + index);
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end) {
+		return toString(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return toString(0, this.length);
+	}
+
+	private String toString(final int start, final int end) {
+
+		if ((start < 0) || (end > this.length) || (start > end)) {
+			throw new IndexOutOfBoundsException("start = <" + start + ">, end = <" + end + ">, length = <" + this.length + ">");
+		}
+
+		final char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) this.buffer.get(this.offset + start + i);
+		}
+
+		return new String(chars);
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * How the columns of a {@linkplain ColumnarRecordStore} are encoded.
+ * 
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+enum ColumnEncoding {
+
+	/**
+	 * 8 bytes per value. Fastest to read.
+	 */
+	PLAIN,
+
+	/**
+	 * Delta-of-delta timestamps and XOR encoded latencies, in independently
+	 * decodable segments.
+	 * 
+	 * @see GorillaCodec
+	 */
+	GORILLA;
+}
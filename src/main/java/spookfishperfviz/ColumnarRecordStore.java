@@ -0,0 +1,495 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stores records in a file with one section per event type. A section holds
+ * the timestamps of the event type in one contiguous column, followed by its
+ * latencies in another.
+ *
+ * <pre>
+ * int      magic
+ * int      version
+ * UTF      header, for e.g. identifying the source of the records
+ * UTF      column encoding
+ *          (padding up to a multiple of 8 bytes)
+ * column   timestamps of event type 1   \
+ * column   latencies of event type 1    | sections
+ * ...                                   /
+ * int      number of event types        \
+ * UTF      name of event type 1         |
+ * int      number of records            | directory
+ * ...      timestamps column descriptor |
+ * ...      latencies column descriptor  |
+ * ...                                   /
+ * long     offset of directory
+ * </pre>
+ *
+ * With {@linkplain ColumnEncoding#PLAIN} a column is an array of 8 byte
+ * values, and its descriptor is its offset. Columns are read by memory mapping
+ * them and copying them into arrays in bulk, without decoding values one at a
+ * time.
+ * <p>
+ * With {@linkplain ColumnEncoding#GORILLA} a column is a sequence of
+ * segments of {@value #SEGMENT_SIZE} values each, except the last, encoded by
+ * {@linkplain GorillaCodec}. Its descriptor is its offset followed by the
+ * number of 8 byte words in each segment. Segments are independent of each
+ * other, hence they can be decoded in parallel.
+ * <p>
+ * Columns are in little endian byte order, which is the native order of
+ * common hardware, and are aligned to 8 bytes. The directory is at the end, so
+ * that the columns can be written as soon as each event type is encoded.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class ColumnarRecordStore {
+
+	private static final int MAGIC = 0x53504B43;
+	private static final int VERSION = 2;
+
+	private static final ByteOrder COLUMN_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Columns larger than this are mapped in several parts, since a single
+	 * mapping cannot exceed 2 GB.
+	 */
+	private static final int MAX_MAPPED_VALUES = 1 << 27;
+
+	static final int SEGMENT_SIZE = 1 << 16;
+
+	private ColumnarRecordStore() {
+		//
+	}
+
+	static void write(final Path file, final String header, final Map<String, EventRecords> data, final ColumnEncoding encoding) throws IOException {
+
+		try (final FileOutputStream fos = new FileOutputStream(file.toFile());
+				final DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, IO_BUFFER_SIZE));) {
+
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeUTF(header);
+			dos.writeUTF(encoding.name());
+			dos.flush();
+
+			long position = fos.getChannel().position();
+
+			while ((position % 8) != 0) {
+				dos.writeByte(0);
+				position++;
+			}
+
+			final ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+			final DataOutputStream directory = new DataOutputStream(directoryBytes);
+			directory.writeInt(data.size());
+
+			final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(COLUMN_BYTE_ORDER);
+
+			for (final Entry<String, EventRecords> entry : data.entrySet()) {
+
+				final EventRecords records = entry.getValue();
+				final int count = records.size();
+				final long[] timestamps = records.getTimestamps();
+				final double[] latencies = records.getLatencies();
+
+				directory.writeUTF(entry.getKey());
+				directory.writeInt(count);
+
+				switch (encoding) {
+
+				case PLAIN:
+					directory.writeLong(position);
+					writeLongs(dos, buffer, timestamps);
+					position += count * 8L;
+
+					directory.writeLong(position);
+					writeDoubles(dos, buffer, latencies);
+					position += count * 8L;
+					break;
+
+				case GORILLA:
+					position = writeTimestampSegments(dos, buffer, timestamps, position, directory);
+					position = writeLatencySegments(dos, buffer, latencies, position, directory);
+					break;
+
+				default:
+					throw new IllegalArgumentException("Internal error: Illegal column encoding <" + encoding + ">");
+				}
+			}
+
+			directory.flush();
+			directoryBytes.writeTo(dos);
+			dos.writeLong(position);
+		}
+	}
+
+	/**
+	 * @return the position after the column.
+	 */
+	private static long writeTimestampSegments(	final DataOutputStream out,
+												final ByteBuffer buffer,
+												final long[] timestamps,
+												final long position,
+												final DataOutputStream directory) throws IOException {
+
+		directory.writeLong(position);
+
+		long end = position;
+
+		for (int from = 0; from < timestamps.length; from += SEGMENT_SIZE) {
+			final long[] words = GorillaCodec.encodeTimestamps(timestamps, from, Math.min(timestamps.length, from + SEGMENT_SIZE));
+
+			directory.writeInt(words.length);
+			writeLongs(out, buffer, words);
+			end += words.length * 8L;
+		}
+
+		return end;
+	}
+
+	/**
+	 * @return the position after the column.
+	 */
+	private static long writeLatencySegments(	final DataOutputStream out,
+												final ByteBuffer buffer,
+												final double[] latencies,
+												final long position,
+												final DataOutputStream directory) throws IOException {
+
+		directory.writeLong(position);
+
+		long end = position;
+
+		for (int from = 0; from < latencies.length; from += SEGMENT_SIZE) {
+			final long[] words = GorillaCodec.encodeLatencies(latencies, from, Math.min(latencies.length, from + SEGMENT_SIZE));
+
+			directory.writeInt(words.length);
+			writeLongs(out, buffer, words);
+			end += words.length * 8L;
+		}
+
+		return end;
+	}
+
+	/**
+	 * @param decodeThreads
+	 *            number of threads used to decode segments of columns encoded
+	 *            with {@linkplain ColumnEncoding#GORILLA}.
+	 *
+	 * @return the records, or null if the file was not written by this class,
+	 *         or with a different header, or is truncated.
+	 */
+	static Map<String, EventRecords> read(final Path file, final String expectedHeader, final int decodeThreads) throws IOException {
+
+		try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);) {
+
+			// not closed, since that would close the channel
+			final DataInputStream headerStream = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+			if ((headerStream.readInt() != MAGIC) || (headerStream.readInt() != VERSION) || !expectedHeader.equals(headerStream.readUTF())) {
+				return null;
+			}
+
+			final ColumnEncoding encoding;
+			try {
+				encoding = ColumnEncoding.valueOf(headerStream.readUTF());
+			} catch (final IllegalArgumentException e) {
+				return null;
+			}
+
+			final long size = channel.size();
+			final long directoryOffset = readLong(channel, size - 8);
+
+			if ((directoryOffset < 0) || (directoryOffset > (size - 8)) || ((size - 8 - directoryOffset) > Integer.MAX_VALUE)) {
+				return null;
+			}
+
+			final DataInputStream directory = new DataInputStream(new ByteArrayInputStream(readBytes(channel, directoryOffset, (int) (size - 8 - directoryOffset))));
+
+			final int eventTypeCount = directory.readInt();
+			final Map<String, EventRecords> data = new TreeMap<>();
+			final List<DecodeTask> decodeTasks = new ArrayList<>();
+
+			for (int i = 0; i < eventTypeCount; i++) {
+
+				final String eventType = directory.readUTF();
+				final int count = directory.readInt();
+
+				if (count < 0) {
+					return null;
+				}
+
+				final long[] timestamps = new long[count];
+				final double[] latencies = new double[count];
+
+				switch (encoding) {
+
+				case PLAIN: {
+					final long timestampsOffset = directory.readLong();
+					final long latenciesOffset = directory.readLong();
+					final long columnSize = count * 8L;
+
+					if (!isWithin(timestampsOffset, columnSize, directoryOffset) || !isWithin(latenciesOffset, columnSize, directoryOffset)) {
+						return null;
+					}
+
+					readLongs(channel, timestampsOffset, timestamps);
+					readDoubles(channel, latenciesOffset, latencies);
+					break;
+				}
+
+				case GORILLA:
+					if (!addTimestampDecodeTasks(channel, directory, directoryOffset, timestamps, decodeTasks)
+							|| !addLatencyDecodeTasks(channel, directory, directoryOffset, latencies, decodeTasks)) {
+						return null;
+					}
+					break;
+
+				default:
+					throw new IllegalArgumentException("Internal error: Illegal column encoding <" + encoding + ">");
+				}
+
+				data.put(eventType, EventRecords.create(timestamps, latencies));
+			}
+
+			runAll(decodeTasks, decodeThreads);
+
+			return data;
+
+		} catch (final EOFException e) {
+			return null;
+		}
+	}
+
+	private static boolean isWithin(final long offset, final long length, final long end) {
+		return (offset >= 0) && (length >= 0) && ((offset + length) <= end);
+	}
+
+	/**
+	 * @return false if the column descriptor is not valid.
+	 */
+	private static boolean addTimestampDecodeTasks(	final FileChannel channel,
+													final DataInputStream directory,
+													final long directoryOffset,
+													final long[] timestamps,
+													final List<DecodeTask> decodeTasks) throws IOException {
+
+		long segmentOffset = directory.readLong();
+
+		for (int from = 0; from < timestamps.length; from += SEGMENT_SIZE) {
+
+			final int to = Math.min(timestamps.length, from + SEGMENT_SIZE);
+			final int wordCount = directory.readInt();
+
+			if (!isWithin(segmentOffset, wordCount * 8L, directoryOffset)) {
+				return false;
+			}
+
+			final int segmentFrom = from;
+			final long offset = segmentOffset;
+
+			decodeTasks.add(new DecodeTask() {
+				@Override
+				public Void call() throws IOException {
+					GorillaCodec.decodeTimestamps(readWords(channel, offset, wordCount), timestamps, segmentFrom, to);
+					return null;
+				}
+			});
+
+			segmentOffset += wordCount * 8L;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return false if the column descriptor is not valid.
+	 */
+	private static boolean addLatencyDecodeTasks(	final FileChannel channel,
+													final DataInputStream directory,
+													final long directoryOffset,
+													final double[] latencies,
+													final List<DecodeTask> decodeTasks) throws IOException {
+
+		long segmentOffset = directory.readLong();
+
+		for (int from = 0; from < latencies.length; from += SEGMENT_SIZE) {
+
+			final int to = Math.min(latencies.length, from + SEGMENT_SIZE);
+			final int wordCount = directory.readInt();
+
+			if (!isWithin(segmentOffset, wordCount * 8L, directoryOffset)) {
+				return false;
+			}
+
+			final int segmentFrom = from;
+			final long offset = segmentOffset;
+
+			decodeTasks.add(new DecodeTask() {
+				@Override
+				public Void call() throws IOException {
+					GorillaCodec.decodeLatencies(readWords(channel, offset, wordCount), latencies, segmentFrom, to);
+					return null;
+				}
+			});
+
+			segmentOffset += wordCount * 8L;
+		}
+
+		return true;
+	}
+
+	private static void runAll(final List<DecodeTask> tasks, final int threadCount) throws IOException {
+
+		if ((threadCount <= 1) || (tasks.size() <= 1)) {
+			for (final DecodeTask task : tasks) {
+				task.call();
+			}
+			return;
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, tasks.size()));
+
+		try {
+			final List<Future<Void>> futures = new ArrayList<>(tasks.size());
+
+			for (final DecodeTask task : tasks) {
+				futures.add(executor.submit(task));
+			}
+
+			for (final Future<Void> future : futures) {
+				Utils.getResult(future);
+			}
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static long[] readWords(final FileChannel channel, final long offset, final int wordCount) throws IOException {
+
+		final long[] words = new long[wordCount];
+		readLongs(channel, offset, words);
+
+		return words;
+	}
+
+	private static void readLongs(final FileChannel channel, final long offset, final long[] values) throws IOException {
+
+		for (int i = 0; i < values.length; i += MAX_MAPPED_VALUES) {
+			final int count = Math.min(MAX_MAPPED_VALUES, values.length - i);
+			map(channel, offset + (i * 8L), count).asLongBuffer().get(values, i, count);
+		}
+	}
+
+	private static void readDoubles(final FileChannel channel, final long offset, final double[] values) throws IOException {
+
+		for (int i = 0; i < values.length; i += MAX_MAPPED_VALUES) {
+			final int count = Math.min(MAX_MAPPED_VALUES, values.length - i);
+			map(channel, offset + (i * 8L), count).asDoubleBuffer().get(values, i, count);
+		}
+	}
+
+	private static ByteBuffer map(final FileChannel channel, final long offset, final int valueCount) throws IOException {
+		return channel.map(MapMode.READ_ONLY, offset, valueCount * 8L).order(COLUMN_BYTE_ORDER);
+	}
+
+	private static long readLong(final FileChannel channel, final long offset) throws IOException {
+		return ByteBuffer.wrap(readBytes(channel, offset, 8)).getLong();
+	}
+
+	private static byte[] readBytes(final FileChannel channel, final long offset, final int length) throws IOException {
+
+		if (offset < 0) {
+			throw new EOFException();
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+
+		return buffer.array();
+	}
+
+	private static void writeLongs(final DataOutputStream out, final ByteBuffer buffer, final long[] values) throws IOException {
+
+		final int perBuffer = buffer.capacity() / 8;
+
+		for (int offset = 0; offset < values.length; offset += perBuffer) {
+			final int count = Math.min(perBuffer, values.length - offset);
+
+			buffer.clear();
+			buffer.asLongBuffer().put(values, offset, count);
+			out.write(buffer.array(), 0, count * 8);
+		}
+	}
+
+	private static void writeDoubles(final DataOutputStream out, final ByteBuffer buffer, final double[] values) throws IOException {
+
+		final int perBuffer = buffer.capacity() / 8;
+
+		for (int offset = 0; offset < values.length; offset += perBuffer) {
+			final int count = Math.min(perBuffer, values.length - offset);
+
+			buffer.clear();
+			buffer.asDoubleBuffer().put(values, offset, count);
+			out.write(buffer.array(), 0, count * 8);
+		}
+	}
+
+	/**
+	 * Decodes a segment of a column into its part of the array of the column.
+	 */
+	private static abstract class DecodeTask implements Callable<Void> {
+		@Override
+		public abstract Void call() throws IOException;
+	}
+}
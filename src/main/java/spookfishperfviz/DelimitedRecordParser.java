@@ -0,0 +1,184 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.TimeZone;
+
+/**
+ * Parses lines made up of columns separated by a delimiter character, for
+ * e.g. CSV or TSV files. The columns are located by scanning the line once,
+ * without using regular expressions. Quoted columns are not supported.
+ * <p>
+ * Column indices begin at 0. A timestamp that itself contains the delimiter,
+ * for e.g. <code>2014-11-20 10:00:00.123</code> in a space separated file,
+ * can be made to span more than one column.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public final class DelimitedRecordParser extends RecordParser {
+
+	public static RecordParser create(	final LineFilter lineFilter,
+										final char delimiter,
+										final int timestampColumn,
+										final int timestampColumnCount,
+										final int eventNameColumn,
+										final int latencyColumn,
+										final String timestampPattern,
+										final TimeZone timeZone) {
+
+		return new DelimitedRecordParser(lineFilter, delimiter, timestampColumn, timestampColumnCount, eventNameColumn, latencyColumn, timestampPattern, timeZone);
+	}
+
+	private final LineFilter lineFilter;
+	private final char delimiter;
+	private final int timestampColumn;
+	private final int timestampLastColumn;
+	private final int eventNameColumn;
+	private final int latencyColumn;
+	private final int lastColumn;
+	private final TimestampParser timestampParser;
+
+	// Bounds of the columns of the line being parsed. Reused to avoid creating objects per line.
+	private int timestampStart, timestampEnd;
+	private int eventNameStart, eventNameEnd;
+	private int latencyStart, latencyEnd;
+
+	private DelimitedRecordParser(	final LineFilter lineFilter,
+									final char delimiter,
+									final int timestampColumn,
+									final int timestampColumnCount,
+									final int eventNameColumn,
+									final int latencyColumn,
+									final String timestampPattern,
+									final TimeZone timeZone) {
+
+		if ((timestampColumn < 0) || (timestampColumnCount < 1) || (eventNameColumn < 0) || (latencyColumn < 0)) {
+			throw new IllegalArgumentException("timestampColumn = <" + timestampColumn + ">, timestampColumnCount = <" + timestampColumnCount +
+					">, eventNameColumn = <" + eventNameColumn + ">, latencyColumn = <" + latencyColumn + ">");
+		}
+
+		this.lineFilter = lineFilter;
+		this.delimiter = delimiter;
+		this.timestampColumn = timestampColumn;
+		this.timestampLastColumn = (timestampColumn + timestampColumnCount) - 1;
+		this.eventNameColumn = eventNameColumn;
+		this.latencyColumn = latencyColumn;
+		this.lastColumn = Math.max(this.timestampLastColumn, Math.max(eventNameColumn, latencyColumn));
+		this.timestampParser = TimestampParser.create(timestampPattern, timeZone);
+	}
+
+	@Override
+	protected final boolean isIgnore(final String line) {
+		return this.lineFilter.isIgnore(line);
+	}
+
+	@Override
+	protected final boolean isIgnore(final CharSequence line) {
+		return this.lineFilter.isIgnore(line);
+	}
+
+	@Override
+	protected final Record parse(final String line) {
+
+		try {
+			findColumns(line);
+
+			final long timestamp = this.timestampParser.parse(line, this.timestampStart, this.timestampEnd);
+			final String eventName = line.substring(this.eventNameStart, this.eventNameEnd);
+			final double latency = Utils.parseDouble(line, this.latencyStart, this.latencyEnd);
+
+			return new Record(eventName, timestamp, latency);
+
+		} catch (final Exception e) {
+			throw new RuntimeException("Error while parsing line <" + line + ">", e);
+		}
+	}
+
+	@Override
+	protected final void parse(final CharSequence line, final RecordSink sink) {
+
+		final long timestamp;
+		final double latency;
+
+		try {
+			findColumns(line);
+
+			timestamp = this.timestampParser.parse(line, this.timestampStart, this.timestampEnd);
+			latency = Utils.parseDouble(line, this.latencyStart, this.latencyEnd);
+
+		} catch (final Exception e) {
+			throw new RuntimeException("Error while parsing line <" + line + ">", e);
+		}
+
+		sink.accept(line, this.eventNameStart, this.eventNameEnd, timestamp, latency);
+	}
+
+	/**
+	 * Sets the start and end of the columns of interest.
+	 */
+	private void findColumns(final CharSequence line) {
+
+		final char delimiter = this.delimiter;
+		final int lastColumn = this.lastColumn;
+		final int len = line.length();
+
+		int column = 0;
+		int columnStart = 0;
+		boolean allColumnsFound = false;
+
+		for (int i = 0; i <= len; i++) {
+
+			if ((i < len) && (line.charAt(i) != delimiter)) {
+				continue;
+			}
+
+			// i is the end of a column
+
+			if (column == this.timestampColumn) {
+				this.timestampStart = columnStart;
+			}
+
+			if (column == this.timestampLastColumn) {
+				this.timestampEnd = i;
+			}
+
+			if (column == this.eventNameColumn) {
+				this.eventNameStart = columnStart;
+				this.eventNameEnd = i;
+			}
+
+			if (column == this.latencyColumn) {
+				this.latencyStart = columnStart;
+				this.latencyEnd = i;
+			}
+
+			if (column == lastColumn) {
+				allColumnsFound = true;
+				break;
+			}
+
+			column++;
+			columnStart = i + 1;
+		}
+
+		if (!allColumnsFound) {
+			throw new RuntimeException("Line has " + column + " columns, expected at least " + (lastColumn + 1));
+		}
+	}
+}
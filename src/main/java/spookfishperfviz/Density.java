@@ -17,17 +17,27 @@
 
 package spookfishperfviz;
 
-import java.lang.reflect.Array;
 import java.util.Arrays;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
 
 /**
+ * Counts of values in the cells of a grid, whose rows are the intervals
+ * between the row interval points and whose columns are the intervals
+ * between the column interval points. The first and the last rows and
+ * columns are open ended. A value equal to an interval point belongs to the
+ * interval below it.
+ * <p>
+ * The interval points are kept in sorted primitive arrays and the counts in
+ * a single array, row after row, so that adding a value allocates nothing.
+ * The interval of a value is found by arithmetic if the interval points are
+ * evenly spaced, as they mostly are, and by a binary search otherwise.
+ *
  * @author Rahul Bakale
  * @since Nov, 2014
  */
-final class Density<R extends Comparable<R>, C extends Comparable<C>, V> {
+final class Density {
 	
 	static final class IndexedDataPoint<C extends Comparable<C>> implements Comparable<IndexedDataPoint<C>> {
 		
@@ -121,71 +131,222 @@ final class Density<R extends Comparable<R>, C extends Comparable<C>, V> {
 		return points;
 	}
 
-	private static <T extends Comparable<T>> int calculateIndex(final T t, final NavigableSet<IndexedDataPoint<T>> set) {
-		return set.lower(IndexedDataPoint.createFinite(t)).getIndex();
+	static Density create(final Set<Double> rowIntervalPoints, final Set<Long> columnIntervalPoints) {
+		return new Density(rowIntervalPoints, columnIntervalPoints);
 	}
 
-	static <R extends Comparable<R>, C extends Comparable<C>, V> Density<R, C, V> create(final Set<R> rowIntervalPoints,
-			final Set<C> columnIntervalPoints, final V nullValue, final Class<V> valueType) {
-		return new Density<>(rowIntervalPoints, columnIntervalPoints, nullValue, valueType);
+	private final double[] rowIntervalPoints;
+	private final long[] columnIntervalPoints;
+
+	/**
+	 * True if the interval points are evenly spaced, within half a step, so
+	 * that the interval computed from the first point and the step is off by
+	 * at most one.
+	 */
+	private final boolean evenRows;
+	private final boolean evenColumns;
+
+	private final int rowCount;
+	private final int columnCount;
+
+	/**
+	 * Row after row.
+	 */
+	private final long[] counts;
+
+	private Density(final Set<Double> rowIntervalPoints, final Set<Long> columnIntervalPoints) {
+
+		final double[] rip = new double[rowIntervalPoints.size()];
+		int i = 0;
+		for (final Double point : rowIntervalPoints) {
+			rip[i++] = point.doubleValue();
+		}
+		Arrays.sort(rip);
+
+		final long[] cip = new long[columnIntervalPoints.size()];
+		int j = 0;
+		for (final Long point : columnIntervalPoints) {
+			cip[j++] = point.longValue();
+		}
+		Arrays.sort(cip);
+
+		this.rowIntervalPoints = rip;
+		this.columnIntervalPoints = cip;
+		this.evenRows = isEvenlySpaced(rip);
+		this.evenColumns = isEvenlySpaced(cip);
+		this.rowCount = rip.length + 1;
+		this.columnCount = cip.length + 1;
+		this.counts = new long[this.rowCount * this.columnCount];
 	}
 
-	private final NavigableSet<IndexedDataPoint<R>> rowIntervalPoints;
-	private final NavigableSet<IndexedDataPoint<C>> columnIntervalPoints;
+	private static boolean isEvenlySpaced(final double[] points) {
 
-	private final V[][] matrix;
+		final int n = points.length;
 
-	private Density(final Set<R> rowIntervalPoints, final Set<C> columnIntervalPoints, final V nullValue, final Class<V> valueType) {
-		
-		final NavigableSet<IndexedDataPoint<C>> cip = sortAndIndex(columnIntervalPoints);
-		final NavigableSet<IndexedDataPoint<R>> rip = sortAndIndex(rowIntervalPoints);
+		if (n < 2) {
+			return false;
+		}
 
-		final int rowCount = rip.size() - 1;
-		final int colCount = cip.size() - 1;
+		final double first = points[0];
+		final double step = (points[n - 1] - first) / (n - 1);
 
-		final V[][] matrix = (V[][]) Array.newInstance(valueType, rowCount, colCount);
+		if (!(step > 0) || Double.isInfinite(step)) {
+			return false;
+		}
 
-		for (int r = 0; r < rowCount; r++) {
-			for (int c = 0; c < colCount; c++) {
-				matrix[r][c] = nullValue;
+		for (int i = 0; i < n; i++) {
+			if (!(Math.abs(points[i] - (first + (i * step))) <= (step / 2))) {
+				return false;
 			}
 		}
 
-		this.columnIntervalPoints = cip;
-		this.rowIntervalPoints = rip;
+		return true;
+	}
+
+	private static boolean isEvenlySpaced(final long[] points) {
+
+		final int n = points.length;
+
+		if (n < 2) {
+			return false;
+		}
+
+		final double first = points[0];
+		final double step = ((double) points[n - 1] - first) / (n - 1);
+
+		if (!(step > 0)) {
+			return false;
+		}
+
+		for (int i = 0; i < n; i++) {
+			if (!(Math.abs(points[i] - (first + (i * step))) <= (step / 2))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the number of interval points less than <code>value</code>,
+	 *         which is the index of its interval. Values are compared as by
+	 *         {@linkplain Double#compare(double, double)}.
+	 */
+	private static int indexOf(final double value, final double[] points, final boolean evenlySpaced) {
 
-		this.matrix = matrix;
+		final int n = points.length;
+
+		if (!evenlySpaced) {
+			final int i = Arrays.binarySearch(points, value);
+			return i >= 0 ? i : -(i + 1);
+		}
+
+		final double first = points[0];
+		final double step = (points[n - 1] - first) / (n - 1);
+		final double guess = Math.ceil((value - first) / step);
+
+		// NaN and values out of range are brought within [0, n] and corrected below
+		int i = guess > 0 ? (int) Math.min(n, guess) : 0;
+
+		while ((i < n) && (Double.compare(points[i], value) < 0)) {
+			i++;
+		}
+
+		while ((i > 0) && (Double.compare(points[i - 1], value) >= 0)) {
+			i--;
+		}
+
+		return i;
 	}
 
-	void apply(final R row, final C column, final UnaryOperator<V> operator) {
-		final int rowNum = calculateIndex(row, this.rowIntervalPoints);
-		final int columnNum = calculateIndex(column, this.columnIntervalPoints);
+	/**
+	 * @return the number of interval points less than <code>value</code>,
+	 *         which is the index of its interval.
+	 */
+	private static int indexOf(final long value, final long[] points, final boolean evenlySpaced) {
 
-		this.matrix[rowNum][columnNum] = operator.apply(this.matrix[rowNum][columnNum]);
+		final int n = points.length;
+
+		if (!evenlySpaced) {
+			final int i = Arrays.binarySearch(points, value);
+			return i >= 0 ? i : -(i + 1);
+		}
+
+		final double first = points[0];
+		final double step = ((double) points[n - 1] - first) / (n - 1);
+		final double guess = Math.ceil(((double) value - first) / step);
+
+		int i = guess > 0 ? (int) Math.min(n, guess) : 0;
+
+		while ((i < n) && (points[i] < value)) {
+			i++;
+		}
+
+		while ((i > 0) && (points[i - 1] >= value)) {
+			i--;
+		}
+
+		return i;
+	}
+
+	void add(final double row, final long column, final long count) {
+		final int rowNum = indexOf(row, this.rowIntervalPoints, this.evenRows);
+		final int columnNum = indexOf(column, this.columnIntervalPoints, this.evenColumns);
+
+		this.counts[(rowNum * this.columnCount) + columnNum] += count;
 	}
 
 	@Override
 	public String toString() {
 		final String NL = System.lineSeparator();
 
-		String str = "Points on X axis=" + this.columnIntervalPoints + NL + "Points on Y axis=" + this.rowIntervalPoints + NL;
+		String str = "Points on X axis=" + getColumnIntervalPoints() + NL + "Points on Y axis=" + getRowIntervalPoints() + NL;
 
-		for (final V[] row : this.matrix) {
-			str += Arrays.deepToString(row) + NL;
+		for (final long[] row : getMatrix()) {
+			str += Arrays.toString(row) + NL;
 		}
 		return str;
 	}
 
-	V[][] getMatrix() {
-		return this.matrix;
+	/**
+	 * @return the counts, row after row.
+	 */
+	long[] getCounts() {
+		return this.counts;
+	}
+
+	/**
+	 * @return a copy of the counts, by row and column.
+	 */
+	long[][] getMatrix() {
+
+		final long[][] matrix = new long[this.rowCount][];
+
+		for (int r = 0; r < this.rowCount; r++) {
+			matrix[r] = Arrays.copyOfRange(this.counts, r * this.columnCount, (r + 1) * this.columnCount);
+		}
+
+		return matrix;
 	}
 
-	NavigableSet<IndexedDataPoint<R>> getRowIntervalPoints() {
-		return this.rowIntervalPoints;
+	NavigableSet<IndexedDataPoint<Double>> getRowIntervalPoints() {
+
+		final Set<Double> points = new TreeSet<>();
+		for (final double point : this.rowIntervalPoints) {
+			points.add(Double.valueOf(point));
+		}
+
+		return sortAndIndex(points);
 	}
 
-	NavigableSet<IndexedDataPoint<C>> getColumnIntervalPoints() {
-		return this.columnIntervalPoints;
+	NavigableSet<IndexedDataPoint<Long>> getColumnIntervalPoints() {
+
+		final Set<Long> points = new TreeSet<>();
+		for (final long point : this.columnIntervalPoints) {
+			points.add(Long.valueOf(point));
+		}
+
+		return sortAndIndex(points);
 	}
 
 }
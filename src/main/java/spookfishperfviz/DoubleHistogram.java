@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Histogram of primitive doubles. The interval of a value is found by a
+ * binary search of the sorted interval points, and counted in a primitive
+ * array, so the data is gone through once, without boxing, however many
+ * intervals there are. The data can also be counted a block at a time. The intervals, their labels and the charts are the
+ * same as those of {@linkplain Histogram2}, i.e. each interval includes its
+ * lower bound, and the first and the last intervals are open ended.
+ *
+ * @author Rahul Bakale
+ * @since Nov, 2014
+ */
+final class DoubleHistogram extends Histogram<Double> {
+
+	/**
+	 * @param counts
+	 *            number of times each datum occurs, or null if each occurs
+	 *            once.
+	 */
+	static DoubleHistogram newInstance(final double[] data, final long[] counts, final double[] intervalPoints) {
+		final DoubleHistogram histogram = new DoubleHistogram(intervalPoints);
+		histogram.add(data, counts);
+		return histogram;
+	}
+
+	/**
+	 * @return the histogram of the latencies of the blocks.
+	 */
+	static DoubleHistogram newInstance(final RecordBlocks blocks, final double[] intervalPoints) throws IOException {
+
+		final DoubleHistogram histogram = new DoubleHistogram(intervalPoints);
+
+		blocks.forEachBlock(new RecordSpill.BlockSink() {
+			@Override
+			public void accept(final String eventType, final long[] timestamps, final double[] latencies) {
+				histogram.add(latencies, null);
+			}
+		});
+
+		return histogram;
+	}
+
+	static DoubleHistogram newInstance(final double[] data, final int nIntervalPoints) {
+		final double[] minMax = Utils.minMax(data);
+		return newInstance(data, null, Utils.createIntervalPoints(minMax[0], minMax[1], nIntervalPoints));
+	}
+
+	/**
+	 * Sorted, without duplicates.
+	 */
+	private final double[] intervalPoints;
+
+	/**
+	 * One more than the interval points.
+	 */
+	private final long[] counts;
+
+	private DoubleHistogram(final double[] intervalPoints) {
+
+		final double[] points = sortUnique(intervalPoints);
+
+		this.intervalPoints = points;
+		this.counts = new long[points.length + 1];
+	}
+
+	private void add(final double[] data, final long[] counts) {
+
+		final double[] points = this.intervalPoints;
+		final long[] hist = this.counts;
+
+		for (int i = 0; i < data.length; i++) {
+			hist[indexOf(data[i], points)] += counts == null ? 1 : counts[i];
+		}
+	}
+
+	private static double[] sortUnique(final double[] values) {
+
+		final double[] sorted = Utils.sort(values);
+		int n = 0;
+
+		for (final double value : sorted) {
+			if ((n == 0) || (Double.compare(sorted[n - 1], value) != 0)) {
+				sorted[n++] = value;
+			}
+		}
+
+		return Arrays.copyOf(sorted, n);
+	}
+
+	/**
+	 * @return the number of interval points not greater than
+	 *         <code>value</code>, which is the index of its interval. Values
+	 *         are compared as by {@linkplain Double#compare(double, double)}.
+	 */
+	private static int indexOf(final double value, final double[] points) {
+		final int i = Arrays.binarySearch(points, value);
+		return i >= 0 ? i + 1 : -(i + 1);
+	}
+
+	@Override
+	public String toString() {
+		return toBarChart(null).toString();
+	}
+
+	@Override
+	String toString(final Function<Double, String> dataPointFormatter, final int maxHeight, final String mark) {
+		return toBarChart(dataPointFormatter).toString(maxHeight, mark);
+	}
+
+	@Override
+	String toSVG(final Function<Double, String> dataPointFormatter, final boolean wrapInHtmlBody, final ColorRampScheme colorRampScheme) {
+		return toBarChart(dataPointFormatter).toSVG(wrapInHtmlBody, colorRampScheme);
+	}
+
+	private HorizontalBarChart toBarChart(final Function<Double, String> dataPointFormatter) {
+		final int size = this.counts.length;
+
+		final String[] intervalLabels = new String[size];
+		final int[] data = new int[size];
+
+		DataPoint<Double> low = DataPoint.createNegativeInfinite();
+
+		for (int k = 0; k < size; k++) {
+
+			final DataPoint<Double> high = k < this.intervalPoints.length ? 
+					DataPoint.createFinite(Double.valueOf(this.intervalPoints[k])) : DataPoint.<Double> createPositiveInfinite();
+
+			intervalLabels[k] = "[" + low.toString(dataPointFormatter) + ',' + high.toString(dataPointFormatter) + "]";
+
+			if (this.counts[k] > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Count of interval <" + intervalLabels[k] + "> is too large: <" + this.counts[k] + ">");
+			}
+
+			data[k] = (int) this.counts[k];
+			low = high;
+		}
+
+		return toBarChart(intervalLabels, data);
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+
+/**
+ * Gives each event name a small int id, numbered from 0 in the order in which
+ * the names are first seen. Names are looked up by the characters between a
+ * start and an end index of a line, so a String is created only the first
+ * time a name is seen.
+ * <p>
+ * Ids are kept in an open addressing hash table, along with the hash of each
+ * name by id, so that a lookup mostly compares the characters of one name.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class EventDictionary {
+
+	private static final int EMPTY = -1;
+	private static final int INITIAL_CAPACITY = 64;
+
+	static EventDictionary create() {
+		return new EventDictionary();
+	}
+
+	private int[] table;
+	private String[] names;
+	private int[] hashes;
+	private int size;
+
+	private EventDictionary() {
+		this.table = newTable(INITIAL_CAPACITY);
+		this.names = new String[INITIAL_CAPACITY / 2];
+		this.hashes = new int[INITIAL_CAPACITY / 2];
+	}
+
+	/**
+	 * @return the id of the name, which is added if not seen before.
+	 */
+	int getId(final CharSequence text, final int start, final int end) {
+
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = (31 * h) + text.charAt(i);
+		}
+
+		final int[] table = this.table;
+		final int mask = table.length - 1;
+
+		int slot = mix(h) & mask;
+
+		while (true) {
+
+			final int id = table[slot];
+
+			if (id == EMPTY) {
+				return add(text.subSequence(start, end).toString(), h, slot);
+			}
+
+			if ((this.hashes[id] == h) && matches(this.names[id], text, start, end)) {
+				return id;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	String getName(final int id) {
+
+		if ((id < 0) || (id >= this.size)) {
+			throw new IllegalArgumentException("id = <" + id + ">, size = <" + this.size + ">");
+		}
+
+		return this.names[id];
+	}
+
+	private int add(final String name, final int hash, final int slot) {
+
+		final int id = this.size;
+
+		if (id == this.names.length) {
+			this.names = Arrays.copyOf(this.names, id * 2);
+			this.hashes = Arrays.copyOf(this.hashes, id * 2);
+		}
+
+		this.names[id] = name;
+		this.hashes[id] = hash;
+		this.table[slot] = id;
+		this.size = id + 1;
+
+		// at most half full, so that probe sequences stay short
+		if ((this.size * 2) > this.table.length) {
+			rehash(this.table.length * 2);
+		}
+
+		return id;
+	}
+
+	private void rehash(final int capacity) {
+
+		final int[] table = newTable(capacity);
+		final int mask = capacity - 1;
+
+		for (int id = 0; id < this.size; id++) {
+
+			int slot = mix(this.hashes[id]) & mask;
+
+			while (table[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+
+			table[slot] = id;
+		}
+
+		this.table = table;
+	}
+
+	private static boolean matches(final String name, final CharSequence text, final int start, final int end) {
+
+		final int len = end - start;
+
+		if (name.length() != len) {
+			return false;
+		}
+
+		for (int i = 0; i < len; i++) {
+			if (name.charAt(i) != text.charAt(start + i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Spreads the bits of the hash, since String style hashes of names that
+	 * differ only in their last characters differ only in their low bits.
+	 */
+	private static int mix(final int hash) {
+		final int h = hash * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int[] newTable(final int capacity) {
+		final int[] table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
+}
@@ -0,0 +1,525 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Timestamps and latencies of the records of one event type, in the order in
+ * which they were added, kept in primitive arrays.
+ * <p>
+ * Records are appended to chunks of a fixed size, so adding records never
+ * copies the records added earlier, and at most one chunk is partly empty.
+ * The chunks are joined into one array per column the first time the columns
+ * are asked for, and the joined arrays replace the chunks. Records created
+ * from whole arrays, or with a capacity that they fill exactly, are kept in
+ * one chunk, whose arrays are handed out without copying.
+ * <p>
+ * Records created with a latency resolution are kept compact, in half the
+ * memory: the latency as an int number of resolution units, and the
+ * timestamp as an int offset in milliseconds from the timestamp of the first
+ * record. If a record does not fit, for e.g. because its timestamp is more
+ * than 24 days away from the first, all the records are expanded to full
+ * precision. Compact records are decoded into new arrays each time the
+ * columns are asked for, and stay compact.
+ * <p>
+ * Records created with {@linkplain OffHeapBuffers} are kept at full precision
+ * in chunks outside the heap. Like compact records, they are decoded into
+ * new arrays each time the columns are asked for, so that only the records
+ * of the event type whose stats are being computed are on the heap.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class EventRecords {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	static EventRecords create() {
+		return new EventRecords(0, null);
+	}
+
+	/**
+	 * @param latencyResolution
+	 *            latencies are rounded to a multiple of this, or kept as they
+	 *            are if 0.
+	 * @param offHeapBuffers
+	 *            null to keep the records on the heap. Only records at full
+	 *            precision can be kept off the heap.
+	 */
+	static EventRecords create(final double latencyResolution, final OffHeapBuffers offHeapBuffers) {
+
+		if (!(latencyResolution >= 0) || Double.isInfinite(latencyResolution)) {
+			throw new IllegalArgumentException("Illegal latency resolution : " + latencyResolution);
+		}
+
+		if ((latencyResolution > 0) && (offHeapBuffers != null)) {
+			throw new IllegalArgumentException("Compact records can not be kept off the heap");
+		}
+
+		return new EventRecords(latencyResolution, offHeapBuffers);
+	}
+
+	/**
+	 * @param capacity
+	 *            number of records that can be added before a second chunk
+	 *            is needed.
+	 */
+	static EventRecords create(final int capacity) {
+
+		final EventRecords records = new EventRecords(0, null);
+
+		if (capacity > 0) {
+			records.addChunk(new long[capacity], new double[capacity]);
+		}
+
+		return records;
+	}
+
+	/**
+	 * The arrays are used as they are, without copying.
+	 */
+	static EventRecords create(final long[] timestamps, final double[] latencies) {
+
+		if (timestamps.length != latencies.length) {
+			throw new IllegalArgumentException("Number of timestamps <" + timestamps.length + "> and latencies <" + latencies.length + "> differ");
+		}
+
+		final EventRecords records = new EventRecords(0, null);
+
+		if (timestamps.length > 0) {
+			records.addChunk(timestamps, latencies);
+			records.lastChunkSize = timestamps.length;
+			records.size = timestamps.length;
+		}
+
+		return records;
+	}
+
+	private final double latencyResolution;
+
+	/**
+	 * Null if the records are kept on the heap.
+	 */
+	private final OffHeapBuffers offHeapBuffers;
+
+	/**
+	 * True while the records are kept compact.
+	 */
+	private boolean compact;
+
+	/**
+	 * Used while the records are on the heap and not compact.
+	 */
+	private long[][] timestampChunks;
+	private double[][] latencyChunks;
+
+	/**
+	 * Used while the records are compact.
+	 */
+	private int[][] timestampOffsetChunks;
+	private int[][] quantizedLatencyChunks;
+	private long timestampBase;
+
+	/**
+	 * Used if the records are off the heap. Each chunk has room for
+	 * {@value #CHUNK_SIZE} values.
+	 */
+	private ByteBuffer[] timestampBuffers;
+	private ByteBuffer[] latencyBuffers;
+
+	private int chunkCount;
+
+	/**
+	 * Number of records in the last chunk. The other chunks are full.
+	 */
+	private int lastChunkSize;
+
+	private int size;
+
+	private EventRecords(final double latencyResolution, final OffHeapBuffers offHeapBuffers) {
+
+		this.latencyResolution = latencyResolution;
+		this.offHeapBuffers = offHeapBuffers;
+		this.compact = latencyResolution > 0;
+
+		if (offHeapBuffers != null) {
+			this.timestampBuffers = new ByteBuffer[4];
+			this.latencyBuffers = new ByteBuffer[4];
+		} else if (this.compact) {
+			this.timestampOffsetChunks = new int[4][];
+			this.quantizedLatencyChunks = new int[4][];
+		} else {
+			this.timestampChunks = new long[4][];
+			this.latencyChunks = new double[4][];
+		}
+	}
+
+	void add(final long timestamp, final double latency) {
+
+		if (this.compact) {
+
+			if (this.size == 0) {
+				this.timestampBase = timestamp;
+			}
+
+			final long offset = timestamp - this.timestampBase;
+			final double quantizedLatency = quantize(latency);
+
+			if ((offset == (int) offset) && (quantizedLatency >= Integer.MIN_VALUE) && (quantizedLatency <= Integer.MAX_VALUE)) {
+
+				if (isLastChunkFull()) {
+					newChunk(1);
+				}
+
+				final int last = this.chunkCount - 1;
+				final int i = this.lastChunkSize;
+
+				this.timestampOffsetChunks[last][i] = (int) offset;
+				this.quantizedLatencyChunks[last][i] = (int) quantizedLatency;
+				this.lastChunkSize = i + 1;
+				this.size++;
+				return;
+			}
+
+			expand();
+		}
+
+		if (isLastChunkFull()) {
+			newChunk(1);
+		}
+
+		final int last = this.chunkCount - 1;
+		final int i = this.lastChunkSize;
+
+		if (this.offHeapBuffers != null) {
+			this.timestampBuffers[last].putLong(i << 3, timestamp);
+			this.latencyBuffers[last].putDouble(i << 3, latency);
+		} else {
+			this.timestampChunks[last][i] = timestamp;
+			this.latencyChunks[last][i] = latency;
+		}
+
+		this.lastChunkSize = i + 1;
+		this.size++;
+	}
+
+	void addAll(final EventRecords other) {
+
+		for (int c = 0; c < other.chunkCount; c++) {
+
+			final int otherChunkSize = c == (other.chunkCount - 1) ? other.lastChunkSize : other.getChunkLength(c);
+
+			if (this.compact || other.compact || (this.offHeapBuffers != null) || (other.offHeapBuffers != null)) {
+				// one by one, since the records are kept differently
+				for (int i = 0; i < otherChunkSize; i++) {
+					add(other.getTimestamp(c, i), other.getLatency(c, i));
+				}
+				continue;
+			}
+
+			int copied = 0;
+
+			while (copied < otherChunkSize) {
+
+				if (isLastChunkFull()) {
+					newChunk(otherChunkSize - copied);
+				}
+
+				final int last = this.chunkCount - 1;
+				final int n = Math.min(otherChunkSize - copied, this.timestampChunks[last].length - this.lastChunkSize);
+
+				System.arraycopy(other.timestampChunks[c], copied, this.timestampChunks[last], this.lastChunkSize, n);
+				System.arraycopy(other.latencyChunks[c], copied, this.latencyChunks[last], this.lastChunkSize, n);
+
+				this.lastChunkSize += n;
+				this.size += n;
+				copied += n;
+			}
+		}
+	}
+
+	private double quantize(final double latency) {
+		// dividing by a whole number of units per latency is exact more often than multiplying by a fraction
+		return this.latencyResolution < 1 ? Math.rint(latency * (1 / this.latencyResolution)) : Math.rint(latency / this.latencyResolution);
+	}
+
+	private double dequantize(final int quantizedLatency) {
+		return this.latencyResolution < 1 ? quantizedLatency / (1 / this.latencyResolution) : quantizedLatency * this.latencyResolution;
+	}
+
+	private long getTimestamp(final int chunk, final int i) {
+
+		if (this.compact) {
+			return this.timestampBase + this.timestampOffsetChunks[chunk][i];
+		}
+
+		return this.offHeapBuffers != null ? this.timestampBuffers[chunk].getLong(i << 3) : this.timestampChunks[chunk][i];
+	}
+
+	private double getLatency(final int chunk, final int i) {
+
+		if (this.compact) {
+			return dequantize(this.quantizedLatencyChunks[chunk][i]);
+		}
+
+		return this.offHeapBuffers != null ? this.latencyBuffers[chunk].getDouble(i << 3) : this.latencyChunks[chunk][i];
+	}
+
+	private int getChunkLength(final int chunk) {
+
+		if (this.compact) {
+			return this.timestampOffsetChunks[chunk].length;
+		}
+
+		return this.offHeapBuffers != null ? CHUNK_SIZE : this.timestampChunks[chunk].length;
+	}
+
+	private boolean isLastChunkFull() {
+		return (this.chunkCount == 0) || (this.lastChunkSize == getChunkLength(this.chunkCount - 1));
+	}
+
+	/**
+	 * Converts the compact chunks to full precision chunks of the same size,
+	 * one chunk at a time.
+	 */
+	private void expand() {
+
+		final int chunkCapacity = this.timestampOffsetChunks.length;
+
+		this.timestampChunks = new long[chunkCapacity][];
+		this.latencyChunks = new double[chunkCapacity][];
+
+		for (int c = 0; c < this.chunkCount; c++) {
+
+			final int[] offsets = this.timestampOffsetChunks[c];
+			final int[] quantizedLatencies = this.quantizedLatencyChunks[c];
+			final int n = offsets.length;
+
+			final long[] timestamps = new long[n];
+			final double[] latencies = new double[n];
+
+			for (int i = 0; i < n; i++) {
+				timestamps[i] = this.timestampBase + offsets[i];
+				latencies[i] = dequantize(quantizedLatencies[i]);
+			}
+
+			this.timestampChunks[c] = timestamps;
+			this.latencyChunks[c] = latencies;
+			this.timestampOffsetChunks[c] = null;
+			this.quantizedLatencyChunks[c] = null;
+		}
+
+		this.timestampOffsetChunks = null;
+		this.quantizedLatencyChunks = null;
+		this.compact = false;
+	}
+
+	private void newChunk(final int minRecords) {
+
+		if (this.size > (Integer.MAX_VALUE - minRecords)) {
+			throw new IllegalStateException("Too many records : " + (((long) this.size) + minRecords));
+		}
+
+		if (this.compact) {
+			addChunk(new int[CHUNK_SIZE], new int[CHUNK_SIZE]);
+		} else if (this.offHeapBuffers != null) {
+			addChunk(this.offHeapBuffers.allocate(CHUNK_SIZE << 3), this.offHeapBuffers.allocate(CHUNK_SIZE << 3));
+		} else {
+			addChunk(new long[CHUNK_SIZE], new double[CHUNK_SIZE]);
+		}
+
+		this.lastChunkSize = 0;
+	}
+
+	private void addChunk(final long[] timestamps, final double[] latencies) {
+
+		if (this.chunkCount == this.timestampChunks.length) {
+			this.timestampChunks = Arrays.copyOf(this.timestampChunks, this.chunkCount * 2);
+			this.latencyChunks = Arrays.copyOf(this.latencyChunks, this.chunkCount * 2);
+		}
+
+		this.timestampChunks[this.chunkCount] = timestamps;
+		this.latencyChunks[this.chunkCount] = latencies;
+		this.chunkCount++;
+	}
+
+	private void addChunk(final int[] timestampOffsets, final int[] quantizedLatencies) {
+
+		if (this.chunkCount == this.timestampOffsetChunks.length) {
+			this.timestampOffsetChunks = Arrays.copyOf(this.timestampOffsetChunks, this.chunkCount * 2);
+			this.quantizedLatencyChunks = Arrays.copyOf(this.quantizedLatencyChunks, this.chunkCount * 2);
+		}
+
+		this.timestampOffsetChunks[this.chunkCount] = timestampOffsets;
+		this.quantizedLatencyChunks[this.chunkCount] = quantizedLatencies;
+		this.chunkCount++;
+	}
+
+	private void addChunk(final ByteBuffer timestamps, final ByteBuffer latencies) {
+
+		if (this.chunkCount == this.timestampBuffers.length) {
+			this.timestampBuffers = Arrays.copyOf(this.timestampBuffers, this.chunkCount * 2);
+			this.latencyBuffers = Arrays.copyOf(this.latencyBuffers, this.chunkCount * 2);
+		}
+
+		this.timestampBuffers[this.chunkCount] = timestamps;
+		this.latencyBuffers[this.chunkCount] = latencies;
+		this.chunkCount++;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Passes the records to the sink a chunk at a time, in new arrays of at
+	 * most {@value #CHUNK_SIZE} records, so that records kept compact or off
+	 * the heap are not all decoded into the heap at once.
+	 */
+	void forEachChunk(final String eventType, final RecordSpill.BlockSink sink) throws IOException {
+
+		for (int c = 0, k = 0; k < this.size; c++) {
+
+			final int n = Math.min(getChunkLength(c), this.size - k);
+			final long[] timestamps = new long[n];
+			final double[] latencies = new double[n];
+
+			for (int i = 0; i < n; i++) {
+				timestamps[i] = getTimestamp(c, i);
+				latencies[i] = getLatency(c, i);
+			}
+
+			sink.accept(eventType, timestamps, latencies);
+			k += n;
+		}
+	}
+
+	/**
+	 * @return the timestamps, which must not be modified since they may be
+	 *         the array held by these records.
+	 */
+	long[] getTimestamps() {
+
+		if (this.compact) {
+
+			final long[] timestamps = new long[this.size];
+
+			for (int c = 0, k = 0; k < this.size; c++) {
+				final int[] offsets = this.timestampOffsetChunks[c];
+				for (int i = 0; (i < offsets.length) && (k < this.size); i++) {
+					timestamps[k++] = this.timestampBase + offsets[i];
+				}
+			}
+
+			return timestamps;
+		}
+
+		if (this.offHeapBuffers != null) {
+
+			final long[] timestamps = new long[this.size];
+
+			for (int c = 0, k = 0; k < this.size; c++) {
+				final int n = Math.min(CHUNK_SIZE, this.size - k);
+				this.timestampBuffers[c].asLongBuffer().get(timestamps, k, n);
+				k += n;
+			}
+
+			return timestamps;
+		}
+
+		join();
+		return this.chunkCount == 0 ? new long[0] : this.timestampChunks[0];
+	}
+
+	/**
+	 * @return the latencies, which must not be modified since they may be the
+	 *         array held by these records.
+	 */
+	double[] getLatencies() {
+
+		if (this.compact) {
+
+			final double[] latencies = new double[this.size];
+
+			for (int c = 0, k = 0; k < this.size; c++) {
+				final int[] quantizedLatencies = this.quantizedLatencyChunks[c];
+				for (int i = 0; (i < quantizedLatencies.length) && (k < this.size); i++) {
+					latencies[k++] = dequantize(quantizedLatencies[i]);
+				}
+			}
+
+			return latencies;
+		}
+
+		if (this.offHeapBuffers != null) {
+
+			final double[] latencies = new double[this.size];
+
+			for (int c = 0, k = 0; k < this.size; c++) {
+				final int n = Math.min(CHUNK_SIZE, this.size - k);
+				this.latencyBuffers[c].asDoubleBuffer().get(latencies, k, n);
+				k += n;
+			}
+
+			return latencies;
+		}
+
+		join();
+		return this.chunkCount == 0 ? new double[0] : this.latencyChunks[0];
+	}
+
+	/**
+	 * Replaces the chunks by one exactly full chunk. The timestamps are joined
+	 * and their chunks released before the latencies are joined, so that only
+	 * one column is held twice at a time.
+	 */
+	private void join() {
+
+		if ((this.chunkCount == 0) || ((this.chunkCount == 1) && (this.lastChunkSize == this.timestampChunks[0].length))) {
+			return;
+		}
+
+		final int size = this.size;
+
+		final long[] timestamps = new long[size];
+		int k = 0;
+		for (int c = 0; c < this.chunkCount; c++) {
+			final int n = Math.min(this.timestampChunks[c].length, size - k);
+			System.arraycopy(this.timestampChunks[c], 0, timestamps, k, n);
+			this.timestampChunks[c] = null;
+			k += n;
+		}
+		this.timestampChunks[0] = timestamps;
+
+		final double[] latencies = new double[size];
+		k = 0;
+		for (int c = 0; c < this.chunkCount; c++) {
+			final int n = Math.min(this.latencyChunks[c].length, size - k);
+			System.arraycopy(this.latencyChunks[c], 0, latencies, k, n);
+			this.latencyChunks[c] = null;
+			k += n;
+		}
+		this.latencyChunks[0] = latencies;
+
+		this.chunkCount = 1;
+		this.lastChunkSize = size;
+	}
+}
@@ -0,0 +1,433 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts more values than fit in memory, to find the values at given ranks,
+ * for e.g. the exact median and percentiles of the latencies of an event
+ * type with billions of records.
+ * <p>
+ * Values are collected in chunks. Each full chunk is sorted on a separate
+ * thread and written to a temporary file as a sorted run, while the next
+ * chunk is being filled. At most <code>threadCount</code> chunks are being
+ * sorted at a time, so the memory used is bounded by
+ * <code>threadCount + 1</code> chunks. The runs are then merged, and the
+ * values at the ranks are picked up in a single pass over the merged values,
+ * without holding them. If there are more than {@value #MAX_MERGE_WIDTH}
+ * runs, groups of runs are first merged into longer runs, so that only so
+ * many files are open at a time. If all the values fit in one chunk, they
+ * are sorted in memory and no runs are written.
+ * <p>
+ * Values are ordered as by {@linkplain Arrays#sort(double[])}.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class ExternalSort implements Closeable {
+
+	private static final int READ_BUFFER_SIZE = 8 * 1024;
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Runs merged at a time, at most.
+	 */
+	static final int MAX_MERGE_WIDTH = 256;
+
+	/**
+	 * @param parentDir
+	 *            the runs are written to a new directory in this directory.
+	 * @param chunkSize
+	 *            number of values sorted in memory at a time, per thread.
+	 */
+	static ExternalSort create(final Path parentDir, final int chunkSize, final int threadCount) {
+
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize = <" + chunkSize + ">");
+		}
+
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("threadCount = <" + threadCount + ">");
+		}
+
+		return new ExternalSort(parentDir, chunkSize, threadCount);
+	}
+
+	private final Path parentDir;
+	private final int chunkSize;
+	private final int threadCount;
+
+	private double[] chunk;
+	private int chunkFill;
+	private long size;
+
+	/**
+	 * Null until the first run is written.
+	 */
+	private Path dir;
+	private ExecutorService executor;
+
+	private final Deque<Future<Void>> pendingRuns;
+	private final List<Path> runs;
+
+	private ExternalSort(final Path parentDir, final int chunkSize, final int threadCount) {
+		this.parentDir = parentDir;
+		this.chunkSize = chunkSize;
+		this.threadCount = threadCount;
+		this.chunk = new double[Math.min(chunkSize, 1024)];
+		this.pendingRuns = new ArrayDeque<>();
+		this.runs = new ArrayList<>();
+	}
+
+	void add(final double value) throws IOException {
+
+		if (this.chunkFill == this.chunkSize) {
+			writeRun();
+		}
+
+		if (this.chunk == null) {
+			this.chunk = new double[this.chunkSize];
+		} else if (this.chunkFill == this.chunk.length) {
+			// the first chunk grows up to the chunk size, so that few values do not take a whole chunk
+			this.chunk = Arrays.copyOf(this.chunk, (int) Math.min(this.chunkSize, this.chunk.length * 2L));
+		}
+
+		this.chunk[this.chunkFill++] = value;
+		this.size++;
+	}
+
+	void addAll(final double[] values) throws IOException {
+		for (final double value : values) {
+			add(value);
+		}
+	}
+
+	long size() {
+		return this.size;
+	}
+
+	/**
+	 * Sorts the full chunk on another thread and writes it as a run, after
+	 * waiting for the oldest run being written if all the threads are busy.
+	 */
+	private void writeRun() throws IOException {
+
+		if (this.dir == null) {
+			this.dir = Files.createTempDirectory(this.parentDir, "sort");
+			this.executor = Executors.newFixedThreadPool(this.threadCount);
+		}
+
+		while (this.pendingRuns.size() >= this.threadCount) {
+			Utils.getResult(this.pendingRuns.removeFirst());
+		}
+
+		final double[] values = this.chunk;
+		final int count = this.chunkFill;
+		final Path run = this.dir.resolve("run-" + this.runs.size());
+
+		this.runs.add(run);
+		this.pendingRuns.addLast(this.executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				Arrays.sort(values, 0, count);
+				writeValues(run, values, count);
+				return null;
+			}
+		}));
+
+		this.chunk = null;
+		this.chunkFill = 0;
+	}
+
+	private static void writeValues(final Path file, final double[] values, final int count) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+		final int valuesPerBuffer = WRITE_BUFFER_SIZE / 8;
+
+		try (final FileChannel channel = FileChannel.open(file, CREATE_NEW, WRITE);) {
+
+			for (int offset = 0; offset < count; offset += valuesPerBuffer) {
+
+				final int n = Math.min(valuesPerBuffer, count - offset);
+
+				buffer.clear();
+				buffer.asDoubleBuffer().put(values, offset, n);
+				buffer.limit(n * 8);
+
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Can be called once all the values are added, and only once.
+	 * 
+	 * @param ranks
+	 *            zero based positions in the sorted values, in ascending
+	 *            order. A rank may be repeated.
+	 * @return the value at each rank.
+	 */
+	double[] getValuesAtRanks(final long[] ranks) throws IOException {
+
+		for (int i = 0; i < ranks.length; i++) {
+			if ((ranks[i] < 0) || (ranks[i] >= this.size) || ((i > 0) && (ranks[i] < ranks[i - 1]))) {
+				throw new IllegalArgumentException("ranks = <" + Arrays.toString(ranks) + ">, size = <" + this.size + ">");
+			}
+		}
+
+		final double[] result = new double[ranks.length];
+
+		if (this.runs.isEmpty()) {
+
+			Arrays.sort(this.chunk, 0, this.chunkFill);
+
+			for (int i = 0; i < ranks.length; i++) {
+				result[i] = this.chunk[(int) ranks[i]];
+			}
+
+			return result;
+		}
+
+		if (this.chunkFill > 0) {
+			writeRun();
+		}
+
+		while (!this.pendingRuns.isEmpty()) {
+			Utils.getResult(this.pendingRuns.removeFirst());
+		}
+
+		List<Path> runsToMerge = this.runs;
+		int mergedRunCount = 0;
+
+		while (runsToMerge.size() > MAX_MERGE_WIDTH) {
+
+			final List<Path> mergedRuns = new ArrayList<>();
+
+			for (int from = 0; from < runsToMerge.size(); from += MAX_MERGE_WIDTH) {
+
+				final List<Path> group = runsToMerge.subList(from, Math.min(runsToMerge.size(), from + MAX_MERGE_WIDTH));
+				final Path mergedRun = this.dir.resolve("merged-" + mergedRunCount++);
+
+				mergeRuns(group, mergedRun);
+				mergedRuns.add(mergedRun);
+
+				for (final Path run : group) {
+					Files.delete(run);
+				}
+			}
+
+			runsToMerge = mergedRuns;
+		}
+
+		try (final Merger merger = new Merger(runsToMerge);) {
+
+			long rank = 0;
+			int i = 0;
+
+			while (i < ranks.length) {
+
+				final double value = merger.next();
+
+				while ((i < ranks.length) && (ranks[i] == rank)) {
+					result[i++] = value;
+				}
+
+				rank++;
+			}
+		}
+
+		return result;
+	}
+
+	private static void mergeRuns(final List<Path> runs, final Path mergedRun) throws IOException {
+
+		final double[] values = new double[WRITE_BUFFER_SIZE / 8];
+
+		try (final Merger merger = new Merger(runs); final FileChannel channel = FileChannel.open(mergedRun, CREATE_NEW, WRITE);) {
+
+			final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+
+			while (merger.hasNext()) {
+
+				int n = 0;
+				while ((n < values.length) && merger.hasNext()) {
+					values[n++] = merger.next();
+				}
+
+				buffer.clear();
+				buffer.asDoubleBuffer().put(values, 0, n);
+				buffer.limit(n * 8);
+
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the runs and their directory.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		this.chunk = null;
+
+		if (this.dir == null) {
+			return;
+		}
+
+		this.executor.shutdownNow();
+
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(this.dir);) {
+			for (final Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+
+		Files.deleteIfExists(this.dir);
+	}
+
+	/**
+	 * Gives the values of sorted runs in sorted order.
+	 */
+	private static final class Merger implements Closeable {
+
+		private final PriorityQueue<RunReader> queue;
+
+		Merger(final List<Path> runs) throws IOException {
+
+			this.queue = new PriorityQueue<>(Math.max(1, runs.size()));
+
+			try {
+				for (final Path run : runs) {
+					final RunReader reader = new RunReader(run);
+					if (reader.next()) {
+						this.queue.add(reader);
+					} else {
+						reader.close();
+					}
+				}
+			} catch (final IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		boolean hasNext() {
+			return !this.queue.isEmpty();
+		}
+
+		double next() throws IOException {
+
+			final RunReader reader = this.queue.remove();
+			final double value = reader.value;
+
+			if (reader.next()) {
+				this.queue.add(reader);
+			} else {
+				reader.close();
+			}
+
+			return value;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (final RunReader reader : this.queue) {
+				reader.close();
+			}
+			this.queue.clear();
+		}
+	}
+
+	/**
+	 * Reads the values of a run one at a time, ordered by the current value
+	 * so that a priority queue of readers gives the next value of the merge.
+	 */
+	private static final class RunReader implements Comparable<RunReader>, Closeable {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private double value;
+
+		RunReader(final Path run) throws IOException {
+			this.channel = FileChannel.open(run, READ);
+			this.buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+			this.buffer.flip();
+		}
+
+		/**
+		 * @return false if the run has no more values.
+		 */
+		boolean next() throws IOException {
+
+			if (this.buffer.remaining() < 8) {
+
+				this.buffer.compact();
+
+				while ((this.buffer.position() < 8) && (this.channel.read(this.buffer) >= 0)) {
+					// keep reading until a whole value is available
+				}
+
+				this.buffer.flip();
+
+				if (this.buffer.remaining() < 8) {
+					return false;
+				}
+			}
+
+			this.value = this.buffer.getDouble();
+			return true;
+		}
+
+		@Override
+		public int compareTo(final RunReader other) {
+			return Double.compare(this.value, other.value);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+/**
+ * Reads a file that is being appended to, a little at a time. Every call to
+ * {@linkplain #poll()} parses only the lines added since the previous call,
+ * and adds their records to the ones read so far.
+ * <p>
+ * Only lines terminated by <code>'\n'</code> are read, since the last line
+ * may still be being written. The file is kept open between calls. If it is
+ * replaced, for e.g. by log rotation, the old file is first read to its end,
+ * including a last line that is not terminated, and the new file is then read
+ * from the beginning, as <code>tail -F</code> does. If it is truncated, it is
+ * read again from the beginning. The records read from the earlier file are
+ * kept.
+ * <p>
+ * A replacement is detected by a change of the file key of the path, for e.g.
+ * its inode. Lines appended to the old file after the call that finds it
+ * replaced are lost, as are lines appended before a truncation and after the
+ * previous call. If the file system provides no file keys, a replacement is
+ * detected only once the new file is smaller than the part of the old file
+ * already read, and until then the new file is not read.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class FileFollower implements Closeable {
+
+	/**
+	 * @param buffers
+	 *            collects the records read.
+	 */
+	static FileFollower create(final File file, final Charset charset, final RecordParser parser, final RecordBuffers buffers) {
+		return new FileFollower(file, charset, parser, buffers);
+	}
+
+	private final File file;
+	private final Charset charset;
+	private final RecordParser parser;
+	private final RecordBuffers buffers;
+
+	/**
+	 * The file being read, kept open so that it can be read to its end once it
+	 * is replaced. Null until the file is found.
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Identifies the file being read, for e.g. its inode. Null if the file
+	 * system does not provide such an identity.
+	 */
+	private Object fileKey;
+	private long offset;
+
+	private FileFollower(final File file, final Charset charset, final RecordParser parser, final RecordBuffers buffers) {
+		this.file = file;
+		this.charset = charset;
+		this.parser = parser;
+		this.buffers = buffers;
+	}
+
+	/**
+	 * @return true if any lines were read.
+	 */
+	boolean poll() throws IOException {
+
+		final Path path = this.file.toPath();
+
+		final BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (final NoSuchFileException e) {
+			// may be between being rotated out and being created again
+			return (this.channel != null) && readLines();
+		}
+
+		final Object fileKey = attributes.fileKey();
+		boolean read = false;
+
+		if ((this.channel != null) && isReplacedBy(fileKey, attributes.size())) {
+
+			// the old file is no longer written to, so its last line is complete even if not terminated
+			read = readUpTo(this.channel.size());
+
+			this.channel.close();
+			this.channel = null;
+		}
+
+		if (this.channel == null) {
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+			this.fileKey = fileKey;
+			this.offset = 0;
+		}
+
+		return readLines() || read;
+	}
+
+	private boolean isReplacedBy(final Object fileKey, final long size) {
+
+		if ((fileKey != null) && (this.fileKey != null)) {
+			return !fileKey.equals(this.fileKey);
+		}
+
+		return size < this.offset;
+	}
+
+	/**
+	 * Reads the terminated lines added since the previous call, or all of
+	 * them if the file was truncated.
+	 */
+	private boolean readLines() throws IOException {
+
+		final long size = this.channel.size();
+
+		if (size < this.offset) {
+			this.offset = 0;
+		}
+
+		return readUpTo(MappedFileLineReader.findEndOfLastLine(this.channel, this.offset, size));
+	}
+
+	private boolean readUpTo(final long end) throws IOException {
+
+		if (end <= this.offset) {
+			return false;
+		}
+
+		try (final RecordIterator recordIterator = RecordIterator.createForMappedFile(this.channel, this.charset, this.offset, end, this.parser);) {
+			recordIterator.readAll(this.buffers);
+		}
+
+		this.offset = end;
+
+		return true;
+	}
+
+	long getOffset() {
+		return this.offset;
+	}
+
+	/**
+	 * @return the records read so far, sorted by event name. The records
+	 *         continue to grow with every call to {@linkplain #poll()}.
+	 */
+	Map<String, EventRecords> getRecordsByEventName() {
+		return this.buffers.getRecordsByEventName();
+	}
+
+	/**
+	 * Closes the file being read.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		if (this.channel != null) {
+			this.channel.close();
+			this.channel = null;
+		}
+	}
+}
@@ -0,0 +1,460 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+
+/**
+ * Bit packed encodings of time series, as used by the Gorilla time series
+ * database of Facebook.
+ * <ul>
+ * <li>Timestamps are encoded as the difference between consecutive deltas,
+ * which is zero, and takes a single bit, for timestamps at regular intervals,
+ * and small for timestamps that are nearly so.</li>
+ * <li>Latencies are encoded as the XOR of consecutive values, which is zero,
+ * and takes a single bit, for repeated values. Other values are stored as
+ * only the bits that differ from the previous value.</li>
+ * <li>Latencies that have only a few decimal digits, which is common for
+ * latencies read from logs, are instead encoded as integers scaled by a power
+ * of 10, if they can be restored exactly. They are stored in as few bits as
+ * their range needs, and repeated values take a single bit.</li>
+ * </ul>
+ * Every range of values is encoded independently of other ranges, starting
+ * with its first value in full, so that ranges can be decoded in parallel.
+ * The bits are packed into longs, most significant bit first.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class GorillaCodec {
+
+	/**
+	 * Marks latencies encoded as XOR, instead of the number of decimal digits.
+	 */
+	private static final int XOR_ENCODED = 0xFF;
+
+	private static final double[] POWERS_OF_TEN = { 1, 10, 100, 1e3, 1e4, 1e5, 1e6 };
+
+	/**
+	 * Integers of smaller magnitude are exactly representable as doubles.
+	 */
+	private static final double MAX_EXACT_LONG = 1L << 53;
+
+	private GorillaCodec() {
+		//
+	}
+
+	static long[] encodeTimestamps(final long[] values, final int from, final int to) {
+
+		final BitWriter out = new BitWriter(to - from);
+
+		if (from < to) {
+			out.write(values[from], 64);
+		}
+
+		long previous = from < to ? values[from] : 0;
+		long previousDelta = 0;
+
+		for (int i = from + 1; i < to; i++) {
+
+			final long value = values[i];
+			final long delta = value - previous;
+			final long deltaOfDelta = delta - previousDelta;
+
+			if (deltaOfDelta == 0) {
+				out.write(0, 1);
+			} else if ((deltaOfDelta >= -64) && (deltaOfDelta < 64)) {
+				out.write(0b10, 2);
+				out.write(deltaOfDelta, 7);
+			} else if ((deltaOfDelta >= -256) && (deltaOfDelta < 256)) {
+				out.write(0b110, 3);
+				out.write(deltaOfDelta, 9);
+			} else if ((deltaOfDelta >= -2048) && (deltaOfDelta < 2048)) {
+				out.write(0b1110, 4);
+				out.write(deltaOfDelta, 12);
+			} else {
+				out.write(0b1111, 4);
+				out.write(deltaOfDelta, 64);
+			}
+
+			previous = value;
+			previousDelta = delta;
+		}
+
+		return out.toWords();
+	}
+
+	static void decodeTimestamps(final long[] words, final long[] values, final int from, final int to) {
+
+		if (from >= to) {
+			return;
+		}
+
+		final BitReader in = new BitReader(words);
+
+		long previous = in.read(64);
+		long previousDelta = 0;
+
+		values[from] = previous;
+
+		for (int i = from + 1; i < to; i++) {
+
+			final long deltaOfDelta;
+
+			if (in.readBit() == 0) {
+				deltaOfDelta = 0;
+			} else if (in.readBit() == 0) {
+				deltaOfDelta = in.readSigned(7);
+			} else if (in.readBit() == 0) {
+				deltaOfDelta = in.readSigned(9);
+			} else if (in.readBit() == 0) {
+				deltaOfDelta = in.readSigned(12);
+			} else {
+				deltaOfDelta = in.read(64);
+			}
+
+			final long delta = previousDelta + deltaOfDelta;
+			final long value = previous + delta;
+
+			values[i] = value;
+
+			previous = value;
+			previousDelta = delta;
+		}
+	}
+
+	static long[] encodeLatencies(final double[] values, final int from, final int to) {
+
+		final BitWriter out = new BitWriter(to - from);
+
+		if (from >= to) {
+			return out.toWords();
+		}
+
+		final int decimalDigits = findDecimalDigits(values, from, to);
+
+		if (decimalDigits < 0) {
+			out.write(XOR_ENCODED, 8);
+			encodeXor(values, from, to, out);
+		} else {
+			out.write(decimalDigits, 8);
+			encodeDecimal(values, from, to, decimalDigits, out);
+		}
+
+		return out.toWords();
+	}
+
+	static void decodeLatencies(final long[] words, final double[] values, final int from, final int to) {
+
+		if (from >= to) {
+			return;
+		}
+
+		final BitReader in = new BitReader(words);
+		final int decimalDigits = (int) in.read(8);
+
+		if (decimalDigits == XOR_ENCODED) {
+			decodeXor(in, values, from, to);
+		} else {
+			decodeDecimal(in, values, from, to, decimalDigits);
+		}
+	}
+
+	/**
+	 * @return the least number of decimal digits with which every value can be
+	 *         stored as an integer, scaled by a power of 10, and restored
+	 *         exactly. -1 if there is no such number.
+	 */
+	private static int findDecimalDigits(final double[] values, final int from, final int to) {
+
+		for (int digits = 0; digits < POWERS_OF_TEN.length; digits++) {
+
+			final double scale = POWERS_OF_TEN[digits];
+			boolean exact = true;
+
+			for (int i = from; exact && (i < to); i++) {
+				final double value = values[i];
+				final double scaled = value * scale;
+
+				// also false for NaN and infinity
+				exact = (Math.abs(scaled) < MAX_EXACT_LONG) && (Double.doubleToRawLongBits(Math.round(scaled) / scale) == Double.doubleToRawLongBits(value));
+			}
+
+			if (exact) {
+				return digits;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Stores the scaled values as offsets from the least of them, in as few
+	 * bits as the largest offset needs. A value that is the same as the
+	 * previous one takes a single bit.
+	 */
+	private static void encodeDecimal(final double[] values, final int from, final int to, final int decimalDigits, final BitWriter out) {
+
+		final double scale = POWERS_OF_TEN[decimalDigits];
+
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+
+		for (int i = from; i < to; i++) {
+			final long scaled = Math.round(values[i] * scale);
+			min = Math.min(min, scaled);
+			max = Math.max(max, scaled);
+		}
+
+		final int bitCount = 64 - Long.numberOfLeadingZeros(max - min);
+
+		out.write(min, 64);
+		out.write(bitCount, 6);
+
+		long previous = Math.round(values[from] * scale);
+
+		if (bitCount > 0) {
+			out.write(previous - min, bitCount);
+		}
+
+		for (int i = from + 1; i < to; i++) {
+
+			final long scaled = Math.round(values[i] * scale);
+
+			if (scaled == previous) {
+				out.write(0, 1);
+			} else {
+				out.write(1, 1);
+				out.write(scaled - min, bitCount);
+			}
+
+			previous = scaled;
+		}
+	}
+
+	private static void decodeDecimal(final BitReader in, final double[] values, final int from, final int to, final int decimalDigits) {
+
+		final double scale = POWERS_OF_TEN[decimalDigits];
+
+		final long min = in.read(64);
+		final int bitCount = (int) in.read(6);
+
+		long previous = min + (bitCount > 0 ? in.read(bitCount) : 0);
+		double previousValue = previous / scale;
+
+		values[from] = previousValue;
+
+		for (int i = from + 1; i < to; i++) {
+
+			if (in.readBit() != 0) {
+				previous = min + in.read(bitCount);
+				previousValue = previous / scale;
+			}
+
+			values[i] = previousValue;
+		}
+	}
+
+	private static void encodeXor(final double[] values, final int from, final int to, final BitWriter out) {
+
+		out.write(Double.doubleToRawLongBits(values[from]), 64);
+
+		long previous = Double.doubleToRawLongBits(values[from]);
+
+		// the window of meaningful bits of the previous non zero XOR
+		int previousLeadingZeros = -1;
+		int previousTrailingZeros = 0;
+
+		for (int i = from + 1; i < to; i++) {
+
+			final long value = Double.doubleToRawLongBits(values[i]);
+			final long xor = value ^ previous;
+
+			if (xor == 0) {
+				out.write(0, 1);
+			} else {
+				final int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+				final int trailingZeros = Long.numberOfTrailingZeros(xor);
+
+				if ((previousLeadingZeros >= 0) && (leadingZeros >= previousLeadingZeros) && (trailingZeros >= previousTrailingZeros)) {
+					out.write(0b10, 2);
+					out.write(xor >>> previousTrailingZeros, 64 - previousLeadingZeros - previousTrailingZeros);
+				} else {
+					final int meaningfulBits = 64 - leadingZeros - trailingZeros;
+
+					out.write(0b11, 2);
+					out.write(leadingZeros, 5);
+					out.write(meaningfulBits - 1, 6);
+					out.write(xor >>> trailingZeros, meaningfulBits);
+
+					previousLeadingZeros = leadingZeros;
+					previousTrailingZeros = trailingZeros;
+				}
+			}
+
+			previous = value;
+		}
+	}
+
+	private static void decodeXor(final BitReader in, final double[] values, final int from, final int to) {
+
+		long previous = in.read(64);
+		values[from] = Double.longBitsToDouble(previous);
+
+		int leadingZeros = 0;
+		int trailingZeros = 0;
+
+		for (int i = from + 1; i < to; i++) {
+
+			if (in.readBit() != 0) {
+
+				if (in.readBit() != 0) {
+					leadingZeros = (int) in.read(5);
+					trailingZeros = 64 - leadingZeros - ((int) in.read(6) + 1);
+				}
+
+				previous ^= in.read(64 - leadingZeros - trailingZeros) << trailingZeros;
+			}
+
+			values[i] = Double.longBitsToDouble(previous);
+		}
+	}
+
+	private static final class BitWriter {
+
+		private long[] words;
+		private int wordIndex;
+		private long word;
+		private int usedBits;
+
+		BitWriter(final int valueCount) {
+			// enough for about 2 bits per value, which is common, to begin with
+			this.words = new long[Math.max(2, valueCount / 32)];
+		}
+
+		/**
+		 * Writes the low <code>bitCount</code> bits of the value.
+		 */
+		void write(final long value, final int bitCount) {
+
+			final long bits = bitCount == 64 ? value : value & ((1L << bitCount) - 1);
+			final int freeBits = 64 - this.usedBits;
+
+			if (bitCount < freeBits) {
+				this.word |= bits << (freeBits - bitCount);
+				this.usedBits += bitCount;
+			} else {
+				final int remainingBits = bitCount - freeBits;
+
+				this.word |= bits >>> remainingBits;
+				flush();
+
+				this.word = remainingBits == 0 ? 0 : bits << (64 - remainingBits);
+				this.usedBits = remainingBits;
+			}
+		}
+
+		private void flush() {
+
+			if (this.wordIndex == this.words.length) {
+				this.words = Arrays.copyOf(this.words, this.words.length * 2);
+			}
+
+			this.words[this.wordIndex++] = this.word;
+			this.word = 0;
+		}
+
+		long[] toWords() {
+
+			if (this.usedBits > 0) {
+				flush();
+				this.usedBits = 0;
+			}
+
+			return Arrays.copyOf(this.words, this.wordIndex);
+		}
+	}
+
+	private static final class BitReader {
+
+		private final long[] words;
+		private int wordIndex;
+		private long word;
+
+		/**
+		 * Number of bits of the current word that have been read.
+		 */
+		private int usedBits;
+
+		BitReader(final long[] words) {
+			this.words = words;
+			this.word = words.length == 0 ? 0 : words[0];
+		}
+
+		int readBit() {
+
+			final int bit = (int) (this.word >>> (63 - this.usedBits)) & 1;
+
+			if (++this.usedBits == 64) {
+				nextWord();
+			}
+
+			return bit;
+		}
+
+		/**
+		 * @param bitCount
+		 *            between 1 and 64
+		 */
+		long read(final int bitCount) {
+
+			final int availableBits = 64 - this.usedBits;
+			final long value;
+
+			if (bitCount < availableBits) {
+				value = (this.word << this.usedBits) >>> (64 - bitCount);
+				this.usedBits += bitCount;
+			} else {
+				final int remainingBits = bitCount - availableBits;
+				final long high = this.usedBits == 0 ? this.word : (this.word << this.usedBits) >>> this.usedBits;
+
+				nextWord();
+
+				if (remainingBits == 0) {
+					value = high;
+				} else {
+					value = (high << remainingBits) | (this.word >>> (64 - remainingBits));
+					this.usedBits = remainingBits;
+				}
+			}
+
+			return value;
+		}
+
+		long readSigned(final int bitCount) {
+			final int shift = 64 - bitCount;
+			return (read(bitCount) << shift) >> shift;
+		}
+
+		private void nextWord() {
+			this.wordIndex++;
+			this.word = this.wordIndex < this.words.length ? this.words[this.wordIndex] : 0;
+			this.usedBits = 0;
+		}
+	}
+}
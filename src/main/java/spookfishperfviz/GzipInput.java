@@ -0,0 +1,693 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses gzip files while they are being read, so that they need not be
+ * decompressed to disk first.
+ * <p>
+ * A gzip file may be made up of several members, for e.g. when compressed
+ * files are concatenated, or when written by tools that compress blocks
+ * independently. The members of such a file can be inflated in parallel. The
+ * inflated bytes are still returned in the order in which the members appear
+ * in the file, hence lines that span members are read correctly.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class GzipInput {
+
+	private static final int MAGIC_1 = 0x1f;
+	private static final int MAGIC_2 = 0x8b;
+	private static final int DEFLATE = 8;
+
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int RESERVED_FLAGS = 0xe0;
+
+	private static final int XFL_NONE = 0;
+	private static final int XFL_MAX_COMPRESSION = 2;
+	private static final int XFL_FAST_COMPRESSION = 4;
+	private static final int OS_LAST_KNOWN = 13;
+	private static final int OS_UNKNOWN = 255;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Compressed size of the ranges that are inflated in parallel.
+	 */
+	private static final long PARALLEL_RANGE_SIZE = 8L * 1024 * 1024;
+
+	/**
+	 * A range is handed to the reader in chunks of up to these many inflated
+	 * bytes, and no more than {@linkplain #MAX_QUEUED_CHUNKS} chunks of a
+	 * range wait to be read, so that a range takes the same memory however
+	 * large it is when inflated.
+	 */
+	private static final int CHUNK_SIZE = 256 * 1024;
+	private static final int MAX_QUEUED_CHUNKS = 4;
+
+	/**
+	 * Number of bytes inflated from a possible member header before it is
+	 * taken for a member header.
+	 */
+	private static final int CHECKED_SIZE = 64 * 1024;
+
+	private GzipInput() {
+		//
+	}
+
+	static boolean isGzip(final File file) throws IOException {
+
+		try (final InputStream in = new FileInputStream(file);) {
+			return (in.read() == MAGIC_1) && (in.read() == MAGIC_2);
+		}
+	}
+
+	/**
+	 * @param threadCount
+	 *            number of threads used to inflate the members of the file. If
+	 *            greater than 1, and the file has more than one member, the
+	 *            members are inflated in parallel.
+	 */
+	static InputStream open(final File file, final int threadCount) throws IOException {
+
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("threadCount = <" + threadCount + ">");
+		}
+
+		if (threadCount > 1) {
+			final long[] rangeStarts = findRangeStarts(file);
+
+			if (rangeStarts.length > 1) {
+				return new ParallelInflaterInputStream(file, rangeStarts, threadCount);
+			}
+		}
+
+		return openSequential(file, 0, 0);
+	}
+
+	/**
+	 * @return a stream of the members that begin at <code>start</code> and
+	 *         after, without the first <code>skip</code> inflated bytes.
+	 */
+	private static InputStream openSequential(final File file, final long start, final long skip) throws IOException {
+
+		final FileInputStream in = new FileInputStream(file);
+
+		try {
+			in.getChannel().position(start);
+
+			final InputStream gzip = new GZIPInputStream(in, BUFFER_SIZE);
+
+			long remaining = skip;
+			while (remaining > 0) {
+				final long n = gzip.skip(remaining);
+
+				if (n > 0) {
+					remaining -= n;
+				} else if (gzip.read() < 0) {
+					throw new EOFException("Unexpected end of GZIP data at position <" + start + ">");
+				} else {
+					remaining--;
+				}
+			}
+
+			return gzip;
+
+		} catch (final IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the offsets of member headers, roughly
+	 * {@linkplain #PARALLEL_RANGE_SIZE} apart. The compressed data of a
+	 * member may contain a byte sequence that looks like a header, so a
+	 * possible header is taken only if the bytes that follow it inflate too.
+	 * Even so, a false header may be taken, which is only found out when the
+	 * members before it are inflated.
+	 */
+	private static long[] findRangeStarts(final File file) throws IOException {
+
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r");) {
+
+			final long size = raf.length();
+			final int maxRangeCount = (int) Math.min(Integer.MAX_VALUE - 1, Math.max(1, size / PARALLEL_RANGE_SIZE));
+
+			final long[] starts = new long[maxRangeCount];
+			int count = 0;
+			starts[count++] = 0;
+
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			final byte[] output = new byte[BUFFER_SIZE];
+
+			for (int k = 1; k < maxRangeCount; k++) {
+				final long from = Math.max(starts[count - 1] + 1, (size / maxRangeCount) * k);
+				final long to = (size / maxRangeCount) * (k + 1);
+
+				long start = findHeader(raf, from, to, buffer);
+				while ((start >= 0) && !isMemberStart(raf, start, buffer, output)) {
+					start = findHeader(raf, start + 1, to, buffer);
+				}
+
+				if (start >= 0) {
+					starts[count++] = start;
+				}
+			}
+
+			return Arrays.copyOf(starts, count);
+		}
+	}
+
+	/**
+	 * @return the offset of the first possible member header that begins
+	 *         between <code>from</code> (inclusive) and <code>to</code>
+	 *         (exclusive), or -1 if there is none.
+	 */
+	private static long findHeader(final RandomAccessFile raf, final long from, final long to, final byte[] buffer) throws IOException {
+
+		long pos = from;
+
+		while (pos < to) {
+			raf.seek(pos);
+
+			final int n = raf.read(buffer, 0, (int) Math.min(buffer.length, (to - pos) + 3));
+			if (n < 4) {
+				break;
+			}
+
+			for (int i = 0; (i + 3) < n; i++) {
+				if (((buffer[i] & 0xff) == MAGIC_1) && ((buffer[i + 1] & 0xff) == MAGIC_2) && (buffer[i + 2] == DEFLATE) && ((buffer[i + 3] & RESERVED_FLAGS) == 0)) {
+					final long start = pos + i;
+					return start < to ? start : -1;
+				}
+			}
+
+			// the last 3 bytes may be the beginning of a header
+			pos += n - 3;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return whether the possible member header at <code>start</code> has
+	 *         the extra flags and the operating system of a header, and is
+	 *         followed by data that inflates, as far as
+	 *         {@linkplain #CHECKED_SIZE} bytes of it.
+	 */
+	private static boolean isMemberStart(final RandomAccessFile raf, final long start, final byte[] input, final byte[] output) throws IOException {
+
+		raf.seek(start + 8);
+
+		final int extraFlags = raf.read();
+		final int os = raf.read();
+
+		if (((extraFlags != XFL_NONE) && (extraFlags != XFL_MAX_COMPRESSION) && (extraFlags != XFL_FAST_COMPRESSION)) ||
+				(os < 0) || ((os > OS_LAST_KNOWN) && (os != OS_UNKNOWN))) {
+			return false;
+		}
+
+		raf.seek(start);
+
+		final Inflater inflater = new Inflater(true);
+
+		try {
+			if (!readHeader(raf)) {
+				return false;
+			}
+
+			int inflatedSize = 0;
+
+			while ((inflatedSize < CHECKED_SIZE) && !inflater.finished()) {
+
+				if (inflater.needsInput()) {
+					final int n = raf.read(input);
+					if (n < 0) {
+						return false;
+					}
+					inflater.setInput(input, 0, n);
+				}
+
+				final int n = inflater.inflate(output);
+
+				if ((n == 0) && inflater.needsDictionary()) {
+					return false;
+				}
+
+				inflatedSize += n;
+			}
+
+			return true;
+
+		} catch (final IOException | DataFormatException e) {
+			return false;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Inflated bytes of a range.
+	 */
+	private static final class Chunk {
+
+		/**
+		 * Marks the end of a range.
+		 */
+		static final Chunk END = new Chunk(new byte[0], 0, -1);
+
+		final byte[] data;
+		final int length;
+
+		/**
+		 * Offset that follows the member whose last bytes are in this chunk,
+		 * or -1 if the member goes on in the next chunk.
+		 */
+		final long memberEnd;
+
+		Chunk(final byte[] data, final int length, final long memberEnd) {
+			this.data = data;
+			this.length = length;
+			this.memberEnd = memberEnd;
+		}
+	}
+
+	/**
+	 * Inflates the members that begin between <code>start</code> and
+	 * <code>end</code> into <code>chunks</code>, waiting for the reader when
+	 * it is full. The last member may end after <code>end</code>.
+	 * 
+	 * @return the offset that follows the last member, or
+	 *         {@linkplain Long#MAX_VALUE} if the last member is followed by
+	 *         something other than a member, which is ignored as
+	 *         {@linkplain GZIPInputStream} does.
+	 */
+	private static long inflateRange(final File file, final long start, final long end, final BlockingQueue<Chunk> chunks) throws IOException, InterruptedException {
+
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r");) {
+
+			final Inflater inflater = new Inflater(true);
+			final CRC32 crc = new CRC32();
+			final byte[] input = new byte[BUFFER_SIZE];
+
+			long pos = start;
+
+			try {
+				do {
+					raf.seek(pos);
+
+					if (!readHeader(raf)) {
+						if (pos == start) {
+							throw new IOException("Not in GZIP format at position <" + pos + ">");
+						}
+						return Long.MAX_VALUE;
+					}
+
+					pos = raf.getFilePointer();
+					inflater.reset();
+					crc.reset();
+
+					byte[] output = new byte[CHUNK_SIZE];
+					int outputLength = 0;
+					long memberSize = 0;
+
+					while (!inflater.finished()) {
+
+						if (inflater.needsInput()) {
+							final int n = raf.read(input);
+							if (n < 0) {
+								throw new EOFException("Unexpected end of GZIP member that begins before position <" + pos + ">");
+							}
+							inflater.setInput(input, 0, n);
+						}
+
+						if (outputLength == output.length) {
+							chunks.put(new Chunk(output, outputLength, -1));
+							output = new byte[CHUNK_SIZE];
+							outputLength = 0;
+						}
+
+						final int n = inflater.inflate(output, outputLength, output.length - outputLength);
+
+						if ((n == 0) && inflater.needsDictionary()) {
+							throw new IOException("GZIP member needs a preset dictionary");
+						}
+
+						crc.update(output, outputLength, n);
+						outputLength += n;
+						memberSize += n;
+					}
+
+					pos = (raf.getFilePointer() - inflater.getRemaining());
+					raf.seek(pos);
+
+					final long expectedCrc = readIntLE(raf);
+					final long expectedSize = readIntLE(raf);
+
+					if ((expectedCrc != crc.getValue()) || (expectedSize != (memberSize & 0xffffffffL))) {
+						throw new IOException("Corrupt GZIP trailer at position <" + pos + ">");
+					}
+
+					pos += 8;
+
+					chunks.put(new Chunk(output, outputLength, pos));
+
+				} while (pos < end);
+
+				return pos;
+
+			} catch (final DataFormatException e) {
+				throw new IOException("Invalid GZIP data in member that begins before position <" + pos + ">", e);
+			} finally {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Skips the header that begins at the current position.
+	 *
+	 * @return false if there is no header at the current position.
+	 */
+	private static boolean readHeader(final RandomAccessFile raf) throws IOException {
+
+		final byte[] fixed = new byte[10];
+
+		if ((raf.read(fixed) != fixed.length) || ((fixed[0] & 0xff) != MAGIC_1) || ((fixed[1] & 0xff) != MAGIC_2)) {
+			return false;
+		}
+
+		final int flags = fixed[3] & 0xff;
+
+		if ((fixed[2] != DEFLATE) || ((flags & RESERVED_FLAGS) != 0)) {
+			throw new IOException("Unsupported GZIP header");
+		}
+
+		if ((flags & FEXTRA) != 0) {
+			final int extraLength = readUnsignedByte(raf) | (readUnsignedByte(raf) << 8);
+			raf.seek(raf.getFilePointer() + extraLength);
+		}
+
+		if ((flags & FNAME) != 0) {
+			while (readUnsignedByte(raf) != 0) {
+				//
+			}
+		}
+
+		if ((flags & FCOMMENT) != 0) {
+			while (readUnsignedByte(raf) != 0) {
+				//
+			}
+		}
+
+		if ((flags & FHCRC) != 0) {
+			raf.seek(raf.getFilePointer() + 2);
+		}
+
+		return true;
+	}
+
+	private static int readUnsignedByte(final RandomAccessFile raf) throws IOException {
+		final int b = raf.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	private static long readIntLE(final RandomAccessFile raf) throws IOException {
+		final long b0 = readUnsignedByte(raf);
+		final long b1 = readUnsignedByte(raf);
+		final long b2 = readUnsignedByte(raf);
+		final long b3 = readUnsignedByte(raf);
+		return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+	}
+
+	/**
+	 * Inflates ranges of members on a pool of threads, a bounded number of
+	 * ranges ahead of the reader, and returns their bytes in file order.
+	 * <p>
+	 * A range is read only once the range before it is found to end where it
+	 * begins. A range that begins at a false member header is skipped, since
+	 * the range before it reads on until the end of the member that holds the
+	 * false header. If the members between the end of that member and the
+	 * next range are not in any range, or if a range does not inflate
+	 * cleanly, the rest of the file is inflated by a
+	 * {@linkplain GZIPInputStream} from the last member that was read whole,
+	 * which also reports data that is truly corrupt.
+	 */
+	private static final class ParallelInflaterInputStream extends InputStream {
+
+		private final File file;
+		private final long[] rangeStarts;
+		private final int maxPendingRanges;
+		private final ExecutorService executor;
+		private final ArrayDeque<PendingRange> pendingRanges;
+
+		private int nextRangeToSubmit;
+		private long expectedStart;
+
+		/**
+		 * The range being read, or null between ranges.
+		 */
+		private PendingRange range;
+
+		/**
+		 * Offset of the member being read, and the number of its bytes that
+		 * have been read.
+		 */
+		private long memberStart;
+		private long memberBytesRead;
+
+		private byte[] current;
+		private int currentPosition;
+		private int currentLength;
+
+		/**
+		 * Not null once the rest of the file is inflated sequentially.
+		 */
+		private InputStream sequential;
+
+		ParallelInflaterInputStream(final File file, final long[] rangeStarts, final int threadCount) {
+			this.file = file;
+			this.rangeStarts = rangeStarts;
+			// every range that is not read yet has a thread, since a range waits for its reader
+			this.maxPendingRanges = threadCount;
+			this.executor = Executors.newFixedThreadPool(threadCount);
+			this.pendingRanges = new ArrayDeque<>();
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			if (!fill()) {
+				return this.sequential == null ? -1 : this.sequential.read();
+			}
+
+			return this.current[this.currentPosition++] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+
+			if (len == 0) {
+				return 0;
+			}
+
+			if (!fill()) {
+				return this.sequential == null ? -1 : this.sequential.read(b, off, len);
+			}
+
+			final int n = Math.min(len, this.currentLength - this.currentPosition);
+			System.arraycopy(this.current, this.currentPosition, b, off, n);
+			this.currentPosition += n;
+
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.executor.shutdownNow();
+			this.pendingRanges.clear();
+			this.range = null;
+			this.current = null;
+
+			if (this.sequential != null) {
+				this.sequential.close();
+			}
+		}
+
+		/**
+		 * @return false at the end of the file, or once the rest of the file
+		 *         is inflated sequentially.
+		 */
+		private boolean fill() throws IOException {
+
+			while ((this.current == null) || (this.currentPosition == this.currentLength)) {
+
+				if (this.sequential != null) {
+					return false;
+				}
+
+				if (this.range == null) {
+
+					submitRanges();
+
+					final PendingRange next = this.pendingRanges.poll();
+					if (next == null) {
+						return false;
+					}
+
+					if (next.start < this.expectedStart) {
+						// inflated as part of a previous range
+						next.future.cancel(true);
+						continue;
+					}
+
+					if (next.start > this.expectedStart) {
+						// The previous range read on past a false member header,
+						// up to a member that begins before this range.
+						next.future.cancel(true);
+						inflateSequentially(this.expectedStart, 0);
+						return false;
+					}
+
+					this.range = next;
+					this.memberStart = next.start;
+					this.memberBytesRead = 0;
+				}
+
+				final Chunk chunk = take(this.range.chunks);
+
+				if (chunk == Chunk.END) {
+					try {
+						this.expectedStart = Utils.getResult(this.range.future).longValue();
+					} catch (final IOException e) {
+						inflateSequentially(this.memberStart, this.memberBytesRead);
+						return false;
+					}
+
+					this.range = null;
+					continue;
+				}
+
+				this.current = chunk.data;
+				this.currentPosition = 0;
+				this.currentLength = chunk.length;
+
+				if (chunk.memberEnd < 0) {
+					this.memberBytesRead += chunk.length;
+				} else {
+					this.memberStart = chunk.memberEnd;
+					this.memberBytesRead = 0;
+				}
+			}
+
+			return true;
+		}
+
+		private void inflateSequentially(final long start, final long skip) throws IOException {
+
+			this.executor.shutdownNow();
+			this.pendingRanges.clear();
+			this.range = null;
+
+			this.sequential = openSequential(this.file, start, skip);
+		}
+
+		private static Chunk take(final BlockingQueue<Chunk> chunks) {
+			try {
+				return chunks.take();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for GZIP data to be inflated", e);
+			}
+		}
+
+		private void submitRanges() {
+
+			final long[] starts = this.rangeStarts;
+
+			while ((this.pendingRanges.size() < this.maxPendingRanges) && (this.nextRangeToSubmit < starts.length)) {
+
+				final int index = this.nextRangeToSubmit++;
+				final long start = starts[index];
+				final long end = (index + 1) < starts.length ? starts[index + 1] : Long.MAX_VALUE;
+				final File file = this.file;
+				final BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+
+				final Future<Long> future = this.executor.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException, InterruptedException {
+
+						final Long rangeEnd;
+
+						try {
+							rangeEnd = Long.valueOf(inflateRange(file, start, end, chunks));
+						} catch (final IOException | RuntimeException e) {
+							chunks.put(Chunk.END);
+							throw e;
+						}
+
+						chunks.put(Chunk.END);
+						return rangeEnd;
+					}
+				});
+
+				this.pendingRanges.add(new PendingRange(start, chunks, future));
+			}
+		}
+	}
+
+	private static final class PendingRange {
+
+		final long start;
+		final BlockingQueue<Chunk> chunks;
+		final Future<Long> future;
+
+		PendingRange(final long start, final BlockingQueue<Chunk> chunks, final Future<Long> future) {
+			this.start = start;
+			this.chunks = chunks;
+			this.future = future;
+		}
+	}
+}
@@ -17,6 +17,7 @@
 
 package spookfishperfviz;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Set;
 
@@ -31,11 +32,28 @@ abstract class Histogram<C extends Comparable<C>> {
 	}
 
 	static Histogram<Double> create(final double[] data, final double[] intervalPoints) {
-		return Histogram2.newInstance(data, intervalPoints, false);
+		return DoubleHistogram.newInstance(data, null, intervalPoints);
+	}
+
+	/**
+	 * @param counts
+	 *            number of times each value occurs in the data.
+	 */
+	static Histogram<Double> create(final double[] data, final long[] counts, final double[] intervalPoints) {
+
+		if (data.length != counts.length) {
+			throw new IllegalArgumentException("Number of values must be same as number of counts");
+		}
+
+		return DoubleHistogram.newInstance(data, counts, intervalPoints);
+	}
+
+	static Histogram<Double> create(final RecordBlocks blocks, final double[] intervalPoints) throws IOException {
+		return DoubleHistogram.newInstance(blocks, intervalPoints);
 	}
 
 	static Histogram<Double> create(final double[] data, final int nIntervalPoints) {
-		return Histogram2.newInstance(data, nIntervalPoints, false);
+		return DoubleHistogram.newInstance(data, nIntervalPoints);
 	}
 
 	static <T extends Comparable<T>> Histogram<T> create(final Collection<T> data, final Set<T> intervalPoints) {
@@ -45,4 +63,119 @@ abstract class Histogram<C extends Comparable<C>> {
 	abstract String toSVG(Function<C, String> dataPointFormatter, boolean wrapInHtmlBody, ColorRampScheme colorRampScheme);
 
 	abstract String toString(Function<C, String> dataPointFormatter, int maxHeight, String mark);
+
+	/**
+	 * @param intervalLabels
+	 *            labels of the intervals, in ascending order of intervals.
+	 * @param frequencies
+	 *            number of values in each interval.
+	 */
+	static HorizontalBarChart toBarChart(final String[] intervalLabels, final int[] frequencies) {
+		final int size = intervalLabels.length;
+
+		final LabelMaker labelMaker = new LabelMaker(intervalLabels, frequencies);
+		final String[] labels = new String[size];
+
+		for (int k = 0; k < size; k++) {
+			labels[k] = labelMaker.getDataLabel(k);
+		}
+		
+		final String headerLabel = labelMaker.getHeaderLabel();
+
+		return HorizontalBarChart.create(frequencies, labels, headerLabel);
+	}
+
+	private static final class LabelMaker {
+		
+		private static final String INTERVAL_HEADER = "Interval";
+		private static final String FREQUENCY_HEADER = "Count";
+		private static final String PERCENTAGE_HEADER = "%";
+		private static final String CUMULATIVE_PERCENTAGE_HEADER = "Sum of %";
+		
+		private final String[] intervalLabels;
+		private final int[] frequencies;
+		private final int intrvlpadding;
+		private final int freqPadding;
+		private final double[] percs;
+		private final double[] cumulatives;
+		private final String labelStringFormat;
+		private final String headerLabel;
+
+		LabelMaker(final String[] intervalLabels, final int[] frequencies) {
+			
+			long sumOfFrequencies = 0;
+			int iPadding = -1, fPadding = -1;
+
+			for (int i = 0; i < intervalLabels.length; i++) {
+				final int frequency = frequencies[i];
+
+				sumOfFrequencies += frequency;
+				iPadding = Math.max(iPadding, intervalLabels[i].length());
+				fPadding = Math.max(fPadding, String.valueOf(frequency).length());
+			}
+
+			iPadding = Math.max(iPadding, INTERVAL_HEADER.length());
+			fPadding = Math.max(fPadding, FREQUENCY_HEADER.length());
+			
+			final int pPadding = Math.max(7 /*xxx.xx%*/, PERCENTAGE_HEADER.length());
+			final int cPadding = Math.max(7 /*xxx.xx%*/, CUMULATIVE_PERCENTAGE_HEADER.length());
+
+			final int size = intervalLabels.length;
+
+			final double[] p = new double[size];
+			final double[] c = new double[size];
+
+			double cumulative = 0;
+
+			for (int i = 0; i < size; i++) {
+				final int frequency = frequencies[i];
+
+				final double perc = (frequency * 100.0) / sumOfFrequencies;
+				cumulative += perc;
+
+				p[i] = perc;
+				c[i] = cumulative;
+			}
+			
+			
+
+			this.intervalLabels = intervalLabels;
+			this.frequencies = frequencies;
+			this.percs = p;
+			this.cumulatives = c;
+			this.intrvlpadding = iPadding;
+			this.freqPadding = fPadding;
+			
+			this.labelStringFormat = 
+					"%1$" + this.intrvlpadding + "s" +  "   " + 
+					"%2$" + this.freqPadding + "s" + "   " + 
+					"%3$" + pPadding + "s" + "   " +
+					"%4$" + cPadding + "s";
+			
+			this.headerLabel = String.format(this.labelStringFormat, 
+												INTERVAL_HEADER, 
+												FREQUENCY_HEADER, 
+												PERCENTAGE_HEADER, 
+												CUMULATIVE_PERCENTAGE_HEADER);
+		}
+
+		String getDataLabel(final int index) {
+			
+			final String interval = this.intervalLabels[index];
+			final Integer frequency = Integer.valueOf(this.frequencies[index]);
+
+			final double perc = this.percs[index];
+			final double cumulative = this.cumulatives[index];
+
+			return String.format(this.labelStringFormat, 
+					interval, 
+					frequency, 
+					Utils.toDisplayString(perc, 2, false) + '%', 
+					Utils.toDisplayString(cumulative, 2, false) + '%');
+		}
+
+		String getHeaderLabel() {
+			return this.headerLabel;
+		}
+	}
 }
@@ -37,22 +37,6 @@ final class Histogram2<C extends Comparable<C>> extends Histogram<C> {
 	
 	private final SortedMap<Interval<C>, Integer> histogram;
 
-	static Histogram2<Double> newInstance(final double[] data, final double[] intervalPoints, final boolean ignoreEmptyIntervals) {
-		return newInstance(Utils.asList(data), intervalPoints, ignoreEmptyIntervals);
-	}
-
-	static Histogram2<Double> newInstance(final double[] data, final int nIntervalPoints, final boolean ignoreEmptyIntervals) {
-		return newInstance(Utils.asList(data), nIntervalPoints, ignoreEmptyIntervals);
-	}
-
-	static Histogram2<Double> newInstance(final Collection<Double> data, final int nIntervalPoints, final boolean ignoreEmptyIntervals) {
-		return newInstance(data, Utils.createIntervalPoints(data, nIntervalPoints), ignoreEmptyIntervals);
-	}
-
-	static Histogram2<Double> newInstance(final Collection<Double> data, final double[] intervalPoints, final boolean ignoreEmptyIntervals) {
-		return new Histogram2<>(data, Utils.toHashSet(intervalPoints), ignoreEmptyIntervals);
-	}
-
 	static <T extends Comparable<T>> Histogram2<T> newInstance(final Collection<T> data, final Set<T> intervalPoints,
 			final boolean ignoreEmptyIntervals) {
 		return new Histogram2<>(data, intervalPoints, ignoreEmptyIntervals);
@@ -121,20 +105,17 @@ final class Histogram2<C extends Comparable<C>> extends Histogram<C> {
 
 	private HorizontalBarChart toBarChart(final Function<C, String> dataPointFormatter) {
 		final int size = this.histogram.size();
-		final Entry<Interval<C>, Integer>[] entries = this.histogram.entrySet().toArray(new Entry[size]);
-
-		final LabelMaker<C> labelMaker = new LabelMaker<>(entries, dataPointFormatter);
 		final int[] data = new int[size];
-		final String[] labels = new String[size];
+		final String[] intervalLabels = new String[size];
 
-		for (int k = 0; k < size; k++) {
-			data[k] = entries[k].getValue().intValue();
-			labels[k] = labelMaker.getDataLabel(k);
+		int k = 0;
+		for (final Entry<Interval<C>, Integer> entry : this.histogram.entrySet()) {
+			data[k] = entry.getValue().intValue();
+			intervalLabels[k] = entry.getKey().toString(dataPointFormatter);
+			k++;
 		}
-		
-		final String headerLabel = labelMaker.getHeaderLabel();
 
-		return HorizontalBarChart.create(data, labels, headerLabel);
+		return toBarChart(intervalLabels, data);
 	}
 
 	private static final class Interval<C extends Comparable<C>> implements Comparable<Interval<C>> {
@@ -224,100 +205,4 @@ final class Histogram2<C extends Comparable<C>> extends Histogram<C> {
 			return "[" + this.low.toString(dataPointFormatter) + ',' + this.high.toString(dataPointFormatter) + "]";
 		}
 	}
-
-	private static final class LabelMaker<C extends Comparable<C>> {
-		
-		private static final String INTERVAL_HEADER = "Interval";
-		private static final String FREQUENCY_HEADER = "Count";
-		private static final String PERCENTAGE_HEADER = "%";
-		private static final String CUMULATIVE_PERCENTAGE_HEADER = "Sum of %";
-		
-		private final Entry<Interval<C>, Integer>[] table;
-		private final int intrvlpadding;
-		private final int freqPadding;
-		private final double[] percs;
-		private final double[] cumulatives;
-		private final Function<C, String> dataPointFormatter;
-		private final String labelStringFormat;
-		private final String headerLabel;
-
-		LabelMaker(final Entry<Interval<C>, Integer>[] entries, final Function<C, String> dataPointFormatter) {
-			
-			long sumOfFrequencies = 0;
-			int iPadding = -1, fPadding = -1;
-
-			for (final Entry<Interval<C>, Integer> row : entries) {
-				final Interval<C> interval = row.getKey();
-				final Integer frequency = row.getValue();
-
-				sumOfFrequencies += frequency.intValue();
-				iPadding = Math.max(iPadding, interval.toString(dataPointFormatter).length());
-				fPadding = Math.max(fPadding, String.valueOf(frequency).length());
-			}
-
-			iPadding = Math.max(iPadding, INTERVAL_HEADER.length());
-			fPadding = Math.max(fPadding, FREQUENCY_HEADER.length());
-			
-			final int pPadding = Math.max(7 /*xxx.xx%*/, PERCENTAGE_HEADER.length());
-			final int cPadding = Math.max(7 /*xxx.xx%*/, CUMULATIVE_PERCENTAGE_HEADER.length());
-
-			final int size = entries.length;
-
-			final double[] p = new double[size];
-			final double[] c = new double[size];
-
-			double cumulative = 0;
-
-			for (int i = 0; i < size; i++) {
-				final int frequency = entries[i].getValue().intValue();
-
-				final double perc = (frequency * 100.0) / sumOfFrequencies;
-				cumulative += perc;
-
-				p[i] = perc;
-				c[i] = cumulative;
-			}
-			
-			
-
-			this.table = entries;
-			this.percs = p;
-			this.cumulatives = c;
-			this.intrvlpadding = iPadding;
-			this.freqPadding = fPadding;
-			this.dataPointFormatter = dataPointFormatter;
-			
-			this.labelStringFormat = 
-					"%1$" + this.intrvlpadding + "s" +  "   " + 
-					"%2$" + this.freqPadding + "s" + "   " + 
-					"%3$" + pPadding + "s" + "   " +
-					"%4$" + cPadding + "s";
-			
-			this.headerLabel = String.format(this.labelStringFormat, 
-												INTERVAL_HEADER, 
-												FREQUENCY_HEADER, 
-												PERCENTAGE_HEADER, 
-												CUMULATIVE_PERCENTAGE_HEADER);
-		}
-
-		String getDataLabel(final int index) {
-			
-			final Entry<Interval<C>, Integer> row = this.table[index];
-			final Interval<C> interval = row.getKey();
-			final Integer frequency = row.getValue();
-
-			final double perc = this.percs[index];
-			final double cumulative = this.cumulatives[index];
-
-			return String.format(this.labelStringFormat, 
-					interval.toString(this.dataPointFormatter), 
-					frequency, 
-					Utils.toDisplayString(perc, 2, false) + '%', 
-					Utils.toDisplayString(cumulative, 2, false) + '%');
-		}
-
-		String getHeaderLabel() {
-			return this.headerLabel;
-		}
-	}
 }
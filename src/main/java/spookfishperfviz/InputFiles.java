@@ -0,0 +1,205 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Resolves the input files named by paths, directories and glob patterns.
+ * <ul>
+ * <li>A directory stands for the regular files directly inside it.</li>
+ * <li>A path that contains any of <code>*?[{</code> is a glob pattern, with
+ * the syntax of {@linkplain java.nio.file.FileSystem#getPathMatcher(String)}.
+ * For e.g. <code>logs/&#42;/app-*.log.gz</code>, or
+ * <code>logs/&#42;&#42;/*.log</code> to search all subdirectories.</li>
+ * <li>Any other path names a file.</li>
+ * </ul>
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class InputFiles {
+
+	private static final String GLOB_CHARS = "*?[{";
+
+	private InputFiles() {
+		//
+	}
+
+	/**
+	 * @param paths
+	 *            separated by commas. Commas inside braces belong to a glob
+	 *            pattern, for e.g. <code>logs/{app,web}-*.log</code>.
+	 *
+	 * @return the files in the order of the paths, and sorted by name for each
+	 *         directory or glob pattern. A file found more than once is
+	 *         returned once.
+	 *
+	 * @throws BadOptionsException
+	 *             if a directory or glob pattern does not match any file.
+	 */
+	static List<File> resolve(final String optionName, final String paths) throws IOException, BadOptionsException {
+
+		final Set<File> seen = new TreeSet<>();
+		final List<File> files = new ArrayList<>();
+
+		for (final String path : split(paths)) {
+
+			final List<File> matches;
+			try {
+				matches = resolve(path);
+			} catch (final PatternSyntaxException e) {
+				throw BadOptionsException.illegalValue(optionName, "Invalid glob pattern <" + path + ">.", e);
+			}
+
+			if (matches.isEmpty()) {
+				throw BadOptionsException.illegalValue(optionName, "No files found for <" + path + ">.", null);
+			}
+
+			for (final File file : matches) {
+				if (seen.add(file.getAbsoluteFile())) {
+					files.add(file);
+				}
+			}
+		}
+
+		return files;
+	}
+
+	private static List<String> split(final String paths) {
+
+		final List<String> result = new ArrayList<>();
+		int braceDepth = 0;
+		int start = 0;
+
+		for (int i = 0; i < paths.length(); i++) {
+			final char c = paths.charAt(i);
+
+			if (c == '{') {
+				braceDepth++;
+			} else if ((c == '}') && (braceDepth > 0)) {
+				braceDepth--;
+			} else if ((c == ',') && (braceDepth == 0)) {
+				result.add(paths.substring(start, i).trim());
+				start = i + 1;
+			}
+		}
+
+		result.add(paths.substring(start).trim());
+
+		return result;
+	}
+
+	private static List<File> resolve(final String path) throws IOException {
+
+		final int globStart = indexOfGlobChar(path);
+
+		if (globStart < 0) {
+			final File file = new File(path);
+			return file.isDirectory() ? listFiles(file.toPath()) : Collections.singletonList(file);
+		}
+
+		final int baseEnd = Math.max(path.lastIndexOf('/', globStart), path.lastIndexOf(File.separatorChar, globStart));
+		final String base = baseEnd < 0 ? "" : path.substring(0, baseEnd + 1);
+		final String pattern = path.substring(baseEnd + 1);
+
+		final Path baseDir = Paths.get(base.isEmpty() ? "." : base);
+
+		if (!Files.isDirectory(baseDir)) {
+			return Collections.emptyList();
+		}
+
+		final int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : countNames(pattern);
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+		final List<File> files = new ArrayList<>();
+
+		Files.walkFileTree(baseDir, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && matcher.matches(baseDir.relativize(file))) {
+					files.add(file.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		Collections.sort(files);
+
+		return files;
+	}
+
+	private static List<File> listFiles(final Path dir) throws IOException {
+
+		final List<File> files = new ArrayList<>();
+
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir);) {
+			for (final Path file : stream) {
+				if (Files.isRegularFile(file)) {
+					files.add(file.toFile());
+				}
+			}
+		}
+
+		Collections.sort(files);
+
+		return files;
+	}
+
+	private static int indexOfGlobChar(final String path) {
+
+		for (int i = 0; i < path.length(); i++) {
+			if (GLOB_CHARS.indexOf(path.charAt(i)) >= 0) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static int countNames(final String pattern) {
+
+		int count = 1;
+
+		for (int i = 0; i < pattern.length(); i++) {
+			final char c = pattern.charAt(i);
+			if ((c == '/') || (c == File.separatorChar)) {
+				count++;
+			}
+		}
+
+		return count;
+	}
+}
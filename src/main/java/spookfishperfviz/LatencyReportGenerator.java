@@ -21,35 +21,34 @@ import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
-import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Rahul Bakale
@@ -61,142 +60,1350 @@ public final class LatencyReportGenerator {
 		//
 	}
 
-	private static final AtomicInteger uniquifier = new AtomicInteger();
+	/**
+	 * Files are not split into ranges smaller than this when read in parallel.
+	 */
+	private static final long MIN_PARALLEL_READ_RANGE_SIZE = 1024 * 1024;
+
+	private static final String TIME_OPTION_FORMAT = "yyyy-MM-dd HH:mm";
+
+	/**
+	 * Bounds of the number of latencies sorted in memory at a time, per
+	 * thread, by an external sort. See {@linkplain ExternalSort}.
+	 */
+	private static final int EXTERNAL_SORT_MIN_CHUNK_SIZE = 1 << 16;
+	private static final int EXTERNAL_SORT_MAX_CHUNK_SIZE = 1 << 20;
+	private static final int EXTERNAL_SORT_MAX_THREADS = 4;
 
 	static void run(final Options options) throws Exception {
 
+		final TimeZone outputTimeZone = options.getOptional("outputTimeZone", TimeZone.class, TimeZone.getDefault());
+		final TimeUnit latencyUnit = options.getMandatory("latencyUnit", TimeUnit.class);
+
+		final Integer histogramSignificantDigits = options.getOptional("histogramSignificantDigits", Integer.class, null);
+
+		if ((histogramSignificantDigits != null) && 
+				((histogramSignificantDigits.intValue() < LogLinearHistogram.MIN_SIGNIFICANT_DIGITS) || 
+						(histogramSignificantDigits.intValue() > LogLinearHistogram.MAX_SIGNIFICANT_DIGITS))) {
+			throw BadOptionsException.illegalValue("histogramSignificantDigits", 
+					"Value must be from <" + LogLinearHistogram.MIN_SIGNIFICANT_DIGITS + "> to <" + LogLinearHistogram.MAX_SIGNIFICANT_DIGITS + ">.", null);
+		}
+
+		final PercentileMode percentileMode = options.getOptional("percentileMode", PercentileMode.class, PercentileMode.EXACT);
+		final int percentileSketchSize = options.getOptional("percentileSketchSize", Integer.class, Integer.valueOf(QuantileSketch.DEFAULT_SIZE)).intValue();
+		final boolean verifyPercentileSketch = options.getOptional("verifyPercentileSketch", Boolean.class, Boolean.FALSE).booleanValue();
+
+		if ((percentileMode == PercentileMode.SKETCH) && (histogramSignificantDigits != null)) {
+			throw BadOptionsException.illegalValue("percentileMode", "Percentiles can not be estimated from both a sketch and log-linear buckets.", null);
+		}
+
+		if (percentileSketchSize < QuantileSketch.MIN_SIZE) {
+			throw BadOptionsException.illegalValue("percentileSketchSize", "Value must not be less than <" + QuantileSketch.MIN_SIZE + ">.", null);
+		}
+
+		// with log-linear buckets, the histogram chart has log-linear intervals unless told otherwise
+		final double[] histogramIntervalPoints = histogramSignificantDigits == null ? 
+				options.getMandatory("histogramIntervalPoints", double[].class) : 
+				options.getOptional("histogramIntervalPoints", double[].class, null);
+
+		final double[] percentilePoints = options.getMandatory("percentilePoints", double[].class);
+		final Integer heatMapMaxIntervalPoints = options.getOptional("heatMapMaxIntervalPoints", Integer.class, null);
+
+		final PercentileOptions percentileOptions = 
+				PercentileOptions.create(percentilePoints, percentileMode, percentileSketchSize, verifyPercentileSketch, histogramSignificantDigits);
+
+		final ColorRampScheme colorRampScheme = options.getOptional("colorRampScheme", ColorRampScheme.class, ColorRampScheme.DEFAULT);
+
+		final String outFile = options.getMandatory("outFile", String.class);
+
+		final int heatMapSingleAreaWidth = 20;
+
+		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc = 
+				createLatencyStatsToHtmlFunc(outputTimeZone, histogramIntervalPoints, percentilePoints, heatMapMaxIntervalPoints, histogramSignificantDigits != null, heatMapSingleAreaWidth, colorRampScheme);
+
+		final String rollupDir = options.getOptional("rollupDir", String.class, null);
+
+		if (rollupDir != null) {
+
+			final Path dir = Paths.get(rollupDir);
+
+			if (!Files.isDirectory(dir)) {
+				throw BadOptionsException.illegalValue("rollupDir", "<" + dir + "> is not a directory.", null);
+			}
+
+			final long fromTime = getTime(options, "fromTime", outputTimeZone, Long.MIN_VALUE);
+			final long toTime = getTime(options, "toTime", outputTimeZone, Long.MAX_VALUE);
+
+			final Map<String, RollupStore.Series> data = RollupStore.create(dir).read(fromTime, toTime);
+
+			if (data.isEmpty()) {
+				throw BadOptionsException.illegalValue("rollupDir", "There are no rollups in the time range.", null);
+			}
+
+			final Path path = generateReportFromRollups(data, latencyUnit, latencyStatsToHtmlFunc, outFile);
+
+			System.out.println("Report generated at <" + path + ">");
+
+		} else {
+
+			final Input input = Input.create(options);
+			final boolean follow = options.getOptional("follow", Boolean.class, Boolean.FALSE).booleanValue();
+			final boolean spill = options.getOptional("spill", Boolean.class, Boolean.FALSE).booleanValue();
+
+			if (follow && spill) {
+				throw BadOptionsException.illegalValue("spill", "Follow mode does not support spilling records to disk.", null);
+			}
+
+			if (follow) {
+
+				final int followIntervalSeconds = options.getOptional("followIntervalSeconds", Integer.class, Integer.valueOf(10)).intValue();
+
+				if (followIntervalSeconds < 1) {
+					throw BadOptionsException.illegalValue("followIntervalSeconds", "Value must be greater than zero.", null);
+				}
+
+				try (final FileFollower follower = input.createFollower();) {
+					follow(follower, TimeUnit.SECONDS.toMillis(followIntervalSeconds), input.getOffHeapDir(), latencyUnit, outputTimeZone, percentileOptions, latencyStatsToHtmlFunc, outFile);
+				}
+
+			} else if (spill) {
+
+				final int spillPartitions = options.getOptional("spillPartitions", Integer.class, Integer.valueOf(64)).intValue();
+
+				if (spillPartitions < 1) {
+					throw BadOptionsException.illegalValue("spillPartitions", "Value must be greater than zero.", null);
+				}
+
+				final String spillDir = options.getOptional("spillDir", String.class, System.getProperty("java.io.tmpdir"));
+				final long spillMaxEventRecords = options.getOptional("spillMaxEventRecords", Long.class, Long.valueOf(1 << 24)).longValue();
+
+				if (spillMaxEventRecords < 0) {
+					throw BadOptionsException.illegalValue("spillMaxEventRecords", "Value must not be negative.", null);
+				}
+
+				try (final RecordSpill recordSpill = RecordSpill.create(Files.createDirectories(Paths.get(spillDir)), spillPartitions);) {
+
+					input.spill(recordSpill);
+
+					if (recordSpill.getRecordCount() == 0) {
+						throw input.isTimeRangeLimited() ? 
+								BadOptionsException.illegalValue("fromTime", "There are no records in the time range.", null) : 
+								BadOptionsException.illegalValue("inFile", "There are no records in the input.", null);
+					}
+
+					final Path path = generateReport(recordSpill, spillMaxEventRecords, latencyUnit, outputTimeZone, percentileOptions, latencyStatsToHtmlFunc, outFile);
+
+					System.out.println("Report generated at <" + path + ">");
+				}
+
+			} else {
+
+				final Map<String, EventRecords> data = input.read();
+
+				if (data.isEmpty() && input.isTimeRangeLimited()) {
+					throw BadOptionsException.illegalValue("fromTime", "There are no records in the time range.", null);
+				}
+
+				final Path path = generateReport(data, input.getOffHeapDir(), latencyUnit, outputTimeZone, percentileOptions, latencyStatsToHtmlFunc, outFile);
+
+				System.out.println("Report generated at <" + path + ">");
+			}
+		}
+	}
+
+	/**
+	 * Reads the input files and merges their records into the minute rollups
+	 * in the rollup directory, from which reports can later be generated
+	 * without reading the files again. Only the parts of the files that were
+	 * not aggregated before are read, see {@linkplain AggregatedInputs}.
+	 * Minute rollups older than the retention period are then downsampled to
+	 * hourly rollups.
+	 */
+	static void aggregate(final Options options) throws Exception {
+
+		final Path rollupDir = Paths.get(options.getMandatory("rollupDir", String.class));
+		final int minuteRetentionDays = options.getOptional("minuteRetentionDays", Integer.class, Integer.valueOf(7)).intValue();
+
+		if (minuteRetentionDays < 0) {
+			throw BadOptionsException.illegalValue("minuteRetentionDays", "Value must not be negative.", null);
+		}
+
+		final Input input = Input.create(options);
+
+		if (input.isTimeRangeLimited()) {
+			throw BadOptionsException.illegalValue("fromTime", "Aggregate does not support a time range, since it records the parts of the files aggregated.", null);
+		}
+
+		final RollupStore rollupStore = RollupStore.create(rollupDir);
+		final AggregatedInputs aggregatedInputs = AggregatedInputs.read(rollupDir);
+
+		final int fileCount = input.getFileCount();
+		final long[] starts = new long[fileCount];
+		final long[] ends = new long[fileCount];
+		final List<AggregatedInputs.Part> parts = new ArrayList<>(fileCount);
+
+		for (int i = 0; i < fileCount; i++) {
+
+			final File file = input.getFile(i);
+			final AggregatedInputs.Part part = aggregatedInputs.findNewPart(file, input.isGzipped(i));
+
+			if (part == null) {
+				System.out.println("Skipped <" + file + ">, which has no lines that were not aggregated before");
+				continue;
+			}
+
+			if (part.getStart() > 0) {
+				System.out.println("Reading <" + file + "> from offset <" + part.getStart() + ">, up to which it was aggregated before");
+			}
+
+			starts[i] = part.getStart();
+			ends[i] = part.getEnd();
+			parts.add(part);
+		}
+
+		if (!parts.isEmpty()) {
+
+			final Map<String, EventRecords> data = input.read(starts, ends);
+			final int days = rollupStore.add(data);
+
+			aggregatedInputs.addAll(parts);
+
+			System.out.println("Rollups of <" + days + "> days written to <" + rollupDir + ">");
+		}
+
+		final int downsampledDays = rollupStore.downsample(minuteRetentionDays, System.currentTimeMillis());
+
+		if (downsampledDays > 0) {
+			System.out.println("Minute rollups of <" + downsampledDays + "> days downsampled to hourly rollups");
+		}
+	}
+
+	/**
+	 * @return the time given by the option, in the format
+	 *         <code>yyyy-MM-dd HH:mm</code>, or <code>defaultTime</code> if
+	 *         the option is not specified.
+	 */
+	private static long getTime(final Options options, final String optionName, final TimeZone timeZone, final long defaultTime) throws BadOptionsException {
+
+		final String text = options.getOptional(optionName, String.class, null);
+
+		if (text == null) {
+			return defaultTime;
+		}
+
+		final SimpleDateFormat format = new SimpleDateFormat(TIME_OPTION_FORMAT);
+		format.setTimeZone(timeZone);
+		format.setLenient(false);
+
+		try {
+			return format.parse(text).getTime();
+		} catch (final java.text.ParseException e) {
+			throw BadOptionsException.illegalValue(optionName, "<" + text + "> is not in the format <" + TIME_OPTION_FORMAT + ">.", e);
+		}
+	}
+
+	/**
+	 * Reads the lines appended to the file, and generates the report again if
+	 * there were any, once every interval. Runs until interrupted.
+	 * 
+	 * @param offHeapDir
+	 *            directory of the records kept off the heap, or null if the
+	 *            records are on the heap.
+	 */
+	private static void follow(	final FileFollower follower,
+								final long intervalMillis,
+								final Path offHeapDir,
+								final TimeUnit latencyUnit,
+								final TimeZone outputTimeZone,
+								final PercentileOptions percentileOptions,
+								final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc,
+								final String outFile) throws IOException {
+
+		boolean reportGenerated = false;
+
+		while (!Thread.currentThread().isInterrupted()) {
+
+			final boolean newLines = follower.poll();
+
+			if (newLines || !reportGenerated) {
+				final Map<String, EventRecords> data = follower.getRecordsByEventName();
+
+				if (!data.isEmpty()) {
+					final Path path = generateReport(data, offHeapDir, latencyUnit, outputTimeZone, percentileOptions, latencyStatsToHtmlFunc, outFile);
+					reportGenerated = true;
+
+					System.out.println("Report generated at <" + path + "> after reading up to offset <" + follower.getOffset() + ">");
+				}
+			}
+
+			try {
+				Thread.sleep(intervalMillis);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * The input files, and the options that decide how they are read.
+	 */
+	private static final class Input {
+
+		static Input create(final Options options) throws BadOptionsException, IOException {
+
+			final Supplier<RecordParser> parserSupplier = createParserSupplier(options);
+
+			final List<File> inFiles = InputFiles.resolve("inFile", options.getMandatory("inFile", String.class));
+			final int inFileReadThreads = options.getOptional("inFileReadThreads", Integer.class, Integer.valueOf(1)).intValue();
+			final int inFileParallelism = options.getOptional("inFileParallelism", Integer.class, Integer.valueOf(Runtime.getRuntime().availableProcessors())).intValue();
+			final InputReadMode inFileReadMode = 
+					options.getOptional("inFileReadMode", InputReadMode.class, inFileReadThreads > 1 ? InputReadMode.MEMORY_MAPPED : InputReadMode.READER);
+
+			if (inFileReadThreads < 1) {
+				throw BadOptionsException.illegalValue("inFileReadThreads", "Value must be greater than zero.", null);
+			}
+
+			if (inFileParallelism < 1) {
+				throw BadOptionsException.illegalValue("inFileParallelism", "Value must be greater than zero.", null);
+			}
+
+			final int fileCount = inFiles.size();
+			final boolean[] gzipped = new boolean[fileCount];
+
+			for (int i = 0; i < fileCount; i++) {
+				gzipped[i] = GzipInput.isGzip(inFiles.get(i));
+
+				if (!gzipped[i] && (inFileReadThreads > 1) && (inFileReadMode != InputReadMode.MEMORY_MAPPED)) {
+					throw BadOptionsException.illegalValue("inFileReadThreads", "Reading with multiple threads requires read mode <" + InputReadMode.MEMORY_MAPPED + ">.", null);
+				}
+			}
+
+			final TimeZone outputTimeZone = options.getOptional("outputTimeZone", TimeZone.class, TimeZone.getDefault());
+			final long fromTime = getTime(options, "fromTime", outputTimeZone, Long.MIN_VALUE);
+			final long toTime = getTime(options, "toTime", outputTimeZone, Long.MAX_VALUE);
+
+			final String defaultCacheDir = Paths.get(System.getProperty("java.io.tmpdir"), "perfstats_jackpot").toString();
+
+			final boolean useRawFileCache = options.getOptional("rawFileCache", Boolean.class, Boolean.FALSE).booleanValue();
+			final boolean useTimeIndex = options.getOptional("timeIndex", Boolean.class, Boolean.FALSE).booleanValue();
+
+			final RawFileCache rawFileCache;
+
+			if (useRawFileCache) {
+				final String rawFileCacheDir = options.getOptional("rawFileCacheDir", String.class, defaultCacheDir);
+				final ColumnEncoding rawFileEncoding = options.getOptional("rawFileEncoding", ColumnEncoding.class, ColumnEncoding.PLAIN);
+
+				rawFileCache = RawFileCache.create(Paths.get(rawFileCacheDir), rawFileEncoding, inFileReadThreads);
+			} else {
+				rawFileCache = null;
+			}
+
+			final Path timeIndexDir = 
+					useTimeIndex ? Files.createDirectories(Paths.get(options.getOptional("timeIndexDir", String.class, defaultCacheDir))) : null;
+
+			final String parserKey = (useRawFileCache || useTimeIndex) ? createParserKey(options) : null;
+
+			final double latencyResolution = options.getOptional("latencyResolution", Double.class, Double.valueOf(0)).doubleValue();
+
+			if (!(latencyResolution >= 0) || Double.isInfinite(latencyResolution)) {
+				throw BadOptionsException.illegalValue("latencyResolution", "Value must not be negative.", null);
+			}
+
+			final RecordStorage recordStorage = options.getOptional("recordStorage", RecordStorage.class, RecordStorage.HEAP);
+			final OffHeapBuffers offHeapBuffers;
+
+			if (recordStorage == RecordStorage.OFF_HEAP) {
+
+				if (latencyResolution > 0) {
+					throw BadOptionsException.illegalValue("recordStorage", "Records kept compact by option <latencyResolution> can not be kept off the heap.", null);
+				}
+
+				final String offHeapDir = options.getOptional("offHeapDir", String.class, System.getProperty("java.io.tmpdir"));
+				offHeapBuffers = OffHeapBuffers.create(Files.createDirectories(Paths.get(offHeapDir)));
+			} else {
+				offHeapBuffers = null;
+			}
+
+			final Supplier<RecordBuffers> buffersSupplier = RecordBuffers.supplier(latencyResolution, offHeapBuffers);
+
+			return new Input(inFiles, gzipped, inFileReadMode, inFileReadThreads, inFileParallelism, parserSupplier, rawFileCache, timeIndexDir, parserKey, fromTime, toTime, buffersSupplier, offHeapBuffers);
+		}
+
+		private final List<File> files;
+		private final boolean[] gzipped;
+		private final InputReadMode readMode;
+		private final int readThreadsPerFile;
+		private final int parallelism;
+		private final Supplier<RecordParser> parserSupplier;
+
+		/**
+		 * Null if the raw file cache is not used.
+		 */
+		private final RawFileCache rawFileCache;
+
+		/**
+		 * Null if time indexes are not used.
+		 */
+		private final Path timeIndexDir;
+
+		private final String parserKey;
+
+		/**
+		 * Only records with timestamps between these are read. Long.MIN_VALUE
+		 * and Long.MAX_VALUE if the time range is not limited.
+		 */
+		private final long fromTime;
+		private final long toTime;
+
+		/**
+		 * Creates the buffers that keep the records read, compact, on the heap
+		 * or off the heap as decided by the options.
+		 */
+		private final Supplier<RecordBuffers> buffersSupplier;
+
+		/**
+		 * Null if the records are kept on the heap.
+		 */
+		private final OffHeapBuffers offHeapBuffers;
+
+		private Input(	final List<File> files,
+						final boolean[] gzipped,
+						final InputReadMode readMode,
+						final int readThreadsPerFile,
+						final int parallelism,
+						final Supplier<RecordParser> parserSupplier,
+						final RawFileCache rawFileCache,
+						final Path timeIndexDir,
+						final String parserKey,
+						final long fromTime,
+						final long toTime,
+						final Supplier<RecordBuffers> buffersSupplier,
+						final OffHeapBuffers offHeapBuffers) {
+			this.files = files;
+			this.gzipped = gzipped;
+			this.readMode = readMode;
+			this.readThreadsPerFile = readThreadsPerFile;
+			this.parallelism = parallelism;
+			this.parserSupplier = parserSupplier;
+			this.rawFileCache = rawFileCache;
+			this.timeIndexDir = timeIndexDir;
+			this.parserKey = parserKey;
+			this.fromTime = fromTime;
+			this.toTime = toTime;
+			this.buffersSupplier = buffersSupplier;
+			this.offHeapBuffers = offHeapBuffers;
+		}
+
+		boolean isTimeRangeLimited() {
+			return (this.fromTime != Long.MIN_VALUE) || (this.toTime != Long.MAX_VALUE);
+		}
+
+		/**
+		 * @return the directory of the records kept off the heap, or null if
+		 *         the records are on the heap.
+		 */
+		Path getOffHeapDir() {
+			return this.offHeapBuffers == null ? null : this.offHeapBuffers.getDir();
+		}
+
+		int getFileCount() {
+			return this.files.size();
+		}
+
+		File getFile(final int index) {
+			return this.files.get(index);
+		}
+
+		boolean isGzipped(final int index) {
+			return this.gzipped[index];
+		}
+
+		FileFollower createFollower() throws BadOptionsException {
+
+			if ((this.files.size() != 1) || this.gzipped[0]) {
+				throw BadOptionsException.illegalValue("inFile", "Follow mode requires a single uncompressed file.", null);
+			}
+
+			if (isTimeRangeLimited()) {
+				throw BadOptionsException.illegalValue("fromTime", "Follow mode does not support a time range.", null);
+			}
+
+			return FileFollower.create(this.files.get(0), Charset.defaultCharset(), this.parserSupplier.get(), this.buffersSupplier.get());
+		}
+
+		/**
+		 * Reads each file on a separate thread, at most <code>parallelism</code>
+		 * files at a time. The records of the files are merged in the order in
+		 * which the files are given.
+		 */
+		Map<String, EventRecords> read() throws IOException {
+			return read(null, null);
+		}
+
+		/**
+		 * Same as {@linkplain #read()}, except that only the part of each file
+		 * between the byte offsets <code>starts[i]</code> (inclusive) and
+		 * <code>ends[i]</code> (exclusive) is read, which must be line
+		 * boundaries. A compressed file is read whole, unless its part is
+		 * empty. All of every file is read if the offsets are null.
+		 */
+		Map<String, EventRecords> read(final long[] starts, final long[] ends) throws IOException {
+
+			final int fileCount = this.files.size();
+
+			if ((fileCount == 1) || (this.parallelism == 1)) {
+
+				Map<String, EventRecords> data = null;
+
+				for (int i = 0; i < fileCount; i++) {
+					final Map<String, EventRecords> fileData = readFile(i, starts, ends);
+					data = data == null ? fileData : mergeRecords(fileData, data);
+				}
+
+				return data;
+			}
+
+			final ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism, fileCount));
+
+			try {
+				final List<Future<Map<String, EventRecords>>> futures = new ArrayList<>(fileCount);
+
+				for (int i = 0; i < fileCount; i++) {
+
+					final int index = i;
+
+					futures.add(executor.submit(new Callable<Map<String, EventRecords>>() {
+						@Override
+						public Map<String, EventRecords> call() throws IOException {
+							return readFile(index, starts, ends);
+						}
+					}));
+				}
+
+				Map<String, EventRecords> data = null;
+
+				for (final Future<Map<String, EventRecords>> future : futures) {
+					final Map<String, EventRecords> fileData = Utils.getResult(future);
+					data = data == null ? fileData : mergeRecords(fileData, data);
+				}
+
+				return data;
+
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		/**
+		 * Reads the files one at a time into the spill, each by a single
+		 * thread, since the spill can not be shared by threads. The raw file
+		 * cache is not used, since it holds all the records of a file in
+		 * memory at once.
+		 */
+		void spill(final RecordSpill spill) throws IOException {
+
+			final Charset charset = Charset.defaultCharset();
+			final RecordSink sink = isTimeRangeLimited() ? TimeRangeSink.create(spill, this.fromTime, this.toTime) : spill;
+
+			for (int i = 0; i < this.files.size(); i++) {
+
+				final File file = this.files.get(i);
+				final RecordParser parser = this.parserSupplier.get();
+				final RecordIterator recordIterator;
+
+				if (this.gzipped[i]) {
+					recordIterator = RecordIterator.create(new BufferedReader(new InputStreamReader(GzipInput.open(file, this.readThreadsPerFile), charset)), parser);
+				} else if (isTimeRangeLimited()) {
+					final long[] range = findByteRange(file, charset);
+					recordIterator = RecordIterator.createForMappedFile(file, charset, range[0], range[1], parser);
+				} else {
+					recordIterator = openRecordIterator(file, this.readMode, parser);
+				}
+
+				try (final RecordIterator iterator = recordIterator;) {
+					iterator.readAll(sink);
+				}
+			}
+
+			spill.finish();
+		}
+
+		private Map<String, EventRecords> readFile(final int index, final long[] starts, final long[] ends) throws IOException {
+
+			final File file = this.files.get(index);
+			final boolean gzipped = this.gzipped[index];
+
+			if (starts == null) {
+				return readFile(file, gzipped);
+			}
+
+			final long start = starts[index];
+			final long end = ends[index];
+
+			if (start >= end) {
+				return this.buffersSupplier.get().getRecordsByEventName();
+			}
+
+			if (gzipped) {
+				return readFile(file, true);
+			}
+
+			// The part is read from the memory mapped file whatever the read mode, since a Reader can not seek.
+			// Records of part of a file are not put in the raw file cache.
+			final Charset charset = Charset.defaultCharset();
+
+			if (this.readThreadsPerFile > 1) {
+				return readRecordsInParallel(file, charset, start, end, this.parserSupplier, this.readThreadsPerFile, Long.MIN_VALUE, Long.MAX_VALUE, this.buffersSupplier);
+			}
+
+			try (final RecordIterator recordIterator = RecordIterator.createForMappedFile(file, charset, start, end, this.parserSupplier.get());) {
+				return readRecords(recordIterator, this.buffersSupplier);
+			}
+		}
+
+		/**
+		 * Records read for a limited time range are not put in the raw file
+		 * cache, since they may not be all the records of the file.
+		 */
+		private Map<String, EventRecords> readFile(final File file, final boolean gzipped) throws IOException {
+
+			final RawFileCache rawFileCache = this.rawFileCache;
+
+			if (rawFileCache == null) {
+				return parseFile(file, gzipped);
+			}
+
+			final RawFileCache.Key key = rawFileCache.createKey(file, this.parserKey);
+			final Map<String, EventRecords> cachedData = rawFileCache.get(key);
+
+			if (cachedData != null) {
+				System.out.println("Records of <" + file + "> read from raw file <" + key.getCacheFile() + ">");
+				return isTimeRangeLimited() ? filterRecords(cachedData, this.fromTime, this.toTime, this.buffersSupplier) : cachedData;
+			}
+
+			final Map<String, EventRecords> data = parseFile(file, gzipped);
+
+			if (!isTimeRangeLimited() && rawFileCache.put(key, data)) {
+				System.out.println("Records of <" + file + "> written to raw file <" + key.getCacheFile() + ">");
+			}
+
+			return data;
+		}
+
+		private Map<String, EventRecords> parseFile(final File file, final boolean gzipped) throws IOException {
+
+			final Charset charset = Charset.defaultCharset();
+			final Supplier<RecordParser> parserSupplier = this.parserSupplier;
+			final int readThreads = this.readThreadsPerFile;
+
+			if (gzipped) {
+
+				// The read mode does not apply, since the file is decompressed while it is read.
+				// A compressed file can not be searched, hence all of it is read, even for a limited time range.
+				final Reader reader = new BufferedReader(new InputStreamReader(GzipInput.open(file, readThreads), charset));
+
+				try (final RecordIterator recordIterator = RecordIterator.create(reader, parserSupplier.get());) {
+					return readRecords(recordIterator, this.fromTime, this.toTime, this.buffersSupplier);
+				}
+			}
+
+			if (isTimeRangeLimited()) {
+
+				// The range is read from the memory mapped file whatever the read mode, since a Reader can not seek.
+				final long[] range = findByteRange(file, charset);
+				final long start = range[0];
+				final long end = range[1];
+
+				if (readThreads > 1) {
+					return readRecordsInParallel(file, charset, start, end, parserSupplier, readThreads, this.fromTime, this.toTime, this.buffersSupplier);
+				}
+
+				try (final RecordIterator recordIterator = RecordIterator.createForMappedFile(file, charset, start, end, parserSupplier.get());) {
+					return readRecords(recordIterator, this.fromTime, this.toTime, this.buffersSupplier);
+				}
+			}
+
+			if (readThreads > 1) {
+				return readRecordsInParallel(file, charset, 0, Long.MAX_VALUE, parserSupplier, readThreads, Long.MIN_VALUE, Long.MAX_VALUE, this.buffersSupplier);
+			}
+
+			try (final RecordIterator recordIterator = openRecordIterator(file, this.readMode, parserSupplier.get());) {
+				return readRecords(recordIterator, this.buffersSupplier);
+			}
+		}
+
+		/**
+		 * Uses the time index of the file, built first if there is none or the
+		 * file has changed since it was built. Without time indexes, the
+		 * records of the file must be sorted by timestamp.
+		 * 
+		 * @return the start (inclusive) and end (exclusive) byte offsets of
+		 *         the part of the file that has the records of the time range.
+		 */
+		private long[] findByteRange(final File file, final Charset charset) throws IOException {
+
+			if (this.timeIndexDir == null) {
+				return TimeIndex.searchSortedFile(file, charset, this.parserSupplier.get(), this.fromTime, this.toTime);
+			}
+
+			final Path indexFile = TimeIndex.getIndexFile(this.timeIndexDir, file, this.parserKey);
+			TimeIndex index = TimeIndex.read(indexFile, file, this.parserKey);
+
+			if (index == null) {
+				index = TimeIndex.build(file, charset, this.parserSupplier, this.readThreadsPerFile);
+				index.write(indexFile, file, this.parserKey);
+
+				System.out.println("Time index of <" + file + "> written to <" + indexFile + ">");
+			}
+
+			return index.getByteRange(this.fromTime, this.toTime);
+		}
+	}
+
+	/**
+	 * Parsers are not thread-safe (for e.g. they may use SimpleDateFormat),
+	 * hence every reader thread needs its own parser.
+	 */
+	private static Supplier<RecordParser> createParserSupplier(final Options options) throws BadOptionsException {
+
+		final ParserType parserType = options.getOptional("parser", ParserType.class, ParserType.REGEX);
 		final String ignorePattern = options.getOptional("ignorePattern", String.class, null);
-		final String parsePattern = options.getMandatory("parsePattern", String.class);
+		final String[] includeLiterals = getLiterals(options, "includeLiteral");
+		final String[] excludeLiterals = getLiterals(options, "excludeLiteral");
 		final String timestampPattern = options.getMandatory("timestampPattern", String.class);
 		final TimeZone inputTimeZone = options.getOptional("inputTimeZone", TimeZone.class, TimeZone.getDefault());
-		final TimeZone outputTimeZone = options.getOptional("outputTimeZone", TimeZone.class, TimeZone.getDefault());
-		final RecordParser parser = SimpleRegexBasedRecordParser.create(ignorePattern, parsePattern, timestampPattern, inputTimeZone);
 
-		final TimeUnit latencyUnit = options.getMandatory("latencyUnit", TimeUnit.class);
+		final LineFilter lineFilter = LineFilter.create(ignorePattern, includeLiterals, excludeLiterals);
+
+		final Supplier<RecordParser> parserSupplier;
+
+		switch (parserType) {
+
+		case REGEX: {
+			final String parsePattern = options.getMandatory("parsePattern", String.class);
+
+			parserSupplier = new Supplier<RecordParser>() {
+				@Override
+				public RecordParser get() {
+					return SimpleRegexBasedRecordParser.create(lineFilter, parsePattern, timestampPattern, inputTimeZone);
+				}
+			};
+			break;
+		}
+
+		case DELIMITED: {
+			final char delimiter = parseDelimiter(options.getMandatory("delimiter", String.class));
+			final int timestampColumn = options.getMandatory("timestampColumn", Integer.class).intValue();
+			final int timestampColumnCount = options.getOptional("timestampColumnCount", Integer.class, Integer.valueOf(1)).intValue();
+			final int eventNameColumn = options.getMandatory("eventNameColumn", Integer.class).intValue();
+			final int latencyColumn = options.getMandatory("latencyColumn", Integer.class).intValue();
+
+			parserSupplier = new Supplier<RecordParser>() {
+				@Override
+				public RecordParser get() {
+					return DelimitedRecordParser.create(lineFilter, delimiter, timestampColumn, timestampColumnCount, eventNameColumn, latencyColumn,
+							timestampPattern, inputTimeZone);
+				}
+			};
+			break;
+		}
+
+		default:
+			throw new IllegalArgumentException("Internal error: Illegal parser type <" + parserType + ">");
+		}
+
+		return parserSupplier;
+	}
+
+	/**
+	 * @return the values of all the options that decide which records are
+	 *         parsed from a file, and how precisely their latencies are kept.
+	 *         Records read with a different key are not taken from the raw
+	 *         file cache, nor is a time index built with a different key
+	 *         used.
+	 */
+	private static String createParserKey(final Options options) throws BadOptionsException {
+
+		final String[] optionNames = { 
+				"parser", "ignorePattern", "includeLiteral", "excludeLiteral", "parsePattern", "timestampPattern",
+				"delimiter", "timestampColumn", "timestampColumnCount", "eventNameColumn", "latencyColumn", "latencyResolution" };
+
+		final StringBuilder key = new StringBuilder();
+
+		for (final String optionName : optionNames) {
+			key.append(optionName).append('=').append(options.getOptional(optionName, String.class, null)).append('\n');
+		}
+
+		// defaults that depend on the machine
+		key.append("inputTimeZone=").append(options.getOptional("inputTimeZone", TimeZone.class, TimeZone.getDefault()).getID()).append('\n');
+		key.append("charset=").append(Charset.defaultCharset().name());
+
+		return key.toString();
+	}
+
+	/**
+	 * Literals are separated by commas. Whitespace around a comma is not part
+	 * of a literal.
+	 */
+	private static String[] getLiterals(final Options options, final String optionName) throws BadOptionsException {
+
+		final String[] literals = options.getOptional(optionName, String[].class, null);
+
+		if (literals != null) {
+			for (final String literal : literals) {
+				if (literal.isEmpty()) {
+					throw BadOptionsException.illegalValue(optionName, "Literals must not be empty.", null);
+				}
+			}
+		}
+
+		return literals;
+	}
+
+	/**
+	 * Accepts a single character, or <code>\t</code> for the tab character
+	 * which is awkward to pass on the command line.
+	 */
+	private static char parseDelimiter(final String delimiter) throws BadOptionsException {
+
+		final char result;
+
+		if ("\\t".equals(delimiter)) {
+			result = '\t';
+		} else if (delimiter.length() == 1) {
+			result = delimiter.charAt(0);
+		} else {
+			throw BadOptionsException.illegalValue("delimiter", "<" + delimiter + "> is not a single character.", null);
+		}
+
+		return result;
+	}
+
+	private static RecordIterator openRecordIterator(final File inFile, final InputReadMode readMode, final RecordParser parser) throws IOException {
+
+		final RecordIterator recordIterator;
+
+		switch (readMode) {
+
+		case MEMORY_MAPPED:
+			recordIterator = RecordIterator.createForMappedFile(inFile, Charset.defaultCharset(), parser);
+			break;
+
+		case READER:
+			recordIterator = RecordIterator.create(new BufferedReader(new FileReader(inFile)), parser);
+			break;
+
+		default:
+			throw new IllegalArgumentException("Internal error: Illegal read mode <" + readMode + ">");
+		}
+
+		return recordIterator;
+	}
+
+	public static Path generateReport(	final Reader source,
+										final RecordParser parser, 
+										final TimeUnit latencyUnit,
+										final TimeZone outputTimeZone, 
+										final double[] intervalPointsForLatencyHistogram, 
+										final double[] percentileKeys, 
+										final Integer maxIntervalPointsForLatencyDensity,
+										final double heatMapSingleAreaWidth, 
+										final ColorRampScheme colorRampScheme, 
+										final String outputFilePath) throws IOException {
+		
+		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc = 
+				createLatencyStatsToHtmlFunc(outputTimeZone, intervalPointsForLatencyHistogram, percentileKeys, maxIntervalPointsForLatencyDensity, false, heatMapSingleAreaWidth, colorRampScheme);
+
+		return generateReport(source, parser, latencyUnit, outputTimeZone, PercentileOptions.exact(percentileKeys), latencyStatsToHtmlFunc, outputFilePath);
+	}
+
+	/**
+	 * Reports records already read, with exact percentiles.
+	 * 
+	 * @param offHeapDir
+	 *            directory of the records kept off the heap, or null if the
+	 *            records are on the heap.
+	 */
+	static Path generateReport(	final Map<String, EventRecords> data,
+								final Path offHeapDir, 
+								final TimeUnit latencyUnit,
+								final TimeZone outputTimeZone, 
+								final double[] intervalPointsForLatencyHistogram, 
+								final double[] percentileKeys, 
+								final Integer maxIntervalPointsForLatencyDensity,
+								final double heatMapSingleAreaWidth, 
+								final ColorRampScheme colorRampScheme, 
+								final String outputFilePath) throws IOException {
+
+		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc = 
+				createLatencyStatsToHtmlFunc(outputTimeZone, intervalPointsForLatencyHistogram, percentileKeys, maxIntervalPointsForLatencyDensity, false, heatMapSingleAreaWidth, colorRampScheme);
+
+		return generateReport(data, offHeapDir, latencyUnit, outputTimeZone, PercentileOptions.exact(percentileKeys), latencyStatsToHtmlFunc, outputFilePath);
+	}
+
+	private static LatencyStatsToHtmlFunc createLatencyStatsToHtmlFunc(	final TimeZone outputTimeZone, 
+																		final double[] intervalPointsForLatencyHistogram, 
+																		final double[] percentileKeys, 
+																		final Integer maxIntervalPointsForLatencyDensity,
+																		final boolean logLinearLatencyDensity,
+																		final double heatMapSingleAreaWidth, 
+																		final ColorRampScheme colorRampScheme) {
+		return new LatencyStatsToHtmlFunc() {
+			@Override
+			public String[] toHtml(final LatencyStats stats) {
+
+				final TimeSeriesLatencyDensity density = stats.createDensity(outputTimeZone, maxIntervalPointsForLatencyDensity, logLinearLatencyDensity);
+				return stats.toHtml(intervalPointsForLatencyHistogram, percentileKeys, density, heatMapSingleAreaWidth, colorRampScheme);
+			}
+		};
+	}
+
+	public static Path generateReport(	final Reader source,
+										final RecordParser parser, 
+										final TimeUnit latencyUnit,
+										final TimeZone outputTimeZone, 
+										final double[] intervalPointsForLatencyHistogram, 
+										final double[] percentileKeys, 
+										final double minIntervalPointForLatencyDensity, 
+										final double maxIntervalPointForLatencyDensity, 
+										final Integer maxIntervalPointsForLatencyDensity, 
+										final double heatMapSingleAreaWidth, 
+										final ColorRampScheme colorRampScheme, 
+										final String outputFilePath) throws IOException {
+		
+		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc = new LatencyStatsToHtmlFunc() {
+			@Override
+			public String[] toHtml(final LatencyStats stats) {
+
+				final TimeSeriesLatencyDensity density = TimeSeriesLatencyDensity.create(stats.getLatencies(), stats.getTimestamps(), outputTimeZone, minIntervalPointForLatencyDensity, maxIntervalPointForLatencyDensity, maxIntervalPointsForLatencyDensity);
+				return stats.toHtml(intervalPointsForLatencyHistogram, percentileKeys, density, heatMapSingleAreaWidth, colorRampScheme);
+			}
+		};
+
+		return generateReport(source, parser, latencyUnit, outputTimeZone, PercentileOptions.exact(percentileKeys), latencyStatsToHtmlFunc, outputFilePath);
+	}
+
+	private static Path generateReport(	final Reader source,
+										final RecordParser parser, 
+										final TimeUnit latencyUnit, 
+										final TimeZone outputTimeZone, 
+										final PercentileOptions percentileOptions, 
+										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
+										final String outputFilePath) throws IOException {
+
+		try (RecordIterator recordIterator = RecordIterator.create(source, parser);)
+		{
+			return generateReport(recordIterator, latencyUnit, outputTimeZone, percentileOptions, latencyStatsToHtmlFunc, outputFilePath);
+		}
+	}
+
+	private static Path generateReport(	final RecordIterator recordIterator,
+										final TimeUnit latencyUnit, 
+										final TimeZone outputTimeZone, 
+										final PercentileOptions percentileOptions, 
+										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
+										final String outputFilePath) throws IOException {
+
+		final Map<String, EventRecords> data = readRecords(recordIterator, RecordBuffers.supplier(0, null));
+		return generateReport(data, null, latencyUnit, outputTimeZone, percentileOptions, latencyStatsToHtmlFunc, outputFilePath);
+	}
+
+	private static Map<String, EventRecords> readRecords(final RecordIterator recordIterator, final Supplier<RecordBuffers> buffersSupplier) {
+
+		final RecordBuffers buffers = buffersSupplier.get();
+		recordIterator.readAll(buffers);
+
+		return buffers.getRecordsByEventName();
+	}
+
+	/**
+	 * Same as {@linkplain #readRecords(RecordIterator, Supplier)}, except that
+	 * only records with timestamps between <code>fromTime</code> (inclusive)
+	 * and <code>toTime</code> (exclusive) are read.
+	 */
+	private static Map<String, EventRecords> readRecords(final RecordIterator recordIterator, final long fromTime, final long toTime, final Supplier<RecordBuffers> buffersSupplier) {
+
+		final RecordBuffers buffers = buffersSupplier.get();
+		recordIterator.readAll(TimeRangeSink.create(buffers, fromTime, toTime));
+
+		return buffers.getRecordsByEventName();
+	}
+
+	/**
+	 * @return the records of the time range, leaving out event types that
+	 *         have none.
+	 */
+	private static Map<String, EventRecords> filterRecords(final Map<String, EventRecords> data, final long fromTime, final long toTime, final Supplier<RecordBuffers> buffersSupplier) {
+
+		final RecordBuffers buffers = buffersSupplier.get();
+		final RecordSink sink = TimeRangeSink.create(buffers, fromTime, toTime);
+
+		for (final Entry<String, EventRecords> entry : data.entrySet()) {
+
+			final String eventType = entry.getKey();
+			final EventRecords records = entry.getValue();
+
+			final long[] timestamps = records.getTimestamps();
+			final double[] latencies = records.getLatencies();
+
+			for (int i = 0; i < timestamps.length; i++) {
+				sink.accept(eventType, 0, eventType.length(), timestamps[i], latencies[i]);
+			}
+		}
+
+		return buffers.getRecordsByEventName();
+	}
+
+	/**
+	 * Splits the part of the file between the byte offsets
+	 * <code>startOffset</code> and <code>endOffset</code> into ranges that
+	 * begin at line boundaries and reads each range using a separate parser.
+	 * The records of the ranges are merged in the order in which the ranges
+	 * appear in the file, so the result is the same as that of reading the
+	 * part sequentially. Only records with timestamps between
+	 * <code>fromTime</code> and <code>toTime</code> are read.
+	 */
+	private static Map<String, EventRecords> readRecordsInParallel(final File file, 
+																				final Charset charset, 
+																				final long startOffset,
+																				final long endOffset,
+																				final Supplier<RecordParser> parserSupplier,
+																				final int threadCount,
+																				final long fromTime,
+																				final long toTime,
+																				final Supplier<RecordBuffers> buffersSupplier) throws IOException {
+
+		final long length = Math.min(endOffset, file.length()) - startOffset;
+
+		// More ranges than threads so that a thread that finishes early can pick up more work.
+		final int maxRangeCount = (int) Math.max(1, Math.min(threadCount * 4L, length / MIN_PARALLEL_READ_RANGE_SIZE));
+		final long[] boundaries = MappedFileLineReader.findLineBoundaries(file, startOffset, endOffset, maxRangeCount);
+		final int rangeCount = boundaries.length - 1;
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, rangeCount));
+
+		try {
+			final List<Future<Map<String, EventRecords>>> futures = new ArrayList<>(rangeCount);
+
+			for (int i = 0; i < rangeCount; i++) {
+
+				final long start = boundaries[i];
+				final long end = boundaries[i + 1];
+				final RecordParser parser = parserSupplier.get();
+
+				futures.add(executor.submit(new Callable<Map<String, EventRecords>>() {
+					@Override
+					public Map<String, EventRecords> call() throws IOException {
+						try (final RecordIterator recordIterator = RecordIterator.createForMappedFile(file, charset, start, end, parser);) {
+							return readRecords(recordIterator, fromTime, toTime, buffersSupplier);
+						}
+					}
+				}));
+			}
+
+			Map<String, EventRecords> data = null;
+
+			for (final Future<Map<String, EventRecords>> future : futures) {
+
+				final Map<String, EventRecords> rangeData = Utils.getResult(future);
+				data = data == null ? rangeData : mergeRecords(rangeData, data);
+			}
 
-		final double[] histogramIntervalPoints = options.getMandatory("histogramIntervalPoints", double[].class);
-		final double[] percentilePoints = options.getMandatory("percentilePoints", double[].class);
-		final Integer heatMapMaxIntervalPoints = options.getOptional("heatMapMaxIntervalPoints", Integer.class, null);
+			return data;
 
-		final ColorRampScheme colorRampScheme = options.getOptional("colorRampScheme", ColorRampScheme.class, ColorRampScheme.DEFAULT);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-		final String inFile = options.getMandatory("inFile", String.class);
-		final String outFile = options.getMandatory("outFile", String.class);
+	/**
+	 * Appends the records of <code>source</code> to those of
+	 * <code>target</code>.
+	 * 
+	 * @return target
+	 */
+	private static Map<String, EventRecords> mergeRecords(final Map<String, EventRecords> source, final Map<String, EventRecords> target) {
 
-		final int heatMapSingleAreaWidth = 20;
+		for (final Entry<String, EventRecords> entry : source.entrySet()) {
 
-		final Path path;
+			final String eventType = entry.getKey();
+			final EventRecords records = target.get(eventType);
 
-		try (final Reader fr = new FileReader(inFile); final Reader source = new BufferedReader(fr);) {
-			
-			path = generateReport(source, parser, latencyUnit, outputTimeZone, histogramIntervalPoints, percentilePoints, 
-									heatMapMaxIntervalPoints, heatMapSingleAreaWidth, colorRampScheme, outFile);
+			if (records == null) {
+				target.put(eventType, entry.getValue());
+			} else {
+				records.addAll(entry.getValue());
+			}
 		}
 
-		System.out.println("Report generated at <" + path + ">");
+		return target;
 	}
 
-	public static Path generateReport(	final Reader source,
-										final RecordParser parser, 
-										final TimeUnit latencyUnit,
+	/**
+	 * The stats of each event type are created from its records, decoded into
+	 * the heap one event type at a time if the records are kept off the heap.
+	 * The records of all the event types combined are then not copied into
+	 * the heap. Instead, their stats and charts are created in passes over
+	 * the records, a chunk at a time, and are the same as those of records
+	 * on the heap. See {@linkplain RecordBlocks}.
+	 * 
+	 * @param offHeapDir
+	 *            directory of the records kept off the heap, or null if the
+	 *            records are on the heap.
+	 */
+	private static Path generateReport(	final Map<String, EventRecords> data, 
+										final Path offHeapDir, 
+										final TimeUnit latencyUnit, 
 										final TimeZone outputTimeZone, 
-										final double[] intervalPointsForLatencyHistogram, 
-										final double[] percentileKeys, 
-										final Integer maxIntervalPointsForLatencyDensity,
-										final double heatMapSingleAreaWidth, 
-										final ColorRampScheme colorRampScheme, 
-										final String outputFilePath) throws IOException {
-		
-		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc = new LatencyStatsToHtmlFunc() {
+										final PercentileOptions percentileOptions, 
+										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
+										final String reportFilePath) throws IOException {
+
+		final Function<String, LatencyStats> statsByEventType = new Function<String, LatencyStats>() {
 			@Override
-			public String[] toHtml(final LatencyStats stats) {
+			public LatencyStats apply(final String eventType) {
+				return Stats.create(data.get(eventType), latencyUnit, outputTimeZone, eventType, percentileOptions).getLatencyStats();
+			}
+		};
 
-				final TimeSeriesLatencyDensity density = TimeSeriesLatencyDensity.create(stats.getLatencies(), stats.getTimestamps(), outputTimeZone, maxIntervalPointsForLatencyDensity);
-				return stats.toHtml(intervalPointsForLatencyHistogram, percentileKeys, density, heatMapSingleAreaWidth, colorRampScheme);
+		final Supplier<LatencyStats> combinedStats = new Supplier<LatencyStats>() {
+			@Override
+			public LatencyStats get() {
+
+				if (offHeapDir != null) {
+					try {
+						return createCombinedStats(data, offHeapDir, latencyUnit, percentileOptions);
+					} catch (final IOException e) {
+						throw new RuntimeException("Error while reading records", e);
+					}
+				}
+
+				long totalCount = 0;
+				for (final EventRecords latencies : data.values()) {
+					totalCount += latencies.size();
+				}
+
+				// exactly sized, so that its arrays are used by the stats without copying
+				final EventRecords latenciesSuperSet = EventRecords.create((int) Math.min(Integer.MAX_VALUE, totalCount));
+
+				for (final EventRecords latencies : data.values()) {
+					latenciesSuperSet.addAll(latencies);
+				}
+
+				return Stats.create(latenciesSuperSet, latencyUnit, outputTimeZone, "All APIs combined", percentileOptions).getLatencyStats();
 			}
 		};
 
-		return generateReport(source, parser, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
+		return generateReport(createStatsIterator(data.keySet(), statsByEventType), combinedStats, latencyStatsToHtmlFunc, reportFilePath);
 	}
 
-	public static Path generateReport(	final Reader source,
-										final RecordParser parser, 
-										final TimeUnit latencyUnit,
-										final TimeZone outputTimeZone, 
-										final double[] intervalPointsForLatencyHistogram, 
-										final double[] percentileKeys, 
-										final double minIntervalPointForLatencyDensity, 
-										final double maxIntervalPointForLatencyDensity, 
-										final Integer maxIntervalPointsForLatencyDensity, 
-										final double heatMapSingleAreaWidth, 
-										final ColorRampScheme colorRampScheme, 
-										final String outputFilePath) throws IOException {
-		
-		final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc = new LatencyStatsToHtmlFunc() {
-			@Override
-			public String[] toHtml(final LatencyStats stats) {
+	/**
+	 * @param sortDir
+	 *            directory of the temporary files of the sort of the
+	 *            latencies.
+	 */
+	private static LatencyStats createCombinedStats(final Map<String, EventRecords> data, 
+													final Path sortDir, 
+													final TimeUnit latencyUnit, 
+													final PercentileOptions percentileOptions) throws IOException {
 
-				final TimeSeriesLatencyDensity density = TimeSeriesLatencyDensity.create(stats.getLatencies(), stats.getTimestamps(), outputTimeZone, minIntervalPointForLatencyDensity, maxIntervalPointForLatencyDensity, maxIntervalPointsForLatencyDensity);
-				return stats.toHtml(intervalPointsForLatencyHistogram, percentileKeys, density, heatMapSingleAreaWidth, colorRampScheme);
+		// in the order in which the records on the heap are combined
+		final RecordBlocks blocks = new RecordBlocks() {
+			@Override
+			public void forEachBlock(final RecordSpill.BlockSink sink) throws IOException {
+				for (final Entry<String, EventRecords> entry : data.entrySet()) {
+					entry.getValue().forEachChunk(entry.getKey(), sink);
+				}
 			}
 		};
 
-		return generateReport(source, parser, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
+		return LatencyStats.create(blocks, sortDir, latencyUnit, "All APIs combined", percentileOptions);
 	}
 
-	private static Path generateReport(	final Reader source,
-										final RecordParser parser, 
+	/**
+	 * Reads one partition of the spill at a time, so that only the records of
+	 * the event types of one partition are in memory. The records of event
+	 * types with more than <code>maxEventRecords</code> records are not held
+	 * in memory either. Their stats, and the stats of all the event types
+	 * combined, are created in passes over the spilled blocks of their
+	 * records, and are the same as the stats of the records held in memory,
+	 * the median and the percentiles found by an external sort of the
+	 * latencies. See {@linkplain ExternalSort}.
+	 */
+	private static Path generateReport(	final RecordSpill spill, 
+										final long maxEventRecords, 
 										final TimeUnit latencyUnit, 
 										final TimeZone outputTimeZone, 
+										final PercentileOptions percentileOptions, 
 										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
-										final String outputFilePath) throws IOException {
+										final String reportFilePath) throws IOException {
 
-		try (RecordIterator recordIterator = RecordIterator.create(source, parser);)
-		{
-			final Path reportFilePath;
+		final Set<String> streamedEventTypes = spill.getEventTypesWithMoreRecordsThan(maxEventRecords);
+
+		final Iterator<LatencyStats> stats = new Iterator<LatencyStats>() {
 
-			if (false) {
+			private int nextPartition = 0;
+			private Iterator<Entry<String, EventRecords>> partitionEntries = Collections.emptyIterator();
+			private final Iterator<String> streamedEntries = streamedEventTypes.iterator();
 
-				// TODO - enable after adding feature to read from raw file if the
-				// contents of input file have not changed since last read.
+			@Override
+			public boolean hasNext() {
+
+				while (!this.partitionEntries.hasNext() && (this.nextPartition < spill.getPartitionCount())) {
+					try {
+						this.partitionEntries = spill.readPartition(this.nextPartition++, streamedEventTypes).entrySet().iterator();
+					} catch (final IOException e) {
+						throw new RuntimeException("Error while reading spilled records", e);
+					}
+				}
 
-				final File rawFile = createRawFile(recordIterator);
-				reportFilePath = generateReport(rawFile, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
+				return this.partitionEntries.hasNext() || this.streamedEntries.hasNext();
+			}
 
-			} else {
-				final Map<String, List<TimestampAndLatency>> data = new TreeMap<>();
+			@Override
+			public LatencyStats next() {
+
+				if (!this.partitionEntries.hasNext()) {
+
+					final String eventType = this.streamedEntries.next();
+
+					final RecordBlocks blocks = new RecordBlocks() {
+						@Override
+						public void forEachBlock(final RecordSpill.BlockSink sink) throws IOException {
+							spill.readBlocks(eventType, sink);
+						}
+					};
 
-				while (recordIterator.hasNext()) {
-					final Record record = recordIterator.next();
-					addRecord(record.getEventName(), record.getTimestamp(), record.getLatency(), data);
+					try {
+						return LatencyStats.create(blocks, spill.getDir(), latencyUnit, eventType, percentileOptions);
+					} catch (final IOException e) {
+						throw new RuntimeException("Error while reading spilled records", e);
+					}
 				}
 
-				reportFilePath = generateReport(data, latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
+				final Entry<String, EventRecords> entry = this.partitionEntries.next();
+
+				// so that the records can be collected once their stats are created
+				this.partitionEntries.remove();
+
+				final String eventType = entry.getKey();
+				return Stats.create(entry.getValue(), latencyUnit, outputTimeZone, eventType, percentileOptions).getLatencyStats();
 			}
 
-			return reportFilePath;
-		}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		final Supplier<LatencyStats> combinedStats = new Supplier<LatencyStats>() {
+			@Override
+			public LatencyStats get() {
+
+				final RecordBlocks blocks = new RecordBlocks() {
+					@Override
+					public void forEachBlock(final RecordSpill.BlockSink sink) throws IOException {
+						spill.readBlocks(sink);
+					}
+				};
+
+				try {
+					return LatencyStats.create(blocks, spill.getDir(), latencyUnit, "All APIs combined", percentileOptions);
+				} catch (final IOException e) {
+					throw new RuntimeException("Error while reading spilled records", e);
+				}
+			}
+		};
+
+		return generateReport(stats, combinedStats, latencyStatsToHtmlFunc, reportFilePath);
 	}
 
-	private static Path generateReport(	final File rawDataFile,
-										final TimeUnit latencyUnit, 
-										final TimeZone outputTimeZone, 
-										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
-										final String outputFilePath) throws IOException, FileNotFoundException {
-		
-		return generateReport(parseRawFile(rawDataFile), latencyUnit, outputTimeZone, latencyStatsToHtmlFunc, outputFilePath);
+	/**
+	 * The chunks of a sort take up to about an eighth of the maximum heap,
+	 * since a few sorts may be in progress at a time.
+	 */
+	private static ExternalSort createExternalSort(final Path dir) {
+
+		final int threadCount = Math.min(EXTERNAL_SORT_MAX_THREADS, Runtime.getRuntime().availableProcessors());
+		final long chunkSize = Runtime.getRuntime().maxMemory() / (8 * 8 * (threadCount + 1));
+
+		return ExternalSort.create(dir, (int) Math.max(EXTERNAL_SORT_MIN_CHUNK_SIZE, Math.min(EXTERNAL_SORT_MAX_CHUNK_SIZE, chunkSize)), threadCount);
 	}
 
-	private static Path generateReport(	final Map<String, List<TimestampAndLatency>> data, 
-										final TimeUnit latencyUnit, 
-										final TimeZone outputTimeZone, 
+	/**
+	 * Percentiles, median and histogram of the report are estimated from the
+	 * histograms of the rollups. See {@linkplain LatencyRollup}.
+	 */
+	private static Path generateReportFromRollups(	final Map<String, RollupStore.Series> data, 
+													final TimeUnit latencyUnit, 
+													final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
+													final String reportFilePath) throws IOException {
+
+		final Function<String, LatencyStats> statsByEventType = new Function<String, LatencyStats>() {
+			@Override
+			public LatencyStats apply(final String eventType) {
+				return LatencyStats.create(data.get(eventType), latencyUnit, eventType);
+			}
+		};
+
+		final Supplier<LatencyStats> combinedStats = new Supplier<LatencyStats>() {
+			@Override
+			public LatencyStats get() {
+
+				final RollupStore.Series combined = new RollupStore.Series();
+
+				for (final RollupStore.Series series : data.values()) {
+					combined.addAll(series);
+				}
+
+				return LatencyStats.create(combined, latencyUnit, "All APIs combined");
+			}
+		};
+
+		return generateReport(createStatsIterator(data.keySet(), statsByEventType), combinedStats, latencyStatsToHtmlFunc, reportFilePath);
+	}
+
+	/**
+	 * @return the stats of the event types, each created when the iterator
+	 *         gets to it.
+	 */
+	private static Iterator<LatencyStats> createStatsIterator(final Set<String> eventTypes, final Function<String, LatencyStats> statsByEventType) {
+
+		final Iterator<String> eventTypeIterator = eventTypes.iterator();
+
+		return new Iterator<LatencyStats>() {
+
+			@Override
+			public boolean hasNext() {
+				return eventTypeIterator.hasNext();
+			}
+
+			@Override
+			public LatencyStats next() {
+				return statsByEventType.apply(eventTypeIterator.next());
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @param stats
+	 *            the stats of the event types, in any order. The iterator
+	 *            creates the stats of one event type at a time, since the
+	 *            stats of raw records hold the records. The stats of all the
+	 *            event types combined are created after the iterator is done.
+	 */
+	private static Path generateReport(	final Iterator<LatencyStats> stats, 
+										final Supplier<LatencyStats> combinedStats, 
 										final LatencyStatsToHtmlFunc latencyStatsToHtmlFunc, 
 										final String reportFilePath) throws IOException {
 
 		final String NL = System.lineSeparator();
 
-		final List<TimestampAndLatency> latenciesSuperSet = new ArrayList<>();
-
 		final StringBuilder linksHtml = new StringBuilder();
 		final StringBuilder contentsHtml = new StringBuilder();
 
@@ -219,26 +1426,25 @@ public final class LatencyReportGenerator {
 		linksHtml.append("</tr>").append(NL);
 
 		final TreeMap<Double, String> linkHtmlsSortedByMedian = new TreeMap<>();
+		final TreeMap<String, String> contentHtmlsByEventType = new TreeMap<>();
 
-		for (final Entry<String, List<TimestampAndLatency>> entry : data.entrySet()) {
-			final String eventType = entry.getKey();
-			final List<TimestampAndLatency> latencies = entry.getValue();
+		while (stats.hasNext()) {
 
-			final Stats stats = Stats.create(latencies, latencyUnit, outputTimeZone, eventType);
-			final LatencyStats latencyStats = stats.getLatencyStats();
+			final LatencyStats latencyStats = stats.next();
 			final String[] h = latencyStatsToHtmlFunc.toHtml(latencyStats);
 
-			contentsHtml.append(h[1]).append(NL);
-			contentsHtml.append("<br/><br/>").append(NL);
+			contentHtmlsByEventType.put(latencyStats.getEventType(), h[1]);
 			
 			linkHtmlsSortedByMedian.put(Double.valueOf(latencyStats.getMedian()), h[0]);
+		}
 
-			latenciesSuperSet.addAll(latencies);
+		for (final String contentHtml : contentHtmlsByEventType.values()) {
+			contentsHtml.append(contentHtml).append(NL);
+			contentsHtml.append("<br/><br/>").append(NL);
 		}
 
 		{
-			final Stats stats = Stats.create(latenciesSuperSet, latencyUnit, outputTimeZone, "All APIs combined");
-			final LatencyStats latencyStats = stats.getLatencyStats();
+			final LatencyStats latencyStats = combinedStats.get();
 			final String[] h = latencyStatsToHtmlFunc.toHtml(latencyStats);
 
 			contentsHtml.append(h[1]).append(NL);
@@ -274,110 +1480,100 @@ public final class LatencyReportGenerator {
 		 */
 	}
 
-	private static Map<String, List<TimestampAndLatency>> parseRawFile(final File rawFile) throws IOException, FileNotFoundException {
-		final Map<String, List<TimestampAndLatency>> data = new TreeMap<>();
-
-		try (final FileInputStream fis = new FileInputStream(rawFile);
-				final BufferedInputStream bis = new BufferedInputStream(fis);
-				final DataInputStream dis = new DataInputStream(bis);) {
-
-			while (true) {
-
-				final String eventType;
-				try {
-					eventType = dis.readUTF();
-				} catch (final EOFException e) {
-					break;
-				}
-
-				final long timestamp = dis.readLong();
-				final double latency = dis.readDouble();
-
-				addRecord(eventType, timestamp, latency, data);
-			}
-		}
-
-		return data;
+	private static CharSequence createHtmlColumnHeaderWithLink(final String columnName, final String link) {
+		return "<th>" + createHtmlTextWithLink(columnName, link) + "</th>";
 	}
 
-	private static void addRecord(	final String eventType, 
-									final long timestamp, 
-									final double latency, 
-									final Map<String, List<TimestampAndLatency>> data) {
-
-		List<TimestampAndLatency> list = data.get(eventType);
-		if (list == null) {
-			list = new ArrayList<>();
-			data.put(eventType, list);
-		}
-
-		list.add(new TimestampAndLatency(timestamp, latency));
+	private static CharSequence createHtmlTextWithLink(final String text, final String link) {
+		return text + "<sup><a href=\"" + link + "\" target=\"_blank\">?</a></sup>";
 	}
 
-	private static File createRawFile(final RecordIterator recordIterator) throws IOException, FileNotFoundException {
-		
-		final String tmpIODir = System.getProperty("java.io.tmpdir");
-		final Path baseDir = Files.createDirectories(Paths.get(tmpIODir, "perfstats_jackpot"));
-
-		final Path dir;
-		{
-			final String processName = ManagementFactory.getRuntimeMXBean().getName();
-			final String timestamp = new SimpleDateFormat("ddMMyyyyHHmmssSSS").format(new Date());
-			final String id = processName + timestamp + uniquifier.incrementAndGet() + Math.random();
-			dir = Files.createDirectory(new File(baseDir.toFile(), id).toPath());
+	/**
+	 * How the median and the percentiles of the latencies of raw records are
+	 * found.
+	 */
+	private static final class PercentileOptions {
 
-			// TODO - check for universal uniqueness of the directory.
-			// Read specification of Files.createDirectory
+		/**
+		 * @param percentileKeys
+		 *            the percentiles of the report. Exact percentiles of
+		 *            other keys take another selection.
+		 */
+		static PercentileOptions exact(final double[] percentileKeys) {
+			return new PercentileOptions(percentileKeys, PercentileMode.EXACT, QuantileSketch.DEFAULT_SIZE, false, null);
 		}
 
-		final File rawFile = new File(dir.toFile(), "raw.dat");
-
-		try (final FileOutputStream fw = new FileOutputStream(rawFile);
-				BufferedOutputStream bos = new BufferedOutputStream(fw);
-				DataOutputStream dos = new DataOutputStream(bos);) {
-			while (recordIterator.hasNext()) {
-
-				final Record record = recordIterator.next();
-
-				final String eventName = record.getEventName();
-				final long timestamp = record.getTimestamp();
-				final double latency = record.getLatency();
+		/**
+		 * @param percentileKeys
+		 *            the percentiles of the report. Exact percentiles of
+		 *            other keys take another selection.
+		 * @param verifySketch
+		 *            whether the latencies are sorted anyway in sketch mode,
+		 *            to find the rank error of the estimates.
+		 * @param histogramSignificantDigits
+		 *            if not null, the median and the percentiles are
+		 *            estimated from log-linear buckets with these many
+		 *            significant digits. See {@linkplain LogLinearHistogram}.
+		 */
+		static PercentileOptions create(final double[] percentileKeys, 
+										final PercentileMode mode, 
+										final int sketchSize, 
+										final boolean verifySketch, 
+										final Integer histogramSignificantDigits) {
+			return new PercentileOptions(percentileKeys, mode, sketchSize, verifySketch, histogramSignificantDigits);
+		}
 
-				dos.writeUTF(eventName);
-				dos.writeLong(timestamp);
-				dos.writeDouble(latency);
-			}
+		private final double[] percentileKeys;
+		private final PercentileMode mode;
+		private final int sketchSize;
+		private final boolean verifySketch;
+		private final Integer histogramSignificantDigits;
+
+		private PercentileOptions(	final double[] percentileKeys, 
+									final PercentileMode mode, 
+									final int sketchSize, 
+									final boolean verifySketch, 
+									final Integer histogramSignificantDigits) {
+			this.percentileKeys = percentileKeys;
+			this.mode = mode;
+			this.sketchSize = sketchSize;
+			this.verifySketch = verifySketch;
+			this.histogramSignificantDigits = histogramSignificantDigits;
 		}
 
-		System.out.println("RAW file created : " + rawFile);
+		double[] getPercentileKeys() {
+			return this.percentileKeys;
+		}
 
-		return rawFile;
-	}
+		boolean isVerifySketch() {
+			return this.verifySketch;
+		}
 
-	private static CharSequence createHtmlColumnHeaderWithLink(final String columnName, final String link) {
-		return "<th>" + createHtmlTextWithLink(columnName, link) + "</th>";
-	}
+		/**
+		 * @return null unless in sketch mode.
+		 */
+		QuantileSketch createSketch() {
+			return this.mode == PercentileMode.SKETCH ? QuantileSketch.create(this.sketchSize) : null;
+		}
 
-	private static CharSequence createHtmlTextWithLink(final String text, final String link) {
-		return text + "<sup><a href=\"" + link + "\" target=\"_blank\">?</a></sup>";
+		/**
+		 * @return null unless the percentiles are estimated from log-linear
+		 *         buckets.
+		 */
+		LogLinearHistogram createBuckets() {
+			return this.histogramSignificantDigits == null ? 
+					null : LogLinearHistogram.create(LogLinearHistogram.getSubBucketBits(this.histogramSignificantDigits.intValue()));
+		}
 	}
 
 	private static final class Stats {
 		
-		static Stats create(final List<TimestampAndLatency> latencyData, final TimeUnit latencyUnit, final TimeZone outputTimeZone, final String eventType) {
-			final int len = latencyData.size();
-
-			final double[] latencies = new double[len];
-			final long[] timestamps = new long[len];
-
-			int i = 0;
-			for (final TimestampAndLatency datum : latencyData) {
-				latencies[i] = datum.latency;
-				timestamps[i] = datum.timestamp;
-				i++;
-			}
-
-			return new Stats(latencies, latencyUnit, timestamps, outputTimeZone, eventType);
+		static Stats create(final EventRecords latencyData, 
+							final TimeUnit latencyUnit, 
+							final TimeZone outputTimeZone, 
+							final String eventType, 
+							final PercentileOptions percentileOptions) {
+			return new Stats(latencyData.getLatencies(), latencyUnit, latencyData.getTimestamps(), outputTimeZone, eventType, percentileOptions);
 		}
 
 		private final LatencyStats latencyStats;
@@ -385,8 +1581,13 @@ public final class LatencyReportGenerator {
 		// TODO - include volume stats in the report
 		private final VolumeStats volumeStats;
 
-		Stats(final double[] latencies, final TimeUnit latencyUnit, final long[] timestamps, final TimeZone outputTimeZone, final String eventType) {
-			this.latencyStats = LatencyStats.create(latencies, latencyUnit, timestamps, eventType);
+		Stats(	final double[] latencies, 
+				final TimeUnit latencyUnit, 
+				final long[] timestamps, 
+				final TimeZone outputTimeZone, 
+				final String eventType, 
+				final PercentileOptions percentileOptions) {
+			this.latencyStats = LatencyStats.create(latencies, latencyUnit, timestamps, eventType, percentileOptions);
 			this.volumeStats = VolumeStats.create(timestamps, outputTimeZone);
 		}
 
@@ -524,26 +1725,130 @@ public final class LatencyReportGenerator {
 				buf.append(e.getValue()).append(NL).append(NL);
 			}
 
-			return buf.toString();
+			return buf.toString();
+		}
+	}
+
+	/**
+	 * http://www.itl.nist.gov/div898/handbook/eda/section3/eda35h.htm
+	 * http://docs.oracle.com/cd/E17236_01/epm.1112/cb_statistical/frameset.htm?ch07s02s10s01.html 
+	 * http://www.astm.org/SNEWS/MA_2011/datapoints_ma11.html
+	 * http://msdn.microsoft.com/en-us/library/bb924370.aspx
+	 * http://www.stanford.edu/class/archive/anthsci/anthsci192/anthsci192.1064/handouts/calculating%20percentiles.pdf
+	 * http://web.stanford.edu/~mwaskom/software/seaborn/tutorial/plotting_distributions.html
+	 * 
+	 * TODO - add implementations for other outlier detection techniques,
+	 * especially the one based on mean absolute deviation. See
+	 * http://www.itl.nist.gov/div898/handbook/eda/section3/eda35h.htm
+	 */
+	private static final class LatencyStats {
+
+		private static final int MAX_LOG_LINEAR_HISTOGRAM_INTERVAL_POINTS = 40;
+		
+		static LatencyStats create(	final double[] latencies, 
+									final TimeUnit latencyUnit, 
+									final long[] timestamps, 
+									final String eventType, 
+									final PercentileOptions percentileOptions) {
+			return new LatencyStats(latencies, latencyUnit, timestamps, eventType, percentileOptions);
+		}
+
+		/**
+		 * The stats of records that are not held in the heap, the same as the
+		 * stats of the records in arrays. They are computed in two passes over
+		 * the blocks of the records, the median and the percentiles by an
+		 * external sort of the latencies unless they are estimated from
+		 * buckets or a sketch. The charts are created in more passes over the
+		 * blocks.
+		 * 
+		 * @param blocks
+		 *            must stay unchanged as long as the stats are used.
+		 * @param sortDir
+		 *            directory of the temporary files of the sort.
+		 */
+		static LatencyStats create(	final RecordBlocks blocks, 
+									final Path sortDir, 
+									final TimeUnit latencyUnit, 
+									final String eventType, 
+									final PercentileOptions percentileOptions) throws IOException {
+
+			final RecordSummary summary = RecordSummary.create();
+			blocks.forEachBlock(summary);
+
+			return new LatencyStats(blocks, summary, sortDir, latencyUnit, eventType, percentileOptions);
+		}
+
+		static LatencyStats create(final RollupStore.Series rollups, final TimeUnit latencyUnit, final String eventType) {
+			return new LatencyStats(rollups, latencyUnit, eventType);
+		}
+
+		/**
+		 * Selects the latencies at the ranks of the median and the
+		 * percentiles from one copy of the latencies. See
+		 * {@linkplain QuickSelect}.
+		 */
+		private static Map<Long, Double> selectMedianAndPercentiles(final double[] latencies, final double[] percentileKeys) {
+
+			final long[] ranks = getMedianAndPercentileRanks(latencies.length, percentileKeys);
+			final int[] indices = new int[ranks.length];
+
+			for (int i = 0; i < ranks.length; i++) {
+				indices[i] = (int) ranks[i];
+			}
+
+			final double[] selected = QuickSelect.select(latencies, indices);
+			final Map<Long, Double> valuesByRank = new HashMap<>();
+
+			for (final int index : indices) {
+				valuesByRank.put(Long.valueOf(index), Double.valueOf(selected[index]));
+			}
+
+			return valuesByRank;
+		}
+
+		/**
+		 * @return the ranks of the latencies that give the median and the
+		 *         percentiles of <code>n</code> latencies, in ascending order.
+		 */
+		private static long[] getMedianAndPercentileRanks(final long n, final double[] percentileKeys) {
+
+			final TreeSet<Long> ranks = new TreeSet<>();
+
+			ranks.add(Long.valueOf((n - 1) / 2));
+			ranks.add(Long.valueOf(n / 2));
+
+			for (final double key : percentileKeys) {
+
+				final long index = getPercentileIndex(getPercentilePosition(n, key));
+
+				if ((index >= 0) && (index < n)) {
+					ranks.add(Long.valueOf(index));
+
+					if (index < (n - 1)) {
+						ranks.add(Long.valueOf(index + 1));
+					}
+				}
+			}
+
+			final long[] result = new long[ranks.size()];
+			int k = 0;
+
+			for (final Long rank : ranks) {
+				result[k++] = rank.longValue();
+			}
+
+			return result;
+		}
+
+		/**
+		 * Same positions as Utils.getPthPercentile(..)
+		 */
+		private static double getPercentilePosition(final long n, final double key) {
+			return (n * (key / 100)) + 0.5;
 		}
-	}
 
-	/**
-	 * http://www.itl.nist.gov/div898/handbook/eda/section3/eda35h.htm
-	 * http://docs.oracle.com/cd/E17236_01/epm.1112/cb_statistical/frameset.htm?ch07s02s10s01.html 
-	 * http://www.astm.org/SNEWS/MA_2011/datapoints_ma11.html
-	 * http://msdn.microsoft.com/en-us/library/bb924370.aspx
-	 * http://www.stanford.edu/class/archive/anthsci/anthsci192/anthsci192.1064/handouts/calculating%20percentiles.pdf
-	 * http://web.stanford.edu/~mwaskom/software/seaborn/tutorial/plotting_distributions.html
-	 * 
-	 * TODO - add implementations for other outlier detection techniques,
-	 * especially the one based on mean absolute deviation. See
-	 * http://www.itl.nist.gov/div898/handbook/eda/section3/eda35h.htm
-	 */
-	private static final class LatencyStats {
-		
-		static LatencyStats create(final double[] latencies, final TimeUnit latencyUnit, final long[] timestamps, final String eventType) {
-			return new LatencyStats(latencies, latencyUnit, timestamps, eventType);
+		private static long getPercentileIndex(final double position) {
+			return ((long) Math.floor(position)) - 1;
 		}
 
 		// TODO - check correctness
@@ -578,14 +1883,63 @@ public final class LatencyReportGenerator {
 			latenciesWithoutOutliers = Arrays.copyOf(latenciesWithoutOutliers, count);
 			timestampsWithoutOutliers = Arrays.copyOf(timestampsWithoutOutliers, count);
 
-			return LatencyStats.create(latenciesWithoutOutliers, stats.getLatencyUnit(), timestampsWithoutOutliers, stats.getEventType());
+			return LatencyStats.create(latenciesWithoutOutliers, stats.getLatencyUnit(), timestampsWithoutOutliers, stats.getEventType(), stats.percentileOptions);
 		}
 
 		private final double[] latencies;
 		private final TimeUnit latencyUnit;
 		private final long[] timestamps;
+
+		/**
+		 * Null unless kept to verify the estimates of a sketch. Exact
+		 * medians and percentiles are selected from the latencies without
+		 * sorting them.
+		 */
 		private final double[] sortedLatencies;
-		private final int sampleCount;
+
+		/**
+		 * Null unless the median and the percentiles of raw records are
+		 * estimated from log-linear buckets.
+		 */
+		private final LogLinearHistogram buckets;
+
+		/**
+		 * Null unless the median and the percentiles are estimated from a
+		 * sketch.
+		 */
+		private final QuantileSketch sketch;
+
+		/**
+		 * Null if the stats are of rollups.
+		 */
+		private final PercentileOptions percentileOptions;
+
+		/**
+		 * Null if the stats are of raw records. Otherwise the latencies,
+		 * timestamps, sorted latencies and buckets are null.
+		 */
+		private final RollupStore.Series rollups;
+
+		/**
+		 * Null unless the stats are of raw records not held in the heap, in
+		 * which case the latencies, timestamps and sorted latencies are null,
+		 * and the charts are created from the blocks.
+		 */
+		private final RecordBlocks blocks;
+
+		/**
+		 * Null unless the stats are of blocks.
+		 */
+		private final RecordSummary summary;
+
+		/**
+		 * Exact latencies at the ranks of the median and the percentiles,
+		 * selected from raw records. Empty if the percentiles are estimated
+		 * from buckets, a sketch or rollups.
+		 */
+		private final Map<Long, Double> valuesByRank;
+
+		private final long sampleCount;
 		private final double min;
 		private final double max;
 		private final double mean;
@@ -614,10 +1968,13 @@ public final class LatencyReportGenerator {
 		 */
 		private final double excessKurtosis;
 
-		private final double[] zscores;
 		private final String eventType;
 
-		private LatencyStats(final double[] latencies, final TimeUnit latencyUnit, final long[] timestamps, final String eventType) {
+		private LatencyStats(	final double[] latencies, 
+								final TimeUnit latencyUnit, 
+								final long[] timestamps, 
+								final String eventType, 
+								final PercentileOptions percentileOptions) {
 			
 			final int n = latencies.length;
 
@@ -650,14 +2007,46 @@ public final class LatencyReportGenerator {
 			final double excessKurtosis = kurtosis - 3;
 
 			final double stdDeviation = Math.sqrt(s1 / (n - 1));
-			final double[] sorted = Utils.sort(latencies);
-			final double median = Utils.getMedian(sorted);
 
-			final double[] zscores = Utils.zScores(latencies, mean, stdDeviation);
+			final LogLinearHistogram buckets = percentileOptions.createBuckets();
+			final QuantileSketch sketch = percentileOptions.createSketch();
+
+			final double[] sorted;
+			final Map<Long, Double> valuesByRank;
+			final double median;
+
+			if (buckets != null) {
+				sorted = null;
+				valuesByRank = Collections.emptyMap();
+
+				for (final double latency : latencies) {
+					buckets.record(latency);
+				}
+
+				median = (getValueAtRank(buckets, min, max, (n - 1) / 2) + getValueAtRank(buckets, min, max, n / 2)) / 2;
+
+			} else if (sketch != null) {
+				sorted = percentileOptions.isVerifySketch() ? Utils.sort(latencies) : null;
+				valuesByRank = Collections.emptyMap();
+
+				for (final double latency : latencies) {
+					sketch.add(latency);
+				}
+
+				median = (sketch.getValueAtRank((n - 1) / 2) + sketch.getValueAtRank(n / 2)) / 2;
+
+			} else {
+				sorted = null;
+				valuesByRank = selectMedianAndPercentiles(latencies, percentileOptions.getPercentileKeys());
+				median = (valuesByRank.get(Long.valueOf((n - 1) / 2)).doubleValue() + valuesByRank.get(Long.valueOf(n / 2)).doubleValue()) / 2;
+			}
 
 			this.sampleCount = n;
 			this.latencies = latencies;
 			this.sortedLatencies = sorted;
+			this.buckets = buckets;
+			this.sketch = sketch;
+			this.percentileOptions = percentileOptions;
 			this.latencyUnit = latencyUnit;
 			this.timestamps = timestamps;
 			this.min = min;
@@ -669,29 +2058,481 @@ public final class LatencyReportGenerator {
 			this.skewness = skewness;
 			this.kurtosis = kurtosis;
 			this.excessKurtosis = excessKurtosis;
-			this.zscores = zscores;
 			this.eventType = eventType;
+			this.rollups = null;
+			this.blocks = null;
+			this.summary = null;
+			this.valuesByRank = valuesByRank;
+		}
+
+		private LatencyStats(	final RecordBlocks blocks, 
+								final RecordSummary summary, 
+								final Path sortDir, 
+								final TimeUnit latencyUnit, 
+								final String eventType, 
+								final PercentileOptions percentileOptions) throws IOException {
+
+			final long n = summary.getCount();
+			final double mean = summary.getSum() / n;
+			final double min = summary.getMinLatency();
+			final double max = summary.getMaxLatency();
+
+			final LogLinearHistogram buckets = percentileOptions.createBuckets();
+			final QuantileSketch sketch = percentileOptions.createSketch();
+
+			// summed in the same order as the moments of the latencies in an array
+			final double[] moments = new double[3];
+
+			final Map<Long, Double> valuesByRank;
+
+			try (final ExternalSort sort = (buckets == null) && (sketch == null) ? createExternalSort(sortDir) : null;) {
+
+				blocks.forEachBlock(new RecordSpill.BlockSink() {
+					@Override
+					public void accept(final String blockEventType, final long[] timestamps, final double[] latencies) throws IOException {
+
+						for (final double latency : latencies) {
+
+							final double diff = latency - mean;
+
+							moments[0] += Math.pow(diff, 2);
+							moments[1] += Math.pow(diff, 3);
+							moments[2] += Math.pow(diff, 4);
+
+							if (buckets != null) {
+								buckets.record(latency);
+							} else if (sketch != null) {
+								sketch.add(latency);
+							}
+						}
+
+						if (sort != null) {
+							sort.addAll(latencies);
+						}
+					}
+				});
+
+				if (sort == null) {
+					valuesByRank = Collections.emptyMap();
+				} else {
+					final long[] ranks = getMedianAndPercentileRanks(n, percentileOptions.getPercentileKeys());
+					final double[] values = sort.getValuesAtRanks(ranks);
+
+					valuesByRank = new HashMap<>();
+
+					for (int i = 0; i < ranks.length; i++) {
+						valuesByRank.put(Long.valueOf(ranks[i]), Double.valueOf(values[i]));
+					}
+				}
+			}
+
+			final double s1 = moments[0];
+
+			final double variance = s1 / n;
+			final double thirdMoment = moments[1] / n;
+			final double fourthMoment = moments[2] / n;
+
+			final double skewness = thirdMoment / Math.pow(variance, 1.5);
+			final double kurtosis = fourthMoment / Math.pow(variance, 2);
+			final double excessKurtosis = kurtosis - 3;
+
+			final double stdDeviation = Math.sqrt(s1 / (n - 1));
+
+			final double median;
+
+			if (buckets != null) {
+				median = (getValueAtRank(buckets, min, max, (n - 1) / 2) + getValueAtRank(buckets, min, max, n / 2)) / 2;
+			} else if (sketch != null) {
+				median = (sketch.getValueAtRank((n - 1) / 2) + sketch.getValueAtRank(n / 2)) / 2;
+			} else {
+				median = (valuesByRank.get(Long.valueOf((n - 1) / 2)).doubleValue() + valuesByRank.get(Long.valueOf(n / 2)).doubleValue()) / 2;
+			}
+
+			this.sampleCount = n;
+			this.latencies = null;
+			this.sortedLatencies = null;
+			this.buckets = buckets;
+			this.sketch = sketch;
+			this.percentileOptions = percentileOptions;
+			this.latencyUnit = latencyUnit;
+			this.timestamps = null;
+			this.min = min;
+			this.max = max;
+			this.mean = mean;
+			this.median = median;
+			this.stdDeviation = stdDeviation;
+			this.variance = variance;
+			this.skewness = skewness;
+			this.kurtosis = kurtosis;
+			this.excessKurtosis = excessKurtosis;
+			this.eventType = eventType;
+			this.rollups = null;
+			this.blocks = blocks;
+			this.summary = summary;
+			this.valuesByRank = valuesByRank;
+		}
+
+		private LatencyStats(final RollupStore.Series rollups, final TimeUnit latencyUnit, final String eventType) {
+
+			final LatencyRollup total = rollups.getTotal();
+
+			final long n = total.getCount();
+			final double s1 = total.getM2();
+
+			final double variance = s1 / n;
+			final double thirdMoment = total.getM3() / n;
+			final double fourthMoment = total.getM4() / n;
+
+			final double skewness = thirdMoment / Math.pow(variance, 1.5);
+			final double kurtosis = fourthMoment / Math.pow(variance, 2);
+			final double excessKurtosis = kurtosis - 3;
+
+			final double stdDeviation = Math.sqrt(s1 / (n - 1));
+			final double median = (total.getValueAtRank((n - 1) / 2) + total.getValueAtRank(n / 2)) / 2;
+
+			this.sampleCount = n;
+			this.latencies = null;
+			this.sortedLatencies = null;
+			this.buckets = null;
+			this.sketch = null;
+			this.percentileOptions = null;
+			this.latencyUnit = latencyUnit;
+			this.timestamps = null;
+			this.min = total.getMin();
+			this.max = total.getMax();
+			this.mean = total.getMean();
+			this.median = median;
+			this.stdDeviation = stdDeviation;
+			this.variance = variance;
+			this.skewness = skewness;
+			this.kurtosis = kurtosis;
+			this.excessKurtosis = excessKurtosis;
+			this.eventType = eventType;
+			this.rollups = rollups;
+			this.blocks = null;
+			this.summary = null;
+			this.valuesByRank = Collections.emptyMap();
+		}
+
+		/**
+		 * @return the estimate of the buckets or the sketch if there is one,
+		 *         or else the estimate of the rollup if the stats are of
+		 *         rollups, or else the exact latency at the rank. The exact
+		 *         latencies of raw records are known only at the ranks of the
+		 *         median and the percentile keys they were selected for.
+		 */
+		private double getValueAtRank(final long rank) {
+
+			if (this.buckets != null) {
+				return getValueAtRank(this.buckets, this.min, this.max, rank);
+			}
+
+			if (this.sketch != null) {
+				return this.sketch.getValueAtRank(rank);
+			}
+
+			if (this.rollups != null) {
+				return this.rollups.getTotal().getValueAtRank(rank);
+			}
+
+			return this.valuesByRank.get(Long.valueOf(rank)).doubleValue();
+		}
+
+		/**
+		 * @return the largest difference between the ranks that the median
+		 *         and the percentiles are estimated for and the ranks of the
+		 *         estimates in the sorted latencies, as a fraction of the
+		 *         count, or NaN if the estimates of the sketch are not
+		 *         verified.
+		 */
+		private double getSketchRankError(final double[] percentileKeys) {
+
+			final double[] sorted = this.sortedLatencies;
+			final boolean verifiedFromBlocks = (this.blocks != null) && this.percentileOptions.isVerifySketch();
+
+			if ((this.sketch == null) || ((sorted == null) && !verifiedFromBlocks)) {
+				return Double.NaN;
+			}
+
+			final long[] ranks = getMedianAndPercentileRanks(this.sampleCount, percentileKeys);
+			final double[] values = new double[ranks.length];
+
+			for (int i = 0; i < ranks.length; i++) {
+				values[i] = this.sketch.getValueAtRank(ranks[i]);
+			}
+
+			final long[][] counts;
+
+			try {
+				counts = sorted == null ? countValuesBelow(this.blocks, values) : null;
+			} catch (final IOException e) {
+				throw new RuntimeException("Error while reading records", e);
+			}
+
+			long maxError = 0;
+
+			for (int i = 0; i < ranks.length; i++) {
+
+				final long rank = ranks[i];
+
+				// the estimate is at all the ranks from the first to the last of its occurrences
+				final long first = sorted == null ? counts[0][i] : countValuesBelow(sorted, values[i], false);
+				final long last = (sorted == null ? counts[1][i] : countValuesBelow(sorted, values[i], true)) - 1;
+
+				maxError = Math.max(maxError, Math.max(first - rank, rank - last));
+			}
+
+			return (double) maxError / this.sampleCount;
+		}
+
+		/**
+		 * @return the numbers of latencies of the blocks that are less than
+		 *         each of the values, and that are not greater than each of
+		 *         the values, found in one pass over the blocks.
+		 */
+		private static long[][] countValuesBelow(final RecordBlocks blocks, final double[] values) throws IOException {
+
+			final long[] below = new long[values.length];
+			final long[] notAbove = new long[values.length];
+
+			blocks.forEachBlock(new RecordSpill.BlockSink() {
+				@Override
+				public void accept(final String eventType, final long[] timestamps, final double[] latencies) {
+					for (final double latency : latencies) {
+						for (int i = 0; i < values.length; i++) {
+							if (latency < values[i]) {
+								below[i]++;
+							}
+
+							if (latency <= values[i]) {
+								notAbove[i]++;
+							}
+						}
+					}
+				}
+			});
+
+			return new long[][] { below, notAbove };
+		}
+
+		/**
+		 * @return the number of values of <code>sorted</code> that are less
+		 *         than <code>value</code>, or also equal to it if
+		 *         <code>inclusive</code>.
+		 */
+		private static int countValuesBelow(final double[] sorted, final double value, final boolean inclusive) {
+
+			int low = 0;
+			int high = sorted.length;
+
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+
+				if (inclusive ? (sorted[mid] <= value) : (sorted[mid] < value)) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+
+			return low;
+		}
+
+		/**
+		 * The first and the last values are the exact minimum and maximum.
+		 * Other values are estimated from the buckets, and are never outside
+		 * the minimum and the maximum, as with rollups.
+		 */
+		private static double getValueAtRank(final LogLinearHistogram buckets, final double min, final double max, final long rank) {
+
+			final double value;
+
+			if (rank == 0) {
+				value = min;
+			} else if (rank == (buckets.getTotalCount() - 1)) {
+				value = max;
+			} else {
+				value = Math.min(max, Math.max(min, buckets.getValueAtRank(rank)));
+			}
+
+			return value;
 		}
 
+
 		Outliers getZScoreOutliers(final double threshold) {
-			final int[] indices = Utils.getIndicesOfValuesGreaterThan(threshold, this.zscores);
-			return new Outliers(indices, Utils.getValuesForIndices(indices, this.latencies), Utils.getValuesForIndices(indices, this.zscores));
+			// computed here rather than held, since they are as many as the latencies
+			final double[] zscores = Utils.zScores(this.latencies, this.mean, this.stdDeviation);
+			final int[] indices = Utils.getIndicesOfValuesGreaterThan(threshold, zscores);
+			return new Outliers(indices, Utils.getValuesForIndices(indices, this.latencies), Utils.getValuesForIndices(indices, zscores));
 		}
 
+		/**
+		 * The histogram of rollups counts all the latencies of a bucket of
+		 * the rollup histogram in the interval of the midpoint of the bucket,
+		 * and so does the histogram of raw records with log-linear buckets.
+		 * 
+		 * @param intervalPoints
+		 *            if null, log-linear interval points are created for the
+		 *            range of the latencies.
+		 */
 		private Histogram<Double> createHistogram(final double[] intervalPoints) {
-			return Histogram.create(this.latencies, intervalPoints);
+
+			final double[] points = intervalPoints == null ? createLogLinearIntervalPoints() : intervalPoints;
+
+			final LogLinearHistogram histogram = getLogLinearHistogram();
+
+			if ((histogram == null) && (this.blocks != null)) {
+				try {
+					return Histogram.create(this.blocks, points);
+				} catch (final IOException e) {
+					throw new RuntimeException("Error while reading records", e);
+				}
+			}
+
+			if (histogram == null) {
+				return Histogram.create(this.latencies, points);
+			}
+
+			final LogLinearHistogram.Buckets buckets = histogram.getBuckets();
+			final int n = buckets.size();
+
+			final double[] values = new double[n];
+			final long[] counts = new long[n];
+
+			for (int i = 0; i < n; i++) {
+				values[i] = clamp(buckets.getMidpoint(i));
+				counts[i] = buckets.getCount(i);
+			}
+
+			return Histogram.create(values, counts, points);
+		}
+
+		private double[] createLogLinearIntervalPoints() {
+
+			final LogLinearHistogram histogram = getLogLinearHistogram();
+
+			double lowestPositive = Double.NaN;
+
+			if ((histogram == null) && (this.blocks != null)) {
+				lowestPositive = this.summary.getLowestPositiveLatency();
+			} else if (histogram == null) {
+				for (final double latency : this.latencies) {
+					if ((latency > 0) && !(latency >= lowestPositive)) {
+						lowestPositive = latency;
+					}
+				}
+			} else {
+				final LogLinearHistogram.Buckets buckets = histogram.getBuckets();
+
+				for (int i = 0; (i < buckets.size()) && Double.isNaN(lowestPositive); i++) {
+					final double value = clamp(buckets.getMidpoint(i));
+
+					if (value > 0) {
+						lowestPositive = value;
+					}
+				}
+			}
+
+			return LogLinearHistogram.createIntervalPoints(lowestPositive, this.max, MAX_LOG_LINEAR_HISTOGRAM_INTERVAL_POINTS);
+		}
+
+		/**
+		 * @return the buckets of raw records or the histogram of the total
+		 *         rollup, or null if the latencies are counted exactly.
+		 */
+		private LogLinearHistogram getLogLinearHistogram() {
+
+			if (this.buckets != null) {
+				return this.buckets;
+			}
+
+			return this.rollups == null ? null : this.rollups.getTotal().getHistogram();
+		}
+
+		/**
+		 * @return <code>value</code>, moved into the range of the latencies if
+		 *         outside it.
+		 */
+		private double clamp(final double value) {
+			return Math.min(this.max, Math.max(this.min, value));
 		}
 
 		private Percentiles getPercentiles(final double[] keys) {
-			return Utils.getPercentiles(this.sortedLatencies, keys, Utils.toShortForm(this.latencyUnit));
+
+			final String unit = Utils.toShortForm(this.latencyUnit);
+
+			if ((this.latencies != null) && (this.buckets == null) && (this.sketch == null) && !Arrays.equals(keys, this.percentileOptions.getPercentileKeys())) {
+				// the latencies were selected at the ranks of other keys
+				return Utils.getPercentilesOfUnsorted(this.latencies, keys, unit);
+			}
+
+			if ((this.blocks != null) && (this.buckets == null) && (this.sketch == null) && !Arrays.equals(keys, this.percentileOptions.getPercentileKeys())) {
+				throw new IllegalArgumentException("Latencies of <" + this.eventType + "> were sorted for the percentiles <" + Arrays.toString(this.percentileOptions.getPercentileKeys()) + "> only");
+			}
+
+			final long n = this.sampleCount;
+
+			final double[] sortedKeys = Utils.sort(keys);
+			final double[] result = new double[sortedKeys.length];
+			final double[] validKeys = new double[sortedKeys.length];
+			int k = 0;
+
+			for (final double key : sortedKeys) {
+
+				final double pos = getPercentilePosition(n, key);
+				final long index = getPercentileIndex(pos);
+
+				if ((index < 0) || (index >= n)) {
+					continue; // ignore this key and proceed to other keys
+				}
+
+				final double fraction = pos - Math.floor(pos);
+				final double x = getValueAtRank(index);
+
+				if ((fraction == 0) || (index == (n - 1))) {
+					result[k] = x;
+				} else {
+					result[k] = x + (fraction * (getValueAtRank(index + 1) - x));
+				}
+
+				validKeys[k] = key;
+				k++;
+			}
+
+			return new Percentiles(Arrays.copyOf(validKeys, k), Arrays.copyOf(result, k), unit);
+		}
+
+		/**
+		 * @param logLinear
+		 *            whether the latency intervals grow with the latencies,
+		 *            rather than being equally wide.
+		 */
+		TimeSeriesLatencyDensity createDensity(final TimeZone outputTimeZone, final Integer maxIntervalPointsForLatencyDensity, final boolean logLinear) {
+
+			if (this.rollups != null) {
+				return TimeSeriesLatencyDensity.create(this.rollups, outputTimeZone, maxIntervalPointsForLatencyDensity, logLinear);
+			}
+
+			if (this.blocks != null) {
+				try {
+					return TimeSeriesLatencyDensity.create(this.blocks, this.summary, outputTimeZone, maxIntervalPointsForLatencyDensity, logLinear);
+				} catch (final IOException e) {
+					throw new RuntimeException("Error while reading records", e);
+				}
+			}
+
+			return logLinear ? 
+					TimeSeriesLatencyDensity.createLogLinear(this.latencies, this.timestamps, null, outputTimeZone, maxIntervalPointsForLatencyDensity) : 
+					TimeSeriesLatencyDensity.create(this.latencies, this.timestamps, outputTimeZone, maxIntervalPointsForLatencyDensity);
 		}
 
-		private String getShortSummary() {
+		private String getShortSummary(final double[] percentileKeys) {
 			
 			final String NL = System.lineSeparator();
 			final String IND = "    ";
 
 			final String timeUnit = Utils.toShortForm(this.latencyUnit);
+			final double sketchRankError = getSketchRankError(percentileKeys);
 
 			return 	IND + "       Event count = " + this.sampleCount + NL + 
 					IND + "            Median = " + toDisplayString(this.median) + ' ' + timeUnit + NL + 
@@ -702,13 +2543,15 @@ public final class LatencyReportGenerator {
 					IND + "          Variance = " + toDisplayString(this.variance) + NL + 
 					IND + "          Skewness = " + toDisplayString(this.skewness) + NL + 
 					IND + "          Kurtosis = " + toDisplayString(this.kurtosis) + NL + 
-					IND + "   Excess Kurtosis = " + toDisplayString(this.excessKurtosis);
+					IND + "   Excess Kurtosis = " + toDisplayString(this.excessKurtosis) + 
+					(Double.isNaN(sketchRankError) ? "" : NL + IND + "Sketch rank error = " + toDisplayString(sketchRankError * 100) + " %");
 		}
 
-		private String getShortSummaryHtml() {
+		private String getShortSummaryHtml(final double[] percentileKeys) {
 
 			final String NL = System.lineSeparator();
 			final String timeUnit = Utils.toShortForm(this.latencyUnit);
+			final double sketchRankError = getSketchRankError(percentileKeys);
 			
 			final String fontFamily = SVGConstants.SERIF_FONT_FAMILY;
 			final double fontSize = SVGConstants.SERIF_FONT_SIZE;
@@ -769,6 +2612,12 @@ public final class LatencyReportGenerator {
 					"		<td " + columnStyle1 + ">Excess Kurtosis</td>" + NL +
 					"		<td " + columnStyle2 + ">" + toDisplayString(this.excessKurtosis) + "</td>" + NL +
 					"	</tr>" + NL +
+					(Double.isNaN(sketchRankError) ? "" : 
+					"	<tr>" + NL +
+					"		<td " + columnStyle1 + ">Sketch rank error</td>" + NL +
+					"		<td " + columnStyle2 + ">" + toDisplayString(sketchRankError * 100) + "</td>" + NL +
+					"		<td " + columnStyle3 + ">%</td>" + NL +
+					"	</tr>" + NL) +
 					"</table>" + NL;
 
 			return html;
@@ -777,7 +2626,7 @@ public final class LatencyReportGenerator {
 		double[] getLatencies() {
 			return this.latencies;
 		}
-		
+
 		TimeUnit getLatencyUnit() {
 			return this.latencyUnit;
 		}
@@ -800,7 +2649,7 @@ public final class LatencyReportGenerator {
 
 			return "Latency summary for " + eventType + BEGIN + NL + 
 					NL + 
-					getShortSummary() + NL + 
+					getShortSummary(percentileKeys) + NL + 
 					END + NL + 
 					NL + 
 					"Latency histogram for " + eventType + BEGIN + NL + 
@@ -869,7 +2718,7 @@ public final class LatencyReportGenerator {
 					"</tr>" + NL;
 
 			final String content = 
-					paragraph(linkWithId(textA, linkIdA) + ':', style) + getShortSummaryHtml() + BR + BR +
+					paragraph(linkWithId(textA, linkIdA) + ':', style) + getShortSummaryHtml(percentileKeys) + BR + BR +
 					paragraph(linkWithId(textB, linkIdB) + ':', style) + createHistogram(intervalPointsForLatencyHistogram).toSVG(new StripTrailingZeroesAfterDecimalFunction(false), false, colorRampScheme) + BR + BR + 
 					paragraph(linkWithId(textC, linkIdC) + ':', style) + getPercentiles(percentileKeys).toSVG(false) + BR + BR + 
 					paragraph(linkWithId(textD, linkIdD) + ':', style) + trxCountBarChartSVG + BR + BR + heatMapSVG.getSvg();
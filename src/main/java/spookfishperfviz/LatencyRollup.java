@@ -0,0 +1,237 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Summary of a set of latencies that can be merged with the summary of
+ * another set to get the summary of both, without the latencies themselves.
+ * It has the count, minimum, maximum, mean and the sums of the 2nd, 3rd and
+ * 4th powers of the deviations from the mean, which give the variance,
+ * skewness and kurtosis exactly, and a {@linkplain LogLinearHistogram} which
+ * gives estimates of the median and the percentiles.
+ * <p>
+ * The sums of the powers of deviations are merged using the pairwise
+ * formulas in <i>Formulas for Robust, One-Pass Parallel Computation of
+ * Covariances and Arbitrary-Order Statistical Moments</i> by Philippe Pebay,
+ * which avoid the loss of precision of summing the powers of the latencies.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class LatencyRollup {
+
+	static LatencyRollup create() {
+		return new LatencyRollup(0, Double.NaN, Double.NaN, 0, 0, 0, 0, LogLinearHistogram.create());
+	}
+
+	/**
+	 * @return a copy of <code>rollup</code>.
+	 */
+	static LatencyRollup copyOf(final LatencyRollup rollup) {
+		return new LatencyRollup(rollup.count, rollup.min, rollup.max, rollup.mean, rollup.m2, rollup.m3, rollup.m4, LogLinearHistogram.copyOf(rollup.histogram));
+	}
+
+	private long count;
+	private double min;
+	private double max;
+	private double mean;
+	private double m2;
+	private double m3;
+	private double m4;
+	private final LogLinearHistogram histogram;
+
+	private LatencyRollup(	final long count,
+							final double min,
+							final double max,
+							final double mean,
+							final double m2,
+							final double m3,
+							final double m4,
+							final LogLinearHistogram histogram) {
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.mean = mean;
+		this.m2 = m2;
+		this.m3 = m3;
+		this.m4 = m4;
+		this.histogram = histogram;
+	}
+
+	void add(final double latency) {
+		merge(1, latency, latency, latency, 0, 0, 0);
+		this.histogram.record(latency);
+	}
+
+	void merge(final LatencyRollup other) {
+		merge(other.count, other.min, other.max, other.mean, other.m2, other.m3, other.m4);
+		this.histogram.merge(other.histogram);
+	}
+
+	private void merge(	final long otherCount,
+						final double otherMin,
+						final double otherMax,
+						final double otherMean,
+						final double otherM2,
+						final double otherM3,
+						final double otherM4) {
+
+		if (otherCount == 0) {
+			return;
+		}
+
+		if (this.count == 0) {
+			this.count = otherCount;
+			this.min = otherMin;
+			this.max = otherMax;
+			this.mean = otherMean;
+			this.m2 = otherM2;
+			this.m3 = otherM3;
+			this.m4 = otherM4;
+			return;
+		}
+
+		final double na = this.count;
+		final double nb = otherCount;
+		final double n = na + nb;
+
+		final double delta = otherMean - this.mean;
+		final double delta2 = delta * delta;
+		final double delta3 = delta * delta2;
+		final double delta4 = delta2 * delta2;
+
+		final double ma2 = this.m2;
+		final double ma3 = this.m3;
+
+		this.m4 += otherM4
+				+ ((delta4 * na * nb * (((na * na) - (na * nb)) + (nb * nb))) / (n * n * n))
+				+ ((6 * delta2 * ((na * na * otherM2) + (nb * nb * ma2))) / (n * n))
+				+ ((4 * delta * ((na * otherM3) - (nb * ma3))) / n);
+
+		this.m3 += otherM3
+				+ ((delta3 * na * nb * (na - nb)) / (n * n))
+				+ ((3 * delta * ((na * otherM2) - (nb * ma2))) / n);
+
+		this.m2 += otherM2 + ((delta2 * na * nb) / n);
+
+		this.mean += (delta * nb) / n;
+		this.min = Math.min(this.min, otherMin);
+		this.max = Math.max(this.max, otherMax);
+		this.count += otherCount;
+	}
+
+	long getCount() {
+		return this.count;
+	}
+
+	double getMin() {
+		return this.min;
+	}
+
+	double getMax() {
+		return this.max;
+	}
+
+	double getMean() {
+		return this.mean;
+	}
+
+	/**
+	 * @return the sum of the squares of the deviations from the mean.
+	 */
+	double getM2() {
+		return this.m2;
+	}
+
+	/**
+	 * @return the sum of the cubes of the deviations from the mean.
+	 */
+	double getM3() {
+		return this.m3;
+	}
+
+	/**
+	 * @return the sum of the 4th powers of the deviations from the mean.
+	 */
+	double getM4() {
+		return this.m4;
+	}
+
+	LogLinearHistogram getHistogram() {
+		return this.histogram;
+	}
+
+	/**
+	 * The first and the last values are the exact minimum and maximum. Other
+	 * values are estimated from the histogram, and are never outside the
+	 * minimum and the maximum.
+	 *
+	 * @param rank
+	 *            zero based position of the value in the sorted latencies.
+	 */
+	double getValueAtRank(final long rank) {
+
+		final double value;
+
+		if (rank == 0) {
+			value = this.min;
+		} else if (rank == (this.count - 1)) {
+			value = this.max;
+		} else {
+			value = clamp(this.histogram.getValueAtRank(rank));
+		}
+
+		return value;
+	}
+
+	/**
+	 * @return <code>value</code>, moved into the range of the latencies if
+	 *         outside it.
+	 */
+	double clamp(final double value) {
+		return Math.min(this.max, Math.max(this.min, value));
+	}
+
+	void writeTo(final DataOutput out) throws IOException {
+		out.writeLong(this.count);
+		out.writeDouble(this.min);
+		out.writeDouble(this.max);
+		out.writeDouble(this.mean);
+		out.writeDouble(this.m2);
+		out.writeDouble(this.m3);
+		out.writeDouble(this.m4);
+		this.histogram.writeTo(out);
+	}
+
+	static LatencyRollup readFrom(final DataInput in) throws IOException {
+
+		final long count = in.readLong();
+		final double min = in.readDouble();
+		final double max = in.readDouble();
+		final double mean = in.readDouble();
+		final double m2 = in.readDouble();
+		final double m3 = in.readDouble();
+		final double m4 = in.readDouble();
+
+		return new LatencyRollup(count, min, max, mean, m2, m3, m4, LogLinearHistogram.readFrom(in));
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which lines are ignored. A line is ignored if
+ * <ul>
+ * <li>it contains any of the exclude literals, or</li>
+ * <li>include literals are given and it contains none of them, or</li>
+ * <li>it matches the ignore pattern.</li>
+ * </ul>
+ * All literals, including the ones that the ignore pattern requires, are
+ * searched for in a single pass over the line. The ignore pattern itself is run
+ * only on lines that contain the literals it requires, and not at all if it is
+ * equivalent to a literal search, for e.g. <code>.*DEBUG.*</code>.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public final class LineFilter {
+
+	private static final long[] NO_CLAUSES = {};
+
+	public static LineFilter create(final String ignorePattern) {
+		return create(ignorePattern, null, null);
+	}
+
+	public static LineFilter create(final String ignorePattern, final String[] includeLiterals, final String[] excludeLiterals) {
+		return new LineFilter(ignorePattern, includeLiterals, excludeLiterals);
+	}
+
+	private final Pattern ignorePattern;
+	private final LiteralMatcher literalMatcher;
+	private final long includeMask;
+	private final long excludeMask;
+	private final long stopMask;
+
+	/**
+	 * A line matches the ignore pattern only if, for every element of this
+	 * array, it contains at least one of the literals in the mask.
+	 */
+	private final long[] ignorePatternClauses;
+	private final boolean ignorePatternIsLiteralSearch;
+
+	private LineFilter(final String ignorePattern, final String[] includeLiterals, final String[] excludeLiterals) {
+
+		final Map<String, Integer> literalIndices = new LinkedHashMap<>();
+
+		this.includeMask = addLiterals(includeLiterals, literalIndices);
+		this.excludeMask = addLiterals(excludeLiterals, literalIndices);
+
+		if (literalIndices.size() > LiteralMatcher.MAX_LITERAL_COUNT) {
+			throw new IllegalArgumentException("At most " + LiteralMatcher.MAX_LITERAL_COUNT + " include and exclude literals are supported");
+		}
+
+		long[] ignorePatternClauses = NO_CLAUSES;
+		boolean ignorePatternIsLiteralSearch = false;
+
+		if (ignorePattern == null) {
+			this.ignorePattern = null;
+		} else {
+			this.ignorePattern = Pattern.compile(ignorePattern);
+
+			final RegexLiterals literals = RegexLiterals.extract(ignorePattern);
+			final String[][] clauses = literals.getClauses();
+
+			final Map<String, Integer> literalIndicesWithClauses = new LinkedHashMap<>(literalIndices);
+			final long[] masks = new long[clauses.length];
+
+			for (int i = 0; i < clauses.length; i++) {
+				masks[i] = addLiterals(clauses[i], literalIndicesWithClauses);
+			}
+
+			// Too many literals only means that the ignore pattern is run on every line.
+			if (literalIndicesWithClauses.size() <= LiteralMatcher.MAX_LITERAL_COUNT) {
+				literalIndices.putAll(literalIndicesWithClauses);
+				ignorePatternClauses = masks;
+				ignorePatternIsLiteralSearch = literals.isExact();
+			}
+		}
+
+		this.ignorePatternClauses = ignorePatternClauses;
+		this.ignorePatternIsLiteralSearch = ignorePatternIsLiteralSearch;
+
+		// Finding any of these decides that the line is ignored.
+		this.stopMask = this.excludeMask | (ignorePatternIsLiteralSearch ? ignorePatternClauses[0] : 0);
+
+		this.literalMatcher = literalIndices.isEmpty() ? null : LiteralMatcher.create(literalIndices.keySet().toArray(new String[literalIndices.size()]));
+	}
+
+	/**
+	 * @return a mask of the bits assigned to the literals. Literals that occur
+	 *         more than once share a bit.
+	 */
+	private static long addLiterals(final String[] literals, final Map<String, Integer> literalIndices) {
+
+		long mask = 0;
+
+		if (literals != null) {
+			for (final String literal : literals) {
+
+				if ((literal == null) || literal.isEmpty()) {
+					throw new IllegalArgumentException("Literal is null or empty");
+				}
+
+				Integer index = literalIndices.get(literal);
+
+				if (index == null) {
+					index = Integer.valueOf(literalIndices.size());
+					literalIndices.put(literal, index);
+				}
+
+				// bits beyond the supported count are caught by the callers
+				final int bit = index.intValue();
+				if (bit < LiteralMatcher.MAX_LITERAL_COUNT) {
+					mask |= (1L << bit);
+				}
+			}
+		}
+
+		return mask;
+	}
+
+	public boolean isIgnore(final CharSequence line) {
+
+		final LiteralMatcher literalMatcher = this.literalMatcher;
+		final Pattern ignorePattern = this.ignorePattern;
+
+		if (literalMatcher == null) {
+			return (ignorePattern != null) && ignorePattern.matcher(line).matches();
+		}
+
+		final long found = literalMatcher.find(line, this.stopMask);
+
+		if ((found & this.excludeMask) != 0) {
+			return true;
+		}
+
+		if ((this.includeMask != 0) && ((found & this.includeMask) == 0)) {
+			return true;
+		}
+
+		if (ignorePattern == null) {
+			return false;
+		}
+
+		for (final long clause : this.ignorePatternClauses) {
+			if ((found & clause) == 0) {
+				return false;
+			}
+		}
+
+		return this.ignorePatternIsLiteralSearch || ignorePattern.matcher(line).matches();
+	}
+}
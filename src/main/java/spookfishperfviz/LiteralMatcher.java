@@ -0,0 +1,221 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+
+/**
+ * Finds which of a set of literals occur in a text, in a single pass over the
+ * text, using the Aho-Corasick algorithm. The automaton is compiled into a
+ * transition table, so that every character of the text costs one table
+ * lookup.
+ * <p>
+ * The literal at index <code>i</code> is reported by setting bit
+ * <code>i</code> of the returned mask, hence at most 64 literals are
+ * supported. Instances are immutable and can be shared between threads.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class LiteralMatcher {
+
+	static final int MAX_LITERAL_COUNT = Long.SIZE;
+
+	static LiteralMatcher create(final String[] literals) {
+		return new LiteralMatcher(literals);
+	}
+
+	/**
+	 * Sorted distinct characters used by the literals. The character at index
+	 * <code>i</code> belongs to character class <code>i + 1</code>. Class 0
+	 * stands for every other character.
+	 */
+	private final char[] alphabet;
+	private final int[] asciiClasses;
+	private final int classCount;
+
+	/**
+	 * <code>transitions[(state * classCount) + charClass]</code> is the next
+	 * state.
+	 */
+	private final int[] transitions;
+
+	/**
+	 * The literals found on reaching a state.
+	 */
+	private final long[] outputs;
+
+	private LiteralMatcher(final String[] literals) {
+
+		final int literalCount = literals.length;
+
+		if ((literalCount == 0) || (literalCount > MAX_LITERAL_COUNT)) {
+			throw new IllegalArgumentException("Number of literals must be between 1 and " + MAX_LITERAL_COUNT + ", found <" + literalCount + ">");
+		}
+
+		int totalLength = 0;
+		final StringBuilder allChars = new StringBuilder();
+
+		for (final String literal : literals) {
+			if ((literal == null) || literal.isEmpty()) {
+				throw new IllegalArgumentException("Literal is null or empty");
+			}
+			totalLength += literal.length();
+			allChars.append(literal);
+		}
+
+		this.alphabet = distinctSorted(allChars);
+		this.classCount = this.alphabet.length + 1;
+
+		this.asciiClasses = new int[128];
+		for (int i = 0; i < this.alphabet.length; i++) {
+			final char c = this.alphabet[i];
+			if (c < 128) {
+				this.asciiClasses[c] = i + 1;
+			}
+		}
+
+		final int maxStates = totalLength + 1;
+		final int classCount = this.classCount;
+
+		// trie edges first, -1 where there is no edge
+		final int[] delta = new int[maxStates * classCount];
+		Arrays.fill(delta, -1);
+
+		final long[] out = new long[maxStates];
+		int stateCount = 1;
+
+		for (int k = 0; k < literalCount; k++) {
+			final String literal = literals[k];
+			int state = 0;
+
+			for (int i = 0, len = literal.length(); i < len; i++) {
+				final int index = (state * classCount) + getCharClass(literal.charAt(i));
+				int next = delta[index];
+
+				if (next < 0) {
+					next = stateCount++;
+					delta[index] = next;
+				}
+				state = next;
+			}
+
+			out[state] |= (1L << k);
+		}
+
+		// Breadth first traversal to compute failure links. Missing edges are
+		// replaced by the transition of the failure state, which turns the trie
+		// into a DFA.
+		final int[] fail = new int[stateCount];
+		final int[] queue = new int[stateCount];
+		int head = 0, tail = 0;
+
+		for (int c = 0; c < classCount; c++) {
+			final int next = delta[c];
+			if (next < 0) {
+				delta[c] = 0;
+			} else {
+				fail[next] = 0;
+				queue[tail++] = next;
+			}
+		}
+
+		while (head < tail) {
+			final int state = queue[head++];
+			final int failState = fail[state];
+
+			out[state] |= out[failState];
+
+			for (int c = 0; c < classCount; c++) {
+				final int index = (state * classCount) + c;
+				final int next = delta[index];
+				final int failNext = delta[(failState * classCount) + c];
+
+				if (next < 0) {
+					delta[index] = failNext;
+				} else {
+					fail[next] = failNext;
+					queue[tail++] = next;
+				}
+			}
+		}
+
+		this.transitions = Arrays.copyOf(delta, stateCount * classCount);
+		this.outputs = Arrays.copyOf(out, stateCount);
+	}
+
+	private static char[] distinctSorted(final CharSequence chars) {
+
+		final char[] sorted = chars.toString().toCharArray();
+		Arrays.sort(sorted);
+
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if ((count == 0) || (sorted[count - 1] != sorted[i])) {
+				sorted[count++] = sorted[i];
+			}
+		}
+
+		return Arrays.copyOf(sorted, count);
+	}
+
+	private int getCharClass(final char c) {
+
+		if (c < 128) {
+			return this.asciiClasses[c];
+		}
+
+		final int index = Arrays.binarySearch(this.alphabet, c);
+		return index < 0 ? 0 : index + 1;
+	}
+
+	/**
+	 * @param stopMask
+	 *            the search ends as soon as any of these literals is found.
+	 *
+	 * @return a mask of the literals found in the text.
+	 */
+	long find(final CharSequence text, final long stopMask) {
+
+		final int[] transitions = this.transitions;
+		final long[] outputs = this.outputs;
+		final int[] asciiClasses = this.asciiClasses;
+		final int classCount = this.classCount;
+
+		long found = 0;
+		int state = 0;
+
+		for (int i = 0, len = text.length(); i < len; i++) {
+			final char c = text.charAt(i);
+			final int charClass = c < 128 ? asciiClasses[c] : getCharClass(c);
+
+			state = transitions[(state * classCount) + charClass];
+
+			final long output = outputs[state];
+			if (output != 0) {
+				found |= output;
+
+				if ((found & stopMask) != 0) {
+					break;
+				}
+			}
+		}
+
+		return found;
+	}
+}
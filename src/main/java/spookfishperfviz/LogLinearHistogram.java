@@ -0,0 +1,464 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Counts values in buckets whose width grows with the magnitude of the values,
+ * so that every bucket is at most 2<sup>-b</sup> of its lower bound wide,
+ * whatever the range of the values, for b sub-bucket bits. Histograms with the
+ * same bucket layout can be merged by adding the counts of their buckets,
+ * which makes them suitable for summarizing latencies per period and merging
+ * the periods later.
+ * <p>
+ * The bucket of a positive value is given by the exponent and the leading b
+ * bits of the mantissa of the value, hence the name. Zero, negative values
+ * and values too small to have a normal exponent share the first bucket.
+ * Only the buckets that have values are kept, so the buckets cover the whole
+ * range of doubles, whatever the unit of the values, and take space only for
+ * the exponents that the values have.
+ * <p>
+ * Rollups use 7 bits, i.e. buckets of at most 1/128th. Histograms of raw
+ * latencies may instead be given the bits for a number of significant
+ * digits, after <i>HdrHistogram</i> by Gil Tene.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class LogLinearHistogram {
+
+	static final int MIN_SIGNIFICANT_DIGITS = 1;
+	static final int MAX_SIGNIFICANT_DIGITS = 4;
+
+	/**
+	 * The layout of the buckets of rollups, which is the only one that is
+	 * written.
+	 */
+	private static final int DEFAULT_SUB_BUCKET_BITS = 7;
+
+	/**
+	 * Bucket indices, i.e. the sign, the exponent and the sub-bucket bits of
+	 * a double, must fit in an int.
+	 */
+	private static final int MAX_SUB_BUCKET_BITS = 31 - 12;
+
+	private static final int EMPTY = -1;
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Interval points of the charts, per decade, from the finest to the
+	 * coarsest.
+	 */
+	private static final int[][] DECADE_STEPS = { { 1, 2, 3, 4, 5, 6, 7, 8, 9 }, { 1, 2, 5 }, { 1 } };
+
+	static LogLinearHistogram create() {
+		return new LogLinearHistogram(DEFAULT_SUB_BUCKET_BITS, INITIAL_CAPACITY);
+	}
+
+	static LogLinearHistogram create(final int subBucketBits) {
+
+		if ((subBucketBits < 0) || (subBucketBits > MAX_SUB_BUCKET_BITS)) {
+			throw new IllegalArgumentException("subBucketBits = <" + subBucketBits + ">");
+		}
+
+		return new LogLinearHistogram(subBucketBits, INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return the smallest number of sub-bucket bits that can tell
+	 *         10<sup>d</sup> values apart, for d significant digits, so that
+	 *         the midpoint of the bucket of a value is within half of
+	 *         10<sup>-d</sup> of the value.
+	 */
+	static int getSubBucketBits(final int significantDigits) {
+
+		if ((significantDigits < MIN_SIGNIFICANT_DIGITS) || (significantDigits > MAX_SIGNIFICANT_DIGITS)) {
+			throw new IllegalArgumentException("significantDigits = <" + significantDigits + ">");
+		}
+
+		return (int) Math.ceil(significantDigits * (Math.log(10) / Math.log(2)));
+	}
+
+	/**
+	 * @return a copy of <code>histogram</code>.
+	 */
+	static LogLinearHistogram copyOf(final LogLinearHistogram histogram) {
+		final LogLinearHistogram copy = new LogLinearHistogram(histogram.subBucketBits, histogram.bucketIndices.length);
+		copy.merge(histogram);
+		return copy;
+	}
+
+	private final int subBucketBits;
+	private final int bucketShift;
+
+	/**
+	 * Bucket indices and counts are kept in an open addressing hash table,
+	 * since the buckets that have values are few but may be anywhere in the
+	 * range of indices.
+	 */
+	private int[] bucketIndices;
+	private long[] counts;
+	private int bucketCount;
+	private long totalCount;
+
+	/**
+	 * The sorted buckets, kept until a value is added, since the value at
+	 * every rank of the median and the percentiles is looked up in them.
+	 */
+	private Buckets sortedBuckets;
+
+	private LogLinearHistogram(final int subBucketBits, final int capacity) {
+		this.subBucketBits = subBucketBits;
+		this.bucketShift = 52 - subBucketBits;
+		this.bucketIndices = newBucketIndices(capacity);
+		this.counts = new long[capacity];
+	}
+
+	void record(final double value) {
+		add(getBucketIndex(value), 1);
+	}
+
+	/**
+	 * Adds the counts of <code>other</code>, which must have the same number
+	 * of sub-bucket bits, to the counts of this histogram.
+	 */
+	void merge(final LogLinearHistogram other) {
+
+		if (other.subBucketBits != this.subBucketBits) {
+			throw new IllegalArgumentException("Sub-bucket bits <" + other.subBucketBits + "> do not match <" + this.subBucketBits + ">");
+		}
+
+		final int[] otherIndices = other.bucketIndices;
+		final long[] otherCounts = other.counts;
+
+		for (int i = 0; i < otherIndices.length; i++) {
+			if (otherIndices[i] != EMPTY) {
+				add(otherIndices[i], otherCounts[i]);
+			}
+		}
+	}
+
+	long getTotalCount() {
+		return this.totalCount;
+	}
+
+	/**
+	 * @return the buckets that have values, in ascending order of values.
+	 */
+	Buckets getBuckets() {
+
+		if (this.sortedBuckets != null) {
+			return this.sortedBuckets;
+		}
+
+		final int n = this.bucketCount;
+		final int[] indices = new int[n];
+
+		int k = 0;
+		for (final int index : this.bucketIndices) {
+			if (index != EMPTY) {
+				indices[k++] = index;
+			}
+		}
+
+		Arrays.sort(indices);
+
+		final long[] sortedCounts = new long[n];
+		for (int i = 0; i < n; i++) {
+			sortedCounts[i] = this.counts[find(indices[i])];
+		}
+
+		this.sortedBuckets = new Buckets(indices, sortedCounts, this.bucketShift);
+		return this.sortedBuckets;
+	}
+
+	/**
+	 * @param rank
+	 *            zero based position of the value in the sorted values.
+	 * @return the midpoint of the bucket that holds the value.
+	 */
+	double getValueAtRank(final long rank) {
+
+		if ((rank < 0) || (rank >= this.totalCount)) {
+			throw new IllegalArgumentException("rank = <" + rank + ">, count = <" + this.totalCount + ">");
+		}
+
+		final Buckets buckets = getBuckets();
+		final int n = buckets.size();
+
+		long cumulativeCount = 0;
+		int i = 0;
+
+		while (i < (n - 1)) {
+			cumulativeCount += buckets.getCount(i);
+
+			if (rank < cumulativeCount) {
+				break;
+			}
+			i++;
+		}
+
+		return buckets.getMidpoint(i);
+	}
+
+	/**
+	 * Writes the buckets in ascending order, as the difference from the
+	 * previous bucket index and the count, each as a variable length number,
+	 * so that a bucket mostly takes 2 or 3 bytes. Only histograms with the
+	 * bucket layout of rollups are written, so the layout is not.
+	 */
+	void writeTo(final DataOutput out) throws IOException {
+
+		if (this.subBucketBits != DEFAULT_SUB_BUCKET_BITS) {
+			throw new IllegalStateException("subBucketBits = <" + this.subBucketBits + ">");
+		}
+
+		final Buckets buckets = getBuckets();
+		final int n = buckets.size();
+
+		writeVarLong(out, n);
+
+		int previousIndex = 0;
+		for (int i = 0; i < n; i++) {
+			final int index = buckets.indices[i];
+
+			writeVarLong(out, index - previousIndex);
+			writeVarLong(out, buckets.counts[i]);
+
+			previousIndex = index;
+		}
+	}
+
+	static LogLinearHistogram readFrom(final DataInput in) throws IOException {
+
+		final int n = (int) readVarLong(in);
+		final LogLinearHistogram histogram = new LogLinearHistogram(DEFAULT_SUB_BUCKET_BITS, Math.max(INITIAL_CAPACITY, Integer.highestOneBit(n) << 2));
+
+		int index = 0;
+		for (int i = 0; i < n; i++) {
+			index += (int) readVarLong(in);
+			histogram.add(index, readVarLong(in));
+		}
+
+		return histogram;
+	}
+
+	private void add(final int bucketIndex, final long count) {
+
+		this.sortedBuckets = null;
+
+		int slot = find(bucketIndex);
+
+		if (this.bucketIndices[slot] == EMPTY) {
+
+			if (((this.bucketCount + 1) * 2) > this.bucketIndices.length) {
+				grow();
+				slot = find(bucketIndex);
+			}
+
+			this.bucketIndices[slot] = bucketIndex;
+			this.bucketCount++;
+		}
+
+		this.counts[slot] += count;
+		this.totalCount += count;
+	}
+
+	/**
+	 * @return the slot that holds the bucket, or the empty slot where it
+	 *         belongs.
+	 */
+	private int find(final int bucketIndex) {
+
+		final int[] indices = this.bucketIndices;
+		final int mask = indices.length - 1;
+
+		int slot = mix(bucketIndex) & mask;
+
+		while ((indices[slot] != EMPTY) && (indices[slot] != bucketIndex)) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Spreads the high bits of the hash into the low bits that the mask
+	 * keeps, so that the indices of neighbouring buckets start their probes
+	 * anywhere in the table, however large it is.
+	 */
+	private static int mix(final int bucketIndex) {
+		final int h = bucketIndex * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void grow() {
+
+		final int[] oldIndices = this.bucketIndices;
+		final long[] oldCounts = this.counts;
+
+		this.bucketIndices = newBucketIndices(oldIndices.length * 2);
+		this.counts = new long[oldIndices.length * 2];
+
+		for (int i = 0; i < oldIndices.length; i++) {
+			if (oldIndices[i] != EMPTY) {
+				final int slot = find(oldIndices[i]);
+				this.bucketIndices[slot] = oldIndices[i];
+				this.counts[slot] = oldCounts[i];
+			}
+		}
+	}
+
+	private static int[] newBucketIndices(final int capacity) {
+		final int[] indices = new int[capacity];
+		Arrays.fill(indices, EMPTY);
+		return indices;
+	}
+
+	private int getBucketIndex(final double value) {
+		// the bits of a positive double increase with its value
+		return value > 0 ? (int) (Double.doubleToRawLongBits(value) >>> this.bucketShift) : 0;
+	}
+
+	private static double getLowerBound(final int bucketIndex, final int bucketShift) {
+		return Double.longBitsToDouble(((long) bucketIndex) << bucketShift);
+	}
+
+	/**
+	 * @return interval points from <code>lowest</code> to
+	 *         <code>highest</code> that grow by a decade every few points,
+	 *         for e.g. 0.1, 0.2, 0.5, 1, 2, 5, 10, and are as many as
+	 *         possible but not more than <code>maxIntervalPoints</code>, if
+	 *         at all possible. The first and the last points are the nearest
+	 *         points outside the range.
+	 */
+	static double[] createIntervalPoints(final double lowest, final double highest, final int maxIntervalPoints) {
+
+		// values too small to have a normal exponent are as good as zero
+		if (!(highest >= Double.MIN_NORMAL) || Double.isInfinite(highest)) {
+			return new double[] { 0 };
+		}
+
+		final double low = (lowest >= Double.MIN_NORMAL) && (lowest <= highest) ? lowest : highest;
+
+		final int firstDecade = (int) Math.floor(Math.log10(low));
+		final int lastDecade = (int) Math.floor(Math.log10(highest));
+
+		double[] points = null;
+
+		for (final int[] steps : DECADE_STEPS) {
+
+			final double[] candidate = new double[(((lastDecade - firstDecade) + 2) * steps.length) + 1];
+			int n = 0;
+
+			decades: for (int decade = firstDecade; decade <= (lastDecade + 1); decade++) {
+				for (final int step : steps) {
+
+					// parsed rather than multiplied, so that the points are exactly the decimals
+					final double point = Double.parseDouble(step + "E" + decade);
+
+					if (point > highest) {
+						// the first point above the range ends it
+						candidate[n++] = point;
+						break decades;
+					}
+
+					if ((point <= low) && (n > 0)) {
+						// the last point below the range starts it
+						n = 0;
+					}
+
+					candidate[n++] = point;
+				}
+			}
+
+			points = Arrays.copyOf(candidate, n);
+
+			if (n <= maxIntervalPoints) {
+				break;
+			}
+		}
+
+		return points;
+	}
+
+	private static void writeVarLong(final DataOutput out, final long value) throws IOException {
+
+		long v = value;
+
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+
+		out.writeByte((int) v);
+	}
+
+	private static long readVarLong(final DataInput in) throws IOException {
+
+		long value = 0;
+
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("Malformed variable length number");
+	}
+
+	static final class Buckets {
+
+		private final int[] indices;
+		private final long[] counts;
+		private final int bucketShift;
+
+		Buckets(final int[] indices, final long[] counts, final int bucketShift) {
+			this.indices = indices;
+			this.counts = counts;
+			this.bucketShift = bucketShift;
+		}
+
+		int size() {
+			return this.indices.length;
+		}
+
+		long getCount(final int i) {
+			return this.counts[i];
+		}
+
+		double getLowerBound(final int i) {
+			return LogLinearHistogram.getLowerBound(this.indices[i], this.bucketShift);
+		}
+
+		double getUpperBound(final int i) {
+			return LogLinearHistogram.getLowerBound(this.indices[i] + 1, this.bucketShift);
+		}
+
+		double getMidpoint(final int i) {
+			return (getLowerBound(i) + getUpperBound(i)) / 2;
+		}
+	}
+}
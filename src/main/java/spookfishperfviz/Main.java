@@ -34,6 +34,10 @@ public final class Main {
 			LatencyReportGenerator.run(options);
 			break;
 
+		case "Aggregate":
+			LatencyReportGenerator.aggregate(options);
+			break;
+
 		default:
 			throw BadOptionsException.illegalValue("task", "<" + task + ">", null);
 		}
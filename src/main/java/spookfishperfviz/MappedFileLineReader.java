@@ -0,0 +1,504 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads lines of a file by scanning for line terminator bytes directly in a
+ * memory-mapped view of the file. Only the bytes of a line are decoded, and
+ * only once.
+ * <p>
+ * Produces the same lines as a {@linkplain java.util.Scanner} that uses the
+ * delimiter <code>\r\n|[\n\r\u2028\u2029\u0085]</code> to read the same file.
+ * The charset must encode <code>'\n'</code> and <code>'\r'</code> as single
+ * bytes, as UTF-8, ISO-8859-1 and US-ASCII do.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class MappedFileLineReader implements Iterator<String>, Closeable {
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	/**
+	 * A single mapping is limited to {@linkplain Integer#MAX_VALUE} bytes, so
+	 * large files are mapped one window at a time.
+	 */
+	private static final long MAX_WINDOW_SIZE = 256L * 1024 * 1024;
+
+	static MappedFileLineReader create(final File file, final Charset charset) throws IOException {
+		return create(file, charset, 0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Reads only the lines found between the byte offsets <code>start</code>
+	 * (inclusive) and <code>end</code> (exclusive). Both offsets must be line
+	 * boundaries, for e.g. the ones returned by
+	 * {@linkplain #findLineBoundaries(File, int)}.
+	 */
+	static MappedFileLineReader create(final File file, final Charset charset, final long start, final long end) throws IOException {
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			return new MappedFileLineReader(raf, raf.getChannel(), charset, start, end);
+		} catch (final IOException | RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the lines between the offsets from a file that is already open.
+	 * The channel is not closed with the reader.
+	 */
+	static MappedFileLineReader create(final FileChannel channel, final Charset charset, final long start, final long end) throws IOException {
+		return new MappedFileLineReader(null, channel, charset, start, end);
+	}
+
+	/**
+	 * Splits the file into at most <code>maxRangeCount</code> ranges of
+	 * roughly equal size, each of which begins at the start of a line.
+	 * 
+	 * @return the offsets at which the ranges begin, followed by the size of
+	 *         the file.
+	 */
+	static long[] findLineBoundaries(final File file, final int maxRangeCount) throws IOException {
+		return findLineBoundaries(file, 0, Long.MAX_VALUE, maxRangeCount);
+	}
+
+	/**
+	 * Same as {@linkplain #findLineBoundaries(File, int)}, for the part of
+	 * the file between the byte offsets <code>start</code> (inclusive) and
+	 * <code>end</code> (exclusive). <code>start</code> must be a line
+	 * boundary.
+	 * 
+	 * @return the offsets at which the ranges begin, followed by
+	 *         <code>end</code>, or the size of the file if that is smaller.
+	 */
+	static long[] findLineBoundaries(final File file, final long start, final long end, final int maxRangeCount) throws IOException {
+
+		if (maxRangeCount < 1) {
+			throw new IllegalArgumentException("maxRangeCount = <" + maxRangeCount + ">");
+		}
+
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r");) {
+
+			final FileChannel channel = raf.getChannel();
+			final long size = Math.min(end, channel.size());
+			final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+			if ((start < 0) || (start > size)) {
+				throw new IllegalArgumentException("start = <" + start + ">, end = <" + size + ">");
+			}
+
+			final long[] boundaries = new long[maxRangeCount + 1];
+			int count = 0;
+			boundaries[count++] = start;
+
+			for (int k = 1; k < maxRangeCount; k++) {
+				final long nominal = start + (((size - start) / maxRangeCount) * k);
+				final long previous = boundaries[count - 1];
+
+				if (nominal <= previous) {
+					continue;
+				}
+
+				final long boundary = findNextLineStart(channel, nominal, size, buffer);
+
+				if (boundary >= size) {
+					break;
+				}
+
+				if (boundary > previous) {
+					boundaries[count++] = boundary;
+				}
+			}
+
+			boundaries[count++] = size;
+
+			return Arrays.copyOf(boundaries, count);
+		}
+	}
+
+	/**
+	 * @return the offset at which the first line that begins at or after
+	 *         <code>offset</code> begins, or the size of the file if there is
+	 *         none.
+	 */
+	static long findLineStart(final File file, final long offset) throws IOException {
+
+		if (offset <= 0) {
+			return 0;
+		}
+
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r");) {
+			final FileChannel channel = raf.getChannel();
+			return findNextLineStart(channel, offset, channel.size(), ByteBuffer.allocate(8 * 1024));
+		}
+	}
+
+	/**
+	 * @return the offset that follows the last <code>'\n'</code> between
+	 *         <code>from</code> and <code>to</code>, or <code>from</code> if
+	 *         there is none.
+	 */
+	static long findEndOfLastLine(final File file, final long from, final long to) throws IOException {
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r");) {
+			return findEndOfLastLine(raf.getChannel(), from, to);
+		}
+	}
+
+	/**
+	 * @return the offset that follows the last <code>'\n'</code> between
+	 *         <code>from</code> and <code>to</code> in a file that is already
+	 *         open, or <code>from</code> if there is none.
+	 */
+	static long findEndOfLastLine(final FileChannel channel, final long from, final long to) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long chunkEnd = Math.min(to, channel.size());
+
+		while (chunkEnd > from) {
+			final long chunkStart = Math.max(from, chunkEnd - buffer.capacity());
+			final int len = (int) (chunkEnd - chunkStart);
+
+			buffer.clear();
+			buffer.limit(len);
+
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, chunkStart + buffer.position()) < 0) {
+					throw new EOFException("Unexpected end of file at position <" + (chunkStart + buffer.position()) + ">");
+				}
+			}
+
+			for (int i = len - 1; i >= 0; i--) {
+				if (buffer.get(i) == LF) {
+					return chunkStart + i + 1;
+				}
+			}
+
+			chunkEnd = chunkStart;
+		}
+
+		return from;
+	}
+
+	/**
+	 * Returns the offset that follows the first LF found at or after
+	 * <code>from - 1</code>. Ranges are split only after an LF since a CR may
+	 * be the first half of a CRLF pair.
+	 */
+	private static long findNextLineStart(final FileChannel channel, final long from, final long size, final ByteBuffer buffer) throws IOException {
+
+		long pos = from - 1;
+
+		while (pos < size) {
+			buffer.clear();
+
+			final int n = channel.read(buffer, pos);
+			if (n <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < n; i++) {
+				if (buffer.get(i) == LF) {
+					return pos + i + 1;
+				}
+			}
+
+			pos += n;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Closed with the reader. Null if the channel belongs to the caller.
+	 */
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final Charset charset;
+	private final long end;
+
+	private final ArrayDeque<String> pendingLines;
+	private final AsciiCharSequence lineView;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+	private long windowEnd;
+	private long position;
+	private byte[] lineBytes;
+
+	private MappedFileLineReader(final RandomAccessFile file, final FileChannel channel, final Charset charset, final long start, final long end) throws IOException {
+
+		if (!Arrays.equals("\r\n".getBytes(charset), new byte[] { CR, LF })) {
+			throw new IllegalArgumentException("Unsupported charset <" + charset + ">");
+		}
+
+		this.channel = channel;
+		this.end = Math.min(end, channel.size());
+
+		if ((start < 0) || (start > this.end)) {
+			throw new IllegalArgumentException("start = <" + start + ">, end = <" + this.end + ">");
+		}
+
+		this.file = file;
+		this.charset = charset;
+		this.pendingLines = new ArrayDeque<>();
+		this.lineView = new AsciiCharSequence();
+		this.lineBytes = new byte[1024];
+		this.position = start;
+
+		if (start == 0) {
+			// Scanner skips a delimiter found at the very beginning of the input.
+			skipLeadingTerminator();
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return fill();
+	}
+
+	@Override
+	public String next() {
+
+		if (!fill()) {
+			throw new NoSuchElementException();
+		}
+
+		return this.pendingLines.poll();
+	}
+
+	/**
+	 * Same as {@linkplain #next()}, except that a line made up of ASCII
+	 * characters only is not decoded. It is returned as a view of the mapped
+	 * bytes instead, which is valid only until this method is called again.
+	 * 
+	 * @return null if there are no more lines.
+	 */
+	CharSequence nextLine() {
+
+		while (this.pendingLines.isEmpty() && (this.position < this.end)) {
+			if (readLine(true)) {
+				return this.lineView;
+			}
+		}
+
+		return this.pendingLines.poll();
+	}
+
+	/**
+	 * A line made up of just a line separator at the end of the input yields
+	 * nothing, hence more than one line may have to be read.
+	 */
+	private boolean fill() {
+
+		while (this.pendingLines.isEmpty() && (this.position < this.end)) {
+			readLine(false);
+		}
+
+		return !this.pendingLines.isEmpty();
+	}
+
+	/**
+	 * @return true if the line was made available through the line view
+	 *         instead of being added to the pending lines.
+	 */
+	private boolean readLine(final boolean asView) {
+		try {
+			return readLine(asView, this.position);
+		} catch (final IOException e) {
+			throw new RuntimeException("Error while reading from file at position <" + this.position + ">", e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.window = null;
+		this.pendingLines.clear();
+
+		if (this.file != null) {
+			this.file.close();
+		}
+	}
+
+	private void skipLeadingTerminator() throws IOException {
+
+		final long p = this.position;
+
+		if (p < this.end) {
+			final MappedByteBuffer w = mapWindow(p);
+			final byte first = w.get(0);
+
+			if (first == LF) {
+				this.position = p + 1;
+			} else if (first == CR) {
+				this.position = p + (((w.limit() > 1) && (w.get(1) == LF)) ? 2 : 1);
+			}
+		}
+	}
+
+	private boolean readLine(final boolean asView, final long lineStart) throws IOException {
+
+		if ((this.window == null) || (lineStart < this.windowStart) || (lineStart >= this.windowEnd)) {
+			mapWindow(lineStart);
+		}
+
+		while (true) {
+			final MappedByteBuffer w = this.window;
+			final int limit = w.limit();
+			final int from = (int) (lineStart - this.windowStart);
+
+			boolean nonAscii = false;
+			int terminatorLength = -1;
+			int i = from;
+
+			for (; i < limit; i++) {
+				final byte b = w.get(i);
+
+				if (b == LF) {
+					terminatorLength = 1;
+					break;
+				}
+
+				if (b == CR) {
+					if ((i + 1) < limit) {
+						terminatorLength = (w.get(i + 1) == LF) ? 2 : 1;
+					}
+					break;
+				}
+
+				if (b < 0) {
+					nonAscii = true;
+				}
+			}
+
+			final boolean windowExhausted = (terminatorLength < 0) && (this.windowEnd < this.end);
+
+			if (windowExhausted) {
+				if (this.windowStart == lineStart) {
+					throw new RuntimeException("Line starting at position <" + lineStart + "> is too long");
+				}
+
+				// the line crosses the end of this window
+				mapWindow(lineStart);
+				continue;
+			}
+
+			if (terminatorLength < 0) {
+				// last line of the file, either unterminated or ending with a lone CR
+				terminatorLength = (i < limit) ? 1 : 0;
+			}
+
+			this.position = this.windowStart + i + terminatorLength;
+
+			if (asView && !nonAscii) {
+				this.lineView.set(w, from, i);
+				return true;
+			}
+
+			final String line = decode(w, from, i);
+
+			if (nonAscii) {
+				splitAtUnicodeLineSeparators(line, lineStart == 0, terminatorLength == 0);
+			} else {
+				this.pendingLines.add(line);
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Lines can also be terminated by characters that are encoded using more
+	 * than one byte. Those can only be detected after decoding.
+	 */
+	private void splitAtUnicodeLineSeparators(final String line, final boolean isStartOfInput, final boolean isUnterminated) {
+
+		final ArrayDeque<String> lines = this.pendingLines;
+
+		int from = 0;
+		final int len = line.length();
+
+		for (int i = 0; i < len; i++) {
+			final char c = line.charAt(i);
+
+			if ((c == '\u2028') || (c == '\u2029') || (c == '\u0085')) {
+				if ((i > 0) || !isStartOfInput) {
+					lines.add(line.substring(from, i));
+				}
+				from = i + 1;
+			}
+		}
+
+		// A separator at the very end of the input is not followed by an empty line.
+		if ((from < len) || (from == 0) || !isUnterminated) {
+			lines.add(line.substring(from));
+		}
+	}
+
+	private String decode(final MappedByteBuffer w, final int from, final int to) {
+
+		final int len = to - from;
+
+		if (len > this.lineBytes.length) {
+			this.lineBytes = new byte[Math.max(len, this.lineBytes.length * 2)];
+		}
+
+		final byte[] bytes = this.lineBytes;
+
+		w.position(from);
+		w.get(bytes, 0, len);
+
+		return new String(bytes, 0, len, this.charset);
+	}
+
+	private MappedByteBuffer mapWindow(final long start) throws IOException {
+
+		final long size = Math.min(MAX_WINDOW_SIZE, this.end - start);
+		final MappedByteBuffer w = this.channel.map(MapMode.READ_ONLY, start, size);
+
+		this.window = w;
+		this.windowStart = start;
+		this.windowEnd = start + size;
+
+		return w;
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands out buffers outside the heap, so that the garbage collector neither
+ * copies nor counts the records kept in them, and the records are not limited
+ * by the maximum heap size.
+ * <p>
+ * Buffers are cut from segments of 64 MB, each of which is a memory mapped
+ * temporary file. The file is deleted as soon as it is mapped, so the
+ * operating system frees its space when the segment is unmapped, which
+ * happens once none of its buffers are reachable. Since the segments are
+ * backed by files, they can be paged out, and the records may exceed the
+ * physical memory. The segments can also be unmapped at once, see
+ * {@linkplain #release()}.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class OffHeapBuffers {
+
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	static OffHeapBuffers create(final Path dir) {
+		return new OffHeapBuffers(dir);
+	}
+
+	private final Path dir;
+	private final List<WeakReference<MappedByteBuffer>> segments = new ArrayList<>();
+	private ByteBuffer segment;
+
+	private OffHeapBuffers(final Path dir) {
+		this.dir = dir;
+	}
+
+	Path getDir() {
+		return this.dir;
+	}
+
+	/**
+	 * May be called by several threads.
+	 * 
+	 * @return a buffer of <code>size</code> bytes, all zero, in the native
+	 *         byte order.
+	 */
+	synchronized ByteBuffer allocate(final int size) {
+
+		if ((size < 0) || (size > SEGMENT_SIZE)) {
+			throw new IllegalArgumentException("size = <" + size + ">");
+		}
+
+		if ((this.segment == null) || (this.segment.remaining() < size)) {
+			final MappedByteBuffer mapped = mapSegment();
+			this.segments.add(new WeakReference<>(mapped));
+			this.segment = mapped;
+		}
+
+		final ByteBuffer segment = this.segment;
+		final int position = segment.position();
+
+		segment.limit(position + size);
+		final ByteBuffer buffer = segment.slice().order(ByteOrder.nativeOrder());
+
+		segment.limit(segment.capacity());
+		segment.position(position + size);
+
+		return buffer;
+	}
+
+	/**
+	 * Unmaps the segments mapped so far, instead of waiting for the garbage
+	 * collector to do so. None of the buffers handed out before may be used
+	 * afterwards, since reading an unmapped buffer crashes the JVM. Segments
+	 * that cannot be unmapped, on JVMs without the methods used for it, are
+	 * left to the garbage collector.
+	 */
+	synchronized void release() {
+
+		for (final WeakReference<MappedByteBuffer> reference : this.segments) {
+			final MappedByteBuffer segment = reference.get();
+			if (segment != null) {
+				unmap(segment);
+			}
+		}
+
+		this.segments.clear();
+		this.segment = null;
+	}
+
+	private static void unmap(final MappedByteBuffer segment) {
+
+		try {
+			try {
+				// Java 9 and later
+				final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				final Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+				unsafeField.setAccessible(true);
+
+				unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafeField.get(null), segment);
+
+			} catch (final NoSuchMethodException e) {
+				// Java 7 and 8
+				final Method cleanerMethod = segment.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+
+				final Object cleaner = cleanerMethod.invoke(segment);
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			// unmapped by the garbage collector once unreachable
+		}
+	}
+
+	private MappedByteBuffer mapSegment() {
+
+		try {
+			final Path file = Files.createTempFile(this.dir, "records", ".tmp");
+
+			try (final FileChannel channel = FileChannel.open(file, READ, WRITE);) {
+				// the mapping outlives the channel
+				return channel.map(MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+			} finally {
+				try {
+					Files.delete(file);
+				} catch (final IOException e) {
+					// some file systems do not allow deleting a mapped file
+					file.toFile().deleteOnExit();
+				}
+			}
+
+		} catch (final IOException e) {
+			throw new RuntimeException("Could not map a segment of off-heap buffers in <" + this.dir + ">", e);
+		}
+	}
+}
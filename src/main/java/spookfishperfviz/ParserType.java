@@ -18,16 +18,20 @@
 package spookfishperfviz;
 
 /**
+ * Kind of {@linkplain RecordParser} used to read the input.
+ * 
  * @author Rahul Bakale
- * @since Nov, 2014
+ * @since Jan, 2015
  */
-final class TimestampAndLatency {
-	
-	final long timestamp;
-	final double latency;
+enum ParserType {
+
+	/**
+	 * @see SimpleRegexBasedRecordParser
+	 */
+	REGEX,
 
-	TimestampAndLatency(final long timestamp, final double latency) {
-		this.timestamp = timestamp;
-		this.latency = latency;
-	}
-}
\ No newline at end of file
+	/**
+	 * @see DelimitedRecordParser
+	 */
+	DELIMITED;
+}
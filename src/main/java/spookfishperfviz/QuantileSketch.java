@@ -0,0 +1,310 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sketch of a stream of latencies that estimates the latency at any rank,
+ * after the KLL sketch described in <i>Optimal Quantile Approximation in
+ * Streams</i> by Zohar Karnin, Kevin Lang and Edo Liberty.
+ * <p>
+ * The latencies are kept in levels, where a latency at level h stands for
+ * 2<sup>h</sup> latencies. When a level is full, its latencies are sorted,
+ * and every other one of them, starting at random with the first or the
+ * second, moves to the next level up. The capacity of a level shrinks by a
+ * third for every level above it, so the sketch keeps about three times
+ * <code>size</code> latencies, however many are added. The rank of an
+ * estimate is off by a fraction of the count that shrinks as the size grows,
+ * about 1% for a size of 200.
+ * <p>
+ * Sketches of the same size can be merged into a sketch of both streams.
+ * The random choices are seeded with a constant, so that the same latencies
+ * always give the same estimates.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class QuantileSketch {
+
+	static final int MIN_SIZE = 8;
+	static final int DEFAULT_SIZE = 200;
+
+	private static final double CAPACITY_RATIO = 2.0 / 3;
+	private static final int MIN_CAPACITY = 2;
+
+	static QuantileSketch create(final int size) {
+
+		if (size < MIN_SIZE) {
+			throw new IllegalArgumentException("size = <" + size + ">");
+		}
+
+		return new QuantileSketch(size);
+	}
+
+	private final int size;
+	private final Random random;
+
+	private double[][] levels;
+	private int[] levelSizes;
+	private int levelCount;
+
+	private int retainedCount;
+	private int maxRetainedCount;
+
+	private long totalCount;
+	private double min;
+	private double max;
+
+	/**
+	 * The retained latencies in ascending order and the number of latencies
+	 * that each of them and all before it stand for. Built when first
+	 * needed after a change.
+	 */
+	private double[] sortedValues;
+	private long[] cumulativeCounts;
+
+	private QuantileSketch(final int size) {
+
+		this.size = size;
+		this.random = new Random(size);
+		this.levels = new double[0][];
+		this.levelSizes = new int[0];
+		this.min = Double.NaN;
+		this.max = Double.NaN;
+
+		addLevel();
+	}
+
+	int getSize() {
+		return this.size;
+	}
+
+	void add(final double value) {
+
+		append(0, value);
+		updateCountAndRange(1, value, value);
+
+		if (this.retainedCount >= this.maxRetainedCount) {
+			compress();
+		}
+	}
+
+	/**
+	 * Adds the latencies of <code>other</code>, which must be of the same
+	 * size, to this sketch.
+	 */
+	void merge(final QuantileSketch other) {
+
+		if (other.size != this.size) {
+			throw new IllegalArgumentException("Size <" + other.size + "> does not match <" + this.size + ">");
+		}
+
+		if (other.totalCount == 0) {
+			return;
+		}
+
+		while (this.levelCount < other.levelCount) {
+			addLevel();
+		}
+
+		for (int h = 0; h < other.levelCount; h++) {
+			final double[] values = other.levels[h];
+
+			for (int i = 0; i < other.levelSizes[h]; i++) {
+				append(h, values[i]);
+			}
+		}
+
+		updateCountAndRange(other.totalCount, other.min, other.max);
+
+		while (this.retainedCount >= this.maxRetainedCount) {
+			compress();
+		}
+	}
+
+	long getTotalCount() {
+		return this.totalCount;
+	}
+
+	private void updateCountAndRange(final long count, final double otherMin, final double otherMax) {
+
+		if (this.totalCount == 0) {
+			this.min = otherMin;
+			this.max = otherMax;
+		} else {
+			this.min = Math.min(this.min, otherMin);
+			this.max = Math.max(this.max, otherMax);
+		}
+
+		this.totalCount += count;
+		this.sortedValues = null;
+		this.cumulativeCounts = null;
+	}
+
+	private void append(final int level, final double value) {
+
+		double[] values = this.levels[level];
+		final int n = this.levelSizes[level];
+
+		if (n == values.length) {
+			values = Arrays.copyOf(values, Math.max(MIN_CAPACITY, n * 2));
+			this.levels[level] = values;
+		}
+
+		values[n] = value;
+		this.levelSizes[level] = n + 1;
+		this.retainedCount++;
+	}
+
+	/**
+	 * Compacts full levels from the bottom up, until the sketch is within its
+	 * capacity.
+	 */
+	private void compress() {
+
+		for (int h = 0; h < this.levelCount; h++) {
+
+			if (this.levelSizes[h] >= getCapacity(h)) {
+
+				if ((h + 1) == this.levelCount) {
+					addLevel();
+				}
+
+				compact(h);
+
+				if (this.retainedCount < this.maxRetainedCount) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves every other latency of the level, in sorted order, to the next
+	 * level up. If the level has an odd number of latencies, the largest one
+	 * stays, so that the counts still add up.
+	 */
+	private void compact(final int level) {
+
+		final double[] values = this.levels[level];
+		final int n = this.levelSizes[level];
+		final int pairedCount = n & ~1;
+
+		Arrays.sort(values, 0, n);
+
+		for (int i = this.random.nextBoolean() ? 1 : 0; i < pairedCount; i += 2) {
+			append(level + 1, values[i]);
+		}
+
+		if (pairedCount < n) {
+			values[0] = values[n - 1];
+		}
+
+		this.levelSizes[level] = n - pairedCount;
+		this.retainedCount -= pairedCount;
+	}
+
+	private void addLevel() {
+
+		final int h = this.levelCount;
+
+		this.levels = Arrays.copyOf(this.levels, h + 1);
+		this.levelSizes = Arrays.copyOf(this.levelSizes, h + 1);
+		this.levels[h] = new double[0];
+		this.levelCount = h + 1;
+
+		int maxRetainedCount = 0;
+		for (int i = 0; i <= h; i++) {
+			maxRetainedCount += getCapacity(i);
+		}
+
+		this.maxRetainedCount = maxRetainedCount;
+	}
+
+	private int getCapacity(final int level) {
+		final int depth = this.levelCount - level - 1;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(this.size * Math.pow(CAPACITY_RATIO, depth)));
+	}
+
+	/**
+	 * The first and the last values are the exact minimum and maximum.
+	 * 
+	 * @param rank
+	 *            zero based position of the value in the sorted values.
+	 */
+	double getValueAtRank(final long rank) {
+
+		if ((rank < 0) || (rank >= this.totalCount)) {
+			throw new IllegalArgumentException("rank = <" + rank + ">, count = <" + this.totalCount + ">");
+		}
+
+		if (rank == 0) {
+			return this.min;
+		}
+
+		if (rank == (this.totalCount - 1)) {
+			return this.max;
+		}
+
+		if (this.sortedValues == null) {
+			sort();
+		}
+
+		// the first value that, with all before it, stands for more than <rank> values
+		final int i = Arrays.binarySearch(this.cumulativeCounts, rank);
+
+		return this.sortedValues[i >= 0 ? i + 1 : -(i + 1)];
+	}
+
+	/**
+	 * Sorts each level, and then merges the levels.
+	 */
+	private void sort() {
+
+		final int levelCount = this.levelCount;
+		final int[] positions = new int[levelCount];
+
+		for (int h = 0; h < levelCount; h++) {
+			Arrays.sort(this.levels[h], 0, this.levelSizes[h]);
+		}
+
+		final double[] values = new double[this.retainedCount];
+		final long[] cumulativeCounts = new long[this.retainedCount];
+		long cumulativeCount = 0;
+
+		for (int i = 0; i < values.length; i++) {
+
+			int level = -1;
+
+			for (int h = 0; h < levelCount; h++) {
+				if ((positions[h] < this.levelSizes[h]) && ((level < 0) || (this.levels[h][positions[h]] < this.levels[level][positions[level]]))) {
+					level = h;
+				}
+			}
+
+			values[i] = this.levels[level][positions[level]++];
+			cumulativeCount += 1L << level;
+			cumulativeCounts[i] = cumulativeCount;
+		}
+
+		this.sortedValues = values;
+		this.cumulativeCounts = cumulativeCounts;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the values at a few ranks of unsorted values, without sorting all of
+ * them. The values are partitioned around a pivot as in quicksort, but only
+ * the partitions that have any of the ranks are partitioned further, which
+ * takes time proportional to the number of values, on average. A partition
+ * that is still not done after twice the depth of a balanced partitioning is
+ * sorted instead, so that bad pivots can not take quadratic time.
+ * <p>
+ * Large partitions are partitioned further in parallel.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class QuickSelect {
+
+	private static final int SORT_THRESHOLD = 32;
+	private static final int PARALLEL_THRESHOLD = 1 << 18;
+	private static final int THREAD_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * @param ranks
+	 *            zero based positions in the sorted values, in any order.
+	 * @return a copy of <code>data</code> that has the same values at the
+	 *         ranks as a sorted copy would. Other values are in no particular
+	 *         order.
+	 */
+	static double[] select(final double[] data, final int[] ranks) {
+
+		final int n = data.length;
+		final double[] values = Arrays.copyOf(data, n);
+		final int[] sortedRanks = sortUnique(ranks, n);
+
+		if (sortedRanks.length == 0) {
+			return values;
+		}
+
+		for (final double value : values) {
+			// comparisons do not order NaN, or -0.0 before 0.0, as Arrays.sort does
+			if (Double.isNaN(value) || (Double.doubleToRawLongBits(value) == Long.MIN_VALUE)) {
+				Arrays.sort(values);
+				return values;
+			}
+		}
+
+		final int maxDepth = 2 * (32 - Integer.numberOfLeadingZeros(n));
+
+		if ((n < PARALLEL_THRESHOLD) || (THREAD_COUNT == 1)) {
+			select(values, 0, n, sortedRanks, 0, sortedRanks.length, maxDepth);
+		} else {
+			PoolHolder.POOL.invoke(new SelectTask(values, 0, n, sortedRanks, 0, sortedRanks.length, maxDepth));
+		}
+
+		return values;
+	}
+
+	private static int[] sortUnique(final int[] ranks, final int n) {
+
+		final int[] sorted = Arrays.copyOf(ranks, ranks.length);
+		Arrays.sort(sorted);
+
+		int k = 0;
+
+		for (int i = 0; i < sorted.length; i++) {
+
+			if ((sorted[i] < 0) || (sorted[i] >= n)) {
+				throw new IllegalArgumentException("rank = <" + sorted[i] + ">, count = <" + n + ">");
+			}
+
+			if ((k == 0) || (sorted[i] != sorted[k - 1])) {
+				sorted[k++] = sorted[i];
+			}
+		}
+
+		return Arrays.copyOf(sorted, k);
+	}
+
+	/**
+	 * Puts the values at the ranks from <code>rankFrom</code> (inclusive) to
+	 * <code>rankTo</code> (exclusive) of <code>ranks</code> in place. The
+	 * ranks are between <code>from</code> (inclusive) and <code>to</code>
+	 * (exclusive), and so are the values that belong at them.
+	 */
+	private static void select(	final double[] values, 
+								final int from, 
+								final int to, 
+								final int[] ranks, 
+								final int rankFrom, 
+								final int rankTo, 
+								final int depth) {
+
+		int start = from;
+		int rankStart = rankFrom;
+		int remainingDepth = depth;
+
+		while (rankStart < rankTo) {
+
+			if (((to - start) <= SORT_THRESHOLD) || (remainingDepth == 0)) {
+				Arrays.sort(values, start, to);
+				return;
+			}
+
+			final long bounds = partition(values, start, to);
+			final int lessEnd = (int) (bounds >>> 32);
+			final int greaterStart = (int) bounds;
+
+			// ranks in between have values equal to the pivot, already in place
+			final int rankLessEnd = firstRankNotBelow(ranks, rankStart, rankTo, lessEnd);
+			final int rankGreaterStart = firstRankNotBelow(ranks, rankLessEnd, rankTo, greaterStart);
+
+			remainingDepth--;
+
+			select(values, start, lessEnd, ranks, rankStart, rankLessEnd, remainingDepth);
+
+			start = greaterStart;
+			rankStart = rankGreaterStart;
+		}
+	}
+
+	/**
+	 * Partitions the values around the median of the first, the middle and
+	 * the last values, into the values less than it, the values equal to it
+	 * and the values greater than it, in that order.
+	 * 
+	 * @return the end of the lesser values in the higher 32 bits, and the
+	 *         start of the greater values in the lower 32 bits.
+	 */
+	private static long partition(final double[] values, final int from, final int to) {
+
+		final double pivot = medianOf(values[from], values[(from + to) >>> 1], values[to - 1]);
+
+		int lessEnd = from;
+		int greaterStart = to;
+		int i = from;
+
+		while (i < greaterStart) {
+
+			final double value = values[i];
+
+			if (value < pivot) {
+				values[i] = values[lessEnd];
+				values[lessEnd] = value;
+				lessEnd++;
+				i++;
+			} else if (value > pivot) {
+				greaterStart--;
+				values[i] = values[greaterStart];
+				values[greaterStart] = value;
+			} else {
+				i++;
+			}
+		}
+
+		return (((long) lessEnd) << 32) | greaterStart;
+	}
+
+	private static double medianOf(final double a, final double b, final double c) {
+		return a < b ? (b < c ? b : Math.max(a, c)) : (a < c ? a : Math.max(b, c));
+	}
+
+	/**
+	 * @return the index of the first rank from <code>rankFrom</code> that is
+	 *         not less than <code>position</code>, or <code>rankTo</code>.
+	 */
+	private static int firstRankNotBelow(final int[] ranks, final int rankFrom, final int rankTo, final int position) {
+
+		int low = rankFrom;
+		int high = rankTo;
+
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+
+			if (ranks[mid] < position) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Created on the first parallel selection. Its threads are daemon threads
+	 * that end when they have been idle for a while, so it is never shut down.
+	 */
+	private static final class PoolHolder {
+
+		static final ForkJoinPool POOL = new ForkJoinPool(THREAD_COUNT);
+	}
+
+	private static final class SelectTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 5218493301452866204L;
+
+		private final double[] values;
+		private final int from;
+		private final int to;
+		private final int[] ranks;
+		private final int rankFrom;
+		private final int rankTo;
+		private final int depth;
+
+		SelectTask(final double[] values, final int from, final int to, final int[] ranks, final int rankFrom, final int rankTo, final int depth) {
+			this.values = values;
+			this.from = from;
+			this.to = to;
+			this.ranks = ranks;
+			this.rankFrom = rankFrom;
+			this.rankTo = rankTo;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+
+			if ((this.rankFrom >= this.rankTo) || ((this.to - this.from) < PARALLEL_THRESHOLD) || (this.depth == 0)) {
+				select(this.values, this.from, this.to, this.ranks, this.rankFrom, this.rankTo, this.depth);
+				return;
+			}
+
+			final long bounds = partition(this.values, this.from, this.to);
+			final int lessEnd = (int) (bounds >>> 32);
+			final int greaterStart = (int) bounds;
+
+			final int rankLessEnd = firstRankNotBelow(this.ranks, this.rankFrom, this.rankTo, lessEnd);
+			final int rankGreaterStart = firstRankNotBelow(this.ranks, rankLessEnd, this.rankTo, greaterStart);
+
+			invokeAll(
+					new SelectTask(this.values, this.from, lessEnd, this.ranks, this.rankFrom, rankLessEnd, this.depth - 1), 
+					new SelectTask(this.values, greaterStart, this.to, this.ranks, rankGreaterStart, this.rankTo, this.depth - 1));
+		}
+	}
+}
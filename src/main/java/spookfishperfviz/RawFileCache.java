@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Keeps the records parsed from input files in binary files, so that a file
+ * that has not changed since it was last read need not be parsed again, for
+ * e.g. when the report is generated again with different histogram or
+ * percentile options.
+ * <p>
+ * The records of an input file are stored under a key made of the path, size
+ * and last modified time of the file, a hash of samples of its contents, and
+ * the options that decide how it is parsed. The records are kept in the format
+ * of {@linkplain ColumnarRecordStore}, with the key as the header, which is
+ * compared when the file is read, so a stale or corrupt cache file is never
+ * used.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class RawFileCache {
+
+	private static final String CACHE_FILE_SUFFIX = ".raw";
+
+	/**
+	 * @param encoding
+	 *            of the cache files written. Cache files are read whatever
+	 *            their encoding.
+	 * @param decodeThreads
+	 *            number of threads used to decode a cache file.
+	 */
+	static RawFileCache create(final Path dir, final ColumnEncoding encoding, final int decodeThreads) throws IOException {
+		return new RawFileCache(Files.createDirectories(dir), encoding, decodeThreads);
+	}
+
+	private final Path dir;
+	private final ColumnEncoding encoding;
+	private final int decodeThreads;
+
+	private RawFileCache(final Path dir, final ColumnEncoding encoding, final int decodeThreads) {
+		this.dir = dir;
+		this.encoding = encoding;
+		this.decodeThreads = decodeThreads;
+	}
+
+	/**
+	 * @param parserKey
+	 *            identifies the options that decide how the file is parsed.
+	 *            Records parsed with different options are cached separately.
+	 */
+	Key createKey(final File file, final String parserKey) throws IOException {
+
+		final File canonicalFile = file.getCanonicalFile();
+		final long size = canonicalFile.length();
+		final long lastModified = canonicalFile.lastModified();
+
+		final String keyText =
+				"path=" + canonicalFile.getPath() +
+				"\nsize=" + size +
+				"\nlastModified=" + lastModified +
+				"\nsampleHash=" + Utils.toHex(Utils.hashSamples(canonicalFile, size)) +
+				"\nparser=" + parserKey;
+
+		final String fileName = Utils.sha1Hex(keyText) + CACHE_FILE_SUFFIX;
+
+		return new Key(canonicalFile, size, lastModified, keyText, this.dir.resolve(fileName));
+	}
+
+	/**
+	 * @return the cached records, or null if there are none for the key.
+	 */
+	Map<String, EventRecords> get(final Key key) throws IOException {
+
+		try {
+			return ColumnarRecordStore.read(key.cacheFile, key.text, this.decodeThreads);
+		} catch (final NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Does nothing if the input file has changed since the key was created,
+	 * since the records may then belong to neither version of the file.
+	 *
+	 * @return true if the records were cached.
+	 */
+	boolean put(final Key key, final Map<String, EventRecords> data) throws IOException {
+
+		final File file = key.file;
+
+		if ((file.length() != key.size) || (file.lastModified() != key.lastModified)) {
+			return false;
+		}
+
+		final ColumnEncoding encoding = this.encoding;
+
+		Utils.writeAtomically(key.cacheFile, new PathWriter() {
+			@Override
+			public void writeTo(final Path tmpFile) throws IOException {
+				ColumnarRecordStore.write(tmpFile, key.text, data, encoding);
+			}
+		});
+
+		return true;
+	}
+
+	static final class Key {
+
+		private final File file;
+		private final long size;
+		private final long lastModified;
+		private final String text;
+		private final Path cacheFile;
+
+		Key(final File file, final long size, final long lastModified, final String text, final Path cacheFile) {
+			this.file = file;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.text = text;
+			this.cacheFile = cacheFile;
+		}
+
+		Path getCacheFile() {
+			return this.cacheFile;
+		}
+	}
+}
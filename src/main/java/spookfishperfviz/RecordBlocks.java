@@ -0,0 +1,36 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+
+/**
+ * Records that can be gone through a block at a time, as many times as
+ * needed, so that the stats and the charts of more records than the heap
+ * can hold are created in a few passes over the blocks.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+interface RecordBlocks {
+
+	/**
+	 * Passes the blocks to <code>sink</code>, in the same order every time.
+	 */
+	void forEachBlock(RecordSpill.BlockSink sink) throws IOException;
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects records into {@linkplain EventRecords}, one per event type. Event
+ * names are turned into int ids by an {@linkplain EventDictionary}, and the
+ * buffers are kept in an array indexed by id, so a String is created only
+ * the first time an event type is seen and names are needed only when the
+ * records are handed out.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class RecordBuffers implements RecordSink {
+
+	static RecordBuffers create() {
+		return new RecordBuffers(0, null);
+	}
+
+	/**
+	 * @see EventRecords#create(double, OffHeapBuffers)
+	 */
+	static RecordBuffers create(final double latencyResolution, final OffHeapBuffers offHeapBuffers) {
+		return new RecordBuffers(latencyResolution, offHeapBuffers);
+	}
+
+	/**
+	 * @see EventRecords#create(double, OffHeapBuffers)
+	 */
+	static Supplier<RecordBuffers> supplier(final double latencyResolution, final OffHeapBuffers offHeapBuffers) {
+		return new Supplier<RecordBuffers>() {
+			@Override
+			public RecordBuffers get() {
+				return create(latencyResolution, offHeapBuffers);
+			}
+		};
+	}
+
+	private final EventDictionary dictionary;
+	private final double latencyResolution;
+	private final OffHeapBuffers offHeapBuffers;
+	private EventRecords[] buffers;
+
+	private RecordBuffers(final double latencyResolution, final OffHeapBuffers offHeapBuffers) {
+		this.dictionary = EventDictionary.create();
+		this.latencyResolution = latencyResolution;
+		this.offHeapBuffers = offHeapBuffers;
+		this.buffers = new EventRecords[16];
+	}
+
+	@Override
+	public void accept(final CharSequence text, final int eventNameStart, final int eventNameEnd, final long timestamp, final double latency) {
+
+		final int id = this.dictionary.getId(text, eventNameStart, eventNameEnd);
+
+		if (id >= this.buffers.length) {
+			this.buffers = Arrays.copyOf(this.buffers, Math.max(id + 1, this.buffers.length * 2));
+		}
+
+		EventRecords records = this.buffers[id];
+
+		if (records == null) {
+			records = EventRecords.create(this.latencyResolution, this.offHeapBuffers);
+			this.buffers[id] = records;
+		}
+
+		records.add(timestamp, latency);
+	}
+
+	void add(final String eventName, final long timestamp, final double latency) {
+		accept(eventName, 0, eventName.length(), timestamp, latency);
+	}
+
+	/**
+	 * @return the buffers sorted by event name.
+	 */
+	Map<String, EventRecords> getRecordsByEventName() {
+
+		final Map<String, EventRecords> result = new TreeMap<>();
+		final int size = this.dictionary.size();
+
+		for (int id = 0; id < size; id++) {
+			result.put(this.dictionary.getName(id), this.buffers[id]);
+		}
+
+		return result;
+	}
+}
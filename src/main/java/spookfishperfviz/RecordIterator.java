@@ -17,7 +17,12 @@
 
 package spookfishperfviz;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
@@ -64,20 +69,88 @@ final class RecordIterator implements Iterator<Record>, AutoCloseable {
 	}*/
 	
 	static RecordIterator create(final Reader source, final RecordParser parser) {
-		return new RecordIterator(source, parser);
+
+		final Scanner s = new Scanner(source);
+		s.useDelimiter("\r\n|[\n\r\u2028\u2029\u0085]");
+
+		return new RecordIterator(s, s, null, parser);
+	}
+
+	static RecordIterator createForMappedFile(final File file, final Charset charset, final RecordParser parser) throws IOException {
+
+		final MappedFileLineReader reader = MappedFileLineReader.create(file, charset);
+		return new RecordIterator(reader, reader, reader, parser);
+	}
+
+	static RecordIterator createForMappedFile(final File file, final Charset charset, final long start, final long end, final RecordParser parser) throws IOException {
+
+		final MappedFileLineReader reader = MappedFileLineReader.create(file, charset, start, end);
+		return new RecordIterator(reader, reader, reader, parser);
 	}
 
-	private final Scanner scanner;
+	/**
+	 * Reads from a file that is already open. The channel is not closed with
+	 * the iterator.
+	 */
+	static RecordIterator createForMappedFile(final FileChannel channel, final Charset charset, final long start, final long end, final RecordParser parser) throws IOException {
+
+		final MappedFileLineReader reader = MappedFileLineReader.create(channel, charset, start, end);
+		return new RecordIterator(reader, reader, reader, parser);
+	}
+
+	private final Iterator<String> lines;
+	private final Closeable source;
+	private final MappedFileLineReader mappedLines;
 	private final RecordParser parser;
 	private Record bufferedRecord;
 
-	private RecordIterator(final Reader source, final RecordParser parser) {
+	private RecordIterator(final Iterator<String> lines, final Closeable source, final MappedFileLineReader mappedLines, final RecordParser parser) {
+		this.lines = lines;
+		this.source = source;
+		this.mappedLines = mappedLines;
+		this.parser = parser;
+	}
 
-		final Scanner s = new Scanner(source);
-		s.useDelimiter("\r\n|[\n\r\u2028\u2029\u0085]");
+	/**
+	 * Passes all the remaining records to the sink. Unlike iterating over the
+	 * records, this creates no {@linkplain Record} objects, and for a
+	 * memory-mapped file, no String objects for lines made up of ASCII
+	 * characters only.
+	 */
+	final void readAll(final RecordSink sink) {
 
-		this.scanner = s;
-		this.parser = parser;
+		final Record buffered = this.bufferedRecord;
+
+		if (buffered != null) {
+			this.bufferedRecord = null;
+
+			final String eventName = buffered.getEventName();
+			sink.accept(eventName, 0, eventName.length(), buffered.getTimestamp(), buffered.getLatency());
+		}
+
+		final RecordParser parser = this.parser;
+		final MappedFileLineReader mappedLines = this.mappedLines;
+
+		if (mappedLines != null) {
+
+			for (CharSequence line = mappedLines.nextLine(); line != null; line = mappedLines.nextLine()) {
+				if (!parser.isIgnore(line)) {
+					parser.parse(line, sink);
+				}
+			}
+
+		} else {
+
+			final Iterator<String> lines = this.lines;
+
+			while (lines.hasNext()) {
+				final String line = lines.next();
+
+				if (!parser.isIgnore(line)) {
+					parser.parse(line, sink);
+				}
+			}
+		}
 	}
 
 	@Override
@@ -120,9 +193,9 @@ final class RecordIterator implements Iterator<Record>, AutoCloseable {
 	}
 
 	@Override
-	public final void close() {
-		this.scanner.close();
+	public final void close() throws IOException {
 		this.bufferedRecord = null;
+		this.source.close();
 	}
 
 	/**
@@ -138,7 +211,7 @@ final class RecordIterator implements Iterator<Record>, AutoCloseable {
 	}
 
 	private String readNextLine() {
-		final Scanner s = this.scanner;
+		final Iterator<String> s = this.lines;
 
 		while (true) {
 			final String line = s.next();
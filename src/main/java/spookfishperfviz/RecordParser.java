@@ -31,4 +31,23 @@ public abstract class RecordParser {
 
 	protected abstract Record parse(String line);
 
+	/**
+	 * Same as {@linkplain #isIgnore(String)}, for a line that may not be a
+	 * String. Parsers that can work on the characters of the line directly
+	 * should override this, so that a String need not be created per line.
+	 */
+	protected boolean isIgnore(final CharSequence line) {
+		return isIgnore(line.toString());
+	}
+
+	/**
+	 * Parses the line and passes the record to the sink. Parsers that can work
+	 * on the characters of the line directly should override this, so that no
+	 * objects need to be created per line.
+	 */
+	protected void parse(final CharSequence line, final RecordSink sink) {
+		final Record record = parse(line.toString());
+		final String eventName = record.getEventName();
+		sink.accept(eventName, 0, eventName.length(), record.getTimestamp(), record.getLatency());
+	}
 }
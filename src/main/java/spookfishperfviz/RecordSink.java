@@ -0,0 +1,36 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Receives parsed records without a {@linkplain Record} being created for
+ * each of them.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public interface RecordSink {
+
+	/**
+	 * The event name is the part of <code>text</code> between
+	 * <code>eventNameStart</code> (inclusive) and <code>eventNameEnd</code>
+	 * (exclusive). The text may be reused for the next line, hence the event
+	 * name must be copied if it has to be retained.
+	 */
+	void accept(CharSequence text, int eventNameStart, int eventNameEnd, long timestamp, double latency);
+}
@@ -0,0 +1,392 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Spills records to temporary partition files, so that inputs larger than
+ * the memory can be reported on one partition at a time. Each event type
+ * belongs to one partition, chosen by the hash of its name, so a partition
+ * has all the records of its event types.
+ * <p>
+ * Records are buffered in memory per partition, and a partition's buffer is
+ * appended to its file as blocks of records, one block per event type, when
+ * it is full. The records of an event type are therefore read back in the
+ * order in which they were spilled.
+ * <p>
+ * The event types with too many records to be held in memory can be skipped
+ * when a partition is read, and their blocks read again as often as needed
+ * instead, as can the blocks of all the event types. The partition files are
+ * therefore kept until the spill is closed. See
+ * {@linkplain #readBlocks(String, BlockSink)}.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class RecordSpill implements RecordSink, Closeable {
+
+	/**
+	 * Records buffered by all the partitions together, at most.
+	 */
+	private static final int MAX_BUFFERED_RECORDS = 1 << 20;
+
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+	static RecordSpill create(final Path parentDir, final int partitionCount) throws IOException {
+
+		if (partitionCount < 1) {
+			throw new IllegalArgumentException("partitionCount = <" + partitionCount + ">");
+		}
+
+		return new RecordSpill(Files.createTempDirectory(parentDir, "spill"), partitionCount);
+	}
+
+	private final Path dir;
+	private final int partitionCount;
+	private final int maxBufferedRecordsPerPartition;
+
+	private final RecordBuffers[] buffers;
+	private final int[] bufferedCounts;
+	private final DataOutputStream[] outs;
+	private long recordCount;
+
+	/**
+	 * Records spilled per event type, counted as the buffers are written.
+	 */
+	private final Map<String, Long> eventRecordCounts;
+
+	private RecordSpill(final Path dir, final int partitionCount) {
+		this.dir = dir;
+		this.partitionCount = partitionCount;
+		this.maxBufferedRecordsPerPartition = Math.max(1024, MAX_BUFFERED_RECORDS / partitionCount);
+		this.buffers = new RecordBuffers[partitionCount];
+		this.bufferedCounts = new int[partitionCount];
+		this.outs = new DataOutputStream[partitionCount];
+		this.eventRecordCounts = new HashMap<>();
+	}
+
+	/**
+	 * @return the directory of the partition files. It is deleted, with all
+	 *         its files, when the spill is closed.
+	 */
+	Path getDir() {
+		return this.dir;
+	}
+
+	int getPartitionCount() {
+		return this.partitionCount;
+	}
+
+	/**
+	 * @return the number of records spilled.
+	 */
+	long getRecordCount() {
+		return this.recordCount;
+	}
+
+	/**
+	 * To be called once all the records are spilled.
+	 * 
+	 * @return the event types that have more than <code>count</code>
+	 *         records.
+	 */
+	Set<String> getEventTypesWithMoreRecordsThan(final long count) {
+
+		final Set<String> eventTypes = new TreeSet<>();
+
+		for (final Entry<String, Long> entry : this.eventRecordCounts.entrySet()) {
+			if (entry.getValue().longValue() > count) {
+				eventTypes.add(entry.getKey());
+			}
+		}
+
+		return eventTypes;
+	}
+
+	@Override
+	public void accept(final CharSequence text, final int eventNameStart, final int eventNameEnd, final long timestamp, final double latency) {
+
+		final int partition = getPartition(text, eventNameStart, eventNameEnd);
+
+		RecordBuffers partitionBuffers = this.buffers[partition];
+
+		if (partitionBuffers == null) {
+			partitionBuffers = RecordBuffers.create();
+			this.buffers[partition] = partitionBuffers;
+		}
+
+		partitionBuffers.accept(text, eventNameStart, eventNameEnd, timestamp, latency);
+		this.recordCount++;
+
+		if (++this.bufferedCounts[partition] >= this.maxBufferedRecordsPerPartition) {
+			try {
+				flush(partition);
+			} catch (final IOException e) {
+				throw new RuntimeException("Error while spilling records to <" + getPartitionFile(partition) + ">", e);
+			}
+		}
+	}
+
+	private int getPartition(final CharSequence text, final int eventNameStart, final int eventNameEnd) {
+
+		int h = 0;
+		for (int i = eventNameStart; i < eventNameEnd; i++) {
+			h = (31 * h) + text.charAt(i);
+		}
+
+		h *= 0x9E3779B9;
+		return (int) (((h ^ (h >>> 16)) & 0xFFFFFFFFL) % this.partitionCount);
+	}
+
+	/**
+	 * Writes the buffered records of all the partitions, and closes the
+	 * partition files for writing. To be called once all the records are
+	 * spilled.
+	 */
+	void finish() throws IOException {
+
+		for (int partition = 0; partition < this.partitionCount; partition++) {
+
+			flush(partition);
+
+			final DataOutputStream out = this.outs[partition];
+
+			if (out != null) {
+				this.outs[partition] = null;
+				out.close();
+			}
+		}
+	}
+
+	private void flush(final int partition) throws IOException {
+
+		final RecordBuffers partitionBuffers = this.buffers[partition];
+
+		if (partitionBuffers == null) {
+			return;
+		}
+
+		DataOutputStream out = this.outs[partition];
+
+		if (out == null) {
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getPartitionFile(partition)), IO_BUFFER_SIZE));
+			this.outs[partition] = out;
+		}
+
+		for (final Entry<String, EventRecords> entry : partitionBuffers.getRecordsByEventName().entrySet()) {
+
+			final EventRecords records = entry.getValue();
+			final long[] timestamps = records.getTimestamps();
+			final double[] latencies = records.getLatencies();
+			final int count = timestamps.length;
+
+			final Long previousCount = this.eventRecordCounts.get(entry.getKey());
+			this.eventRecordCounts.put(entry.getKey(), Long.valueOf(previousCount == null ? count : previousCount.longValue() + count));
+
+			out.writeUTF(entry.getKey());
+			out.writeInt(count);
+
+			for (int i = 0; i < count; i++) {
+				out.writeLong(timestamps[i]);
+			}
+
+			for (int i = 0; i < count; i++) {
+				out.writeDouble(latencies[i]);
+			}
+		}
+
+		this.buffers[partition] = null;
+		this.bufferedCounts[partition] = 0;
+	}
+
+	/**
+	 * Reads the records of a partition.
+	 * 
+	 * @return the records of the event types of the partition, sorted by
+	 *         event name.
+	 */
+	Map<String, EventRecords> readPartition(final int partition) throws IOException {
+		return readPartition(partition, Collections.<String> emptySet());
+	}
+
+	/**
+	 * Reads the records of a partition, except those of the skipped event
+	 * types, which are not collected.
+	 * 
+	 * @return the records of the other event types of the partition, sorted
+	 *         by event name.
+	 */
+	Map<String, EventRecords> readPartition(final int partition, final Set<String> skippedEventTypes) throws IOException {
+
+		final Map<String, EventRecords> data = new TreeMap<>();
+
+		readBlocks(partition, null, skippedEventTypes, new BlockSink() {
+			@Override
+			public void accept(final String eventType, final long[] timestamps, final double[] latencies) {
+
+				final EventRecords block = EventRecords.create(timestamps, latencies);
+				final EventRecords records = data.get(eventType);
+
+				if (records == null) {
+					data.put(eventType, block);
+				} else {
+					records.addAll(block);
+				}
+			}
+		});
+
+		return data;
+	}
+
+	/**
+	 * Passes the blocks of an event type to <code>sink</code>, in the order in
+	 * which they were spilled. Only the partition of the event type is read.
+	 */
+	void readBlocks(final String eventType, final BlockSink sink) throws IOException {
+		readBlocks(getPartition(eventType, 0, eventType.length()), eventType, Collections.<String> emptySet(), sink);
+	}
+
+	/**
+	 * Passes the blocks of all the event types to <code>sink</code>, a
+	 * partition at a time, each in the order in which they were spilled.
+	 */
+	void readBlocks(final BlockSink sink) throws IOException {
+		for (int partition = 0; partition < this.partitionCount; partition++) {
+			readBlocks(partition, null, Collections.<String> emptySet(), sink);
+		}
+	}
+
+	/**
+	 * @param eventType
+	 *            the event type whose blocks are read, or null if the blocks
+	 *            of all the event types are read.
+	 */
+	private void readBlocks(final int partition, final String eventType, final Set<String> skippedEventTypes, final BlockSink sink) throws IOException {
+
+		final Path file = getPartitionFile(partition);
+
+		if (!Files.exists(file)) {
+			return;
+		}
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE));) {
+
+			while (true) {
+
+				final String blockEventType;
+				try {
+					blockEventType = in.readUTF();
+				} catch (final EOFException e) {
+					break;
+				}
+
+				final int count = in.readInt();
+
+				if (((eventType != null) && !eventType.equals(blockEventType)) || skippedEventTypes.contains(blockEventType)) {
+					skipFully(in, count * 16L);
+					continue;
+				}
+
+				final long[] timestamps = new long[count];
+				final double[] latencies = new double[count];
+
+				for (int i = 0; i < count; i++) {
+					timestamps[i] = in.readLong();
+				}
+
+				for (int i = 0; i < count; i++) {
+					latencies[i] = in.readDouble();
+				}
+
+				sink.accept(blockEventType, timestamps, latencies);
+			}
+		}
+	}
+
+	private static void skipFully(final DataInputStream in, final long byteCount) throws IOException {
+
+		long remaining = byteCount;
+
+		while (remaining > 0) {
+
+			final long skipped = in.skip(remaining);
+
+			if (skipped > 0) {
+				remaining -= skipped;
+			} else if (in.read() < 0) {
+				throw new EOFException();
+			} else {
+				remaining--;
+			}
+		}
+	}
+
+	private Path getPartitionFile(final int partition) {
+		return this.dir.resolve("partition-" + partition);
+	}
+
+	/**
+	 * Deletes the partition files and their directory.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		for (int partition = 0; partition < this.partitionCount; partition++) {
+
+			final DataOutputStream out = this.outs[partition];
+
+			if (out != null) {
+				this.outs[partition] = null;
+				out.close();
+			}
+		}
+
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(this.dir);) {
+			for (final Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+
+		Files.deleteIfExists(this.dir);
+	}
+
+	/**
+	 * Receives blocks of records, such as those read by
+	 * {@linkplain RecordSpill#readBlocks(String, BlockSink)}.
+	 */
+	interface BlockSink {
+		void accept(String eventType, long[] timestamps, double[] latencies) throws IOException;
+	}
+}
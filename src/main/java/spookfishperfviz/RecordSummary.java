@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Count, sum and ranges of the records of blocks, found in a pass over the
+ * blocks before their stats and charts are created. The sum and the ranges
+ * are the same as those of {@linkplain Utils#sum(double[])} and
+ * {@linkplain Utils#minMax(double[])} of all the latencies in an array.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class RecordSummary implements RecordSpill.BlockSink {
+
+	static RecordSummary create() {
+		return new RecordSummary();
+	}
+
+	private long count = 0;
+	private double sum = 0;
+	private double minLatency = Double.MAX_VALUE;
+	private double maxLatency = Double.MIN_VALUE;
+	private double lowestPositiveLatency = Double.NaN;
+	private long minTimestamp = Long.MAX_VALUE;
+	private long maxTimestamp = Long.MIN_VALUE;
+
+	private RecordSummary() {
+		//
+	}
+
+	@Override
+	public void accept(final String eventType, final long[] timestamps, final double[] latencies) {
+
+		for (final double latency : latencies) {
+
+			this.sum += latency;
+
+			if (latency > this.maxLatency) {
+				this.maxLatency = latency;
+			}
+
+			if (latency < this.minLatency) {
+				this.minLatency = latency;
+			}
+
+			if ((latency > 0) && !(latency >= this.lowestPositiveLatency)) {
+				this.lowestPositiveLatency = latency;
+			}
+		}
+
+		for (final long timestamp : timestamps) {
+
+			if (timestamp < this.minTimestamp) {
+				this.minTimestamp = timestamp;
+			}
+
+			if (timestamp > this.maxTimestamp) {
+				this.maxTimestamp = timestamp;
+			}
+		}
+
+		this.count += latencies.length;
+	}
+
+	long getCount() {
+		return this.count;
+	}
+
+	double getSum() {
+		return this.sum;
+	}
+
+	double getMinLatency() {
+		return this.minLatency;
+	}
+
+	double getMaxLatency() {
+		return this.maxLatency;
+	}
+
+	/**
+	 * @return NaN if no latency is positive.
+	 */
+	double getLowestPositiveLatency() {
+		return this.lowestPositiveLatency;
+	}
+
+	long getMinTimestamp() {
+		return this.minTimestamp;
+	}
+
+	long getMaxTimestamp() {
+		return this.maxTimestamp;
+	}
+}
@@ -0,0 +1,511 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Literal fragments that a line must contain for a regular expression to
+ * match it. The fragments are grouped into clauses, and a line must contain at
+ * least one literal of every clause.
+ * <p>
+ * Extraction is conservative. Constructs that are not understood, for e.g.
+ * inline flags such as <code>(?i)</code>, result in no clauses at all, which
+ * means that no line can be rejected without running the regular expression.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class RegexLiterals {
+
+	private static final RegexLiterals NONE = new RegexLiterals(new String[0][], false);
+
+	private static final String META_CHARS = "\\^$.|?*+()[]{}";
+	private static final String NON_LITERAL_ESCAPES = "dDsSwWbBAGZzhHvVRX";
+
+	static RegexLiterals extract(final String regex) {
+
+		if (hasInlineFlags(regex)) {
+			return NONE;
+		}
+
+		final String[] exactAlternatives = getExactAlternatives(regex);
+
+		if (exactAlternatives != null) {
+			return new RegexLiterals(new String[][] { exactAlternatives }, true);
+		}
+
+		final List<String[]> clauses = new ArrayList<>();
+
+		if (!collectRequired(regex, clauses)) {
+			return NONE;
+		}
+
+		return new RegexLiterals(clauses.toArray(new String[clauses.size()][]), false);
+	}
+
+	private final String[][] clauses;
+	private final boolean exact;
+
+	private RegexLiterals(final String[][] clauses, final boolean exact) {
+		this.clauses = clauses;
+		this.exact = exact;
+	}
+
+	String[][] getClauses() {
+		return this.clauses;
+	}
+
+	/**
+	 * @return true if the regular expression matches a line if and only if
+	 *         the line contains one of the literals of the single clause. This
+	 *         is the case for patterns like <code>.*DEBUG.*</code> or
+	 *         <code>.*(DEBUG|TRACE).*</code>, given that a line never contains
+	 *         a line terminator.
+	 */
+	boolean isExact() {
+		return this.exact;
+	}
+
+	private static boolean hasInlineFlags(final String regex) {
+
+		for (int i = regex.indexOf("(?"); i >= 0; i = regex.indexOf("(?", i + 1)) {
+			if (((i + 2) < regex.length()) && ("idmsuxU-".indexOf(regex.charAt(i + 2)) >= 0)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static String[] getExactAlternatives(final String regex) {
+
+		final int len = regex.length();
+
+		if ((len < 5) || !regex.startsWith(".*") || !regex.endsWith(".*")) {
+			return null;
+		}
+
+		final String middle = regex.substring(2, len - 2);
+
+		final int quoteStart = middle.lastIndexOf("\\Q");
+		if ((quoteStart >= 0) && (middle.indexOf("\\E", quoteStart + 2) < 0)) {
+			// the trailing .* is quoted
+			return null;
+		}
+
+		final String literal = parsePureLiteral(middle);
+		if (literal != null) {
+			return new String[] { literal };
+		}
+
+		if (middle.startsWith("(") && (findGroupEnd(middle, 0) == (middle.length() - 1))) {
+			final String body = getGroupBody(middle, 0, middle.length() - 1);
+			return body == null ? null : parsePureAlternatives(body);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return false if the regular expression uses a construct that is not
+	 *         understood.
+	 */
+	private static boolean collectRequired(final String regex, final List<String[]> clauses) {
+
+		final StringBuilder run = new StringBuilder();
+		final int len = regex.length();
+		int i = 0;
+
+		while (i < len) {
+			final char c = regex.charAt(i);
+
+			int literal = -1;
+			String groupBody = null;
+			final int atomEnd;
+
+			if (c == '\\') {
+				if ((i + 1) >= len) {
+					return false;
+				}
+
+				final char e = regex.charAt(i + 1);
+
+				if (e == 'Q') {
+					final int quoteEnd = regex.indexOf("\\E", i + 2);
+					final String quoted = quoteEnd < 0 ? regex.substring(i + 2) : regex.substring(i + 2, quoteEnd);
+
+					if (quoted.isEmpty()) {
+						i = quoteEnd < 0 ? len : quoteEnd + 2;
+						continue;
+					}
+
+					// a quantifier that follows applies to the last quoted character only
+					run.append(quoted, 0, quoted.length() - 1);
+					literal = quoted.charAt(quoted.length() - 1);
+					atomEnd = quoteEnd < 0 ? len : quoteEnd + 2;
+
+				} else {
+					literal = getEscapedLiteral(e);
+
+					if ((literal < 0) && (NON_LITERAL_ESCAPES.indexOf(e) < 0)) {
+						return false;
+					}
+					atomEnd = i + 2;
+				}
+
+			} else if (c == '[') {
+				final int classEnd = findCharClassEnd(regex, i);
+				if (classEnd < 0) {
+					return false;
+				}
+				atomEnd = classEnd + 1;
+
+			} else if (c == '(') {
+				final int groupEnd = findGroupEnd(regex, i);
+				if (groupEnd < 0) {
+					return false;
+				}
+				groupBody = getGroupBody(regex, i, groupEnd);
+				atomEnd = groupEnd + 1;
+
+			} else if ((c == '.') || (c == '^') || (c == '$')) {
+				atomEnd = i + 1;
+
+			} else if (META_CHARS.indexOf(c) >= 0) {
+				// alternation, or a misplaced quantifier or bracket
+				return false;
+
+			} else {
+				literal = c;
+				atomEnd = i + 1;
+			}
+
+			final int quantifierEnd = skipQuantifier(regex, atomEnd);
+			if (quantifierEnd < 0) {
+				return false;
+			}
+
+			final boolean quantified = quantifierEnd > atomEnd;
+			final boolean optional = quantified && isOptional(regex, atomEnd);
+
+			if ((literal >= 0) && !optional) {
+				run.append((char) literal);
+			}
+
+			if ((literal < 0) || quantified) {
+				flush(run, clauses);
+			}
+
+			if ((groupBody != null) && !optional) {
+				final String[] alternatives = splitAlternatives(groupBody);
+
+				if (alternatives.length > 1) {
+					final String[] pure = parsePureAlternatives(groupBody);
+					if (pure != null) {
+						clauses.add(pure);
+					}
+				} else if (!collectRequired(groupBody, clauses)) {
+					return false;
+				}
+			}
+
+			i = quantifierEnd;
+		}
+
+		flush(run, clauses);
+
+		return true;
+	}
+
+	private static void flush(final StringBuilder run, final List<String[]> clauses) {
+		if (run.length() > 0) {
+			clauses.add(new String[] { run.toString() });
+			run.setLength(0);
+		}
+	}
+
+	/**
+	 * @return the literal character for an escape sequence, or -1 if the
+	 *         sequence does not stand for a single fixed character.
+	 */
+	private static int getEscapedLiteral(final char e) {
+
+		if (!Character.isLetterOrDigit(e)) {
+			return e;
+		}
+
+		switch (e) {
+		case 't':
+			return '\t';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		case 'a':
+			return '\u0007';
+		case 'e':
+			return '\u001B';
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the index that follows the quantifier at <code>i</code>, which
+	 *         is <code>i</code> itself if there is no quantifier, or -1 if the
+	 *         quantifier is malformed.
+	 */
+	private static int skipQuantifier(final String regex, final int i) {
+
+		final int len = regex.length();
+
+		if (i >= len) {
+			return i;
+		}
+
+		final char c = regex.charAt(i);
+		int end;
+
+		if ((c == '?') || (c == '*') || (c == '+')) {
+			end = i + 1;
+		} else if (c == '{') {
+			final int close = regex.indexOf('}', i);
+			if ((close < 0) || !regex.substring(i + 1, close).matches("\\d+(,\\d*)?")) {
+				return -1;
+			}
+			end = close + 1;
+		} else {
+			return i;
+		}
+
+		// reluctant or possessive modifier
+		if ((end < len) && ((regex.charAt(end) == '?') || (regex.charAt(end) == '+'))) {
+			end++;
+		}
+
+		return end;
+	}
+
+	private static boolean isOptional(final String regex, final int quantifierStart) {
+
+		final char c = regex.charAt(quantifierStart);
+
+		if ((c == '?') || (c == '*')) {
+			return true;
+		}
+
+		if (c == '{') {
+			int i = quantifierStart + 1;
+			while (regex.charAt(i) == '0') {
+				i++;
+			}
+			return !Character.isDigit(regex.charAt(i));
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return the body of a capturing or non-capturing group, or null for
+	 *         other kinds of groups such as look-arounds.
+	 */
+	private static String getGroupBody(final String regex, final int groupStart, final int groupEnd) {
+
+		if (((groupStart + 1) < groupEnd) && (regex.charAt(groupStart + 1) != '?')) {
+			return regex.substring(groupStart + 1, groupEnd);
+		}
+
+		if (regex.startsWith("(?:", groupStart)) {
+			return regex.substring(groupStart + 3, groupEnd);
+		}
+
+		if (regex.startsWith("(?<", groupStart) && ((groupStart + 3) < groupEnd) && Character.isLetter(regex.charAt(groupStart + 3))) {
+			final int nameEnd = regex.indexOf('>', groupStart);
+			return ((nameEnd < 0) || (nameEnd > groupEnd)) ? null : regex.substring(nameEnd + 1, groupEnd);
+		}
+
+		return null;
+	}
+
+	private static int findGroupEnd(final String regex, final int groupStart) {
+
+		final int len = regex.length();
+		int depth = 0;
+
+		for (int i = groupStart; i < len; i++) {
+			final char c = regex.charAt(i);
+
+			if (c == '\\') {
+				i = skipEscape(regex, i);
+			} else if (c == '[') {
+				i = findCharClassEnd(regex, i);
+				if (i < 0) {
+					return -1;
+				}
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth == 0) {
+					return i;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	private static int findCharClassEnd(final String regex, final int classStart) {
+
+		final int len = regex.length();
+		int i = classStart + 1;
+
+		if ((i < len) && (regex.charAt(i) == '^')) {
+			i++;
+		}
+
+		if ((i < len) && (regex.charAt(i) == ']')) {
+			i++;
+		}
+
+		for (; i < len; i++) {
+			final char c = regex.charAt(i);
+
+			if (c == '\\') {
+				i = skipEscape(regex, i);
+			} else if (c == '[') {
+				i = findCharClassEnd(regex, i);
+				if (i < 0) {
+					return -1;
+				}
+			} else if (c == ']') {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return the index of the last character of the escape sequence at
+	 *         <code>i</code>.
+	 */
+	private static int skipEscape(final String regex, final int i) {
+
+		if (regex.startsWith("\\Q", i)) {
+			final int quoteEnd = regex.indexOf("\\E", i + 2);
+			return quoteEnd < 0 ? regex.length() : quoteEnd + 1;
+		}
+
+		return i + 1;
+	}
+
+	private static String[] splitAlternatives(final String regex) {
+
+		final List<String> alternatives = new ArrayList<>();
+		final int len = regex.length();
+		int start = 0;
+
+		for (int i = 0; i < len; i++) {
+			final char c = regex.charAt(i);
+
+			if (c == '\\') {
+				i = skipEscape(regex, i);
+			} else if (c == '[') {
+				i = findCharClassEnd(regex, i);
+			} else if (c == '(') {
+				i = findGroupEnd(regex, i);
+			} else if (c == '|') {
+				alternatives.add(regex.substring(start, i));
+				start = i + 1;
+			}
+
+			if (i < 0) {
+				// malformed, treat it as a single alternative
+				return new String[] { regex };
+			}
+		}
+
+		alternatives.add(regex.substring(start));
+
+		return alternatives.toArray(new String[alternatives.size()]);
+	}
+
+	private static String[] parsePureAlternatives(final String regex) {
+
+		final String[] alternatives = splitAlternatives(regex);
+
+		for (int i = 0; i < alternatives.length; i++) {
+			final String literal = parsePureLiteral(alternatives[i]);
+			if (literal == null) {
+				return null;
+			}
+			alternatives[i] = literal;
+		}
+
+		return alternatives;
+	}
+
+	/**
+	 * @return the text matched by a regular expression that consists of
+	 *         literal characters only, or null if it is not such a regular
+	 *         expression.
+	 */
+	private static String parsePureLiteral(final String regex) {
+
+		final StringBuilder literal = new StringBuilder();
+		final int len = regex.length();
+
+		for (int i = 0; i < len; i++) {
+			final char c = regex.charAt(i);
+
+			if (c == '\\') {
+				if ((i + 1) >= len) {
+					return null;
+				}
+
+				final char e = regex.charAt(i + 1);
+
+				if (e == 'Q') {
+					final int quoteEnd = regex.indexOf("\\E", i + 2);
+					literal.append(quoteEnd < 0 ? regex.substring(i + 2) : regex.substring(i + 2, quoteEnd));
+					i = quoteEnd < 0 ? len : quoteEnd + 1;
+				} else {
+					final int escaped = getEscapedLiteral(e);
+					if (escaped < 0) {
+						return null;
+					}
+					literal.append((char) escaped);
+					i++;
+				}
+
+			} else if (META_CHARS.indexOf(c) >= 0) {
+				return null;
+
+			} else {
+				literal.append(c);
+			}
+		}
+
+		return literal.length() == 0 ? null : literal.toString();
+	}
+}
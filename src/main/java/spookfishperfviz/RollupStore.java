@@ -0,0 +1,572 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@linkplain LatencyRollup} per event type per minute in a
+ * directory, so that a report over several weeks can be generated from the
+ * rollups, instead of parsing weeks of logs again.
+ * <p>
+ * The rollups of a UTC day are kept in one file, named after the day, in
+ * the directory of their resolution, for e.g. <code>minute/2015-01-10.rollup</code>.
+ * Adding records merges them into the rollups of their minutes, hence
+ * records must be added only once, see {@linkplain AggregatedInputs}.
+ * Minute rollups older than the retention period are downsampled, i.e.
+ * merged into hourly rollups, in the <code>hour</code> directory.
+ * <p>
+ * Every minute file has a random generation, which the hourly file records
+ * when the minute file is merged into it, so a minute file that could not
+ * be deleted after being downsampled is neither merged again nor read along
+ * with the hourly file.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class RollupStore {
+
+	private static final int MAGIC = 0x53504B52; // "SPKR"
+	private static final int VERSION = 1;
+
+	private static final String FILE_SUFFIX = ".rollup";
+	private static final String DAY_FORMAT = "yyyy-MM-dd";
+
+	private static final long MILLIS_IN_A_DAY = TimeUnit.DAYS.toMillis(1);
+
+	private static enum Resolution {
+
+		MINUTE("minute", TimeUnit.MINUTES.toMillis(1)),
+		HOUR("hour", TimeUnit.HOURS.toMillis(1));
+
+		private final String dirName;
+		private final long periodMillis;
+
+		private Resolution(final String dirName, final long periodMillis) {
+			this.dirName = dirName;
+			this.periodMillis = periodMillis;
+		}
+	}
+
+	static RollupStore create(final Path dir) throws IOException {
+
+		for (final Resolution resolution : Resolution.values()) {
+			Files.createDirectories(dir.resolve(resolution.dirName));
+		}
+
+		return new RollupStore(dir);
+	}
+
+	private final Path dir;
+
+	private RollupStore(final Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Merges the records into the minute rollups of their event types.
+	 *
+	 * @return the number of days whose rollups were written.
+	 */
+	int add(final Map<String, EventRecords> data) throws IOException {
+
+		final TreeMap<Long, DayFile> days = new TreeMap<>();
+
+		for (final Entry<String, EventRecords> entry : data.entrySet()) {
+
+			final String eventType = entry.getKey();
+			final EventRecords records = entry.getValue();
+
+			addByMinute(records.getTimestamps(), records.getLatencies(), new Function<Long, LatencyRollup>() {
+				@Override
+				public LatencyRollup apply(final Long minute) {
+
+					final Long day = Long.valueOf(startOfPeriod(minute.longValue(), MILLIS_IN_A_DAY));
+
+					DayFile dayFile = days.get(day);
+					if (dayFile == null) {
+						dayFile = new DayFile();
+						days.put(day, dayFile);
+					}
+
+					return dayFile.getRollup(eventType, minute.longValue());
+				}
+			});
+		}
+
+		for (final Entry<Long, DayFile> entry : days.entrySet()) {
+
+			final Path file = getFile(Resolution.MINUTE, entry.getKey().longValue());
+			final DayFile dayFile = entry.getValue();
+
+			final DayFile existing = DayFile.read(file);
+			if (existing != null) {
+				dayFile.merge(existing);
+			}
+
+			write(file, dayFile);
+		}
+
+		return days.size();
+	}
+
+	/**
+	 * Merges the minute rollups of the days that ended more than
+	 * <code>minuteRetentionDays</code> days before <code>now</code> into
+	 * hourly rollups, and deletes them.
+	 *
+	 * @return the number of days downsampled.
+	 */
+	int downsample(final int minuteRetentionDays, final long now) throws IOException {
+
+		final long firstRetainedDay = startOfPeriod(now, MILLIS_IN_A_DAY) - (minuteRetentionDays * MILLIS_IN_A_DAY);
+
+		int count = 0;
+
+		for (final Entry<Long, Path> entry : listFiles(Resolution.MINUTE).headMap(Long.valueOf(firstRetainedDay)).entrySet()) {
+
+			final Path minuteFile = entry.getValue();
+			final DayFile minuteRollups = DayFile.read(minuteFile);
+
+			if (minuteRollups == null) {
+				continue;
+			}
+
+			final Path hourFile = getFile(Resolution.HOUR, entry.getKey().longValue());
+			final DayFile existing = DayFile.read(hourFile);
+			final DayFile hourRollups = existing == null ? new DayFile() : existing;
+
+			if (hourRollups.absorbedGenerations.add(minuteRollups.generation)) {
+
+				for (final Entry<String, TreeMap<Long, LatencyRollup>> eventEntry : minuteRollups.rollups.entrySet()) {
+
+					final String eventType = eventEntry.getKey();
+
+					for (final Entry<Long, LatencyRollup> periodEntry : eventEntry.getValue().entrySet()) {
+						final long hour = startOfPeriod(periodEntry.getKey().longValue(), Resolution.HOUR.periodMillis);
+						hourRollups.getRollup(eventType, hour).merge(periodEntry.getValue());
+					}
+				}
+
+				write(hourFile, hourRollups);
+			}
+
+			Files.deleteIfExists(minuteFile);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Rollups of periods that begin in the range are included whole, hence
+	 * an hourly rollup may include up to an hour outside the range.
+	 *
+	 * @param from
+	 *            inclusive
+	 * @param to
+	 *            exclusive
+	 * @return the rollups of the periods in the range, by event type, sorted
+	 *         by event type. Event types without any rollups in the range are
+	 *         not included.
+	 */
+	Map<String, Series> read(final long from, final long to) throws IOException {
+
+		final TreeMap<String, Series> result = new TreeMap<>();
+
+		if (from >= to) {
+			return result;
+		}
+
+		// keeps the start of the first day from overflowing
+		final long first = Math.max(from, Long.MIN_VALUE + MILLIS_IN_A_DAY);
+
+		final Long firstDay = Long.valueOf(startOfPeriod(first, MILLIS_IN_A_DAY));
+		final Long toKey = Long.valueOf(to);
+
+		final Map<Long, Set<String>> absorbedGenerationsByDay = new TreeMap<>();
+
+		for (final Entry<Long, Path> entry : listFiles(Resolution.HOUR).subMap(firstDay, toKey).entrySet()) {
+
+			final DayFile hourRollups = DayFile.read(entry.getValue());
+
+			if (hourRollups != null) {
+				absorbedGenerationsByDay.put(entry.getKey(), hourRollups.absorbedGenerations);
+				addPeriods(result, hourRollups, Resolution.HOUR, Long.valueOf(startOfPeriod(first, Resolution.HOUR.periodMillis)), toKey);
+			}
+		}
+
+		for (final Entry<Long, Path> entry : listFiles(Resolution.MINUTE).subMap(firstDay, toKey).entrySet()) {
+
+			final DayFile minuteRollups = DayFile.read(entry.getValue());
+
+			if (minuteRollups == null) {
+				continue;
+			}
+
+			final Set<String> absorbedGenerations = absorbedGenerationsByDay.get(entry.getKey());
+
+			if ((absorbedGenerations != null) && absorbedGenerations.contains(minuteRollups.generation)) {
+				// downsampled already, but could not be deleted
+				continue;
+			}
+
+			addPeriods(result, minuteRollups, Resolution.MINUTE, Long.valueOf(startOfPeriod(first, Resolution.MINUTE.periodMillis)), toKey);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds the rollups of the day whose periods begin between
+	 * <code>fromKey</code> (inclusive) and <code>toKey</code> (exclusive) to
+	 * the series of their event types.
+	 */
+	private static void addPeriods(	final Map<String, Series> result, 
+									final DayFile dayFile, 
+									final Resolution resolution, 
+									final Long fromKey, 
+									final Long toKey) {
+
+		for (final Entry<String, TreeMap<Long, LatencyRollup>> eventEntry : dayFile.rollups.entrySet()) {
+
+			final String eventType = eventEntry.getKey();
+			final TreeMap<Long, LatencyRollup> periods = eventEntry.getValue();
+
+			for (final Entry<Long, LatencyRollup> periodEntry : periods.subMap(fromKey, toKey).entrySet()) {
+
+				Series series = result.get(eventType);
+				if (series == null) {
+					series = new Series();
+					result.put(eventType, series);
+				}
+
+				series.add(periodEntry.getKey(), resolution.periodMillis, periodEntry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return the files of the resolution, by the start of their day.
+	 */
+	private TreeMap<Long, Path> listFiles(final Resolution resolution) throws IOException {
+
+		final SimpleDateFormat dayFormat = createDayFormat();
+		final TreeMap<Long, Path> files = new TreeMap<>();
+
+		try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.dir.resolve(resolution.dirName), "*" + FILE_SUFFIX);) {
+
+			for (final Path file : stream) {
+
+				final String fileName = file.getFileName().toString();
+				final String day = fileName.substring(0, fileName.length() - FILE_SUFFIX.length());
+
+				try {
+					files.put(Long.valueOf(dayFormat.parse(day).getTime()), file);
+				} catch (final java.text.ParseException e) {
+					// not a rollup file
+				}
+			}
+		}
+
+		return files;
+	}
+
+	private Path getFile(final Resolution resolution, final long day) {
+		return this.dir.resolve(resolution.dirName).resolve(createDayFormat().format(new Date(day)) + FILE_SUFFIX);
+	}
+
+	private static SimpleDateFormat createDayFormat() {
+		final SimpleDateFormat format = new SimpleDateFormat(DAY_FORMAT);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+		return format;
+	}
+
+	/**
+	 * Adds each record to the rollup that <code>rollupOfMinute</code> gives
+	 * for the start of the minute of its timestamp.
+	 */
+	private static void addByMinute(final long[] timestamps, final double[] latencies, final Function<Long, LatencyRollup> rollupOfMinute) {
+
+		// records are mostly in order of time, so consecutive records mostly fall in the same minute
+		long currentPeriod = Long.MIN_VALUE;
+		LatencyRollup currentRollup = null;
+
+		for (int i = 0; i < timestamps.length; i++) {
+
+			final long period = startOfPeriod(timestamps[i], Resolution.MINUTE.periodMillis);
+
+			if ((currentRollup == null) || (period != currentPeriod)) {
+				currentPeriod = period;
+				currentRollup = rollupOfMinute.apply(Long.valueOf(period));
+			}
+
+			currentRollup.add(latencies[i]);
+		}
+	}
+
+	private static long startOfPeriod(final long timestamp, final long periodMillis) {
+		final long remainder = timestamp % periodMillis;
+		return remainder < 0 ? (timestamp - remainder - periodMillis) : (timestamp - remainder);
+	}
+
+	private static void write(final Path file, final DayFile dayFile) throws IOException {
+		Utils.writeAtomically(file, new PathWriter() {
+			@Override
+			public void writeTo(final Path tmpFile) throws IOException {
+				dayFile.write(tmpFile);
+			}
+		});
+	}
+
+	/**
+	 * The rollups of a day, of a single resolution.
+	 */
+	private static final class DayFile {
+
+		private final String generation;
+		private final Set<String> absorbedGenerations;
+		private final TreeMap<String, TreeMap<Long, LatencyRollup>> rollups;
+
+		DayFile() {
+			this(UUID.randomUUID().toString(), new TreeSet<String>(), new TreeMap<String, TreeMap<Long, LatencyRollup>>());
+		}
+
+		private DayFile(final String generation, final Set<String> absorbedGenerations, final TreeMap<String, TreeMap<Long, LatencyRollup>> rollups) {
+			this.generation = generation;
+			this.absorbedGenerations = absorbedGenerations;
+			this.rollups = rollups;
+		}
+
+		/**
+		 * @return the rollup of the period, created if there is none.
+		 */
+		LatencyRollup getRollup(final String eventType, final long period) {
+
+			TreeMap<Long, LatencyRollup> periods = this.rollups.get(eventType);
+			if (periods == null) {
+				periods = new TreeMap<>();
+				this.rollups.put(eventType, periods);
+			}
+
+			final Long periodKey = Long.valueOf(period);
+
+			LatencyRollup rollup = periods.get(periodKey);
+			if (rollup == null) {
+				rollup = LatencyRollup.create();
+				periods.put(periodKey, rollup);
+			}
+
+			return rollup;
+		}
+
+		void merge(final DayFile other) {
+
+			this.absorbedGenerations.addAll(other.absorbedGenerations);
+
+			for (final Entry<String, TreeMap<Long, LatencyRollup>> eventEntry : other.rollups.entrySet()) {
+				for (final Entry<Long, LatencyRollup> periodEntry : eventEntry.getValue().entrySet()) {
+					getRollup(eventEntry.getKey(), periodEntry.getKey().longValue()).merge(periodEntry.getValue());
+				}
+			}
+		}
+
+		void write(final Path file) throws IOException {
+
+			try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));) {
+
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(this.generation);
+
+				out.writeInt(this.absorbedGenerations.size());
+				for (final String absorbedGeneration : this.absorbedGenerations) {
+					out.writeUTF(absorbedGeneration);
+				}
+
+				out.writeInt(this.rollups.size());
+				for (final Entry<String, TreeMap<Long, LatencyRollup>> eventEntry : this.rollups.entrySet()) {
+
+					final TreeMap<Long, LatencyRollup> periods = eventEntry.getValue();
+
+					out.writeUTF(eventEntry.getKey());
+					out.writeInt(periods.size());
+
+					for (final Entry<Long, LatencyRollup> periodEntry : periods.entrySet()) {
+						out.writeLong(periodEntry.getKey().longValue());
+						periodEntry.getValue().writeTo(out);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the rollups in the file, or null if there is no file.
+		 * @throws IOException
+		 *             if the file is not a rollup file, or is corrupt.
+		 */
+		static DayFile read(final Path file) throws IOException {
+
+			try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));) {
+
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+					throw new IOException("<" + file + "> is not a rollup file of version <" + VERSION + ">");
+				}
+
+				final String generation = in.readUTF();
+
+				final Set<String> absorbedGenerations = new TreeSet<>();
+				for (int i = in.readInt(); i > 0; i--) {
+					absorbedGenerations.add(in.readUTF());
+				}
+
+				final TreeMap<String, TreeMap<Long, LatencyRollup>> rollups = new TreeMap<>();
+				for (int i = in.readInt(); i > 0; i--) {
+
+					final String eventType = in.readUTF();
+					final TreeMap<Long, LatencyRollup> periods = new TreeMap<>();
+
+					for (int j = in.readInt(); j > 0; j--) {
+						final Long period = Long.valueOf(in.readLong());
+						periods.put(period, LatencyRollup.readFrom(in));
+					}
+
+					rollups.put(eventType, periods);
+				}
+
+				return new DayFile(generation, absorbedGenerations, rollups);
+
+			} catch (final NoSuchFileException e) {
+				return null;
+			} catch (final EOFException e) {
+				throw new IOException("<" + file + "> is truncated", e);
+			}
+		}
+	}
+
+	/**
+	 * The rollups of an event type, by the start of their periods, and their
+	 * total.
+	 */
+	static final class Series {
+
+		private final TreeMap<Long, LatencyRollup> periods;
+
+		/**
+		 * Length of each period. A period that both an hourly and a minute
+		 * rollup begin at is as long as the hour.
+		 */
+		private final TreeMap<Long, Long> periodMillis;
+
+		private final LatencyRollup total;
+
+		Series() {
+			this.periods = new TreeMap<>();
+			this.periodMillis = new TreeMap<>();
+			this.total = LatencyRollup.create();
+		}
+
+		void add(final Long period, final long periodMillis, final LatencyRollup rollup) {
+
+			final LatencyRollup existing = this.periods.get(period);
+
+			if (existing == null) {
+				this.periods.put(period, LatencyRollup.copyOf(rollup));
+			} else {
+				existing.merge(rollup);
+			}
+
+			final Long existingMillis = this.periodMillis.get(period);
+
+			if ((existingMillis == null) || (existingMillis.longValue() < periodMillis)) {
+				this.periodMillis.put(period, Long.valueOf(periodMillis));
+			}
+
+			this.total.merge(rollup);
+		}
+
+		void addAll(final Series other) {
+			for (final Entry<Long, LatencyRollup> entry : other.periods.entrySet()) {
+				add(entry.getKey(), other.getPeriodMillis(entry.getKey()), entry.getValue());
+			}
+		}
+
+		/**
+		 * Adds the records to the rollups of the minutes of their timestamps.
+		 */
+		void add(final long[] timestamps, final double[] latencies) {
+
+			final TreeMap<Long, LatencyRollup> periods = this.periods;
+			final TreeMap<Long, Long> periodMillis = this.periodMillis;
+
+			addByMinute(timestamps, latencies, new Function<Long, LatencyRollup>() {
+				@Override
+				public LatencyRollup apply(final Long minute) {
+
+					LatencyRollup rollup = periods.get(minute);
+					if (rollup == null) {
+						rollup = LatencyRollup.create();
+						periods.put(minute, rollup);
+						periodMillis.put(minute, Long.valueOf(Resolution.MINUTE.periodMillis));
+					}
+
+					return rollup;
+				}
+			});
+
+			for (final double latency : latencies) {
+				this.total.add(latency);
+			}
+		}
+
+		/**
+		 * @return the rollups by the start of their periods.
+		 */
+		Map<Long, LatencyRollup> getPeriods() {
+			return this.periods;
+		}
+
+		long getPeriodMillis(final Long period) {
+			return this.periodMillis.get(period).longValue();
+		}
+
+		LatencyRollup getTotal() {
+			return this.total;
+		}
+	}
+}
@@ -17,7 +17,6 @@
 
 package spookfishperfviz;
 
-import java.text.SimpleDateFormat;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,41 +36,107 @@ public final class SimpleRegexBasedRecordParser extends RecordParser {
 	}
 
 	public static RecordParser create(final String ignorePattern, final String parsePattern, final String timestampPattern, final TimeZone timeZone) {
-		return new SimpleRegexBasedRecordParser(ignorePattern, parsePattern, timestampPattern, timeZone);
+		return create(LineFilter.create(ignorePattern), parsePattern, timestampPattern, timeZone);
 	}
 
-	private final String ignorePattern;
+	public static RecordParser create(final LineFilter lineFilter, final String parsePattern, final String timestampPattern, final TimeZone timeZone) {
+		return new SimpleRegexBasedRecordParser(lineFilter, parsePattern, timestampPattern, timeZone);
+	}
+
+	/**
+	 * Returns the number of the capturing group with the given name. Needed
+	 * because {@linkplain Matcher} cannot report the position of a named group.
+	 * 
+	 * @return -1 if there is no such group.
+	 */
+	static int getGroupNumber(final String regex, final String groupName) {
+
+		final int len = regex.length();
+		final String namedGroupStart = "(?<" + groupName + ">";
+
+		int groupNumber = 0;
+		int charClassDepth = 0;
+
+		for (int i = 0; i < len; i++) {
+			final char c = regex.charAt(i);
+
+			if (c == '\\') {
+				if (((i + 1) < len) && (regex.charAt(i + 1) == 'Q')) {
+					final int quoteEnd = regex.indexOf("\\E", i + 2);
+					i = quoteEnd < 0 ? len : quoteEnd + 1;
+				} else {
+					i++; // skip the escaped character
+				}
+
+			} else if (c == '[') {
+				charClassDepth++;
+
+			} else if ((c == ']') && (charClassDepth > 0)) {
+				charClassDepth--;
+
+			} else if ((c == '(') && (charClassDepth == 0)) {
+
+				final boolean capturing = 
+						(((i + 1) >= len) || (regex.charAt(i + 1) != '?')) || 
+						(regex.startsWith("(?<", i) && !regex.startsWith("(?<=", i) && !regex.startsWith("(?<!", i));
+
+				if (capturing) {
+					groupNumber++;
+
+					if (regex.startsWith(namedGroupStart, i)) {
+						return groupNumber;
+					}
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	private final LineFilter lineFilter;
 	private final Pattern parsePatternObj;
-	private final SimpleDateFormat timestampDateFormat;
+	private final int timestampGroupNumber;
+	private final int eventNameGroupNumber;
+	private final int latencyGroupNumber;
+	private final TimestampParser timestampParser;
+
+	/**
+	 * Reused for every line, since parsers are not shared between threads.
+	 */
+	private final Matcher matcher;
 
-	private SimpleRegexBasedRecordParser(final String ignorePattern, final String parsePattern, final String timestampPattern, final TimeZone timeZone) {
+	private SimpleRegexBasedRecordParser(final LineFilter lineFilter, final String parsePattern, final String timestampPattern, final TimeZone timeZone) {
 		
-		this.ignorePattern = ignorePattern;
+		this.lineFilter = lineFilter;
 		this.parsePatternObj = Pattern.compile(parsePattern);
-		
-		final SimpleDateFormat dateFormat = new SimpleDateFormat(timestampPattern);
-		dateFormat.setTimeZone(timeZone);
-		
-		this.timestampDateFormat = dateFormat;
+		this.timestampGroupNumber = getGroupNumber(parsePattern, NamedGroup.Timestamp.name());
+		this.eventNameGroupNumber = getGroupNumber(parsePattern, NamedGroup.EventName.name());
+		this.latencyGroupNumber = getGroupNumber(parsePattern, NamedGroup.Latency.name());
+		this.timestampParser = TimestampParser.create(timestampPattern, timeZone);
+		this.matcher = this.parsePatternObj.matcher("");
 	}
 
 	@Override
 	protected final boolean isIgnore(final String line) {
-		final String pattern = this.ignorePattern;
-		return pattern != null && line.matches(pattern);
+		return this.lineFilter.isIgnore(line);
+	}
+
+	@Override
+	protected final boolean isIgnore(final CharSequence line) {
+		return this.lineFilter.isIgnore(line);
 	}
 
 	@Override
 	protected final Record parse(final String line) {
 
 		try {
-			final Matcher matcher = this.parsePatternObj.matcher(line);
+			final Matcher matcher = this.matcher.reset(line);
 
 			if (!matcher.matches()) {
 				throw new RuntimeException("Pattern does not match");
 			}
 
-			final long timestamp = this.timestampDateFormat.parse(matcher.group(NamedGroup.Timestamp.name())).getTime();
+			final long timestamp = parseTimestamp(line, matcher);
 			final String eventName = matcher.group(NamedGroup.EventName.name());
 			final double latency = Double.parseDouble(matcher.group(NamedGroup.Latency.name()));
 
@@ -81,4 +146,50 @@ public final class SimpleRegexBasedRecordParser extends RecordParser {
 			throw new RuntimeException("Error while parsing line <" + line + ">", e);
 		}
 	}
+
+	@Override
+	protected final void parse(final CharSequence line, final RecordSink sink) {
+
+		final int eventNameGroup = this.eventNameGroupNumber;
+		final int latencyGroup = this.latencyGroupNumber;
+
+		if ((this.timestampGroupNumber < 0) || (eventNameGroup < 0) || (latencyGroup < 0)) {
+			// the groups could not be located in the pattern
+			super.parse(line, sink);
+			return;
+		}
+
+		final Matcher matcher = this.matcher;
+		final long timestamp;
+		final double latency;
+
+		try {
+			matcher.reset(line);
+
+			if (!matcher.matches()) {
+				throw new RuntimeException("Pattern does not match");
+			}
+
+			if (matcher.start(eventNameGroup) < 0) {
+				throw new RuntimeException("Group <" + NamedGroup.EventName + "> did not match");
+			}
+
+			timestamp = parseTimestamp(line, matcher);
+			latency = Utils.parseDouble(line, matcher.start(latencyGroup), matcher.end(latencyGroup));
+
+		} catch (final Exception e) {
+			throw new RuntimeException("Error while parsing line <" + line + ">", e);
+		}
+
+		sink.accept(line, matcher.start(eventNameGroup), matcher.end(eventNameGroup), timestamp, latency);
+	}
+
+	private long parseTimestamp(final CharSequence line, final Matcher matcher) throws java.text.ParseException {
+
+		final int group = this.timestampGroupNumber;
+
+		return group < 0 ? 
+				this.timestampParser.parse(matcher.group(NamedGroup.Timestamp.name())) : 
+				this.timestampParser.parse(line, matcher.start(group), matcher.end(group));
+	}
 }
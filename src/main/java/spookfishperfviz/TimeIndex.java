@@ -0,0 +1,359 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sparse index of the timestamps of an uncompressed input file, so that the
+ * records of a time range can be read without reading the whole file.
+ * <p>
+ * The file is split into blocks of about a megabyte that begin at line
+ * boundaries, and the index keeps the offset and the minimum and maximum
+ * timestamps of the records of each block. The part of the file
+ * from the first to the last block whose timestamps overlap a time range has
+ * all the records of the range, even if the records are not sorted by
+ * timestamp. The index is built by reading the whole file once, and is
+ * rebuilt if the size or the last modified time of the file changes.
+ * <p>
+ * Files without an index can be searched using
+ * {@linkplain #searchSortedFile(File, Charset, RecordParser, long, long)},
+ * if their records are sorted by timestamp.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class TimeIndex {
+
+	private static final int MAGIC = 0x53504B49; // "SPKI"
+	private static final int VERSION = 1;
+
+	private static final String INDEX_FILE_SUFFIX = ".timeindex";
+
+	private static final long BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * @param parserKey
+	 *            identifies the options that decide how the file is parsed.
+	 *            Files parsed with different options have separate indexes.
+	 */
+	static Path getIndexFile(final Path dir, final File file, final String parserKey) throws IOException {
+		return dir.resolve(Utils.sha1Hex(createKeyText(file, parserKey)) + INDEX_FILE_SUFFIX);
+	}
+
+	private static String createKeyText(final File file, final String parserKey) throws IOException {
+		return "path=" + file.getCanonicalPath() + "\nparser=" + parserKey;
+	}
+
+	/**
+	 * Reads the blocks of the file in parallel, using a separate parser for
+	 * each thread.
+	 */
+	static TimeIndex build(final File file, final Charset charset, final Supplier<RecordParser> parserSupplier, final int threadCount) throws IOException {
+
+		final long size = file.length();
+		final long lastModified = file.lastModified();
+
+		final int maxBlockCount = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE));
+		final long[] offsets = MappedFileLineReader.findLineBoundaries(file, maxBlockCount);
+		final int blockCount = offsets.length - 1;
+
+		final long[] minTimestamps = new long[blockCount];
+		final long[] maxTimestamps = new long[blockCount];
+
+		// More tasks than threads so that a thread that finishes early can pick up more work.
+		final int taskCount = (int) Math.min(blockCount, threadCount * 4L);
+
+		if (taskCount <= 1) {
+			indexBlocks(file, charset, parserSupplier.get(), offsets, 0, blockCount, minTimestamps, maxTimestamps);
+		} else {
+
+			final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+			try {
+				final List<Future<Void>> futures = new ArrayList<>(taskCount);
+
+				for (int i = 0; i < taskCount; i++) {
+
+					final int fromBlock = (int) ((blockCount * (long) i) / taskCount);
+					final int toBlock = (int) ((blockCount * (long) (i + 1)) / taskCount);
+					final RecordParser parser = parserSupplier.get();
+
+					futures.add(executor.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws IOException {
+							indexBlocks(file, charset, parser, offsets, fromBlock, toBlock, minTimestamps, maxTimestamps);
+							return null;
+						}
+					}));
+				}
+
+				for (final Future<Void> future : futures) {
+					Utils.getResult(future);
+				}
+
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		return new TimeIndex(size, lastModified, offsets, minTimestamps, maxTimestamps);
+	}
+
+	private static void indexBlocks(final File file,
+									final Charset charset,
+									final RecordParser parser,
+									final long[] offsets,
+									final int fromBlock,
+									final int toBlock,
+									final long[] minTimestamps,
+									final long[] maxTimestamps) throws IOException {
+
+		final TimestampRangeSink sink = new TimestampRangeSink();
+
+		for (int i = fromBlock; i < toBlock; i++) {
+
+			sink.reset();
+
+			try (final RecordIterator recordIterator = RecordIterator.createForMappedFile(file, charset, offsets[i], offsets[i + 1], parser);) {
+				recordIterator.readAll(sink);
+			}
+
+			minTimestamps[i] = sink.min;
+			maxTimestamps[i] = sink.max;
+		}
+	}
+
+	/**
+	 * @return the index, or null if there is none, or if the file has changed
+	 *         since the index was built.
+	 */
+	static TimeIndex read(final Path indexFile, final File file, final String parserKey) throws IOException {
+
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)));) {
+
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || !in.readUTF().equals(createKeyText(file, parserKey))) {
+				return null;
+			}
+
+			final long size = in.readLong();
+			final long lastModified = in.readLong();
+
+			if ((size != file.length()) || (lastModified != file.lastModified())) {
+				return null;
+			}
+
+			final int blockCount = in.readInt();
+
+			final long[] offsets = new long[blockCount + 1];
+			final long[] minTimestamps = new long[blockCount];
+			final long[] maxTimestamps = new long[blockCount];
+
+			for (int i = 0; i <= blockCount; i++) {
+				offsets[i] = in.readLong();
+			}
+
+			for (int i = 0; i < blockCount; i++) {
+				minTimestamps[i] = in.readLong();
+				maxTimestamps[i] = in.readLong();
+			}
+
+			return new TimeIndex(size, lastModified, offsets, minTimestamps, maxTimestamps);
+
+		} catch (final NoSuchFileException | EOFException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the part of the file that has the records of the time range by a
+	 * binary search, reading the first record that follows each offset tried.
+	 * The records of the file must be sorted by timestamp.
+	 *
+	 * @param from
+	 *            inclusive
+	 * @param to
+	 *            exclusive
+	 * @return the start (inclusive) and end (exclusive) byte offsets of the
+	 *         part.
+	 */
+	static long[] searchSortedFile(final File file, final Charset charset, final RecordParser parser, final long from, final long to) throws IOException {
+
+		final long size = file.length();
+
+		final long start = from == Long.MIN_VALUE ? 0 : findFirstLineNotBefore(file, charset, parser, from, size);
+		final long end = to == Long.MAX_VALUE ? size : findFirstLineNotBefore(file, charset, parser, to, size);
+
+		return new long[] { start, Math.max(start, end) };
+	}
+
+	/**
+	 * @return the offset of the first line whose record has a timestamp not
+	 *         before <code>time</code>, or the size of the file if there is
+	 *         none.
+	 */
+	private static long findFirstLineNotBefore(final File file, final Charset charset, final RecordParser parser, final long time, final long size)
+			throws IOException {
+
+		long low = 0;
+		long high = size;
+
+		while (low < high) {
+
+			final long mid = (low + high) >>> 1;
+			final long lineStart = MappedFileLineReader.findLineStart(file, mid);
+
+			// every offset up to the line start leads to the same record
+			if (getFirstTimestamp(file, charset, parser, lineStart) < time) {
+				low = lineStart + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return MappedFileLineReader.findLineStart(file, low);
+	}
+
+	/**
+	 * @return the timestamp of the first record that begins at or after
+	 *         <code>offset</code>, or Long.MAX_VALUE if there is none.
+	 */
+	private static long getFirstTimestamp(final File file, final Charset charset, final RecordParser parser, final long offset) throws IOException {
+
+		try (final RecordIterator recordIterator = RecordIterator.createForMappedFile(file, charset, offset, Long.MAX_VALUE, parser);) {
+			return recordIterator.hasNext() ? recordIterator.next().getTimestamp() : Long.MAX_VALUE;
+		}
+	}
+
+	private final long size;
+	private final long lastModified;
+
+	/**
+	 * The offsets at which the blocks begin, followed by the size of the file.
+	 */
+	private final long[] offsets;
+
+	/**
+	 * Long.MAX_VALUE and Long.MIN_VALUE respectively for a block without any
+	 * records.
+	 */
+	private final long[] minTimestamps;
+	private final long[] maxTimestamps;
+
+	private TimeIndex(final long size, final long lastModified, final long[] offsets, final long[] minTimestamps, final long[] maxTimestamps) {
+		this.size = size;
+		this.lastModified = lastModified;
+		this.offsets = offsets;
+		this.minTimestamps = minTimestamps;
+		this.maxTimestamps = maxTimestamps;
+	}
+
+	/**
+	 * @param from
+	 *            inclusive
+	 * @param to
+	 *            exclusive
+	 * @return the start (inclusive) and end (exclusive) byte offsets of the
+	 *         part of the file that has the records of the time range, along
+	 *         with records outside the range.
+	 */
+	long[] getByteRange(final long from, final long to) {
+
+		final int blockCount = this.minTimestamps.length;
+
+		int first = -1;
+		int last = -1;
+
+		for (int i = 0; i < blockCount; i++) {
+			if ((this.maxTimestamps[i] >= from) && (this.minTimestamps[i] < to)) {
+				if (first < 0) {
+					first = i;
+				}
+				last = i;
+			}
+		}
+
+		return first < 0 ? new long[] { 0, 0 } : new long[] { this.offsets[first], this.offsets[last + 1] };
+	}
+
+	void write(final Path indexFile, final File file, final String parserKey) throws IOException {
+		Utils.writeAtomically(indexFile, new PathWriter() {
+			@Override
+			public void writeTo(final Path tmpFile) throws IOException {
+				write(tmpFile, createKeyText(file, parserKey));
+			}
+		});
+	}
+
+	private void write(final Path indexFile, final String keyText) throws IOException {
+
+		try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)));) {
+
+			final int blockCount = this.minTimestamps.length;
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(keyText);
+			out.writeLong(this.size);
+			out.writeLong(this.lastModified);
+			out.writeInt(blockCount);
+
+			for (final long offset : this.offsets) {
+				out.writeLong(offset);
+			}
+
+			for (int i = 0; i < blockCount; i++) {
+				out.writeLong(this.minTimestamps[i]);
+				out.writeLong(this.maxTimestamps[i]);
+			}
+		}
+	}
+
+	private static final class TimestampRangeSink implements RecordSink {
+
+		private long min;
+		private long max;
+
+		void reset() {
+			this.min = Long.MAX_VALUE;
+			this.max = Long.MIN_VALUE;
+		}
+
+		@Override
+		public void accept(final CharSequence text, final int eventNameStart, final int eventNameEnd, final long timestamp, final double latency) {
+			this.min = Math.min(this.min, timestamp);
+			this.max = Math.max(this.max, timestamp);
+		}
+	}
+}
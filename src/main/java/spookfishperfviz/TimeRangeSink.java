@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+/**
+ * Passes on only the records whose timestamps are between <code>from</code>
+ * (inclusive) and <code>to</code> (exclusive).
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class TimeRangeSink implements RecordSink {
+
+	static TimeRangeSink create(final RecordSink sink, final long from, final long to) {
+		return new TimeRangeSink(sink, from, to);
+	}
+
+	private final RecordSink sink;
+	private final long from;
+	private final long to;
+
+	private TimeRangeSink(final RecordSink sink, final long from, final long to) {
+		this.sink = sink;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	public void accept(final CharSequence text, final int eventNameStart, final int eventNameEnd, final long timestamp, final double latency) {
+		if ((timestamp >= this.from) && (timestamp < this.to)) {
+			this.sink.accept(text, eventNameStart, eventNameEnd, timestamp, latency);
+		}
+	}
+}
@@ -20,11 +20,14 @@ package spookfishperfviz;
 import static spookfishperfviz.Utils.forEach;
 import static spookfishperfviz.Utils.reverse;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Set;
@@ -53,17 +56,6 @@ final class TimeSeriesLatencyDensity {
 	private static final double X_AXIS_LABEL_FONT_SIZE = 10; // TODO - add to SVGConstants.
 	private static final String X_AXIS_LABEL_FONT_FAMILY = SVGConstants.MONOSPACE_FONT_FAMILY;
 
-	
-	private static final UnaryOperator<Long> LONG_INC_OPERATOR = new UnaryOperator<Long>() {
-		@Override
-		public Long apply(final Long l) {
-			return l == null ? Long.valueOf(0) : Long.valueOf(l.longValue() + 1);
-		}
-	};
-
-	
-
-	
 
 	private static final Function<IndexedDataPoint<Double>, String> Y_AXIS_LABEL_MAKER = new Function<Density.IndexedDataPoint<Double>, String>() {
 		@Override
@@ -126,11 +118,141 @@ final class TimeSeriesLatencyDensity {
 											final TimeZone outputTimeZone, 
 											final Integer maxIntervalPointsForLatencyDensity) {
 		
+		return create(latencies, timestamps, null, outputTimeZone, maxIntervalPointsForLatencyDensity);
+	}
+
+	/**
+	 * @param counts
+	 *            number of times each latency occurs at its timestamp, or
+	 *            null if each occurs once.
+	 */
+	static TimeSeriesLatencyDensity create(	final double[] latencies, 
+											final long[] timestamps, 
+											final long[] counts, 
+											final TimeZone outputTimeZone, 
+											final Integer maxIntervalPointsForLatencyDensity) {
+		
 		final double[] minMax = Utils.minMax(latencies);
 		final double minIntervalPoint = minMax[0];
 		final double maxIntervalPoint = minMax[1];
 
-		return create0(latencies, timestamps, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity);
+		return create0(latencies, timestamps, counts, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity);
+	}
+
+	/**
+	 * The rows of the heat map grow by a decade every few rows, so that
+	 * latencies spread over several orders of magnitude are all visible. See
+	 * {@linkplain LogLinearHistogram#createIntervalPoints(double, double, int)}.
+	 * 
+	 * @param counts
+	 *            number of times each latency occurs at its timestamp, or
+	 *            null if each occurs once.
+	 */
+	static TimeSeriesLatencyDensity createLogLinear(final double[] latencies, 
+													final long[] timestamps, 
+													final long[] counts, 
+													final TimeZone outputTimeZone, 
+													final Integer maxIntervalPointsForLatencyDensity) {
+		
+		final int maxIntervalPoints = 
+				maxIntervalPointsForLatencyDensity == null ? 
+						DEFAULT_MAX_INTERBAL_POINTS_FOR_LATENCY_DENSITY : maxIntervalPointsForLatencyDensity.intValue();
+
+		double lowestPositive = Double.NaN;
+		for (final double latency : latencies) {
+			if ((latency > 0) && !(latency >= lowestPositive)) {
+				lowestPositive = latency;
+			}
+		}
+
+		final double[] intervalPoints = LogLinearHistogram.createIntervalPoints(lowestPositive, Utils.minMax(latencies)[1], maxIntervalPoints);
+
+		return newInstance(latencies, timestamps, counts, outputTimeZone, intervalPoints);
+	}
+
+	/**
+	 * The density of the records of the blocks, the same as that of the
+	 * records in arrays, created in one pass over the blocks.
+	 * 
+	 * @param summary
+	 *            of the records of the blocks.
+	 * @param logLinear
+	 *            whether the latency intervals grow with the latencies,
+	 *            rather than being equally wide.
+	 */
+	static TimeSeriesLatencyDensity create(	final RecordBlocks blocks, 
+											final RecordSummary summary, 
+											final TimeZone outputTimeZone, 
+											final Integer maxIntervalPointsForLatencyDensity, 
+											final boolean logLinear) throws IOException {
+
+		final int maxIntervalPoints = 
+				maxIntervalPointsForLatencyDensity == null ? 
+						DEFAULT_MAX_INTERBAL_POINTS_FOR_LATENCY_DENSITY : maxIntervalPointsForLatencyDensity.intValue();
+
+		final double[] intervalPoints = logLinear ? 
+				LogLinearHistogram.createIntervalPoints(summary.getLowestPositiveLatency(), summary.getMaxLatency(), maxIntervalPoints) : 
+				createIntervalPoints(summary.getMinLatency(), summary.getMaxLatency(), maxIntervalPoints);
+
+		final TimeSeriesLatencyDensity density = 
+				new TimeSeriesLatencyDensity(summary.getMinTimestamp(), summary.getMaxTimestamp(), outputTimeZone, Utils.toHashSet(intervalPoints));
+
+		blocks.forEachBlock(new RecordSpill.BlockSink() {
+			@Override
+			public void accept(final String eventType, final long[] timestamps, final double[] latencies) {
+				density.add(latencies, timestamps, null);
+			}
+		});
+
+		return density;
+	}
+
+	/**
+	 * The density of rollups counts all the latencies of a bucket of the
+	 * histogram of a period at the midpoint of the bucket and the middle of
+	 * the period, so that a period is counted in the column of the time it
+	 * covers. A record at the very millisecond that separates two columns is
+	 * thus counted in the later column, whereas a raw record there is counted
+	 * in the earlier one, since a period includes its start.
+	 * 
+	 * @param logLinear
+	 *            whether the latency intervals grow with the latencies,
+	 *            rather than being equally wide.
+	 */
+	static TimeSeriesLatencyDensity create(	final RollupStore.Series rollups, 
+											final TimeZone outputTimeZone, 
+											final Integer maxIntervalPointsForLatencyDensity, 
+											final boolean logLinear) {
+
+		final Map<Long, LatencyRollup> periods = rollups.getPeriods();
+
+		int cellCount = 0;
+		for (final LatencyRollup rollup : periods.values()) {
+			cellCount += rollup.getHistogram().getBuckets().size();
+		}
+
+		final double[] cellLatencies = new double[cellCount];
+		final long[] cellTimestamps = new long[cellCount];
+		final long[] cellCounts = new long[cellCount];
+		int c = 0;
+
+		for (final Entry<Long, LatencyRollup> entry : periods.entrySet()) {
+
+			final long middle = entry.getKey().longValue() + (rollups.getPeriodMillis(entry.getKey()) / 2);
+			final LatencyRollup rollup = entry.getValue();
+			final LogLinearHistogram.Buckets buckets = rollup.getHistogram().getBuckets();
+
+			for (int i = 0; i < buckets.size(); i++) {
+				cellLatencies[c] = rollup.clamp(buckets.getMidpoint(i));
+				cellTimestamps[c] = middle;
+				cellCounts[c] = buckets.getCount(i);
+				c++;
+			}
+		}
+
+		return logLinear ? 
+				createLogLinear(cellLatencies, cellTimestamps, cellCounts, outputTimeZone, maxIntervalPointsForLatencyDensity) : 
+				create(cellLatencies, cellTimestamps, cellCounts, outputTimeZone, maxIntervalPointsForLatencyDensity);
 	}
 
 	static TimeSeriesLatencyDensity create(	final double[] latencies, 
@@ -160,11 +282,12 @@ final class TimeSeriesLatencyDensity {
 			maxIntervalPoint = Math.min(maxLatency, maxIntervalPointForLatencyDensity);
 		}
 
-		return create0(latencies, timestamps, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity);
+		return create0(latencies, timestamps, null, outputTimeZone, minIntervalPoint, maxIntervalPoint, maxIntervalPointsForLatencyDensity);
 	}
 	
 	private static TimeSeriesLatencyDensity create0(final double[] latencies, 
 													final long[] timestamps, 
+													final long[] counts, 
 													final TimeZone outputTimeZone, 
 													final double adjustedMinIntervalPointForLatencyDensity,
 													final double adjustedMaxIntervalPointForLatencyDensity, 
@@ -177,7 +300,7 @@ final class TimeSeriesLatencyDensity {
 		final double[] intervalPointsForLatencyDensity = 
 				createIntervalPoints(adjustedMinIntervalPointForLatencyDensity, adjustedMaxIntervalPointForLatencyDensity, maxIntervalPoints);
 		
-		return new TimeSeriesLatencyDensity(latencies, timestamps, outputTimeZone, intervalPointsForLatencyDensity);
+		return newInstance(latencies, timestamps, counts, outputTimeZone, intervalPointsForLatencyDensity);
 	}
 	
 	private static double[] createIntervalPoints(final double minIntervalPoint, final double maxIntervalPoint, final int maxIntervalPoints) {
@@ -198,61 +321,79 @@ final class TimeSeriesLatencyDensity {
 	}
 
 	
-	private final Density<Double, Long, Long> density;
+	private final Density density;
 	private final int defaultTimeLabelSkipCount;
 
 	
 	private final TimestampLabelMaker timestampLabelMaker;
 	private final TimestampTooltipMaker timestampTooltipMaker;
 
-	private TimeSeriesLatencyDensity(final double[] latencies, final long[] timestamps, final TimeZone outputTimeZone, final double[] responseTimeIntervalPoints) {
-		this(latencies, timestamps, outputTimeZone, null, Utils.toHashSet(responseTimeIntervalPoints));
-	}
-
-	private TimeSeriesLatencyDensity(final double[] latencies, 
-									 final long[] timestamps, 
-									 final TimeZone outputTimeZone, 
-									 final Set<Long> inputTimestampIntervalPoints, 
-									 final Set<Double> responseTimeIntervalPoints) {
+	private static TimeSeriesLatencyDensity newInstance(final double[] latencies, 
+														final long[] timestamps, 
+														final long[] counts, 
+														final TimeZone outputTimeZone, 
+														final double[] responseTimeIntervalPoints) {
 		
 		Objects.requireNonNull(latencies);
 		Objects.requireNonNull(timestamps);
-		Objects.requireNonNull(outputTimeZone);
-		
-		this.timestampLabelMaker = new TimestampLabelMaker(outputTimeZone);
-		this.timestampTooltipMaker = new TimestampTooltipMaker(outputTimeZone);
 
 		if (latencies.length != timestamps.length) {
 			throw new IllegalArgumentException("Number of latencies must be same as number of timestamps");
 		}
 
-		final long[] sortedTimestamps = Utils.sort(timestamps);
-		final long minTime = sortedTimestamps[0];
-		final long maxTime = sortedTimestamps[sortedTimestamps.length - 1];
+		if ((counts != null) && (counts.length != latencies.length)) {
+			throw new IllegalArgumentException("Number of counts must be same as number of latencies");
+		}
+
+		if (timestamps.length == 0) {
+			throw new IllegalArgumentException("There are no timestamps");
+		}
+
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+
+		for (final long timestamp : timestamps) {
+			minTime = Math.min(minTime, timestamp);
+			maxTime = Math.max(maxTime, timestamp);
+		}
+
+		final TimeSeriesLatencyDensity density = new TimeSeriesLatencyDensity(minTime, maxTime, outputTimeZone, Utils.toHashSet(responseTimeIntervalPoints));
+		density.add(latencies, timestamps, counts);
+
+		return density;
+	}
+
+	private TimeSeriesLatencyDensity(final long minTime, final long maxTime, final TimeZone outputTimeZone, final Set<Double> responseTimeIntervalPoints) {
+		
+		Objects.requireNonNull(outputTimeZone);
+		
+		this.timestampLabelMaker = new TimestampLabelMaker(outputTimeZone);
+		this.timestampTooltipMaker = new TimestampTooltipMaker(outputTimeZone);
+
 		final long duration = maxTime - minTime;
 		final long threshold = TimeUnit.HOURS.toMillis(5);
 
 		final int defaultTimeLabelSkipCount = (duration > threshold) ? 1 : 2;
 
-		final Set<Long> timestampIntervalPoints;
-		if (inputTimestampIntervalPoints == null) {
-			final long timeIntervalInMillis = (duration > threshold) ? TimeUnit.MINUTES.toMillis(30) : TimeUnit.MINUTES.toMillis(5);
-			timestampIntervalPoints = Utils.getTimestampIntervalPoints(timestamps, outputTimeZone, timeIntervalInMillis);
-		} else {
-			timestampIntervalPoints = inputTimestampIntervalPoints;
-		}
+		final long timeIntervalInMillis = (duration > threshold) ? TimeUnit.MINUTES.toMillis(30) : TimeUnit.MINUTES.toMillis(5);
+		final Set<Long> timestampIntervalPoints = Utils.getTimestampIntervalPoints(minTime, maxTime, outputTimeZone, timeIntervalInMillis);
 
-		final Density<Double, Long, Long> d = Density.create(responseTimeIntervalPoints, timestampIntervalPoints, Long.valueOf(0), Long.class);
+		this.density = Density.create(responseTimeIntervalPoints, timestampIntervalPoints);
+		this.defaultTimeLabelSkipCount = defaultTimeLabelSkipCount;
+	}
 
-		for (int i = 0; i < latencies.length; i++) {
-			final Double row = Double.valueOf(latencies[i]);
-			final Long column = Long.valueOf(timestamps[i]);
+	/**
+	 * @param counts
+	 *            number of times each latency occurs at its timestamp, or
+	 *            null if each occurs once.
+	 */
+	private void add(final double[] latencies, final long[] timestamps, final long[] counts) {
 
-			d.apply(row, column, LONG_INC_OPERATOR);
-		}
+		final Density d = this.density;
 
-		this.density = d;
-		this.defaultTimeLabelSkipCount = defaultTimeLabelSkipCount;
+		for (int i = 0; i < latencies.length; i++) {
+			d.add(latencies[i], timestamps[i], counts == null ? 1 : counts[i]);
+		}
 	}
 
 	HeatMapSVG getHeatMapSVG(final TimeUnit latencyUnit, final double heatMapSingleAreaWidth, final ColorRampScheme colorScheme) {
@@ -267,7 +408,7 @@ final class TimeSeriesLatencyDensity {
 	/**
 	 * TODO - re-factor common code from this and BarChart.
 	 */
-	private static HeatMapSVG getHeatMapSVG(final Density<Double, Long, Long> density, 
+	private static HeatMapSVG getHeatMapSVG(final Density density, 
 											final ColorRampScheme colorScheme, 
 											final int timeLabelSkipCount,
 											final TimeUnit latencyUnit, 
@@ -275,9 +416,9 @@ final class TimeSeriesLatencyDensity {
 											final TimestampTooltipMaker timestampTooltipMaker, 
 											final double heatMapSingleAreaWidth) {
 		
-		final Long[][] matrix = density.getMatrix();
+		final long[][] matrix = density.getMatrix();
 		
-		final String[][] heatMap = getColoredHeatMap(matrix, colorScheme);
+		final String[][] heatMap = getColoredHeatMap(density.getCounts(), matrix, colorScheme);
 		
 		final int rowCount = heatMap.length;
 		final int columnCount = heatMap[0].length;
@@ -551,9 +692,9 @@ final class TimeSeriesLatencyDensity {
 	/**
 	 * TODO - check if some code can be moved to {@linkplain Density}
 	 */
-	private static String[][] getColoredHeatMap(final Long[][] matrix, final ColorRampScheme colorScheme) {
+	private static String[][] getColoredHeatMap(final long[] counts, final long[][] matrix, final ColorRampScheme colorScheme) {
 
-		final String[] colorMapArray = ColorRampCalculator.getColorMap(Utils.toOneDimArray(matrix), colorScheme);
+		final String[] colorMapArray = ColorRampCalculator.getColorMap(counts, colorScheme);
 
 		final int rowCount = matrix.length;
 		final int columnCount = matrix[0].length;
@@ -568,13 +709,35 @@ final class TimeSeriesLatencyDensity {
 		return getTrxCountBarChartSVG(this.density, labelSkipCount, this.timestampLabelMaker, boxStartX, barWidth, colorRampScheme);
 	}
 
-	private static String getTrxCountBarChartSVG(final Density<Double, Long, Long> density, final int labelSkipCount, final TimestampLabelMaker timestampLabelMaker, final double boxStartX,
+	private static String getTrxCountBarChartSVG(final Density density, final int labelSkipCount, final TimestampLabelMaker timestampLabelMaker, final double boxStartX,
 			final double barWidth, final ColorRampScheme colorRampScheme) {
 		final int MAX_BAR_LENGTH = 100;
 
-		final Long[][] matrix = density.getMatrix();
+		final long[] columnTotals = getColumnTotals(density);
 		final NavigableSet<IndexedDataPoint<Long>> columnIntervalPoints = density.getColumnIntervalPoints();
 
+		final List<String> labels = new ArrayList<>();
+		for (final IndexedDataPoint<Long> columnIntervalPoint : columnIntervalPoints) {
+			labels.add(columnIntervalPoint.toString(timestampLabelMaker));
+		}
+
+		final VerticalBarChart barChart = VerticalBarChart.create(columnTotals, labels.toArray(new String[labels.size()]));
+
+		return barChart.toSVG(MAX_BAR_LENGTH, barWidth, boxStartX, X_AXIS_LABEL_FONT_FAMILY, X_AXIS_LABEL_FONT_SIZE, labelSkipCount, colorRampScheme);
+	}
+
+	/**
+	 * @return the number of latencies in each period, i.e. the bars of the
+	 *         bar chart.
+	 */
+	long[] getColumnTotals() {
+		return getColumnTotals(this.density);
+	}
+
+	private static long[] getColumnTotals(final Density density) {
+
+		final long[][] matrix = density.getMatrix();
+
 		final int rowCount = matrix.length;
 		final int columnCount = matrix[0].length;
 
@@ -583,20 +746,13 @@ final class TimeSeriesLatencyDensity {
 		for (int column = 0; column < columnCount; column++) {
 			long sum = 0;
 			for (int row = 0; row < rowCount; row++) {
-				sum += matrix[row][column].longValue();
+				sum += matrix[row][column];
 			}
 
 			columnTotals[column] = sum;
 		}
 
-		final List<String> labels = new ArrayList<>();
-		for (final IndexedDataPoint<Long> columnIntervalPoint : columnIntervalPoints) {
-			labels.add(columnIntervalPoint.toString(timestampLabelMaker));
-		}
-
-		final VerticalBarChart barChart = VerticalBarChart.create(columnTotals, labels.toArray(new String[labels.size()]));
-
-		return barChart.toSVG(MAX_BAR_LENGTH, barWidth, boxStartX, X_AXIS_LABEL_FONT_FAMILY, X_AXIS_LABEL_FONT_SIZE, labelSkipCount, colorRampScheme);
+		return columnTotals;
 	}
 
 	@Override
@@ -0,0 +1,484 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Parses timestamps into milliseconds since the epoch.
+ * <p>
+ * Timestamp patterns are compiled once. Patterns made up of fixed-width
+ * numeric fields (<code>yyyy MM dd HH mm ss SSS</code>), literals and an
+ * optional trailing ISO-8601 or RFC-822 zone offset (<code>X XX XXX Z</code>)
+ * are parsed digit by digit. The epoch time of the last second seen is
+ * cached, so that consecutive timestamps that fall in the same second only
+ * need their milliseconds to be added. The special patterns
+ * {@value #EPOCH_MILLIS} and {@value #EPOCH_SECONDS} parse numeric epoch
+ * times. Any other pattern, as well as any text that does not exactly fit the
+ * compiled layout, is parsed using {@linkplain SimpleDateFormat}, so the
+ * results are always the same as those of {@linkplain SimpleDateFormat}.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+abstract class TimestampParser {
+
+	static final String EPOCH_MILLIS = "EPOCH_MILLIS";
+	static final String EPOCH_SECONDS = "EPOCH_SECONDS";
+
+	static TimestampParser create(final String pattern, final TimeZone timeZone) {
+
+		final TimestampParser parser;
+
+		if (EPOCH_MILLIS.equals(pattern)) {
+			parser = new EpochParser(false);
+
+		} else if (EPOCH_SECONDS.equals(pattern)) {
+			parser = new EpochParser(true);
+
+		} else {
+			final SimpleDateFormat dateFormat = new SimpleDateFormat(pattern);
+			dateFormat.setTimeZone(timeZone);
+
+			final DateFormatParser fallback = new DateFormatParser(dateFormat);
+			final TimestampParser fixedWidthParser = FixedWidthParser.compile(pattern, timeZone, fallback);
+
+			parser = fixedWidthParser == null ? fallback : fixedWidthParser;
+		}
+
+		return parser;
+	}
+
+	TimestampParser() {
+		//
+	}
+
+	final long parse(final String text) throws java.text.ParseException {
+		return parse(text, 0, text.length());
+	}
+
+	/**
+	 * Parses the characters of <code>text</code> between <code>start</code>
+	 * (inclusive) and <code>end</code> (exclusive).
+	 */
+	abstract long parse(CharSequence text, int start, int end) throws java.text.ParseException;
+
+	private static final class DateFormatParser extends TimestampParser {
+
+		private final SimpleDateFormat dateFormat;
+		private final ParsePosition position;
+
+		DateFormatParser(final SimpleDateFormat dateFormat) {
+			this.dateFormat = dateFormat;
+			this.position = new ParsePosition(0);
+		}
+
+		@Override
+		long parse(final CharSequence text, final int start, final int end) throws java.text.ParseException {
+
+			final String source = text.subSequence(start, end).toString();
+
+			final ParsePosition pos = this.position;
+			pos.setIndex(0);
+			pos.setErrorIndex(-1);
+
+			// Same as SimpleDateFormat.parse(String), minus the allocation of a ParsePosition.
+			final Date date = this.dateFormat.parse(source, pos);
+
+			if (pos.getIndex() == 0) {
+				throw new java.text.ParseException("Unparseable date: \"" + source + "\"", pos.getErrorIndex());
+			}
+
+			return date.getTime();
+		}
+	}
+
+	private static final class EpochParser extends TimestampParser {
+
+		private final boolean seconds;
+
+		EpochParser(final boolean seconds) {
+			this.seconds = seconds;
+		}
+
+		/**
+		 * Digits after a decimal point in epoch seconds are read up to
+		 * millisecond precision; further digits are ignored.
+		 */
+		@Override
+		long parse(final CharSequence text, final int start, final int end) throws java.text.ParseException {
+
+			int i = start;
+
+			final boolean negative = (i < end) && (text.charAt(i) == '-');
+			if (negative) {
+				i++;
+			}
+
+			final int digitsStart = i;
+			long value = 0;
+
+			for (; i < end; i++) {
+				final char c = text.charAt(i);
+
+				if ((c < '0') || (c > '9')) {
+					break;
+				}
+
+				if (value > ((Long.MAX_VALUE - 9) / 10)) {
+					throw unparseable(text, start, end, i);
+				}
+
+				value = (value * 10) + (c - '0');
+			}
+
+			if (i == digitsStart) {
+				throw unparseable(text, start, end, i);
+			}
+
+			long fraction = 0;
+
+			if (this.seconds) {
+
+				if ((i < end) && (text.charAt(i) == '.')) {
+					i++;
+
+					int scale = 100;
+
+					for (; i < end; i++) {
+						final char c = text.charAt(i);
+
+						if ((c < '0') || (c > '9')) {
+							break;
+						}
+
+						fraction += (c - '0') * scale;
+						scale /= 10;
+					}
+				}
+
+				value *= 1000;
+			}
+
+			if (i != end) {
+				throw unparseable(text, start, end, i);
+			}
+
+			final long millis = value + fraction;
+			return negative ? -millis : millis;
+		}
+	}
+
+	private static final class FixedWidthParser extends TimestampParser {
+
+		private static final int YEAR = 0;
+		private static final int MONTH = 1;
+		private static final int DAY = 2;
+		private static final int HOUR = 3;
+		private static final int MINUTE = 4;
+		private static final int SECOND = 5;
+		private static final int MILLISECOND = 6;
+
+		private static final String FIELD_LETTERS = "yMdHmsS";
+		private static final int[] FIELD_WIDTHS = { 4, 2, 2, 2, 2, 2, 3 };
+
+		/**
+		 * Values of fields that are absent from the pattern, which are the
+		 * same as those that {@linkplain SimpleDateFormat} uses.
+		 */
+		private static final int[] FIELD_DEFAULTS = { 1970, 1, 1, 0, 0, 0, 0 };
+
+		private static enum Zone {
+			NONE, ISO_HOURS, ISO_BASIC, ISO_EXTENDED, RFC_822
+		}
+
+		private static final long NO_OFFSET = Long.MIN_VALUE;
+
+		/**
+		 * @return null if the pattern cannot be compiled.
+		 */
+		static FixedWidthParser compile(final String pattern, final TimeZone timeZone, final TimestampParser fallback) {
+
+			final int[] fieldOffsets = new int[FIELD_LETTERS.length()];
+			Arrays.fill(fieldOffsets, -1);
+
+			final StringBuilder literals = new StringBuilder();
+			final StringBuilder literalOffsets = new StringBuilder();
+
+			Zone zone = Zone.NONE;
+			int offset = 0;
+
+			final int len = pattern.length();
+			int i = 0;
+
+			while (i < len) {
+				final char c = pattern.charAt(i);
+
+				if (zone != Zone.NONE) {
+					// the zone must be the last part of the pattern
+					return null;
+				}
+
+				if (c == '\'') {
+					final int close = pattern.indexOf('\'', i + 1);
+
+					if (close == (i + 1)) {
+						// '' is a single quote
+						literals.append('\'');
+						literalOffsets.append((char) offset++);
+						i += 2;
+						continue;
+					}
+
+					if (close < 0) {
+						return null;
+					}
+
+					for (int k = i + 1; k < close; k++) {
+						literals.append(pattern.charAt(k));
+						literalOffsets.append((char) offset++);
+					}
+
+					i = close + 1;
+					continue;
+				}
+
+				if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))) {
+
+					int runEnd = i + 1;
+					while ((runEnd < len) && (pattern.charAt(runEnd) == c)) {
+						runEnd++;
+					}
+
+					final int count = runEnd - i;
+
+					if ((c == 'X') && (count <= 3)) {
+						zone = count == 1 ? Zone.ISO_HOURS : (count == 2 ? Zone.ISO_BASIC : Zone.ISO_EXTENDED);
+
+					} else if ((c == 'Z') && (count == 1)) {
+						zone = Zone.RFC_822;
+
+					} else {
+						final int field = FIELD_LETTERS.indexOf(c);
+
+						if ((field < 0) || (count != FIELD_WIDTHS[field]) || (fieldOffsets[field] >= 0)) {
+							return null;
+						}
+
+						fieldOffsets[field] = offset;
+						offset += count;
+					}
+
+					i = runEnd;
+					continue;
+				}
+
+				literals.append(c);
+				literalOffsets.append((char) offset++);
+				i++;
+			}
+
+			return new FixedWidthParser(fieldOffsets, literals.toString().toCharArray(), literalOffsets.toString().toCharArray(), offset, zone, timeZone, fallback);
+		}
+
+		private final int[] fieldOffsets;
+		private final char[] literals;
+		private final char[] literalOffsets;
+		private final int fixedLength;
+		private final Zone zone;
+		private final TimestampParser fallback;
+
+		private final Calendar calendar;
+		private final int[] fields;
+
+		private long cachedSecondKey;
+		private long cachedSecondMillis;
+
+		private FixedWidthParser(	final int[] fieldOffsets,
+									final char[] literals,
+									final char[] literalOffsets,
+									final int fixedLength,
+									final Zone zone,
+									final TimeZone timeZone,
+									final TimestampParser fallback) {
+
+			this.fieldOffsets = fieldOffsets;
+			this.literals = literals;
+			this.literalOffsets = literalOffsets;
+			this.fixedLength = fixedLength;
+			this.zone = zone;
+			this.fallback = fallback;
+
+			// Local date-times followed by an explicit offset are interpreted in UTC and then shifted.
+			this.calendar = new GregorianCalendar(zone == Zone.NONE ? timeZone : TimeZone.getTimeZone("UTC"));
+			this.fields = new int[FIELD_LETTERS.length()];
+			this.cachedSecondKey = -1;
+		}
+
+		@Override
+		long parse(final CharSequence text, final int start, final int end) throws java.text.ParseException {
+
+			final int len = end - start;
+
+			if (len < this.fixedLength) {
+				return this.fallback.parse(text, start, end);
+			}
+
+			final long offsetMillis;
+
+			if (this.zone == Zone.NONE) {
+				if (len != this.fixedLength) {
+					return this.fallback.parse(text, start, end);
+				}
+				offsetMillis = 0;
+			} else {
+				offsetMillis = parseOffset(text, start + this.fixedLength, end);
+				if (offsetMillis == NO_OFFSET) {
+					return this.fallback.parse(text, start, end);
+				}
+			}
+
+			final char[] literals = this.literals;
+			final char[] literalOffsets = this.literalOffsets;
+
+			for (int k = 0; k < literals.length; k++) {
+				if (text.charAt(start + literalOffsets[k]) != literals[k]) {
+					return this.fallback.parse(text, start, end);
+				}
+			}
+
+			final int[] fields = this.fields;
+			final int[] fieldOffsets = this.fieldOffsets;
+
+			for (int f = 0; f < fields.length; f++) {
+				final int fieldOffset = fieldOffsets[f];
+
+				if (fieldOffset < 0) {
+					fields[f] = FIELD_DEFAULTS[f];
+				} else {
+					final int value = parseDigits(text, start + fieldOffset, FIELD_WIDTHS[f]);
+					if (value < 0) {
+						return this.fallback.parse(text, start, end);
+					}
+					fields[f] = value;
+				}
+			}
+
+			final long secondKey =
+					(((((((((fields[YEAR] * 100L) + fields[MONTH]) * 100L) + fields[DAY]) * 100L) + fields[HOUR]) * 100L) + fields[MINUTE]) * 100L) + fields[SECOND];
+
+			if (secondKey != this.cachedSecondKey) {
+				final Calendar cal = this.calendar;
+				cal.clear();
+				cal.set(fields[YEAR], fields[MONTH] - 1, fields[DAY], fields[HOUR], fields[MINUTE], fields[SECOND]);
+
+				this.cachedSecondMillis = cal.getTimeInMillis();
+				this.cachedSecondKey = secondKey;
+			}
+
+			return (this.cachedSecondMillis + fields[MILLISECOND]) - offsetMillis;
+		}
+
+		/**
+		 * @return {@link #NO_OFFSET} if the text is not an offset in the
+		 *         expected format.
+		 */
+		private long parseOffset(final CharSequence text, final int start, final int end) {
+
+			final int len = end - start;
+
+			if (len < 1) {
+				return NO_OFFSET;
+			}
+
+			final char sign = text.charAt(start);
+
+			if (sign == 'Z') {
+				return ((len == 1) && (this.zone != Zone.RFC_822)) ? 0 : NO_OFFSET;
+			}
+
+			if ((sign != '+') && (sign != '-')) {
+				return NO_OFFSET;
+			}
+
+			final int hours;
+			final int minutes;
+
+			switch (this.zone) {
+
+			case ISO_HOURS:
+				hours = len == 3 ? parseDigits(text, start + 1, 2) : -1;
+				minutes = 0;
+				break;
+
+			case ISO_BASIC:
+			case RFC_822:
+				hours = len == 5 ? parseDigits(text, start + 1, 2) : -1;
+				minutes = len == 5 ? parseDigits(text, start + 3, 2) : -1;
+				break;
+
+			case ISO_EXTENDED:
+				hours = ((len == 6) && (text.charAt(start + 3) == ':')) ? parseDigits(text, start + 1, 2) : -1;
+				minutes = len == 6 ? parseDigits(text, start + 4, 2) : -1;
+				break;
+
+			default:
+				throw new RuntimeException("Internal error: " + this.zone);
+			}
+
+			if ((hours < 0) || (minutes < 0) || (hours > 23) || (minutes > 59)) {
+				return NO_OFFSET;
+			}
+
+			final long millis = ((hours * 60L) + minutes) * 60 * 1000;
+			return sign == '-' ? -millis : millis;
+		}
+
+		/**
+		 * @return -1 if any of the characters is not a digit.
+		 */
+		private static int parseDigits(final CharSequence text, final int start, final int width) {
+
+			int value = 0;
+
+			for (int i = start, end = start + width; i < end; i++) {
+				final int d = text.charAt(i) - '0';
+
+				if ((d < 0) || (d > 9)) {
+					return -1;
+				}
+
+				value = (value * 10) + d;
+			}
+
+			return value;
+		}
+	}
+
+	private static java.text.ParseException unparseable(final CharSequence text, final int start, final int end, final int errorIndex) {
+		return new java.text.ParseException("Unparseable date: \"" + text.subSequence(start, end) + "\"", errorIndex - start);
+	}
+}
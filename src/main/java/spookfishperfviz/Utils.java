@@ -19,14 +19,24 @@ package spookfishperfviz;
 
 import static java.math.BigDecimal.ONE;
 import static java.math.BigDecimal.TEN;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -39,6 +49,8 @@ import java.util.Objects;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -169,25 +181,12 @@ final class Utils {
 	/**
 	 * TODO - check if this is the right place for this method
 	 */
-	static Set<Long> getTimestampIntervalPoints(final long[] timestamps, final TimeZone timeZone, final long timeIntervalInMillis) {
+	static Set<Long> getTimestampIntervalPoints(final long minTime, final long maxTime, final TimeZone timeZone, final long timeIntervalInMillis) {
 		
 		if (timeIntervalInMillis <= 0) {
 			throw new IllegalArgumentException("Invalid time interval: <" + timeIntervalInMillis + ">. Time interval must be a positive value");
 		}
 
-		long minTime = Long.MAX_VALUE;
-		long maxTime = Long.MIN_VALUE;
-
-		for (final long timestamp : timestamps) {
-			if (timestamp < minTime) {
-				minTime = timestamp;
-			}
-
-			if (timestamp > maxTime) {
-				maxTime = timestamp;
-			}
-		}
-
 		final long flooredMinTime = getStartOfHour(minTime, timeZone);
 
 		final Set<Long> timestampIntervalPoints = new HashSet<>();
@@ -263,23 +262,6 @@ final class Utils {
 		return new double[] { min, max };
 	}
 
-	static double[] minMax(final Collection<Double> data) {
-		double min = Double.MAX_VALUE;
-		double max = Double.MIN_VALUE;
-
-		for (final double d : data) {
-			if (d > max) {
-				max = d;
-			}
-
-			if (d < min) {
-				min = d;
-			}
-		}
-
-		return new double[] { min, max };
-	}
-
 	static double getMedian(final double[] sortedData) {
 		final int n = sortedData.length;
 
@@ -332,6 +314,34 @@ final class Utils {
 		return new Percentiles(Arrays.copyOfRange(validKeys, 0, k), Arrays.copyOfRange(result, 0, k), valueUnit);
 	}
 
+	/**
+	 * Same as getPercentiles(sort(data), keys, valueUnit), but only the
+	 * values that the percentiles are interpolated between are put in place,
+	 * since getPthPercentile(..) reads no others. See
+	 * {@linkplain QuickSelect}.
+	 */
+	static Percentiles getPercentilesOfUnsorted(final double[] data, final double[] keys, final String valueUnit) {
+
+		final int n = data.length;
+		final int[] ranks = new int[keys.length * 2];
+		int k = 0;
+
+		for (final double key : keys) {
+
+			final int index = ((int) Math.floor(getPthPercentilePosition(n, key))) - 1;
+
+			if ((index >= 0) && (index < n)) {
+				ranks[k++] = index;
+
+				if (index < (n - 1)) {
+					ranks[k++] = index + 1;
+				}
+			}
+		}
+
+		return getPercentiles(QuickSelect.select(data, Arrays.copyOf(ranks, k)), keys, valueUnit);
+	}
+
 	/**
 	 * Slightly modified form of what is described here ->
 	 * http://www.stanford.edu/class/archive/anthsci/anthsci192/anthsci192.1064/handouts/calculating%20percentiles.pdf
@@ -342,7 +352,7 @@ final class Utils {
 	static double getPthPercentile(final double[] sortedData, final double p) {
 		final int n = sortedData.length;
 
-		final double pos = (n * (p / 100)) + 0.5; // TODO - check if this is the correct way
+		final double pos = getPthPercentilePosition(n, p);
 		final double integerPart = Math.floor(pos);
 		final int index = ((int) integerPart) - 1; // array index begins at 0
 
@@ -370,6 +380,10 @@ final class Utils {
 		return result;
 	}
 
+	private static double getPthPercentilePosition(final int n, final double p) {
+		return (n * (p / 100)) + 0.5; // TODO - check if this is the correct way
+	}
+
 	private static final class IllegalPercentileKeyException extends RuntimeException {
 		
 		private static final long serialVersionUID = -2793561757886762344L;
@@ -489,23 +503,6 @@ final class Utils {
 		}
 	}
 
-	static List<Double> asList(final double[] data) {
-
-		final List<Double> l = new ArrayList<>(data.length);
-		for (final double d : data) {
-			l.add(Double.valueOf(d));
-		}
-		return l;
-	}
-
-	static double[] createIntervalPoints(final Collection<Double> data, final int nIntervalPoints) {
-		final double[] minMax = minMax(data);
-		final double min = minMax[0];
-		final double max = minMax[1];
-
-		return createIntervalPoints(min, max, nIntervalPoints);
-	}
-
 	/**
 	 * TODO - test with various data samples TODO - verify mathematical
 	 * precision
@@ -650,13 +647,28 @@ final class Utils {
 			} else if (type == ColorRampScheme.class) {
 				value = ColorRampScheme.valueOf(s);
 
+			} else if (type == InputReadMode.class) {
+				value = InputReadMode.valueOf(s);
+
+			} else if (type == ParserType.class) {
+				value = ParserType.valueOf(s);
+
+			} else if (type == ColumnEncoding.class) {
+				value = ColumnEncoding.valueOf(s);
+
+			} else if (type == RecordStorage.class) {
+				value = RecordStorage.valueOf(s);
+
+			} else if (type == PercentileMode.class) {
+				value = PercentileMode.valueOf(s);
+
 			} else if (type == TimeZone.class){
 				value = TimeZone.getTimeZone(s);
 
 			} else if ((type == Boolean[].class) || (type == boolean[].class) || (type == Short[].class) || (type == short[].class)
 					|| (type == Integer[].class) || (type == int[].class) || (type == Long[].class) || (type == long[].class)
 					|| (type == Float[].class) || (type == float[].class) || (type == Double[].class) || (type == double[].class)
-					|| (type == TimeUnit[].class) || (type == ColorRampScheme[].class) || (type == TimeZone[].class)) {
+					|| (type == TimeUnit[].class) || (type == ColorRampScheme[].class) || (type == TimeZone[].class) || (type == String[].class)) {
 
 				final String[] elements = s.split("\\s*,\\s*", -1);
 				final int len = elements.length;
@@ -681,6 +693,80 @@ final class Utils {
 		}
 	}
 
+	/**
+	 * Powers of 10 from 10^0 to 10^22, all of which can be represented
+	 * exactly as a double.
+	 */
+	private static final double[] EXACT_POWERS_OF_TEN = { 
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 
+	};
+
+	private static final long MAX_EXACT_DOUBLE_MANTISSA = 1L << 53;
+
+	/**
+	 * Same as {@linkplain Double#parseDouble(String)} applied to the
+	 * characters between <code>start</code> (inclusive) and <code>end</code>
+	 * (exclusive), but without creating a string for plain decimal numbers.
+	 * <p>
+	 * When both the digits, read as an integer, and the power of 10 that
+	 * divides them are exactly representable as doubles, the single division
+	 * is correctly rounded and so gives the same result as
+	 * {@linkplain Double#parseDouble(String)}. Other input is handed over to
+	 * {@linkplain Double#parseDouble(String)}.
+	 */
+	static double parseDouble(final CharSequence s, final int start, final int end) {
+
+		int i = start;
+		boolean negative = false;
+
+		if (i < end) {
+			final char first = s.charAt(i);
+			if ((first == '-') || (first == '+')) {
+				negative = first == '-';
+				i++;
+			}
+		}
+
+		long mantissa = 0;
+		int digitCount = 0;
+		int fractionDigitCount = 0;
+		boolean seenPoint = false;
+		boolean simple = true;
+
+		for (; i < end; i++) {
+			final char c = s.charAt(i);
+
+			if ((c >= '0') && (c <= '9')) {
+				if (mantissa >= MAX_EXACT_DOUBLE_MANTISSA) {
+					simple = false;
+					break;
+				}
+
+				mantissa = (mantissa * 10) + (c - '0');
+				digitCount++;
+
+				if (seenPoint) {
+					fractionDigitCount++;
+				}
+
+			} else if ((c == '.') && !seenPoint) {
+				seenPoint = true;
+
+			} else {
+				simple = false;
+				break;
+			}
+		}
+
+		if (!simple || (digitCount == 0) || (mantissa > MAX_EXACT_DOUBLE_MANTISSA) || (fractionDigitCount >= EXACT_POWERS_OF_TEN.length)) {
+			return Double.parseDouble(s.subSequence(start, end).toString());
+		}
+
+		final double value = mantissa / EXACT_POWERS_OF_TEN[fractionDigitCount];
+		return negative ? -value : value;
+	}
+
 	static String toShortForm(final TimeUnit timeUnit) {
 
 		final String result;
@@ -774,22 +860,6 @@ final class Utils {
 		return d;
 	}
 
-	static long[] toOneDimArray(final Long[][] matrix) {
-
-		final int rowCount = matrix.length;
-		final int colCount = matrix[0].length;
-
-		final long[] array = new long[rowCount * colCount];
-
-		for (int r = 0, i = 0; r < rowCount; r++) {
-			for (int c = 0; c < colCount; c++) {
-				array[i++] = matrix[r][c].longValue();
-			}
-		}
-
-		return array;
-	}
-
 	static <T> void fillMatrix(final T[] sourceArray, final T[][] targetMatrix) {
 
 		final int length = sourceArray.length;
@@ -863,4 +933,112 @@ final class Utils {
 		return new Double[] { nonZeroMin, nonZeroMax };
 	}
 
+	private static final int SAMPLE_COUNT = 32;
+	private static final int SAMPLE_SIZE = 4 * 1024;
+
+	/**
+	 * Hashes blocks of the first <code>size</code> bytes of the file at evenly
+	 * spaced offsets, including the first and the last block, instead of the
+	 * whole file, which may be tens of gigabytes. This catches edits that keep
+	 * the size and the last modified time of the file.
+	 */
+	static byte[] hashSamples(final File file, final long size) throws IOException {
+
+		final MessageDigest digest = newSha1();
+		final byte[] sample = new byte[SAMPLE_SIZE];
+
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "r");) {
+
+			final long lastSampleStart = Math.max(0, size - SAMPLE_SIZE);
+
+			for (int i = 0; i < SAMPLE_COUNT; i++) {
+				final long start = (lastSampleStart * i) / (SAMPLE_COUNT - 1);
+				final int len = (int) Math.min(SAMPLE_SIZE, size - start);
+
+				raf.seek(start);
+				raf.readFully(sample, 0, len);
+				digest.update(sample, 0, len);
+			}
+		}
+
+		return digest.digest();
+	}
+
+	static MessageDigest newSha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (final NoSuchAlgorithmException e) {
+			// every Java platform is required to support SHA-1
+			throw new RuntimeException("Internal error: SHA-1 is not supported", e);
+		}
+	}
+
+	/**
+	 * @return the SHA-1 hash of the UTF-8 bytes of the text, in hexadecimal.
+	 */
+	static String sha1Hex(final String text) {
+		return toHex(newSha1().digest(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	static String toHex(final byte[] bytes) {
+
+		final StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+		for (final byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return hex.toString();
+	}
+
+	/**
+	 * Writes the file by writing a temporary file in the same directory first
+	 * and then renaming it, so a reader never sees a partially written file.
+	 */
+	static void writeAtomically(final Path file, final PathWriter writer) throws IOException {
+
+		final Path tmpFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+		try {
+			writer.writeTo(tmpFile);
+
+			try {
+				Files.move(tmpFile, file, ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile, file, REPLACE_EXISTING);
+			}
+
+		} finally {
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+
+	/**
+	 * Waits for the result of a task, and rethrows the exception thrown by
+	 * the task, if any, as it is.
+	 */
+	static <T> T getResult(final Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the result of a task", e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw new RuntimeException(cause);
+		}
+	}
 }
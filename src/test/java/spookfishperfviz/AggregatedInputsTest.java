@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class AggregatedInputsTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void appendedLinesAreFoundAfterTheRecordIsReadBack() throws IOException {
+
+		final Path dir = this.folder.newFolder().toPath();
+		final File log = this.folder.newFile("latency.log");
+
+		// the last line may still be being written
+		append(log, "line 1\nline 2\nline");
+
+		AggregatedInputs.Part part = AggregatedInputs.read(dir).findNewPart(log, false);
+		assertEquals(0, part.getStart());
+		assertEquals(14, part.getEnd());
+
+		AggregatedInputs.read(dir).addAll(Collections.singletonList(part));
+		assertNull(AggregatedInputs.read(dir).findNewPart(log, false));
+
+		append(log, " 3\nline 4\n");
+
+		part = AggregatedInputs.read(dir).findNewPart(log, false);
+		assertEquals(14, part.getStart());
+		assertEquals(log.length(), part.getEnd());
+
+		AggregatedInputs.read(dir).addAll(Collections.singletonList(part));
+		assertNull(AggregatedInputs.read(dir).findNewPart(log, false));
+
+		// a rotated log is recognized by its contents
+		final File rotated = new File(this.folder.getRoot(), "latency.log.1");
+		Files.move(log.toPath(), rotated.toPath());
+		assertNull(AggregatedInputs.read(dir).findNewPart(rotated, false));
+
+		append(log, "line 5\n");
+
+		part = AggregatedInputs.read(dir).findNewPart(log, false);
+		assertEquals(0, part.getStart());
+		assertEquals(log.length(), part.getEnd());
+	}
+
+	@Test
+	public void partsOfSeveralFilesAreRecorded() throws IOException {
+
+		final Path dir = this.folder.newFolder().toPath();
+		final File first = this.folder.newFile("first.log");
+		final File second = this.folder.newFile("second.log");
+
+		append(first, "line 1\n");
+		append(second, "line A\nline B\n");
+
+		final AggregatedInputs inputs = AggregatedInputs.read(dir);
+		inputs.addAll(Arrays.asList(inputs.findNewPart(first, false), inputs.findNewPart(second, false)));
+
+		final AggregatedInputs read = AggregatedInputs.read(dir);
+		assertNull(read.findNewPart(first, false));
+		assertNull(read.findNewPart(second, false));
+	}
+
+	@Test
+	public void compressedFileIsAggregatedWholeOnlyOnce() throws IOException {
+
+		final Path dir = this.folder.newFolder().toPath();
+		final File gz = this.folder.newFile("latency.log.gz");
+
+		append(gz, "not really compressed, with no line terminator");
+
+		final AggregatedInputs.Part part = AggregatedInputs.read(dir).findNewPart(gz, true);
+		assertEquals(0, part.getStart());
+		assertEquals(gz.length(), part.getEnd());
+
+		AggregatedInputs.read(dir).addAll(Collections.singletonList(part));
+		assertNull(AggregatedInputs.read(dir).findNewPart(gz, true));
+
+		append(gz, " and more");
+
+		try {
+			AggregatedInputs.read(dir).findNewPart(gz, true);
+			fail();
+		} catch (final IOException e) {
+			// only the appended part would be aggregated
+		}
+	}
+
+	@Test
+	public void truncatedRecordIsNotRead() throws IOException {
+
+		final Path dir = this.folder.newFolder().toPath();
+		final File log = this.folder.newFile("latency.log");
+
+		append(log, "line 1\n");
+
+		final AggregatedInputs inputs = AggregatedInputs.read(dir);
+		inputs.addAll(Collections.singletonList(inputs.findNewPart(log, false)));
+
+		final Path record = dir.resolve("inputs");
+		final byte[] bytes = Files.readAllBytes(record);
+		Files.write(record, Arrays.copyOf(bytes, bytes.length - 1));
+
+		try {
+			AggregatedInputs.read(dir);
+			fail();
+		} catch (final IOException e) {
+			// truncated
+		}
+	}
+
+	private static void append(final File file, final String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class ColumnarRecordStoreTest {
+
+	private static final String HEADER = "test";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void plainRoundTrip() throws IOException {
+		assertRoundTrip(ColumnEncoding.PLAIN, 1);
+	}
+
+	@Test
+	public void gorillaRoundTrip() throws IOException {
+		assertRoundTrip(ColumnEncoding.GORILLA, 1);
+	}
+
+	@Test
+	public void gorillaRoundTripDecodedInParallel() throws IOException {
+		assertRoundTrip(ColumnEncoding.GORILLA, 4);
+	}
+
+	@Test
+	public void otherHeaderIsNotRead() throws IOException {
+
+		final Path file = this.folder.newFile().toPath();
+		ColumnarRecordStore.write(file, HEADER, createData(), ColumnEncoding.GORILLA);
+
+		assertNull(ColumnarRecordStore.read(file, "other", 1));
+	}
+
+	private void assertRoundTrip(final ColumnEncoding encoding, final int decodeThreads) throws IOException {
+
+		final Map<String, EventRecords> data = createData();
+		final Path file = this.folder.newFile().toPath();
+
+		ColumnarRecordStore.write(file, HEADER, data, encoding);
+		final Map<String, EventRecords> read = ColumnarRecordStore.read(file, HEADER, decodeThreads);
+
+		assertEquals(data.keySet(), read.keySet());
+
+		for (final Entry<String, EventRecords> entry : data.entrySet()) {
+
+			final EventRecords expected = entry.getValue();
+			final EventRecords actual = read.get(entry.getKey());
+
+			assertArrayEquals(entry.getKey(), expected.getTimestamps(), actual.getTimestamps());
+			assertArrayEquals(entry.getKey(), GorillaCodecTest.toRawBits(expected.getLatencies()), GorillaCodecTest.toRawBits(actual.getLatencies()));
+		}
+	}
+
+	/**
+	 * Event types of more than a segment, of exactly a segment, of a single
+	 * record, of raw random bits, and of decimal latencies with one that is
+	 * not.
+	 */
+	private static Map<String, EventRecords> createData() {
+
+		final Random random = new Random(1);
+		final Map<String, EventRecords> data = new TreeMap<>();
+
+		final int size = (2 * ColumnarRecordStore.SEGMENT_SIZE) + 123;
+		final long[] timestamps = new long[size];
+		final double[] latencies = new double[size];
+		long timestamp = 1420106400000L;
+
+		for (int i = 0; i < size; i++) {
+			timestamp += random.nextInt(100);
+			timestamps[i] = timestamp;
+			latencies[i] = Math.rint(Math.exp(random.nextGaussian()) * 1000) / 1000;
+		}
+
+		latencies[size / 2] = Double.NaN;
+		data.put("decimal", EventRecords.create(timestamps, latencies));
+
+		final long[] randomTimestamps = new long[ColumnarRecordStore.SEGMENT_SIZE];
+		final double[] randomLatencies = new double[ColumnarRecordStore.SEGMENT_SIZE];
+
+		for (int i = 0; i < randomTimestamps.length; i++) {
+			randomTimestamps[i] = random.nextLong();
+			randomLatencies[i] = Double.longBitsToDouble(random.nextLong());
+		}
+
+		data.put("random", EventRecords.create(randomTimestamps, randomLatencies));
+		data.put("single", EventRecords.create(new long[] { Long.MIN_VALUE }, new double[] { -0.0 }));
+
+		return data;
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class ExternalSortTest {
+
+	private static final int CHUNK_SIZE = 100;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void valuesInMemory() throws IOException {
+		assertSortedLikeArraysSort(createValues(CHUNK_SIZE), 1);
+	}
+
+	@Test
+	public void fewRuns() throws IOException {
+		assertSortedLikeArraysSort(createValues((10 * CHUNK_SIZE) + 1), 1);
+	}
+
+	@Test
+	public void maxMergeWidthRuns() throws IOException {
+		assertSortedLikeArraysSort(createValues(ExternalSort.MAX_MERGE_WIDTH * CHUNK_SIZE), 2);
+	}
+
+	/**
+	 * Groups of runs are merged before the final merge.
+	 */
+	@Test
+	public void moreRunsThanMaxMergeWidth() throws IOException {
+		assertSortedLikeArraysSort(createValues(((ExternalSort.MAX_MERGE_WIDTH + 1) * CHUNK_SIZE) + 1), 2);
+		assertSortedLikeArraysSort(createValues(3 * ExternalSort.MAX_MERGE_WIDTH * CHUNK_SIZE), 4);
+	}
+
+	@Test
+	public void selectedRanks() throws IOException {
+
+		final double[] values = createValues(50 * CHUNK_SIZE);
+
+		final double[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		final long[] ranks = { 0, 0, 1, values.length / 2, values.length / 2, values.length - 2, values.length - 1 };
+		final double[] expected = new double[ranks.length];
+
+		for (int i = 0; i < ranks.length; i++) {
+			expected[i] = sorted[(int) ranks[i]];
+		}
+
+		try (final ExternalSort sort = ExternalSort.create(this.folder.getRoot().toPath(), CHUNK_SIZE, 2);) {
+			sort.addAll(values);
+			assertArrayEquals(GorillaCodecTest.toRawBits(expected), GorillaCodecTest.toRawBits(sort.getValuesAtRanks(ranks)));
+		}
+	}
+
+	/**
+	 * Every rank, so that all the values are compared, and the runs are
+	 * deleted once the sort is closed.
+	 */
+	private void assertSortedLikeArraysSort(final double[] values, final int threadCount) throws IOException {
+
+		final double[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		final long[] ranks = new long[values.length];
+
+		for (int i = 0; i < ranks.length; i++) {
+			ranks[i] = i;
+		}
+
+		final File parentDir = this.folder.newFolder();
+
+		try (final ExternalSort sort = ExternalSort.create(parentDir.toPath(), CHUNK_SIZE, threadCount);) {
+
+			sort.addAll(values);
+			assertEquals(values.length, sort.size());
+
+			assertArrayEquals(GorillaCodecTest.toRawBits(sorted), GorillaCodecTest.toRawBits(sort.getValuesAtRanks(ranks)));
+		}
+
+		assertEquals(0, parentDir.list().length);
+	}
+
+	/**
+	 * Repeated values, zeros of both signs, infinities and NaNs among
+	 * latencies.
+	 */
+	private double[] createValues(final int count) {
+
+		final double[] special = { Double.NaN, -0.0, 0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1.5 };
+		final double[] values = new double[count];
+
+		for (int i = 0; i < count; i++) {
+			values[i] = this.random.nextInt(20) == 0 ? special[this.random.nextInt(special.length)] : Math.exp(this.random.nextGaussian() * 2);
+		}
+
+		return values;
+	}
+}
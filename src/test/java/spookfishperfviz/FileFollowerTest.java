@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.TimeZone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class FileFollowerTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void rotatedFileIsReadToItsEnd() throws IOException {
+
+		final File log = this.folder.newFile("latency.log");
+		final File rotated = new File(this.folder.getRoot(), "latency.log.1");
+
+		try (final FileFollower follower = createFollower(log);) {
+
+			append(log, line(1) + "\n" + line(2) + "\n");
+			assertTrue(follower.poll());
+			assertEquals(2, getRecordCount(follower));
+
+			// the last line is not read while it may still be being written
+			append(log, line(3) + "\n" + line(4));
+			assertTrue(follower.poll());
+			assertEquals(3, getRecordCount(follower));
+
+			// rotated out, and still written to
+			Files.move(log.toPath(), rotated.toPath());
+			append(rotated, "\n" + line(5));
+			assertTrue(follower.poll());
+			assertEquals(4, getRecordCount(follower));
+
+			// once the new file is created, the old one is read to its end, unterminated last line too
+			append(log, line(6) + "\n");
+			assertTrue(follower.poll());
+			assertEquals(6, getRecordCount(follower));
+
+			assertFalse(follower.poll());
+		}
+	}
+
+	@Test
+	public void truncatedFileIsReadAgain() throws IOException {
+
+		final File log = this.folder.newFile("latency.log");
+
+		try (final FileFollower follower = createFollower(log);) {
+
+			append(log, line(1) + "\n" + line(2) + "\n" + line(3) + "\n");
+			assertTrue(follower.poll());
+			assertEquals(3, getRecordCount(follower));
+
+			Files.write(log.toPath(), (line(4) + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+			assertTrue(follower.poll());
+			assertEquals(4, getRecordCount(follower));
+		}
+	}
+
+	private static FileFollower createFollower(final File log) {
+
+		final RecordParser parser = DelimitedRecordParser.create(LineFilter.create(null), ',', 0, 1, 1, 2, "yyyy-MM-dd HH:mm:ss.SSS", TimeZone.getTimeZone("UTC"));
+		return FileFollower.create(log, StandardCharsets.UTF_8, parser, RecordBuffers.create());
+	}
+
+	private static String line(final int n) {
+		return "2015-01-01 10:00:0" + n + ".000,GET /api,1" + n;
+	}
+
+	private static void append(final File file, final String text) throws IOException {
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private static long getRecordCount(final FileFollower follower) {
+
+		long count = 0;
+
+		for (final EventRecords records : follower.getRecordsByEventName().values()) {
+			count += records.size();
+		}
+
+		return count;
+	}
+}
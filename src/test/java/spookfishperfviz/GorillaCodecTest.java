@@ -0,0 +1,190 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class GorillaCodecTest {
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void regularTimestamps() {
+
+		final long[] values = new long[10000];
+		long timestamp = 1420106400000L;
+
+		for (int i = 0; i < values.length; i++) {
+			// mostly regular, with jitter in each size of delta-of-delta
+			timestamp += 1000 + ((i % 7) == 0 ? this.random.nextInt(5000) - 2500 : 0);
+			values[i] = timestamp;
+		}
+
+		assertTimestampsRoundTrip(values);
+	}
+
+	@Test
+	public void randomTimestamps() {
+
+		final long[] values = new long[10000];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = this.random.nextLong();
+		}
+
+		assertTimestampsRoundTrip(values);
+	}
+
+	/**
+	 * The deltas and their differences overflow 64 bits.
+	 */
+	@Test
+	public void extremeTimestamps() {
+		assertTimestampsRoundTrip(new long[] { Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, 0, Long.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE });
+	}
+
+	@Test
+	public void fewTimestamps() {
+		assertTimestampsRoundTrip(new long[] {});
+		assertTimestampsRoundTrip(new long[] { 1420106400000L });
+		assertTimestampsRoundTrip(new long[] { 7, 7, 7, 7 });
+	}
+
+	@Test
+	public void decimalLatencies() {
+
+		for (int digits = 0; digits <= 7; digits++) {
+
+			final double scale = Math.pow(10, digits);
+			final double[] values = new double[5000];
+
+			for (int i = 0; i < values.length; i++) {
+				values[i] = Math.rint(Math.exp(this.random.nextGaussian() * 3) * scale) / scale;
+			}
+
+			assertLatenciesRoundTrip(values);
+		}
+	}
+
+	@Test
+	public void negativeDecimalLatencies() {
+		assertLatenciesRoundTrip(new double[] { -1.5, 2.25, -1e6, 0, 3.125, -0.001 });
+	}
+
+	@Test
+	public void randomBitPatterns() {
+
+		final double[] values = new double[10000];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Double.longBitsToDouble(this.random.nextLong());
+		}
+
+		assertLatenciesRoundTrip(values);
+	}
+
+	@Test
+	public void specialLatencies() {
+		assertLatenciesRoundTrip(new double[] { Double.NaN, 1.5, Double.longBitsToDouble(0x7FF0000000000123L), -0.0, 0.0, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.NaN });
+		assertLatenciesRoundTrip(new double[] { 12.5, 12.5, -0.0, 12.5 });
+	}
+
+	@Test
+	public void singleValueRanges() {
+
+		assertLatenciesRoundTrip(new double[] {});
+		assertLatenciesRoundTrip(new double[] { 12.5 });
+		assertLatenciesRoundTrip(new double[] { Double.NaN });
+
+		for (final double value : new double[] { 0, 12.5, 1e15, -7, 0.1234567, Double.NaN, -0.0 }) {
+
+			final double[] values = new double[1000];
+			Arrays.fill(values, value);
+
+			assertLatenciesRoundTrip(values);
+		}
+	}
+
+	/**
+	 * The values are encoded in ranges, as the segments of a column are.
+	 */
+	private void assertTimestampsRoundTrip(final long[] values) {
+
+		final long[] decoded = new long[values.length];
+
+		for (final int[] range : createRanges(values.length)) {
+			final long[] words = GorillaCodec.encodeTimestamps(values, range[0], range[1]);
+			GorillaCodec.decodeTimestamps(words, decoded, range[0], range[1]);
+		}
+
+		assertArrayEquals(values, decoded);
+	}
+
+	private void assertLatenciesRoundTrip(final double[] values) {
+
+		final double[] decoded = new double[values.length];
+
+		for (final int[] range : createRanges(values.length)) {
+			final long[] words = GorillaCodec.encodeLatencies(values, range[0], range[1]);
+			GorillaCodec.decodeLatencies(words, decoded, range[0], range[1]);
+		}
+
+		assertArrayEquals(toRawBits(values), toRawBits(decoded));
+	}
+
+	/**
+	 * @return the whole of the values as one range, followed by ranges of
+	 *         random lengths, some of them single values, that cover them.
+	 */
+	private int[][] createRanges(final int length) {
+
+		final int[][] ranges = new int[length + 1][];
+		ranges[0] = new int[] { 0, length };
+
+		int count = 1;
+
+		for (int from = 0; from < length;) {
+			final int to = Math.min(length, from + (this.random.nextBoolean() ? 1 : 1 + this.random.nextInt(3000)));
+			ranges[count++] = new int[] { from, to };
+			from = to;
+		}
+
+		return Arrays.copyOf(ranges, count);
+	}
+
+	static long[] toRawBits(final double[] values) {
+
+		final long[] bits = new long[values.length];
+
+		for (int i = 0; i < values.length; i++) {
+			bits[i] = Double.doubleToRawLongBits(values[i]);
+		}
+
+		return bits;
+	}
+}
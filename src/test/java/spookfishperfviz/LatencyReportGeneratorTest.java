@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the way the records are kept, on the heap, off the heap or
+ * spilled to disk, does not change the report.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class LatencyReportGeneratorTest {
+
+	private static final int RECORD_COUNT = 50000;
+	private static final int EVENT_TYPE_COUNT = 5;
+
+	/**
+	 * Fewer than the records of the most frequent event types of the log, and
+	 * more than those of the others.
+	 */
+	private static final String SPILL_MAX_EVENT_RECORDS = "8000";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void offHeapReportIsTheSameAsHeapReport() throws Exception {
+		assertSameReportOffHeap();
+	}
+
+	@Test
+	public void offHeapReportIsTheSameAsHeapReportWithSketch() throws Exception {
+		assertSameReportOffHeap("-percentileMode", "SKETCH", "-verifyPercentileSketch", "true");
+	}
+
+	@Test
+	public void offHeapReportIsTheSameAsHeapReportWithBuckets() throws Exception {
+		assertSameReportOffHeap("-histogramSignificantDigits", "2");
+	}
+
+	@Test
+	public void spilledReportIsTheSameAsHeapReport() throws Exception {
+		assertSameReportSpilled();
+	}
+
+	/**
+	 * Not in sketch mode, since the sketch of all the event types combined
+	 * sees the spilled records in another order.
+	 */
+	@Test
+	public void spilledReportIsTheSameAsHeapReportWithBuckets() throws Exception {
+		assertSameReportSpilled("-histogramSignificantDigits", "2");
+	}
+
+	private void assertSameReportOffHeap(final String... options) throws Exception {
+		assertSameReport(options, "-recordStorage", "OFF_HEAP", "-offHeapDir", this.folder.newFolder().getPath());
+	}
+
+	private void assertSameReportSpilled(final String... options) throws Exception {
+		assertSameReport(options, "-spill", "true", "-spillMaxEventRecords", SPILL_MAX_EVENT_RECORDS, "-spillPartitions", "3", "-spillDir", this.folder.newFolder().getPath());
+	}
+
+	private void assertSameReport(final String[] options, final String... storageOptions) throws Exception {
+
+		final File log = writeLog();
+
+		final String heapReport = generateReport(log, options);
+		final String otherReport = generateReport(log, concat(options, storageOptions));
+
+		assertEquals(heapReport, otherReport);
+	}
+
+	/**
+	 * @return the report, with the ids of its links numbered from the start
+	 *         of each report.
+	 */
+	private String generateReport(final File log, final String... options) throws Exception {
+
+		final File report = this.folder.newFile();
+
+		final String[] args = {
+				"-task", "GenerateLatencyReport",
+				"-inFile", log.getPath(),
+				"-outFile", report.getPath(),
+				"-parser", "DELIMITED",
+				"-delimiter", ",",
+				"-timestampColumn", "0",
+				"-eventNameColumn", "1",
+				"-latencyColumn", "2",
+				"-timestampPattern", "yyyy-MM-dd HH:mm:ss.SSS",
+				"-inputTimeZone", "UTC",
+				"-outputTimeZone", "UTC",
+				"-latencyUnit", "MILLISECONDS",
+				"-percentilePoints", "50,90,99,99.9",
+				"-histogramIntervalPoints", "1,10,100,1000" };
+
+		LatencyReportGenerator.run(Options.create(concat(args, options)));
+
+		final String html = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+
+		// the ids of the links are numbered across the reports of a JVM
+		return html.replaceAll("link[0-9]+", "link");
+	}
+
+	private File writeLog() throws IOException {
+
+		final File log = this.folder.newFile("latency.log");
+
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		final Random random = new Random(1);
+
+		// 10:00 UTC on 1 January 2015, for three hours
+		long timestamp = 1420106400000L;
+
+		try (final PrintWriter out = new PrintWriter(log, "UTF-8");) {
+			for (int i = 0; i < RECORD_COUNT; i++) {
+
+				timestamp += random.nextInt(430);
+
+				// from about 36% of the records for the first event type to 4% for the last
+				final int eventType = Math.min(random.nextInt(EVENT_TYPE_COUNT), random.nextInt(EVENT_TYPE_COUNT));
+				final double latency = Math.rint(Math.exp((random.nextGaussian() * 1.5) + eventType) * 1000) / 1000;
+
+				out.println(format.format(new Date(timestamp)) + ",GET /api/" + eventType + "," + latency);
+			}
+		}
+
+		return log;
+	}
+
+	private static String[] concat(final String[] first, final String... second) {
+		final List<String> all = new ArrayList<>(Arrays.asList(first));
+		all.addAll(Arrays.asList(second));
+		return all.toArray(new String[all.size()]);
+	}
+}
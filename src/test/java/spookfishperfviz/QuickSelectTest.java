@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class QuickSelectTest {
+
+	private final Random random = new Random(1);
+
+	@Test
+	public void randomValues() {
+
+		for (final int n : new int[] { 1, 2, 31, 32, 33, 1000, 100000 }) {
+
+			final double[] values = new double[n];
+
+			for (int i = 0; i < n; i++) {
+				values[i] = this.random.nextGaussian();
+			}
+
+			assertSelectedLikeArraysSort(values);
+		}
+	}
+
+	/**
+	 * More values than are selected on a single thread.
+	 */
+	@Test
+	public void manyValues() {
+
+		final double[] values = new double[300000];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(this.random.nextGaussian() * 2);
+		}
+
+		assertSelectedLikeArraysSort(values);
+	}
+
+	@Test
+	public void repeatedValues() {
+
+		final double[] values = new double[50000];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = this.random.nextInt(3);
+		}
+
+		assertSelectedLikeArraysSort(values);
+
+		Arrays.fill(values, 7);
+		assertSelectedLikeArraysSort(values);
+	}
+
+	@Test
+	public void sortedValues() {
+
+		final double[] values = new double[50000];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i;
+		}
+
+		assertSelectedLikeArraysSort(values);
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = -i;
+		}
+
+		assertSelectedLikeArraysSort(values);
+	}
+
+	@Test
+	public void specialValues() {
+		assertSelectedLikeArraysSort(new double[] { 3, Double.NaN, -0.0, 0.0, Double.POSITIVE_INFINITY, -1, Double.NEGATIVE_INFINITY, 0.0, -0.0, 2 });
+	}
+
+	private void assertSelectedLikeArraysSort(final double[] values) {
+
+		final double[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		final int n = values.length;
+		final int[] ranks = { 0, n - 1, (n - 1) / 2, n / 2, this.random.nextInt(n), this.random.nextInt(n), (int) (n * 0.99), (int) (n * 0.999), n / 2 };
+
+		final double[] original = values.clone();
+		final double[] selected = QuickSelect.select(values, ranks);
+
+		for (final int rank : ranks) {
+			assertEquals("rank " + rank, Double.doubleToRawLongBits(sorted[rank]), Double.doubleToRawLongBits(selected[rank]));
+		}
+
+		// a copy is selected from
+		assertArrayEquals(GorillaCodecTest.toRawBits(original), GorillaCodecTest.toRawBits(values));
+	}
+}
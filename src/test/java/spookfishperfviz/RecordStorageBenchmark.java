@@ -0,0 +1,185 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares keeping records on the heap with keeping them off the heap, by
+ * appending random records of a number of event types, reading the columns
+ * of each event type back, and then generating the report of the records.
+ * For each {@linkplain RecordStorage}, prints the time taken by each step,
+ * the time spent in garbage collection, the heap used once the records are
+ * appended, and the time of a full garbage collection while the records are
+ * kept. The buffers of the records kept off the heap are released after
+ * each round.
+ * <p>
+ * Usage: <code>RecordStorageBenchmark [recordCount [eventTypeCount]]</code>,
+ * run with the test classes on the class path. The records kept off the
+ * heap, and the report, are written to a temporary directory.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+final class RecordStorageBenchmark {
+
+	private static final double[] HISTOGRAM_INTERVAL_POINTS = { 1, 10, 50, 100 };
+	private static final double[] PERCENTILE_KEYS = { 50, 90, 99, 99.9 };
+	private static final double HEAT_MAP_SINGLE_AREA_WIDTH = 20;
+
+	public static void main(final String[] args) throws IOException {
+
+		final int recordCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+		final int eventTypeCount = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		final String[] eventTypes = new String[eventTypeCount];
+		for (int i = 0; i < eventTypeCount; i++) {
+			eventTypes[i] = "GET /api/endpoint/" + i;
+		}
+
+		System.out.println("Records <" + recordCount + ">, event types <" + eventTypeCount + ">, max heap <" + toMB(Runtime.getRuntime().maxMemory()) + " MB>");
+
+		// twice, so that the second round runs with warmed up code
+		for (int round = 1; round <= 2; round++) {
+			for (final RecordStorage storage : RecordStorage.values()) {
+				run(storage, recordCount, eventTypes, round);
+			}
+		}
+	}
+
+	private static void run(final RecordStorage storage, final int recordCount, final String[] eventTypes, final int round) throws IOException {
+
+		final Path dir = Files.createTempDirectory("records");
+		final Path reportFile = dir.resolve("report.html");
+
+		final OffHeapBuffers offHeapBuffers = storage == RecordStorage.OFF_HEAP ? OffHeapBuffers.create(dir) : null;
+
+		try {
+			System.gc();
+
+			final long gcTimeBefore = getGcTime();
+			final long appendStart = System.nanoTime();
+
+			final RecordBuffers buffers = RecordBuffers.create(0, offHeapBuffers);
+			final Random random = new Random(round);
+
+			long timestamp = 1416477600000L;
+
+			for (int i = 0; i < recordCount; i++) {
+				final String eventType = eventTypes[random.nextInt(eventTypes.length)];
+				timestamp += random.nextInt(3);
+				buffers.add(eventType, timestamp, Math.rint(random.nextDouble() * 100000) / 1000);
+			}
+
+			final Map<String, EventRecords> data = buffers.getRecordsByEventName();
+
+			final long appendNanos = System.nanoTime() - appendStart;
+			final long appendGcTime = getGcTime() - gcTimeBefore;
+
+			final long fullGcStart = System.nanoTime();
+			System.gc();
+			final long fullGcNanos = System.nanoTime() - fullGcStart;
+
+			final Runtime runtime = Runtime.getRuntime();
+			final long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+
+			final long scanGcTimeBefore = getGcTime();
+			final long scanStart = System.nanoTime();
+
+			double sum = 0;
+			long count = 0;
+
+			for (final EventRecords records : data.values()) {
+
+				final long[] timestamps = records.getTimestamps();
+				final double[] latencies = records.getLatencies();
+
+				for (int i = 0; i < latencies.length; i++) {
+					sum += latencies[i];
+					count += timestamps[i] & 1;
+				}
+			}
+
+			final long scanNanos = System.nanoTime() - scanStart;
+			final long scanGcTime = getGcTime() - scanGcTimeBefore;
+
+			final long reportGcTimeBefore = getGcTime();
+			final long reportStart = System.nanoTime();
+
+			LatencyReportGenerator.generateReport(	data, 
+													offHeapBuffers == null ? null : dir, 
+													TimeUnit.MILLISECONDS, 
+													TimeZone.getTimeZone("UTC"), 
+													HISTOGRAM_INTERVAL_POINTS, 
+													PERCENTILE_KEYS, 
+													null, 
+													HEAT_MAP_SINGLE_AREA_WIDTH, 
+													ColorRampScheme.DEFAULT, 
+													reportFile.toString());
+
+			final long reportNanos = System.nanoTime() - reportStart;
+			final long reportGcTime = getGcTime() - reportGcTimeBefore;
+
+			System.out.println(String.format("Round %d, %-8s : append %6d ms (GC %5d ms), heap used %6d MB, full GC %5d ms, scan %5d ms (GC %5d ms), report %6d ms (GC %5d ms) [%s %d]", 
+					Integer.valueOf(round), storage, 
+					Long.valueOf(TimeUnit.NANOSECONDS.toMillis(appendNanos)), Long.valueOf(appendGcTime), 
+					Long.valueOf(toMB(heapUsed)), Long.valueOf(TimeUnit.NANOSECONDS.toMillis(fullGcNanos)), 
+					Long.valueOf(TimeUnit.NANOSECONDS.toMillis(scanNanos)), Long.valueOf(scanGcTime), 
+					Long.valueOf(TimeUnit.NANOSECONDS.toMillis(reportNanos)), Long.valueOf(reportGcTime), 
+					Double.valueOf(sum), Long.valueOf(count)));
+
+		} finally {
+			if (offHeapBuffers != null) {
+				offHeapBuffers.release();
+			}
+
+			Files.deleteIfExists(reportFile);
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	/**
+	 * @return milliseconds spent in garbage collection since the JVM started.
+	 */
+	private static long getGcTime() {
+
+		long time = 0;
+
+		for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+
+		return time;
+	}
+
+	private static long toMB(final long bytes) {
+		return bytes / (1024 * 1024);
+	}
+
+	private RecordStorageBenchmark() {
+		//
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class RollupStoreTest {
+
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+	private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * 1 January 2015, 00:00 UTC.
+	 */
+	private static final long FIRST_DAY = 1420070400000L;
+	private static final int DAY_COUNT = 3;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void addedRecordsAreReadBack() throws IOException {
+
+		final Path dir = this.folder.newFolder().toPath();
+		final Map<String, EventRecords> data = createData();
+
+		assertEquals(DAY_COUNT, RollupStore.create(dir).add(data));
+
+		final Map<String, RollupStore.Series> read = RollupStore.create(dir).read(Long.MIN_VALUE, Long.MAX_VALUE);
+
+		assertEquals(data.keySet(), read.keySet());
+
+		for (final Entry<String, EventRecords> entry : data.entrySet()) {
+
+			final Map<Long, LatencyRollup> expected = rollUp(entry.getValue(), MINUTE);
+			final RollupStore.Series actual = read.get(entry.getKey());
+
+			assertEquals(expected.keySet(), actual.getPeriods().keySet());
+
+			for (final Entry<Long, LatencyRollup> period : expected.entrySet()) {
+				assertEquals(MINUTE, actual.getPeriodMillis(period.getKey()));
+				assertSameRollup(period.getValue(), actual.getPeriods().get(period.getKey()));
+			}
+		}
+	}
+
+	@Test
+	public void periodsInRangeAreRead() throws IOException {
+
+		final Path dir = this.folder.newFolder().toPath();
+		final Map<String, EventRecords> data = createData();
+
+		final RollupStore store = RollupStore.create(dir);
+		store.add(data);
+
+		final long from = FIRST_DAY + DAY + (7 * HOUR) + (13 * MINUTE);
+		final long to = from + DAY;
+
+		final Map<String, RollupStore.Series> read = store.read(from, to);
+
+		for (final Entry<String, EventRecords> entry : data.entrySet()) {
+
+			final Map<Long, LatencyRollup> expected = rollUp(entry.getValue(), MINUTE).subMap(Long.valueOf(from), Long.valueOf(to));
+			final Map<Long, LatencyRollup> actual = read.get(entry.getKey()).getPeriods();
+
+			assertEquals(expected.keySet(), actual.keySet());
+
+			for (final Entry<Long, LatencyRollup> period : expected.entrySet()) {
+				assertSameRollup(period.getValue(), actual.get(period.getKey()));
+			}
+		}
+	}
+
+	@Test
+	public void downsampledRollupsKeepAllRecords() throws IOException {
+
+		final Path dir = this.folder.newFolder().toPath();
+		final Map<String, EventRecords> data = createData();
+
+		final RollupStore store = RollupStore.create(dir);
+		store.add(data);
+
+		final long now = FIRST_DAY + ((DAY_COUNT + 1) * DAY);
+
+		assertEquals(DAY_COUNT, store.downsample(1, now));
+		assertEquals(0, store.downsample(1, now));
+
+		final Map<String, RollupStore.Series> read = RollupStore.create(dir).read(Long.MIN_VALUE, Long.MAX_VALUE);
+
+		for (final Entry<String, EventRecords> entry : data.entrySet()) {
+
+			final Map<Long, LatencyRollup> expected = rollUp(entry.getValue(), HOUR);
+			final RollupStore.Series actual = read.get(entry.getKey());
+
+			assertEquals(expected.keySet(), actual.getPeriods().keySet());
+			assertEquals(entry.getValue().size(), actual.getTotal().getCount());
+
+			for (final Entry<Long, LatencyRollup> period : expected.entrySet()) {
+
+				final LatencyRollup rollup = actual.getPeriods().get(period.getKey());
+
+				assertEquals(HOUR, actual.getPeriodMillis(period.getKey()));
+				assertEquals(period.getValue().getCount(), rollup.getCount());
+				assertEquals(period.getValue().getMin(), rollup.getMin(), 0);
+				assertEquals(period.getValue().getMax(), rollup.getMax(), 0);
+			}
+		}
+	}
+
+	/**
+	 * @return the rollups of the records by the start of their periods, each
+	 *         record added in order, as the store adds them.
+	 */
+	private static TreeMap<Long, LatencyRollup> rollUp(final EventRecords records, final long periodMillis) {
+
+		final long[] timestamps = records.getTimestamps();
+		final double[] latencies = records.getLatencies();
+
+		final TreeMap<Long, LatencyRollup> rollups = new TreeMap<>();
+
+		for (int i = 0; i < timestamps.length; i++) {
+
+			// the timestamps are not negative
+			final Long period = Long.valueOf(timestamps[i] - (timestamps[i] % periodMillis));
+
+			LatencyRollup rollup = rollups.get(period);
+			if (rollup == null) {
+				rollup = LatencyRollup.create();
+				rollups.put(period, rollup);
+			}
+
+			rollup.add(latencies[i]);
+		}
+
+		return rollups;
+	}
+
+	private static void assertSameRollup(final LatencyRollup expected, final LatencyRollup actual) {
+
+		final long n = expected.getCount();
+
+		assertEquals(n, actual.getCount());
+		assertEquals(expected.getMin(), actual.getMin(), 0);
+		assertEquals(expected.getMax(), actual.getMax(), 0);
+		assertEquals(expected.getMean(), actual.getMean(), 0);
+		assertEquals(expected.getM2(), actual.getM2(), 0);
+		assertEquals(expected.getM3(), actual.getM3(), 0);
+		assertEquals(expected.getM4(), actual.getM4(), 0);
+
+		for (final long rank : new long[] { 0, (n - 1) / 2, n / 2, n - 1 }) {
+			assertEquals(expected.getValueAtRank(rank), actual.getValueAtRank(rank), 0);
+		}
+	}
+
+	/**
+	 * Records of three event types, over {@value #DAY_COUNT} days.
+	 */
+	private static Map<String, EventRecords> createData() {
+
+		final Random random = new Random(1);
+		final Map<String, EventRecords> data = new TreeMap<>();
+
+		for (int e = 0; e < 3; e++) {
+
+			final int size = 5000 * (e + 1);
+			final long[] timestamps = new long[size];
+			final double[] latencies = new double[size];
+
+			for (int i = 0; i < size; i++) {
+				timestamps[i] = FIRST_DAY + (long) (random.nextDouble() * DAY_COUNT * DAY);
+				latencies[i] = Math.exp(random.nextGaussian() + e);
+			}
+
+			data.put("event" + e, EventRecords.create(timestamps, latencies));
+		}
+
+		return data;
+	}
+}
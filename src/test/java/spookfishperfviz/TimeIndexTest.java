@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class TimeIndexTest {
+
+	private static final String PARSER_KEY = "delimited";
+
+	/**
+	 * Several blocks of the index.
+	 */
+	private static final int LINE_COUNT = 100000;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private long[] lineStarts;
+	private long[] timestamps;
+
+	@Test
+	public void indexIsReadBack() throws IOException {
+
+		final File log = writeLog();
+		final Path indexFile = TimeIndex.getIndexFile(this.folder.newFolder().toPath(), log, PARSER_KEY);
+
+		final TimeIndex built = TimeIndex.build(log, StandardCharsets.UTF_8, createParserSupplier(), 3);
+		built.write(indexFile, log, PARSER_KEY);
+
+		final TimeIndex read = TimeIndex.read(indexFile, log, PARSER_KEY);
+		assertNotNull(read);
+
+		final Random random = new Random(2);
+		final long first = this.timestamps[0];
+		final long last = this.timestamps[LINE_COUNT - 1];
+
+		for (int i = 0; i < 100; i++) {
+
+			final long from = first + (long) (random.nextDouble() * (last - first));
+			final long to = from + random.nextInt(1000000);
+
+			final long[] range = read.getByteRange(from, to);
+
+			assertArrayEquals(built.getByteRange(from, to), range);
+			assertHasRecordsOfRange(log, range, from, to);
+		}
+	}
+
+	@Test
+	public void indexOfChangedFileIsNotRead() throws IOException {
+
+		final File log = writeLog();
+		final Path indexFile = TimeIndex.getIndexFile(this.folder.newFolder().toPath(), log, PARSER_KEY);
+
+		assertNull(TimeIndex.read(indexFile, log, PARSER_KEY));
+
+		TimeIndex.build(log, StandardCharsets.UTF_8, createParserSupplier(), 1).write(indexFile, log, PARSER_KEY);
+
+		assertNotNull(TimeIndex.read(indexFile, log, PARSER_KEY));
+		assertNull(TimeIndex.read(indexFile, log, "other"));
+
+		Files.write(log.toPath(), "2015-01-01 10:00:00.000,GET /api,1\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		assertNull(TimeIndex.read(indexFile, log, PARSER_KEY));
+	}
+
+	/**
+	 * Every record of the range is in the byte range.
+	 */
+	private void assertHasRecordsOfRange(final File log, final long[] range, final long from, final long to) {
+
+		for (int i = 0; i < LINE_COUNT; i++) {
+			if ((this.timestamps[i] >= from) && (this.timestamps[i] < to)) {
+				final long lineEnd = i + 1 < LINE_COUNT ? this.lineStarts[i + 1] : log.length();
+				assertTrue("line " + i, (this.lineStarts[i] >= range[0]) && (lineEnd <= range[1]));
+			}
+		}
+	}
+
+	/**
+	 * Records that are not sorted by timestamp, but are nearly so.
+	 */
+	private File writeLog() throws IOException {
+
+		final File log = this.folder.newFile("latency.log");
+
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		final Random random = new Random(1);
+
+		this.lineStarts = new long[LINE_COUNT];
+		this.timestamps = new long[LINE_COUNT];
+
+		long offset = 0;
+
+		try (final PrintWriter out = new PrintWriter(log, "UTF-8");) {
+			for (int i = 0; i < LINE_COUNT; i++) {
+
+				final long timestamp = 1420106400000L + (i * 100L) + random.nextInt(50000);
+				final String line = format.format(new Date(timestamp)) + ",GET /api/" + random.nextInt(5) + "," + random.nextInt(1000) + "\n";
+
+				this.lineStarts[i] = offset;
+				this.timestamps[i] = timestamp;
+
+				out.print(line);
+				offset += line.length();
+			}
+		}
+
+		return log;
+	}
+
+	private static Supplier<RecordParser> createParserSupplier() {
+		return new Supplier<RecordParser>() {
+			@Override
+			public RecordParser get() {
+				return DelimitedRecordParser.create(LineFilter.create(null), ',', 0, 1, 1, 2, "yyyy-MM-dd HH:mm:ss.SSS", TimeZone.getTimeZone("UTC"));
+			}
+		};
+	}
+}
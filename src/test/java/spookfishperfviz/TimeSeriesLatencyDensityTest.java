@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 Rahul Bakale
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package spookfishperfviz;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks that the heat map and the bar chart of rollups count the records
+ * in the same periods as those of the raw records.
+ *
+ * @author Rahul Bakale
+ * @since Jan, 2015
+ */
+public class TimeSeriesLatencyDensityTest {
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	@Test
+	public void rollupsAreCountedInTheColumnsOfTheirRecords() {
+		checkColumnTotals(TimeUnit.HOURS.toMillis(2), 1);
+	}
+
+	@Test
+	public void rollupsAreCountedInTheColumnsOfTheirRecordsOverManyHours() {
+		checkColumnTotals(TimeUnit.HOURS.toMillis(9), 2);
+	}
+
+	private static void checkColumnTotals(final long duration, final long seed) {
+
+		final Random random = new Random(seed);
+		final int n = 100000;
+
+		final long[] timestamps = new long[n];
+		final double[] latencies = new double[n];
+
+		// starts at 10:00 UTC, so that the first column begins with the first minute
+		final long start = 1420106400000L;
+
+		for (int i = 0; i < n; i++) {
+
+			long timestamp = start + (long) (random.nextDouble() * duration);
+
+			// records at the millisecond that separates two columns are counted in the later column by rollups
+			if ((timestamp % TimeUnit.MINUTES.toMillis(1)) == 0) {
+				timestamp++;
+			}
+
+			timestamps[i] = timestamp;
+			latencies[i] = random.nextDouble() * 1000;
+		}
+
+		final RollupStore.Series rollups = new RollupStore.Series();
+		rollups.add(timestamps, latencies);
+
+		final long[] expected = TimeSeriesLatencyDensity.create(latencies, timestamps, UTC, null).getColumnTotals();
+
+		assertArrayEquals(expected, TimeSeriesLatencyDensity.create(rollups, UTC, null, false).getColumnTotals());
+		assertArrayEquals(expected, TimeSeriesLatencyDensity.create(rollups, UTC, null, true).getColumnTotals());
+	}
+}